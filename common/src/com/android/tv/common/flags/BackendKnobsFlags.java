@@ -30,6 +30,9 @@ public interface BackendKnobsFlags {
     /** Number of channels to batch together when fetching programs */
     long epgFetcherChannelsPerProgramFetch();
 
+    /** Number of program fetches which can run at the same time */
+    long epgFetcherConcurrentProgramFetches();
+
     /** EPG fetcher interval in hours */
     long epgFetcherIntervalHour();
 
@@ -29,4 +29,7 @@ public interface DvrFlags {
 
     /** Allow user to customize timings of program recordings. */
     boolean startEarlyEndLateEnabled();
+
+    /** Query the programs of the schedules in batches when syncing the DVR DB with TvProvider. */
+    boolean batchedProgramSyncEnabled();
 }
@@ -27,6 +27,13 @@ public interface UiFlags {
      */
     boolean compiled();
 
+    /**
+     * Reuse the bitmaps no longer drawn when decoding images.
+     *
+     * <p>Turn off to compare the image loading performance without the reuse.
+     */
+    boolean enableBitmapPool();
+
     /** Critic Ratings */
     boolean enableCriticRatings();
 
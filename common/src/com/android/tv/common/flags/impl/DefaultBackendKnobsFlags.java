@@ -19,6 +19,9 @@ package com.android.tv.common.flags.impl;
 public final class DefaultBackendKnobsFlags
         implements com.android.tv.common.flags.BackendKnobsFlags {
 
+    private long mEpgFetcherChannelsPerProgramFetch = 50;
+    private long mEpgFetcherConcurrentProgramFetches = 3;
+
     @Override
     public boolean compiled() {
         return true;
@@ -26,7 +29,20 @@ public final class DefaultBackendKnobsFlags
 
     @Override
     public long epgFetcherChannelsPerProgramFetch() {
-        return 50;
+        return mEpgFetcherChannelsPerProgramFetch;
+    }
+
+    public void setEpgFetcherChannelsPerProgramFetch(long value) {
+        mEpgFetcherChannelsPerProgramFetch = value;
+    }
+
+    @Override
+    public long epgFetcherConcurrentProgramFetches() {
+        return mEpgFetcherConcurrentProgramFetches;
+    }
+
+    public void setEpgFetcherConcurrentProgramFetches(long value) {
+        mEpgFetcherConcurrentProgramFetches = value;
     }
 
     @Override
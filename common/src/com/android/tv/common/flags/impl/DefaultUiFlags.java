@@ -25,6 +25,11 @@ public class DefaultUiFlags implements UiFlags {
         return true;
     }
 
+    @Override
+    public boolean enableBitmapPool() {
+        return true;
+    }
+
     @Override
     public boolean enableCriticRatings() {
         return false;
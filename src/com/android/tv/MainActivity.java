@@ -150,6 +150,7 @@ import com.android.tv.util.AsyncDbTask;
 import com.android.tv.util.AsyncDbTask.DbExecutor;
 import com.android.tv.util.CaptionSettings;
 import com.android.tv.util.OnboardingUtils;
+import com.android.tv.util.PartitionedDbExecutor;
 import com.android.tv.util.SetupUtils;
 import com.android.tv.util.TvInputManagerHelper;
 import com.android.tv.util.TvSettings;
@@ -157,6 +158,7 @@ import com.android.tv.util.TvTrackInfoUtils;
 import com.android.tv.util.Utils;
 import com.android.tv.util.ViewCache;
 import com.android.tv.util.account.AccountHelper;
+import com.android.tv.util.images.BitmapPool;
 import com.android.tv.util.images.ImageCache;
 
 import com.google.common.base.Optional;
@@ -591,6 +593,7 @@ public class MainActivity extends Activity
         mChannelTuner.addListener(mChannelTunerListener);
         mChannelTuner.start();
         mMemoryManageables.add(mProgramDataManager);
+        BitmapPool.getInstance().setEnabled(mUiFlags.enableBitmapPool());
         mMemoryManageables.add(ImageCache.getInstance());
         mMemoryManageables.add(TvContentRatingCache.getInstance());
         if (CommonFeatures.DVR.isEnabled(this)) {
@@ -1599,6 +1602,11 @@ public class MainActivity extends Activity
             mChannelIdFromIntent = channelId;
         }
 
+        @Override
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_USER_VISIBLE;
+        }
+
         @Override
         protected Program onQuery(Cursor c) {
             Program program = null;
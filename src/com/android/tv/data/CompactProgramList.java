@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data;
+
+import android.media.tv.TvContract.Programs.Genres;
+import android.support.annotation.Nullable;
+
+import com.android.tv.data.api.Program;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of the programs of a channel, sorted by start time, which stores the fields of
+ * the partial projection in columns instead of {@link Program} objects.
+ *
+ * <p>The time columns are primitive arrays, so the list can be searched by time without creating
+ * any object. The strings are shared between the lists built with the same {@link StringPool},
+ * since many programs have the same title or genres. A {@link Program} is created only when it's
+ * requested by {@link #get}, and then it's kept for the later calls.
+ *
+ * <p>Programs which have more data than the partial projection, like the current programs and the
+ * stub programs, are kept as they are.
+ */
+final class CompactProgramList extends AbstractList<Program> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long mChannelId;
+    private final int mSize;
+    private final long[] mIds;
+    private final long[] mStartTimesUtcMillis;
+    private final long[] mEndTimesUtcMillis;
+    private final String[] mTitles;
+    private final String[] mEpisodeTitles;
+    private final String[] mCanonicalGenres;
+    // The programs given as objects. It's null if there's no such program.
+    @Nullable private final Program[] mPinnedPrograms;
+    // The programs created by get(). Guarded by this.
+    @Nullable private Program[] mMaterializedPrograms;
+
+    private CompactProgramList(Builder builder) {
+        mChannelId = builder.mChannelId;
+        mSize = builder.mSize;
+        mIds = Arrays.copyOf(builder.mIds, mSize);
+        mStartTimesUtcMillis = Arrays.copyOf(builder.mStartTimesUtcMillis, mSize);
+        mEndTimesUtcMillis = Arrays.copyOf(builder.mEndTimesUtcMillis, mSize);
+        mTitles = Arrays.copyOf(builder.mTitles, mSize);
+        mEpisodeTitles = Arrays.copyOf(builder.mEpisodeTitles, mSize);
+        mCanonicalGenres = Arrays.copyOf(builder.mCanonicalGenres, mSize);
+        mPinnedPrograms =
+                builder.mPinnedPrograms == null
+                        ? null
+                        : Arrays.copyOf(builder.mPinnedPrograms, mSize);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Program get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + mSize);
+        }
+        if (mPinnedPrograms != null && mPinnedPrograms[index] != null) {
+            return mPinnedPrograms[index];
+        }
+        synchronized (this) {
+            if (mMaterializedPrograms == null) {
+                mMaterializedPrograms = new Program[mSize];
+            }
+            Program program = mMaterializedPrograms[index];
+            if (program == null) {
+                program =
+                        new ProgramImpl.Builder()
+                                .setId(mIds[index])
+                                .setChannelId(mChannelId)
+                                .setTitle(mTitles[index])
+                                .setEpisodeTitle(mEpisodeTitles[index])
+                                .setCanonicalGenres(mCanonicalGenres[index])
+                                .setStartTimeUtcMillis(mStartTimesUtcMillis[index])
+                                .setEndTimeUtcMillis(mEndTimesUtcMillis[index])
+                                .build();
+                mMaterializedPrograms[index] = program;
+            }
+            return program;
+        }
+    }
+
+    /** Returns the ID of the channel of the programs. */
+    long getChannelId() {
+        return mChannelId;
+    }
+
+    /** Returns the ID of the program at {@code index} without creating the program. */
+    long getId(int index) {
+        return mIds[index];
+    }
+
+    /** Returns the start time of the program at {@code index} without creating the program. */
+    long getStartTimeUtcMillis(int index) {
+        return mStartTimesUtcMillis[index];
+    }
+
+    /** Returns the end time of the program at {@code index} without creating the program. */
+    long getEndTimeUtcMillis(int index) {
+        return mEndTimesUtcMillis[index];
+    }
+
+    /** Returns the title of the program at {@code index} without creating the program. */
+    @Nullable
+    String getTitle(int index) {
+        Program pinned = getPinnedProgram(index);
+        return pinned == null ? mTitles[index] : pinned.getTitle();
+    }
+
+    /** Returns the episode title of the program at {@code index} without creating the program. */
+    @Nullable
+    String getEpisodeTitle(int index) {
+        Program pinned = getPinnedProgram(index);
+        return pinned == null ? mEpisodeTitles[index] : pinned.getEpisodeTitle();
+    }
+
+    /**
+     * Returns the encoded canonical genres of the program at {@code index} without creating the
+     * program.
+     */
+    @Nullable
+    String getCanonicalGenres(int index) {
+        Program pinned = getPinnedProgram(index);
+        return pinned == null
+                ? mCanonicalGenres[index]
+                : Genres.encode(pinned.getCanonicalGenres());
+    }
+
+    /** Returns {@code true} if the program at {@code index} is a stub which fills a gap. */
+    boolean isStub(int index) {
+        Program pinned = getPinnedProgram(index);
+        return pinned != null && pinned.getChannelId() != mChannelId;
+    }
+
+    /** Returns the end time of the last program, or {@code 0} if the list is empty. */
+    long getLastEndTimeUtcMillis() {
+        return mSize == 0 ? 0 : mEndTimesUtcMillis[mSize - 1];
+    }
+
+    /**
+     * Returns the index of the program which is played at the given time. If there isn't, returns
+     * the index of the first program which starts after the time.
+     */
+    int getProgramIndexAt(long timeMs) {
+        int index = Arrays.binarySearch(mStartTimesUtcMillis, 0, mSize, timeMs);
+        if (index < 0) {
+            index = -(index + 1); // change it to index to be added.
+            if (index > 0
+                    && mStartTimesUtcMillis[index - 1] <= timeMs
+                    && timeMs <= mEndTimesUtcMillis[index - 1]) {
+                // A program is played at that time.
+                return index - 1;
+            }
+        }
+        return index;
+    }
+
+    @Nullable
+    private Program getPinnedProgram(int index) {
+        return mPinnedPrograms == null ? null : mPinnedPrograms[index];
+    }
+
+    /** Shares the equal strings between the lists. */
+    static final class StringPool {
+        private final Map<String, String> mStrings = new HashMap<>();
+
+        @Nullable
+        String intern(@Nullable String string) {
+            if (string == null) {
+                return null;
+            }
+            String pooled = mStrings.get(string);
+            if (pooled == null) {
+                mStrings.put(string, string);
+                pooled = string;
+            }
+            return pooled;
+        }
+    }
+
+    /** Builder for {@link CompactProgramList}. The programs should be added in time order. */
+    static final class Builder {
+        private final long mChannelId;
+        private final StringPool mStringPool;
+        private int mSize;
+        private long[] mIds = new long[INITIAL_CAPACITY];
+        private long[] mStartTimesUtcMillis = new long[INITIAL_CAPACITY];
+        private long[] mEndTimesUtcMillis = new long[INITIAL_CAPACITY];
+        private String[] mTitles = new String[INITIAL_CAPACITY];
+        private String[] mEpisodeTitles = new String[INITIAL_CAPACITY];
+        private String[] mCanonicalGenres = new String[INITIAL_CAPACITY];
+        @Nullable private Program[] mPinnedPrograms;
+
+        Builder(long channelId) {
+            this(channelId, new StringPool());
+        }
+
+        Builder(long channelId, StringPool stringPool) {
+            mChannelId = channelId;
+            mStringPool = stringPool;
+        }
+
+        /** Adds a program of the partial projection. */
+        Builder add(
+                long id,
+                @Nullable String title,
+                @Nullable String episodeTitle,
+                @Nullable String canonicalGenres,
+                long startTimeUtcMillis,
+                long endTimeUtcMillis) {
+            ensureCapacity(mSize + 1);
+            mIds[mSize] = id;
+            mStartTimesUtcMillis[mSize] = startTimeUtcMillis;
+            mEndTimesUtcMillis[mSize] = endTimeUtcMillis;
+            mTitles[mSize] = mStringPool.intern(title);
+            mEpisodeTitles[mSize] = mStringPool.intern(episodeTitle);
+            mCanonicalGenres[mSize] = mStringPool.intern(canonicalGenres);
+            ++mSize;
+            return this;
+        }
+
+        /** Adds a program which is kept as it is. */
+        Builder add(Program program) {
+            ensureCapacity(mSize + 1);
+            if (mPinnedPrograms == null) {
+                mPinnedPrograms = new Program[mIds.length];
+            }
+            mIds[mSize] = program.getId();
+            mStartTimesUtcMillis[mSize] = program.getStartTimeUtcMillis();
+            mEndTimesUtcMillis[mSize] = program.getEndTimeUtcMillis();
+            mTitles[mSize] = null;
+            mEpisodeTitles[mSize] = null;
+            mCanonicalGenres[mSize] = null;
+            mPinnedPrograms[mSize] = program;
+            ++mSize;
+            return this;
+        }
+
+        /** Adds the programs in {@code [fromIndex, toIndex)} of the list without creating them. */
+        Builder addAll(CompactProgramList list, int fromIndex, int toIndex) {
+            int count = toIndex - fromIndex;
+            if (count <= 0) {
+                return this;
+            }
+            ensureCapacity(mSize + count);
+            System.arraycopy(list.mIds, fromIndex, mIds, mSize, count);
+            System.arraycopy(
+                    list.mStartTimesUtcMillis, fromIndex, mStartTimesUtcMillis, mSize, count);
+            System.arraycopy(list.mEndTimesUtcMillis, fromIndex, mEndTimesUtcMillis, mSize, count);
+            System.arraycopy(list.mTitles, fromIndex, mTitles, mSize, count);
+            System.arraycopy(list.mEpisodeTitles, fromIndex, mEpisodeTitles, mSize, count);
+            System.arraycopy(list.mCanonicalGenres, fromIndex, mCanonicalGenres, mSize, count);
+            if (list.mPinnedPrograms != null) {
+                if (mPinnedPrograms == null) {
+                    mPinnedPrograms = new Program[mIds.length];
+                }
+                System.arraycopy(list.mPinnedPrograms, fromIndex, mPinnedPrograms, mSize, count);
+            }
+            mSize += count;
+            return this;
+        }
+
+        /** Returns the number of the programs added so far. */
+        int size() {
+            return mSize;
+        }
+
+        /** Returns the end time of the last program added, or {@code 0} if there's none. */
+        long getLastEndTimeUtcMillis() {
+            return mSize == 0 ? 0 : mEndTimesUtcMillis[mSize - 1];
+        }
+
+        CompactProgramList build() {
+            return new CompactProgramList(this);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= mIds.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, mIds.length * 2);
+            mIds = Arrays.copyOf(mIds, newCapacity);
+            mStartTimesUtcMillis = Arrays.copyOf(mStartTimesUtcMillis, newCapacity);
+            mEndTimesUtcMillis = Arrays.copyOf(mEndTimesUtcMillis, newCapacity);
+            mTitles = Arrays.copyOf(mTitles, newCapacity);
+            mEpisodeTitles = Arrays.copyOf(mEpisodeTitles, newCapacity);
+            mCanonicalGenres = Arrays.copyOf(mCanonicalGenres, newCapacity);
+            if (mPinnedPrograms != null) {
+                mPinnedPrograms = Arrays.copyOf(mPinnedPrograms, newCapacity);
+            }
+        }
+    }
+}
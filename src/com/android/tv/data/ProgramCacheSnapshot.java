@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary snapshot of the program guide cache of {@link ProgramDataManager}, which lets the
+ * program guide be shown before the programs are read from TvProvider on a cold start.
+ *
+ * <p>The file has a header, a string table and the columns of each channel. Strings are referred
+ * to by their index in the table, and all the numbers are big-endian, so the file is read with a
+ * single memory mapping and bulk copies into {@link CompactProgramList}s.
+ */
+class ProgramCacheSnapshot {
+    private static final String TAG = "ProgramCacheSnapshot";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x45504753; // "EPGS"
+    private static final int VERSION = 1;
+    private static final int NULL_STRING_INDEX = -1;
+
+    private final AtomicFile mFile;
+
+    ProgramCacheSnapshot(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Saves the programs which are played in {@code [startTimeMs, endTimeMs)}. Stub programs are
+     * not saved.
+     */
+    @WorkerThread
+    void save(Map<Long, CompactProgramList> programMap, long startTimeMs, long endTimeMs) {
+        List<CompactProgramList> channels = new ArrayList<>();
+        List<int[]> indices = new ArrayList<>();
+        for (CompactProgramList programs : programMap.values()) {
+            int[] programIndices = new int[programs.size()];
+            int count = 0;
+            for (int i = 0; i < programs.size(); i++) {
+                if (programs.getEndTimeUtcMillis(i) > startTimeMs
+                        && programs.getStartTimeUtcMillis(i) < endTimeMs
+                        && !programs.isStub(i)) {
+                    programIndices[count++] = i;
+                }
+            }
+            if (count > 0) {
+                channels.add(programs);
+                indices.add(Arrays.copyOf(programIndices, count));
+            }
+        }
+        // Builds the string table first, since it's read before the columns.
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndices = new HashMap<>();
+        List<int[]> stringColumns = new ArrayList<>();
+        for (int i = 0; i < channels.size(); i++) {
+            CompactProgramList programs = channels.get(i);
+            int[] programIndices = indices.get(i);
+            int count = programIndices.length;
+            int[] columns = new int[count * 3];
+            for (int j = 0; j < count; j++) {
+                int index = programIndices[j];
+                columns[j] = indexOf(programs.getTitle(index), strings, stringIndices);
+                columns[count + j] =
+                        indexOf(programs.getEpisodeTitle(index), strings, stringIndices);
+                columns[count * 2 + j] =
+                        indexOf(programs.getCanonicalGenres(index), strings, stringIndices);
+            }
+            stringColumns.add(columns);
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(startTimeMs);
+            out.writeLong(endTimeMs);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(channels.size());
+            for (int i = 0; i < channels.size(); i++) {
+                CompactProgramList programs = channels.get(i);
+                int[] programIndices = indices.get(i);
+                out.writeLong(programs.getChannelId());
+                out.writeInt(programIndices.length);
+                for (int index : programIndices) {
+                    out.writeLong(programs.getId(index));
+                }
+                for (int index : programIndices) {
+                    out.writeLong(programs.getStartTimeUtcMillis(index));
+                }
+                for (int index : programIndices) {
+                    out.writeLong(programs.getEndTimeUtcMillis(index));
+                }
+                for (int stringIndex : stringColumns.get(i)) {
+                    out.writeInt(stringIndex);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            if (DEBUG) {
+                Log.d(TAG, "Saved " + channels.size() + " channels to " + mFile.getBaseFile());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save program guide snapshot", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Loads the programs saved by {@link #save}. Programs which end before {@code startTimeMs} are
+     * dropped.
+     *
+     * @return the programs grouped by channel, or {@code null} if there's no usable snapshot
+     */
+    @Nullable
+    Map<Long, CompactProgramList> load(long startTimeMs) {
+        try (FileInputStream in = mFile.openRead();
+                FileChannel channel = in.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.w(TAG, "Unknown program guide snapshot format");
+                return null;
+            }
+            buffer.getLong(); // The start time of the snapshot.
+            long endTimeMs = buffer.getLong();
+            if (endTimeMs <= startTimeMs) {
+                if (DEBUG) {
+                    Log.d(TAG, "Program guide snapshot is expired");
+                }
+                return null;
+            }
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            CompactProgramList.StringPool pool = new CompactProgramList.StringPool();
+            int channelCount = buffer.getInt();
+            Map<Long, CompactProgramList> programMap = new HashMap<>(channelCount * 2);
+            for (int i = 0; i < channelCount; i++) {
+                CompactProgramList programs = readChannel(buffer, strings, pool, startTimeMs);
+                if (!programs.isEmpty()) {
+                    programMap.put(programs.getChannelId(), programs);
+                }
+            }
+            return programMap;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // RuntimeException is thrown when the file is corrupted, e.g. BufferUnderflowException.
+            Log.w(TAG, "Failed to load program guide snapshot", e);
+            return null;
+        }
+    }
+
+    /** Deletes the snapshot. */
+    void delete() {
+        mFile.delete();
+    }
+
+    private static CompactProgramList readChannel(
+            ByteBuffer buffer,
+            String[] strings,
+            CompactProgramList.StringPool pool,
+            long startTimeMs) {
+        long channelId = buffer.getLong();
+        int count = buffer.getInt();
+        long[] ids = new long[count];
+        long[] startTimes = new long[count];
+        long[] endTimes = new long[count];
+        int[] stringColumns = new int[count * 3];
+        readLongs(buffer, ids);
+        readLongs(buffer, startTimes);
+        readLongs(buffer, endTimes);
+        buffer.asIntBuffer().get(stringColumns);
+        buffer.position(buffer.position() + stringColumns.length * 4);
+        CompactProgramList.Builder builder = new CompactProgramList.Builder(channelId, pool);
+        for (int i = 0; i < count; i++) {
+            if (endTimes[i] < startTimeMs) {
+                continue;
+            }
+            builder.add(
+                    ids[i],
+                    stringAt(strings, stringColumns[i]),
+                    stringAt(strings, stringColumns[count + i]),
+                    stringAt(strings, stringColumns[count * 2 + i]),
+                    startTimes[i],
+                    endTimes[i]);
+        }
+        return builder.build();
+    }
+
+    private static void readLongs(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+
+    @Nullable
+    private static String stringAt(String[] strings, int index) {
+        return index == NULL_STRING_INDEX ? null : strings[index];
+    }
+
+    private static int indexOf(
+            @Nullable String string, List<String> strings, Map<String, Integer> stringIndices) {
+        if (string == null) {
+            return NULL_STRING_INDEX;
+        }
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndices.put(string, index);
+        }
+        return index;
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.tv.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -32,7 +33,6 @@ import android.support.annotation.VisibleForTesting;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.LongSparseArray;
-import android.util.LruCache;
 
 import com.android.tv.TvSingletons;
 import com.android.tv.common.SoftPreconditions;
@@ -45,18 +45,20 @@ import com.android.tv.perf.PerformanceMonitor;
 import com.android.tv.perf.TimerEvent;
 import com.android.tv.util.AsyncDbTask;
 import com.android.tv.util.MultiLongSparseArray;
+import com.android.tv.util.PartitionedDbExecutor;
 import com.android.tv.util.TvInputManagerHelper;
 import com.android.tv.util.TvProviderUtils;
 import com.android.tv.util.Utils;
 
 import com.android.tv.common.flags.BackendKnobsFlags;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -106,6 +108,15 @@ public class ProgramDataManager implements MemoryManageable {
                     + Programs._ID
                     + " DESC";
 
+    // The snapshot of the cache, which is loaded when the cache is empty.
+    private static final String SNAPSHOT_FILE_NAME = "program_guide_snapshot";
+    private static final long SNAPSHOT_DURATION_MS = TimeUnit.HOURS.toMillis(12);
+    private static final long SNAPSHOT_SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    // Above this number of changed programs, all the programs are read again instead of merging the
+    // changes.
+    private static final int MAX_CHANGED_PROGRAM_COUNT = 1000;
+
     private static final int MSG_UPDATE_CURRENT_PROGRAMS = 1000;
     private static final int MSG_UPDATE_ONE_CURRENT_PROGRAM = 1001;
     private static final int MSG_UPDATE_PREFETCH_PROGRAM = 1002;
@@ -130,7 +141,8 @@ public class ProgramDataManager implements MemoryManageable {
             mChannelId2ProgramUpdatedListeners = new MultiLongSparseArray<>();
     private final Handler mHandler;
     private final Set<Callback> mCallbacks = new ArraySet<>();
-    private Map<Long, ArrayList<Program>> mChannelIdProgramCache = new ConcurrentHashMap<>();
+    // The lists are never modified once they're put into the cache.
+    private Map<Long, CompactProgramList> mChannelIdProgramCache = new ConcurrentHashMap<>();
     private final Set<Long> mCompleteInfoChannelIds = new HashSet<>();
     private final ContentObserver mProgramObserver;
 
@@ -138,6 +150,17 @@ public class ProgramDataManager implements MemoryManageable {
     private long mProgramPrefetchUpdateWaitMs;
     private long mLastPrefetchTaskRunMs;
     private ProgramsPrefetchTask mProgramsPrefetchTask;
+    // IDs of the programs which are changed since the last prefetch. They're used to re-read only
+    // the changed channels, unless mFullPrefetchNeeded is set.
+    private final Set<Long> mPendingChangedProgramIds = new HashSet<>();
+    // Whether the next prefetch should read all the programs, since some changes can't be
+    // attributed to specific programs.
+    private boolean mFullPrefetchNeeded = true;
+    // The range of the last prefetch.
+    private long mPrefetchedStartTimeMs;
+    private long mPrefetchedEndTimeMs;
+    private final ProgramCacheSnapshot mSnapshot;
+    private long mLastSnapshotSavedMs;
 
     // Any program that ends prior to this time will be removed from the cache
     // when a channel's current program is updated.
@@ -145,7 +168,6 @@ public class ProgramDataManager implements MemoryManageable {
     private long mPrefetchTimeRangeStartMs;
 
     private boolean mPauseProgramUpdate = false;
-    private final LruCache<Long, Program> mZeroLengthProgramCache = new LruCache<>(10);
     // Current tuned channel.
     private long mTunedChannelId;
     // Hours of data to be fetched, it is updated during horizontal scroll.
@@ -190,6 +212,12 @@ public class ProgramDataManager implements MemoryManageable {
                 new ContentObserver(mHandler) {
                     @Override
                     public void onChange(boolean selfChange) {
+                        onChange(selfChange, null);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        addPendingChange(uri);
                         if (!mHandler.hasMessages(MSG_UPDATE_CURRENT_PROGRAMS)) {
                             mHandler.sendEmptyMessage(MSG_UPDATE_CURRENT_PROGRAMS);
                         }
@@ -208,6 +236,32 @@ public class ProgramDataManager implements MemoryManageable {
                     }
                 };
         mProgramPrefetchUpdateWaitMs = PROGRAM_PREFETCH_UPDATE_WAIT_MS;
+        mSnapshot = new ProgramCacheSnapshot(new File(context.getCacheDir(), SNAPSHOT_FILE_NAME));
+    }
+
+    private void addPendingChange(Uri uri) {
+        if (mFullPrefetchNeeded) {
+            return;
+        }
+        if (Utils.isProgramUri(uri)
+                && mPendingChangedProgramIds.size() < MAX_CHANGED_PROGRAM_COUNT) {
+            mPendingChangedProgramIds.add(ContentUris.parseId(uri));
+        } else {
+            mFullPrefetchNeeded = true;
+            mPendingChangedProgramIds.clear();
+        }
+    }
+
+    private void addPendingChanges(Collection<Long> programIds) {
+        if (mFullPrefetchNeeded) {
+            return;
+        }
+        if (mPendingChangedProgramIds.size() + programIds.size() <= MAX_CHANGED_PROGRAM_COUNT) {
+            mPendingChangedProgramIds.addAll(programIds);
+        } else {
+            mFullPrefetchNeeded = true;
+            mPendingChangedProgramIds.clear();
+        }
     }
 
     @VisibleForTesting
@@ -339,10 +393,10 @@ public class ProgramDataManager implements MemoryManageable {
     private boolean isHorizontalLoadNeeded(
             long startTimeMs, long channelId, int selectedProgramIndex) {
         if (mChannelIdProgramCache.containsKey(channelId)) {
-            ArrayList<Program> programs = mChannelIdProgramCache.get(channelId);
+            CompactProgramList programs = mChannelIdProgramCache.get(channelId);
             long marginEndTime = startTimeMs + mMaxFetchHoursMs - BUFFER_HOURS_MS;
-            return programs.size() > selectedProgramIndex &&
-                    programs.get(selectedProgramIndex).getEndTimeUtcMillis() > marginEndTime;
+            return programs.size() > selectedProgramIndex
+                    && programs.getEndTimeUtcMillis(selectedProgramIndex) > marginEndTime;
         }
         return false;
     }
@@ -386,6 +440,9 @@ public class ProgramDataManager implements MemoryManageable {
         if (enable) {
             mPrefetchEnabled = true;
             mLastPrefetchTaskRunMs = 0;
+            if (mChannelIdProgramCache.isEmpty()) {
+                loadSnapshot();
+            }
             if (mStarted) {
                 mHandler.sendEmptyMessage(MSG_UPDATE_PREFETCH_PROGRAM);
             }
@@ -407,43 +464,15 @@ public class ProgramDataManager implements MemoryManageable {
      */
     public List<Program> getPrograms(long channelId, long startTime) {
         SoftPreconditions.checkState(mPrefetchEnabled, TAG, "Prefetch is disabled.");
-        ArrayList<Program> cachedPrograms = mChannelIdProgramCache.get(channelId);
+        CompactProgramList cachedPrograms = mChannelIdProgramCache.get(channelId);
         if (cachedPrograms == null) {
             return Collections.emptyList();
         }
-        int startIndex = getProgramIndexAt(cachedPrograms, startTime);
+        int startIndex = cachedPrograms.getProgramIndexAt(startTime);
         return Collections.unmodifiableList(
                 cachedPrograms.subList(startIndex, cachedPrograms.size()));
     }
 
-    /**
-     * Returns the index of program that is played at the specified time.
-     *
-     * <p>If there isn't, return the first program among programs that starts after the given time
-     * if returnNextProgram is {@code true}.
-     */
-    private int getProgramIndexAt(List<Program> programs, long time) {
-        Program key = mZeroLengthProgramCache.get(time);
-        if (key == null) {
-            key = createStubProgram(time, time);
-            mZeroLengthProgramCache.put(time, key);
-        }
-        int index = Collections.binarySearch(programs, key);
-        if (index < 0) {
-            index = -(index + 1); // change it to index to be added.
-            if (index > 0 && isProgramPlayedAt(programs.get(index - 1), time)) {
-                // A program is played at that time.
-                return index - 1;
-            }
-            return index;
-        }
-        return index;
-    }
-
-    private boolean isProgramPlayedAt(Program program, long time) {
-        return program.getStartTimeUtcMillis() <= time && time <= program.getEndTimeUtcMillis();
-    }
-
     /**
      * Adds the listener to be notified if current program is updated for a channel.
      *
@@ -508,51 +537,48 @@ public class ProgramDataManager implements MemoryManageable {
         if (!Program.isProgramValid(currentProgram)) {
             return;
         }
-        ArrayList<Program> cachedPrograms = mChannelIdProgramCache.remove(channelId);
+        CompactProgramList cachedPrograms = mChannelIdProgramCache.get(channelId);
         if (cachedPrograms == null) {
             return;
         }
-        ListIterator<Program> i = cachedPrograms.listIterator();
-        while (i.hasNext()) {
-            Program cachedProgram = i.next();
-            if (cachedProgram.getEndTimeUtcMillis() <= mPrefetchTimeRangeStartMs) {
-                // Remove previous programs which will not be shown in program guide.
-                i.remove();
-                continue;
-            }
-
-            if (cachedProgram.getEndTimeUtcMillis() <= currentProgram.getStartTimeUtcMillis()) {
-                // Keep the programs that ends earlier than current program
-                // but later than mPrefetchTimeRangeStartMs.
-                continue;
-            }
-
+        // The cached lists shouldn't be modified, since ProgramsPrefetchTask reads them on the DB
+        // thread.
+        CompactProgramList.Builder builder = new CompactProgramList.Builder(channelId);
+        int size = cachedPrograms.size();
+        int i = 0;
+        // Remove previous programs which will not be shown in program guide.
+        while (i < size && cachedPrograms.getEndTimeUtcMillis(i) <= mPrefetchTimeRangeStartMs) {
+            i++;
+        }
+        // Keep the programs that ends earlier than current program but later than
+        // mPrefetchTimeRangeStartMs.
+        int keepFrom = i;
+        while (i < size
+                && cachedPrograms.getEndTimeUtcMillis(i)
+                        <= currentProgram.getStartTimeUtcMillis()) {
+            i++;
+        }
+        builder.addAll(cachedPrograms, keepFrom, i);
+        if (i < size) {
             // Update stub program around current program if any.
-            if (cachedProgram.getStartTimeUtcMillis() < currentProgram.getStartTimeUtcMillis()) {
+            long startTimeMs = cachedPrograms.getStartTimeUtcMillis(i);
+            long endTimeMs = cachedPrograms.getEndTimeUtcMillis(i);
+            if (startTimeMs < currentProgram.getStartTimeUtcMillis()) {
                 // The stub program starts earlier than the current program. Adjust its end time.
-                i.set(
-                        createStubProgram(
-                                cachedProgram.getStartTimeUtcMillis(),
-                                currentProgram.getStartTimeUtcMillis()));
-                i.add(currentProgram);
-            } else {
-                i.set(currentProgram);
+                builder.add(createStubProgram(startTimeMs, currentProgram.getStartTimeUtcMillis()));
             }
-            if (currentProgram.getEndTimeUtcMillis() < cachedProgram.getEndTimeUtcMillis()) {
+            builder.add(currentProgram);
+            if (currentProgram.getEndTimeUtcMillis() < endTimeMs) {
                 // The stub program ends later than the current program. Adjust its start time.
-                i.add(
-                        createStubProgram(
-                                currentProgram.getEndTimeUtcMillis(),
-                                cachedProgram.getEndTimeUtcMillis()));
+                builder.add(createStubProgram(currentProgram.getEndTimeUtcMillis(), endTimeMs));
             }
-            break;
-        }
-        if (cachedPrograms.isEmpty()) {
+            builder.addAll(cachedPrograms, i + 1, size);
+        } else if (builder.size() == 0) {
             // If all the cached programs finish before mPrefetchTimeRangeStartMs, the
             // currentProgram would not have a chance to be inserted to the cache.
-            cachedPrograms.add(currentProgram);
+            builder.add(currentProgram);
         }
-        mChannelIdProgramCache.put(channelId, cachedPrograms);
+        mChannelIdProgramCache.put(channelId, builder.build());
     }
 
     private void handleUpdateCurrentPrograms() {
@@ -568,11 +594,21 @@ public class ProgramDataManager implements MemoryManageable {
     }
 
     private class ProgramsPrefetchTask
-            extends AsyncDbTask<Void, Void, Map<Long, ArrayList<Program>>> {
+            extends AsyncDbTask<Void, Void, Map<Long, CompactProgramList>> {
         private final long mStartTimeMs;
         private final long mEndTimeMs;
+        // The snapshot of the cache and the changes to merge into it. They're null if all the
+        // programs should be read.
+        private final Map<Long, CompactProgramList> mBaseCache;
+        private final Set<Long> mChangedProgramIds;
+        private final long mBaseEndTimeMs;
 
         private boolean mSuccess;
+        private boolean mIncremental;
+        private final Set<Long> mUpdatedChannelIds = new HashSet<>();
+        // Shares the titles and the genres between the programs read by this task.
+        private final CompactProgramList.StringPool mStringPool =
+                new CompactProgramList.StringPool();
         private TimerEvent mFromEmptyCacheTimeEvent;
 
         public ProgramsPrefetchTask() {
@@ -582,6 +618,40 @@ public class ProgramDataManager implements MemoryManageable {
                     Utils.floorTime(time - PROGRAM_GUIDE_SNAP_TIME_MS, PROGRAM_GUIDE_SNAP_TIME_MS);
             mEndTimeMs = mStartTimeMs + TimeUnit.HOURS.toMillis(getFetchDuration());
             mSuccess = false;
+            if (!mFullPrefetchNeeded
+                    && !mChannelIdProgramCache.isEmpty()
+                    && mStartTimeMs >= mPrefetchedStartTimeMs) {
+                // The cached lists are never modified once they're put into the cache, so only the
+                // map needs to be copied.
+                mBaseCache = new HashMap<>(mChannelIdProgramCache);
+                mChangedProgramIds = new HashSet<>(mPendingChangedProgramIds);
+                mBaseEndTimeMs = mPrefetchedEndTimeMs;
+            } else {
+                mBaseCache = null;
+                mChangedProgramIds = null;
+                mBaseEndTimeMs = 0;
+            }
+            mPendingChangedProgramIds.clear();
+            mFullPrefetchNeeded = false;
+        }
+
+        /** Gives back the changes taken by this task, when the result of the task is discarded. */
+        private void restorePendingChanges() {
+            if (mChangedProgramIds != null) {
+                addPendingChanges(mChangedProgramIds);
+            } else {
+                mFullPrefetchNeeded = true;
+            }
+        }
+
+        @Override
+        protected boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_BACKGROUND;
         }
 
         @Override
@@ -594,9 +664,27 @@ public class ProgramDataManager implements MemoryManageable {
         }
 
         @Override
-        protected Map<Long, ArrayList<Program>> doInBackground(Void... params) {
+        protected Map<Long, CompactProgramList> doInBackground(Void... params) {
             TimerEvent asyncTimeEvent = mPerformanceMonitor.startTimer();
-            Map<Long, ArrayList<Program>> programMap = new HashMap<>();
+            Map<Long, CompactProgramList> programMap = null;
+            if (mBaseCache != null) {
+                programMap = prefetchChangedPrograms();
+                mIncremental = programMap != null;
+            }
+            if (programMap == null) {
+                if (isCancelled() || isProgramUpdatePaused()) {
+                    return null;
+                }
+                programMap = prefetchAllPrograms();
+            }
+            mPerformanceMonitor.stopTimer(
+                    asyncTimeEvent,
+                    EventNames.PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_TASK_DO_IN_BACKGROUND);
+            return programMap;
+        }
+
+        private Map<Long, CompactProgramList> prefetchAllPrograms() {
+            Map<Long, CompactProgramList> programMap = new HashMap<>();
             if (DEBUG) {
                 Log.d(
                         TAG,
@@ -605,67 +693,21 @@ public class ProgramDataManager implements MemoryManageable {
                                 + "-"
                                 + Utils.toTimeString(mEndTimeMs));
             }
-            Uri uri =
-                    Programs.CONTENT_URI
-                            .buildUpon()
-                            .appendQueryParameter(PARAM_START_TIME, String.valueOf(mStartTimeMs))
-                            .appendQueryParameter(PARAM_END_TIME, String.valueOf(mEndTimeMs))
-                            .build();
+            Uri uri = buildProgramsUri(mStartTimeMs, mEndTimeMs);
             final int RETRY_COUNT = 3;
-            Program lastReadProgram = null;
             for (int retryCount = RETRY_COUNT; retryCount > 0; retryCount--) {
                 if (isProgramUpdatePaused()) {
                     return null;
                 }
                 programMap.clear();
-
-                String[] projection = ProgramImpl.PARTIAL_PROJECTION;
-                if (TvProviderUtils.checkSeriesIdColumn(mContext, Programs.CONTENT_URI)) {
-                    if (Utils.isProgramsUri(uri)) {
-                        projection =
-                                TvProviderUtils.addExtraColumnsToProjection(
-                                        projection, TvProviderUtils.EXTRA_PROGRAM_COLUMN_SERIES_ID);
-                    }
-                }
-                try (Cursor c = mContentResolver.query(uri, projection, null, null, SORT_BY_TIME)) {
-                    if (c == null) {
-                        continue;
+                try {
+                    if (queryPrograms(uri, null, programMap)) {
+                        mSuccess = true;
+                        break;
                     }
-                    while (c.moveToNext()) {
-                        int duplicateCount = 0;
-                        if (isCancelled()) {
-                            if (DEBUG) {
-                                Log.d(TAG, "ProgramsPrefetchTask canceled.");
-                            }
-                            return null;
-                        }
-                        Program program = ProgramImpl.fromCursorPartialProjection(c);
-                        if (Program.isDuplicate(program, lastReadProgram)) {
-                            duplicateCount++;
-                            continue;
-                        } else {
-                            lastReadProgram = program;
-                        }
-                        ArrayList<Program> programs = programMap.get(program.getChannelId());
-                        if (programs == null) {
-                            programs = new ArrayList<>();
-                            // To skip already loaded complete data.
-                            Program currentProgramInfo =
-                                    mChannelIdCurrentProgramMap.get(program.getChannelId());
-                            if (currentProgramInfo != null
-                                    && Program.isDuplicate(program, currentProgramInfo)) {
-                                program = currentProgramInfo;
-                            }
-
-                            programMap.put(program.getChannelId(), programs);
-                        }
-                        programs.add(program);
-                        if (duplicateCount > 0) {
-                            Log.w(TAG, "Found " + duplicateCount + " duplicate programs");
-                        }
+                    if (isCancelled()) {
+                        return null;
                     }
-                    mSuccess = true;
-                    break;
                 } catch (IllegalStateException e) {
                     if (DEBUG) {
                         Log.d(TAG, "Database is changed while querying. Will retry.");
@@ -679,17 +721,275 @@ public class ProgramDataManager implements MemoryManageable {
             if (DEBUG) {
                 Log.d(TAG, "Ends programs prefetch for " + programMap.size() + " channels");
             }
-            mPerformanceMonitor.stopTimer(
-                    asyncTimeEvent,
-                    EventNames.PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_TASK_DO_IN_BACKGROUND);
             return programMap;
         }
 
+        /**
+         * Merges the programs changed since the last prefetch into the cached programs. Only the
+         * channels whose programs are changed and the time range which is newly added to the
+         * prefetch range are read from the DB.
+         *
+         * @return the merged programs, or {@code null} if all the programs should be read instead
+         */
+        private Map<Long, CompactProgramList> prefetchChangedPrograms() {
+            if (DEBUG) {
+                Log.d(
+                        TAG,
+                        "Starts incremental programs prefetch for "
+                                + mChangedProgramIds.size()
+                                + " changed programs");
+            }
+            Set<Long> changedChannelIds = new HashSet<>();
+            Map<Long, CompactProgramList> changedChannelPrograms = new HashMap<>();
+            Map<Long, CompactProgramList> addedPrograms = new HashMap<>();
+            try {
+                if (!findChangedChannels(changedChannelIds)) {
+                    return null;
+                }
+                if (changedChannelIds.size() * 2 > mBaseCache.size()) {
+                    // Most of the channels are changed, e.g. by an EPG update.
+                    return null;
+                }
+                if (!changedChannelIds.isEmpty()
+                        && !queryPrograms(
+                                buildProgramsUri(mStartTimeMs, mEndTimeMs),
+                                buildInSelection(Programs.COLUMN_CHANNEL_ID, changedChannelIds),
+                                changedChannelPrograms)) {
+                    return null;
+                }
+                if (mEndTimeMs > mBaseEndTimeMs
+                        && !queryPrograms(
+                                buildProgramsUri(mBaseEndTimeMs, mEndTimeMs),
+                                null,
+                                addedPrograms)) {
+                    return null;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Error during incremental program data query", e);
+                return null;
+            }
+            Map<Long, CompactProgramList> programMap = new HashMap<>();
+            for (Map.Entry<Long, CompactProgramList> entry : mBaseCache.entrySet()) {
+                Long channelId = entry.getKey();
+                if (!changedChannelIds.contains(channelId)) {
+                    CompactProgramList programs =
+                            mergePrograms(entry.getValue(), addedPrograms.remove(channelId));
+                    if (!programs.isEmpty()) {
+                        programMap.put(channelId, programs);
+                    }
+                }
+            }
+            // The channels which didn't have any program in the previous range.
+            for (Map.Entry<Long, CompactProgramList> entry : addedPrograms.entrySet()) {
+                if (!changedChannelIds.contains(entry.getKey())) {
+                    programMap.put(entry.getKey(), entry.getValue());
+                }
+            }
+            programMap.putAll(changedChannelPrograms);
+            mUpdatedChannelIds.addAll(changedChannelIds);
+            mSuccess = true;
+            if (DEBUG) {
+                Log.d(
+                        TAG,
+                        "Ends incremental programs prefetch for "
+                                + changedChannelIds.size()
+                                + " changed channels");
+            }
+            return programMap;
+        }
+
+        /**
+         * Puts the programs of the channels which are replaced in the cache after the snapshot is
+         * taken, e.g. by {@link SingleChannelPrefetchTask} or the current program update, into
+         * {@code programs}. They're newer than the snapshot, unless the programs of the channel are
+         * changed in the DB and read again by this task.
+         */
+        private void keepChannelsReplacedSinceSnapshot(Map<Long, CompactProgramList> programs) {
+            Set<Long> channelIds = new HashSet<>(mBaseCache.keySet());
+            channelIds.addAll(mChannelIdProgramCache.keySet());
+            for (Long channelId : channelIds) {
+                CompactProgramList cachedPrograms = mChannelIdProgramCache.get(channelId);
+                // The cached lists are never modified, so a replaced list is a different one.
+                if (cachedPrograms == mBaseCache.get(channelId)
+                        || mUpdatedChannelIds.contains(channelId)) {
+                    continue;
+                }
+                if (cachedPrograms == null) {
+                    programs.remove(channelId);
+                } else {
+                    programs.put(channelId, cachedPrograms);
+                }
+            }
+        }
+
+        /**
+         * Finds the channels of the changed programs.
+         *
+         * @return {@code false} if the query is failed or canceled
+         */
+        private boolean findChangedChannels(Set<Long> outChannelIds) {
+            if (mChangedProgramIds.isEmpty()) {
+                return true;
+            }
+            Set<Long> unknownProgramIds = new HashSet<>(mChangedProgramIds);
+            for (Map.Entry<Long, CompactProgramList> entry : mBaseCache.entrySet()) {
+                CompactProgramList programs = entry.getValue();
+                for (int i = 0; i < programs.size(); i++) {
+                    if (unknownProgramIds.remove(programs.getId(i))) {
+                        // The program is updated or deleted.
+                        outChannelIds.add(entry.getKey());
+                    }
+                }
+            }
+            if (unknownProgramIds.isEmpty()) {
+                return true;
+            }
+            // The programs which are not cached, e.g. inserted ones.
+            try (Cursor c =
+                    mContentResolver.query(
+                            Programs.CONTENT_URI,
+                            new String[] {Programs.COLUMN_CHANNEL_ID},
+                            buildInSelection(Programs._ID, unknownProgramIds),
+                            null,
+                            null)) {
+                if (c == null) {
+                    return false;
+                }
+                while (c.moveToNext()) {
+                    if (isCancelled()) {
+                        return false;
+                    }
+                    outChannelIds.add(c.getLong(0));
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the cached programs which are still in the prefetch range, followed by the
+         * programs added after them.
+         */
+        private CompactProgramList mergePrograms(
+                CompactProgramList cachedPrograms, CompactProgramList addedPrograms) {
+            int size = cachedPrograms.size();
+            int start = 0;
+            while (start < size && cachedPrograms.getEndTimeUtcMillis(start) < mStartTimeMs) {
+                start++;
+            }
+            long lastEndTimeMs = cachedPrograms.getLastEndTimeUtcMillis();
+            CompactProgramList.Builder builder = null;
+            if (addedPrograms != null) {
+                for (int i = 0; i < addedPrograms.size(); i++) {
+                    // The programs which overlap with the previous range are already cached.
+                    if (addedPrograms.getStartTimeUtcMillis(i) < lastEndTimeMs) {
+                        continue;
+                    }
+                    if (builder == null) {
+                        builder = new CompactProgramList.Builder(cachedPrograms.getChannelId());
+                        builder.addAll(cachedPrograms, start, size);
+                    }
+                    builder.addAll(addedPrograms, i, i + 1);
+                    lastEndTimeMs = addedPrograms.getEndTimeUtcMillis(i);
+                }
+            }
+            if (builder != null) {
+                return builder.build();
+            }
+            return start == 0
+                    ? cachedPrograms
+                    : new CompactProgramList.Builder(cachedPrograms.getChannelId())
+                            .addAll(cachedPrograms, start, size)
+                            .build();
+        }
+
+        /**
+         * Reads the programs into {@code programMap}, grouping them by channel.
+         *
+         * @return {@code false} if the query is failed or canceled
+         */
+        private boolean queryPrograms(
+                Uri uri, String selection, Map<Long, CompactProgramList> programMap) {
+            String[] projection = ProgramImpl.PARTIAL_PROJECTION;
+            if (TvProviderUtils.checkSeriesIdColumn(mContext, Programs.CONTENT_URI)) {
+                if (Utils.isProgramsUri(uri)) {
+                    projection =
+                            TvProviderUtils.addExtraColumnsToProjection(
+                                    projection, TvProviderUtils.EXTRA_PROGRAM_COLUMN_SERIES_ID);
+                }
+            }
+            Map<Long, CompactProgramList.Builder> builders = new HashMap<>();
+            boolean hasLastRead = false;
+            long lastReadChannelId = 0;
+            long lastReadStartTimeMs = 0;
+            long lastReadEndTimeMs = 0;
+            try (Cursor c =
+                    mContentResolver.query(uri, projection, selection, null, SORT_BY_TIME)) {
+                if (c == null) {
+                    return false;
+                }
+                while (c.moveToNext()) {
+                    int duplicateCount = 0;
+                    if (isCancelled()) {
+                        if (DEBUG) {
+                            Log.d(TAG, "ProgramsPrefetchTask canceled.");
+                        }
+                        return false;
+                    }
+                    // Columns read must match the order of ProgramImpl.PARTIAL_PROJECTION. The
+                    // programs are kept in columns, so no Program is created here.
+                    long id = c.getLong(0);
+                    long channelId = c.getLong(1);
+                    long startTimeMs = c.getLong(5);
+                    long endTimeMs = c.getLong(6);
+                    if (hasLastRead
+                            && channelId == lastReadChannelId
+                            && startTimeMs == lastReadStartTimeMs
+                            && endTimeMs == lastReadEndTimeMs) {
+                        duplicateCount++;
+                        continue;
+                    } else {
+                        hasLastRead = true;
+                        lastReadChannelId = channelId;
+                        lastReadStartTimeMs = startTimeMs;
+                        lastReadEndTimeMs = endTimeMs;
+                    }
+                    CompactProgramList.Builder programs = builders.get(channelId);
+                    if (programs == null) {
+                        programs = new CompactProgramList.Builder(channelId, mStringPool);
+                        builders.put(channelId, programs);
+                        // To skip already loaded complete data.
+                        Program currentProgramInfo = mChannelIdCurrentProgramMap.get(channelId);
+                        if (currentProgramInfo != null
+                                && currentProgramInfo.getStartTimeUtcMillis() == startTimeMs
+                                && currentProgramInfo.getEndTimeUtcMillis() == endTimeMs) {
+                            programs.add(currentProgramInfo);
+                            continue;
+                        }
+                    }
+                    programs.add(
+                            id,
+                            c.getString(2),
+                            c.getString(3),
+                            c.getString(4),
+                            startTimeMs,
+                            endTimeMs);
+                    if (duplicateCount > 0) {
+                        Log.w(TAG, "Found " + duplicateCount + " duplicate programs");
+                    }
+                }
+            }
+            for (Map.Entry<Long, CompactProgramList.Builder> entry : builders.entrySet()) {
+                programMap.put(entry.getKey(), entry.getValue().build());
+            }
+            return true;
+        }
+
         @Override
-        protected void onPostExecute(Map<Long, ArrayList<Program>> programs) {
+        protected void onPostExecute(Map<Long, CompactProgramList> programs) {
             mProgramsPrefetchTask = null;
             if (isProgramUpdatePaused()) {
                 // ProgramsPrefetchTask will run again once setPauseProgramUpdate(false) is called.
+                restorePendingChanges();
                 return;
             }
             long nextMessageDelayedTime;
@@ -701,11 +1001,26 @@ public class ProgramDataManager implements MemoryManageable {
                                         mLastPrefetchTaskRunMs + PROGRAM_GUIDE_SNAP_TIME_MS,
                                         PROGRAM_GUIDE_SNAP_TIME_MS)
                                 - currentTime;
+                if (mIncremental) {
+                    keepChannelsReplacedSinceSnapshot(programs);
+                }
                 mChannelIdProgramCache = programs;
-                // Since cache has partial data we need to reset the map of complete data.
-                clearChannelInfoMap();
-                // Get complete projection of tuned channel.
-                prefetchChannel(mTunedChannelId);
+                mPrefetchedStartTimeMs = mStartTimeMs;
+                mPrefetchedEndTimeMs = mEndTimeMs;
+                saveSnapshot(programs, mStartTimeMs);
+                if (mIncremental) {
+                    // Only the changed channels are replaced with partial data. The others keep
+                    // the complete data which may be fetched while this task runs.
+                    mCompleteInfoChannelIds.removeAll(mUpdatedChannelIds);
+                    if (mUpdatedChannelIds.contains(mTunedChannelId)) {
+                        prefetchChannel(mTunedChannelId);
+                    }
+                } else {
+                    // Since cache has partial data we need to reset the map of complete data.
+                    clearChannelInfoMap();
+                    // Get complete projection of tuned channel.
+                    prefetchChannel(mTunedChannelId);
+                }
 
                 notifyProgramUpdated();
                 if (mFromEmptyCacheTimeEvent != null) {
@@ -715,6 +1030,7 @@ public class ProgramDataManager implements MemoryManageable {
                     mFromEmptyCacheTimeEvent = null;
                 }
             } else {
+                restorePendingChanges();
                 nextMessageDelayedTime = PERIODIC_PROGRAM_UPDATE_MIN_MS;
             }
             if (!mHandler.hasMessages(MSG_UPDATE_PREFETCH_PROGRAM)) {
@@ -724,6 +1040,43 @@ public class ProgramDataManager implements MemoryManageable {
         }
     }
 
+    /**
+     * Fills the empty cache with the snapshot saved by the last prefetch, so that the program guide
+     * can be shown before the programs are read. The next prefetch reads all the programs and
+     * replaces them.
+     */
+    private void loadSnapshot() {
+        TimerEvent timerEvent = mPerformanceMonitor.startTimer();
+        long startTimeMs =
+                Utils.floorTime(
+                        mClock.currentTimeMillis() - PROGRAM_GUIDE_SNAP_TIME_MS,
+                        PROGRAM_GUIDE_SNAP_TIME_MS);
+        Map<Long, CompactProgramList> programs = mSnapshot.load(startTimeMs);
+        mPerformanceMonitor.stopTimer(timerEvent, EventNames.PROGRAM_DATA_MANAGER_LOAD_SNAPSHOT);
+        if (programs == null || programs.isEmpty()) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Loaded the snapshot of " + programs.size() + " channels");
+        }
+        mChannelIdProgramCache = programs;
+        mFullPrefetchNeeded = true;
+        mPendingChangedProgramIds.clear();
+        notifyProgramUpdated();
+    }
+
+    private void saveSnapshot(Map<Long, CompactProgramList> programs, long startTimeMs) {
+        long currentTimeMs = mClock.currentTimeMillis();
+        if (currentTimeMs - mLastSnapshotSavedMs < SNAPSHOT_SAVE_INTERVAL_MS) {
+            return;
+        }
+        mLastSnapshotSavedMs = currentTimeMs;
+        // The map can be modified on the main thread while it's written.
+        final Map<Long, CompactProgramList> snapshot = new HashMap<>(programs);
+        mDbExecutor.execute(
+                () -> mSnapshot.save(snapshot, startTimeMs, startTimeMs + SNAPSHOT_DURATION_MS));
+    }
+
     private void clearChannelInfoMap() {
         mCompleteInfoChannelIds.clear();
         mMaxFetchHoursMs = FETCH_HOURS_MS;
@@ -752,7 +1105,8 @@ public class ProgramDataManager implements MemoryManageable {
         }
     }
 
-    private class SingleChannelPrefetchTask extends AsyncDbTask.AsyncQueryTask<ArrayList<Program>> {
+    private class SingleChannelPrefetchTask
+            extends AsyncDbTask.AsyncQueryTask<CompactProgramList> {
         long mChannelId;
 
         public SingleChannelPrefetchTask(long channelId, long startTimeMs, long endTimeMs) {
@@ -768,17 +1122,22 @@ public class ProgramDataManager implements MemoryManageable {
         }
 
         @Override
-        protected ArrayList<Program> onQuery(Cursor c) {
-            ArrayList<Program> programMap = new ArrayList<>();
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_USER_VISIBLE;
+        }
+
+        @Override
+        protected CompactProgramList onQuery(Cursor c) {
+            // The programs with the complete data are kept as they are.
+            CompactProgramList.Builder builder = new CompactProgramList.Builder(mChannelId);
             while (c.moveToNext()) {
-                Program program = ProgramImpl.fromCursor(c);
-                programMap.add(program);
+                builder.add(ProgramImpl.fromCursor(c));
             }
-            return programMap;
+            return builder.build();
         }
 
         @Override
-        protected void onPostExecute(ArrayList<Program> programs) {
+        protected void onPostExecute(CompactProgramList programs) {
             mChannelIdProgramCache.put(mChannelId, programs);
             notifyChannelUpdated();
         }
@@ -812,6 +1171,11 @@ public class ProgramDataManager implements MemoryManageable {
                     SORT_BY_CHANNEL_ID);
         }
 
+        @Override
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_USER_VISIBLE;
+        }
+
         @Override
         public List<Program> onQuery(Cursor c) {
             final List<Program> programs = new ArrayList<>();
@@ -881,6 +1245,11 @@ public class ProgramDataManager implements MemoryManageable {
             mChannelId = channelId;
         }
 
+        @Override
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_USER_VISIBLE;
+        }
+
         @Override
         public Program onQuery(Cursor c) {
             Program program = null;
@@ -989,6 +1358,7 @@ public class ProgramDataManager implements MemoryManageable {
         SoftPreconditions.checkState(mPrefetchEnabled, TAG, "Prefetch is disabled.");
         if (mPrefetchTimeRangeStartMs > startTimeMs) {
             // Fetch the programs immediately to re-create the cache.
+            mFullPrefetchNeeded = true;
             if (!mHandler.hasMessages(MSG_UPDATE_PREFETCH_PROGRAM)) {
                 mHandler.sendEmptyMessage(MSG_UPDATE_PREFETCH_PROGRAM);
             }
@@ -1006,10 +1376,32 @@ public class ProgramDataManager implements MemoryManageable {
     private void cancelPrefetchTask() {
         if (mProgramsPrefetchTask != null) {
             mProgramsPrefetchTask.cancel(true);
+            mProgramsPrefetchTask.restorePendingChanges();
             mProgramsPrefetchTask = null;
         }
     }
 
+    private static Uri buildProgramsUri(long startTimeMs, long endTimeMs) {
+        return Programs.CONTENT_URI
+                .buildUpon()
+                .appendQueryParameter(PARAM_START_TIME, String.valueOf(startTimeMs))
+                .appendQueryParameter(PARAM_END_TIME, String.valueOf(endTimeMs))
+                .build();
+    }
+
+    private static String buildInSelection(String column, Collection<Long> ids) {
+        StringBuilder selection = new StringBuilder(column).append(" IN (");
+        boolean first = true;
+        for (Long id : ids) {
+            if (!first) {
+                selection.append(',');
+            }
+            selection.append(id);
+            first = false;
+        }
+        return selection.append(')').toString();
+    }
+
     // Create stub program which indicates data isn't loaded yet so DB query is required.
     private Program createStubProgram(long startTimeMs, long endTimeMs) {
         return new ProgramImpl.Builder()
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tv.data;
+
+import android.support.annotation.WorkerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+import com.android.tv.data.WatchedHistoryManager.WatchedRecord;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An append-only binary log of {@link WatchedRecord}s.
+ *
+ * <p>The file has a header followed by fixed size records, so a record is found by its index
+ * without parsing the others. Each record has an index which keeps increasing across compactions.
+ * The header holds the index of the first record in the file. When the file has twice as many
+ * records as needed, it's compacted to the latest ones.
+ *
+ * <p>The methods are synchronized on a process wide lock, since more than one {@link
+ * WatchedHistoryManager} can use the same file.
+ */
+class WatchedHistoryLog {
+    private static final String TAG = "WatchedHistoryLog";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x57484c47; // "WHLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic, version and the first index
+    private static final int LONGS_PER_RECORD = 3; // channel ID, start time and duration
+    private static final int RECORD_SIZE = LONGS_PER_RECORD * 8;
+
+    private static final Object sLock = new Object();
+
+    private final AtomicFile mFile;
+    private final int mMaxRecordCount;
+
+    /**
+     * Creates a log.
+     *
+     * @param file the log file
+     * @param maxRecordCount the number of the latest records to keep on compaction
+     */
+    WatchedHistoryLog(File file, int maxRecordCount) {
+        mFile = new AtomicFile(file);
+        mMaxRecordCount = maxRecordCount;
+    }
+
+    /** Returns {@code true} if the log file exists. */
+    boolean exists() {
+        synchronized (sLock) {
+            return mFile.getBaseFile().exists();
+        }
+    }
+
+    /**
+     * Reads the records whose index is {@code fromIndex} or larger.
+     *
+     * @return the records in the ascending order of the index
+     */
+    @WorkerThread
+    Records read(long fromIndex) {
+        synchronized (sLock) {
+            try (FileInputStream in = mFile.openRead();
+                    FileChannel channel = in.getChannel()) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < HEADER_SIZE
+                        || buffer.getInt() != MAGIC
+                        || buffer.getInt() != VERSION) {
+                    Log.w(TAG, "Unknown watched history format");
+                    return Records.EMPTY;
+                }
+                long firstIndex = buffer.getLong();
+                // A record partially written by a crash is ignored.
+                int count = buffer.remaining() / RECORD_SIZE;
+                long lastIndex = firstIndex + count - 1;
+                int skip = (int) Math.max(0, Math.min(count, fromIndex - firstIndex));
+                buffer.position(buffer.position() + skip * RECORD_SIZE);
+                long[] values = new long[(count - skip) * LONGS_PER_RECORD];
+                LongBuffer longs = buffer.asLongBuffer();
+                longs.get(values);
+                List<WatchedRecord> records = new ArrayList<>(count - skip);
+                for (int i = 0; i < values.length; i += LONGS_PER_RECORD) {
+                    records.add(new WatchedRecord(values[i], values[i + 1], values[i + 2]));
+                }
+                return new Records(records, lastIndex);
+            } catch (FileNotFoundException e) {
+                return Records.EMPTY;
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Failed to read watched history", e);
+                return Records.EMPTY;
+            }
+        }
+    }
+
+    /**
+     * Appends the records and compacts the log if needed.
+     *
+     * <p>If the records can't be appended, the index of the last record before them is returned.
+     * The callers should store only the returned index as {@code PREF_KEY_LAST_INDEX}, and must not
+     * advance it by the number of the given records, since the failed records are not in the log.
+     *
+     * @return the index of the last record in the log
+     */
+    @WorkerThread
+    long append(List<WatchedRecord> records) {
+        synchronized (sLock) {
+            long lastIndex = readLastIndex();
+            if (lastIndex == Records.NO_INDEX) {
+                // There's no usable log. Starts a new one.
+                write(records, 0);
+                return records.size() - 1;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+            for (WatchedRecord record : records) {
+                putRecord(buffer, record);
+            }
+            try (FileOutputStream out = new FileOutputStream(mFile.getBaseFile(), true)) {
+                out.write(buffer.array());
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to append watched history", e);
+                return lastIndex;
+            }
+            lastIndex += records.size();
+            if (getRecordCount() >= mMaxRecordCount * 2L) {
+                compact(lastIndex);
+            }
+            return lastIndex;
+        }
+    }
+
+    /**
+     * Replaces the log with the given records.
+     *
+     * @param firstIndex the index of the first record
+     */
+    @WorkerThread
+    void write(List<WatchedRecord> records, long firstIndex) {
+        synchronized (sLock) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records.size() * RECORD_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(firstIndex);
+            for (WatchedRecord record : records) {
+                putRecord(buffer, record);
+            }
+            FileOutputStream out = null;
+            try {
+                out = mFile.startWrite();
+                out.write(buffer.array());
+                mFile.finishWrite(out);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write watched history", e);
+                if (out != null) {
+                    mFile.failWrite(out);
+                }
+            }
+        }
+    }
+
+    private void compact(long lastIndex) {
+        long firstIndex = lastIndex - mMaxRecordCount + 1;
+        Records records = read(firstIndex);
+        write(records.records, firstIndex);
+        if (DEBUG) Log.d(TAG, "Compacted to " + records.records.size() + " records");
+    }
+
+    private long getRecordCount() {
+        long size = mFile.getBaseFile().length();
+        return Math.max(0, size - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    private long readLastIndex() {
+        try (FileInputStream in = mFile.openRead()) {
+            byte[] header = new byte[HEADER_SIZE];
+            if (in.read(header) != HEADER_SIZE) {
+                return Records.NO_INDEX;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return Records.NO_INDEX;
+            }
+            long count = getRecordCount();
+            if (mFile.getBaseFile().length() != HEADER_SIZE + count * RECORD_SIZE) {
+                // Drops the record partially written by a crash before appending new ones.
+                try (FileOutputStream out = new FileOutputStream(mFile.getBaseFile(), true)) {
+                    out.getChannel().truncate(HEADER_SIZE + count * RECORD_SIZE);
+                }
+            }
+            return buffer.getLong() + count - 1;
+        } catch (IOException e) {
+            return Records.NO_INDEX;
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, WatchedRecord record) {
+        buffer.putLong(record.channelId)
+                .putLong(record.watchedStartTime)
+                .putLong(record.duration);
+    }
+
+    /** Records read from the log. */
+    static final class Records {
+        static final long NO_INDEX = -1;
+        static final Records EMPTY = new Records(Collections.emptyList(), NO_INDEX);
+
+        final List<WatchedRecord> records;
+        /** The index of the last record in the log, or {@link #NO_INDEX} if it's empty. */
+        final long lastIndex;
+
+        Records(List<WatchedRecord> records, long lastIndex) {
+            this.records = records;
+            this.lastIndex = lastIndex;
+        }
+    }
+}
@@ -29,6 +29,8 @@ import android.support.annotation.WorkerThread;
 import android.util.Log;
 import com.android.tv.common.util.SharedPreferencesUtils;
 import com.android.tv.data.api.Channel;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -43,6 +45,10 @@ import java.util.concurrent.TimeUnit;
  * <p>When there is no access to watched table of TvProvider, this class is used to build up watched
  * history and to compute recent channels.
  *
+ * <p>The records are kept in a binary append-only log, see {@link WatchedHistoryLog}. Only the
+ * index of the last record is kept in {@link SharedPreferences}, to notify the other instances of
+ * new records.
+ *
  * <p>Note that this class is not thread safe. Please use this on one thread.
  */
 public class WatchedHistoryManager {
@@ -51,10 +57,13 @@ public class WatchedHistoryManager {
 
     private static final int MAX_HISTORY_SIZE = 10000;
     private static final String PREF_KEY_LAST_INDEX = "last_index";
+    private static final String LOG_FILE_NAME = "watched_history.log";
     private static final long MIN_DURATION_MS = TimeUnit.SECONDS.toMillis(10);
 
     private final List<WatchedRecord> mWatchedHistory = new ArrayList<>();
     private final List<WatchedRecord> mPendingRecords = new ArrayList<>();
+    // The index of the last record which is in the log and in mWatchedHistory. The records logged
+    // by this instance are counted only after they're appended to the log.
     private long mLastIndex;
     private boolean mStarted;
     private boolean mLoaded;
@@ -73,21 +82,11 @@ public class WatchedHistoryManager {
                         // onSharedPreferenceChanged is always called in a main thread.
                         // onNewRecordAdded will be called in the same thread as the thread
                         // which created this instance.
-                        mHandler.post(
+                        final long fromIndex = mLastIndex + 1;
+                        mExecutor.execute(
                                 () -> {
-                                    for (long i = mLastIndex + 1; i <= lastIndex; ++i) {
-                                        WatchedRecord record =
-                                                decode(
-                                                        mSharedPreferences.getString(
-                                                                getSharedPreferencesKey(i), null));
-                                        if (record != null) {
-                                            mWatchedHistory.add(record);
-                                            if (mListener != null) {
-                                                mListener.onNewRecordAdded(record);
-                                            }
-                                        }
-                                    }
-                                    mLastIndex = lastIndex;
+                                    WatchedHistoryLog.Records records = mLog.read(fromIndex);
+                                    mHandler.post(() -> onNewRecordsLoaded(records, lastIndex));
                                 });
                     }
                 }
@@ -98,6 +97,9 @@ public class WatchedHistoryManager {
     private final int mMaxHistorySize;
     private final Handler mHandler;
     private final Executor mExecutor;
+    // Writes the log in the order of the records.
+    private final Executor mWriteExecutor;
+    private final WatchedHistoryLog mLog;
 
     public WatchedHistoryManager(Context context) {
         this(context, MAX_HISTORY_SIZE, AsyncTask.THREAD_POOL_EXECUTOR);
@@ -105,13 +107,27 @@ public class WatchedHistoryManager {
 
     @VisibleForTesting
     WatchedHistoryManager(Context context, int maxHistorySize, Executor executor) {
+        this(
+                context,
+                maxHistorySize,
+                executor,
+                new WatchedHistoryLog(
+                        new File(context.getApplicationContext().getFilesDir(), LOG_FILE_NAME),
+                        maxHistorySize));
+    }
+
+    @VisibleForTesting
+    WatchedHistoryManager(
+            Context context, int maxHistorySize, Executor executor, WatchedHistoryLog log) {
         mContext = context.getApplicationContext();
         mMaxHistorySize = maxHistorySize;
         mHandler = new Handler();
         mExecutor = executor;
+        mWriteExecutor = MoreExecutors.newSequentialExecutor(executor);
+        mLog = log;
     }
 
-    /** Starts the manager. It loads history data from {@link SharedPreferences}. */
+    /** Starts the manager. It loads history data from the log. */
     public void start() {
         if (mStarted) {
             return;
@@ -141,24 +157,38 @@ public class WatchedHistoryManager {
         mSharedPreferences =
                 mContext.getSharedPreferences(
                         SharedPreferencesUtils.SHARED_PREF_WATCHED_HISTORY, Context.MODE_PRIVATE);
-        mLastIndex = mSharedPreferences.getLong(PREF_KEY_LAST_INDEX, -1);
-        if (mLastIndex >= 0 && mLastIndex < mMaxHistorySize) {
-            for (int i = 0; i <= mLastIndex; ++i) {
-                WatchedRecord record =
-                        decode(mSharedPreferences.getString(getSharedPreferencesKey(i), null));
-                if (record != null) {
-                    mWatchedHistory.add(record);
-                }
-            }
-        } else if (mLastIndex >= mMaxHistorySize) {
-            for (long i = mLastIndex - mMaxHistorySize + 1; i <= mLastIndex; ++i) {
-                WatchedRecord record =
-                        decode(mSharedPreferences.getString(getSharedPreferencesKey(i), null));
-                if (record != null) {
-                    mWatchedHistory.add(record);
-                }
+        if (!mLog.exists()) {
+            migrateFromSharedPreferences();
+        }
+        WatchedHistoryLog.Records records = mLog.read(0);
+        mLastIndex = records.lastIndex;
+        List<WatchedRecord> history = records.records;
+        mWatchedHistory.addAll(
+                history.subList(Math.max(0, history.size() - mMaxHistorySize), history.size()));
+    }
+
+    /** Moves the records stored by the previous versions to the log. */
+    @WorkerThread
+    private void migrateFromSharedPreferences() {
+        long lastIndex = mSharedPreferences.getLong(PREF_KEY_LAST_INDEX, -1);
+        if (lastIndex < 0) {
+            return;
+        }
+        long firstIndex = Math.max(0, lastIndex - mMaxHistorySize + 1);
+        List<WatchedRecord> records = new ArrayList<>();
+        Editor editor = mSharedPreferences.edit();
+        for (long i = firstIndex; i <= lastIndex; ++i) {
+            String key = getSharedPreferencesKey(i);
+            WatchedRecord record = decode(mSharedPreferences.getString(key, null));
+            if (record != null) {
+                records.add(record);
             }
+            editor.remove(key);
         }
+        // Keeps the last index, since it's the index of the last record in the log.
+        mLog.write(records, lastIndex - records.size() + 1);
+        editor.apply();
+        if (DEBUG) Log.d(TAG, "Migrated " + records.size() + " records");
     }
 
     private void onLoadFinished() {
@@ -167,13 +197,8 @@ public class WatchedHistoryManager {
             Log.d(TAG, "Loaded: size=" + mWatchedHistory.size() + " index=" + mLastIndex);
         }
         if (!mPendingRecords.isEmpty()) {
-            Editor editor = mSharedPreferences.edit();
-            for (WatchedRecord record : mPendingRecords) {
-                mWatchedHistory.add(record);
-                ++mLastIndex;
-                editor.putString(getSharedPreferencesKey(mLastIndex), encode(record));
-            }
-            editor.putLong(PREF_KEY_LAST_INDEX, mLastIndex).apply();
+            mWatchedHistory.addAll(mPendingRecords);
+            appendRecords(new ArrayList<>(mPendingRecords));
             mPendingRecords.clear();
         }
         if (mListener != null) {
@@ -183,6 +208,44 @@ public class WatchedHistoryManager {
                 mOnSharedPreferenceChangeListener);
     }
 
+    private void onNewRecordsLoaded(WatchedHistoryLog.Records records, long lastIndex) {
+        // The records can be read more than once if notified again before they are loaded, and
+        // the log may have more records than notified.
+        long index = records.lastIndex - records.records.size();
+        for (WatchedRecord record : records.records) {
+            ++index;
+            if (index <= mLastIndex) {
+                continue;
+            } else if (index > lastIndex) {
+                break;
+            }
+            mWatchedHistory.add(record);
+            mLastIndex = index;
+            if (mListener != null) {
+                mListener.onNewRecordAdded(record);
+            }
+        }
+    }
+
+    private void appendRecords(List<WatchedRecord> records) {
+        mWriteExecutor.execute(
+                () -> {
+                    long lastIndex = mLog.append(records);
+                    // Updates the index before the other instances are notified, so that this
+                    // instance doesn't read its own records again.
+                    mHandler.post(() -> onRecordsAppended(lastIndex));
+                    mSharedPreferences.edit().putLong(PREF_KEY_LAST_INDEX, lastIndex).apply();
+                });
+    }
+
+    private void onRecordsAppended(long lastIndex) {
+        // If the records failed to be appended, the index of the last record before them is given.
+        // The index stays, so that the records appended by the other instances are still read.
+        if (lastIndex > mLastIndex) {
+            mLastIndex = lastIndex;
+        }
+    }
+
     @VisibleForTesting
     public boolean isLoaded() {
         return mLoaded;
@@ -197,12 +260,7 @@ public class WatchedHistoryManager {
         if (mLoaded) {
             if (DEBUG) Log.d(TAG, "Log a watched record. " + record);
             mWatchedHistory.add(record);
-            ++mLastIndex;
-            mSharedPreferences
-                    .edit()
-                    .putString(getSharedPreferencesKey(mLastIndex), encode(record))
-                    .putLong(PREF_KEY_LAST_INDEX, mLastIndex)
-                    .apply();
+            appendRecords(Collections.singletonList(record));
             if (mListener != null) {
                 mListener.onNewRecordAdded(record);
             }
@@ -231,10 +289,19 @@ public class WatchedHistoryManager {
     }
 
     @VisibleForTesting
-    WatchedRecord getRecordFromSharedPreferences(int reverseIndex) {
-        long lastIndex = mSharedPreferences.getLong(PREF_KEY_LAST_INDEX, -1);
-        long index = lastIndex - reverseIndex;
-        return decode(mSharedPreferences.getString(getSharedPreferencesKey(index), null));
+    WatchedRecord getRecordFromLog(int reverseIndex) {
+        List<WatchedRecord> records = mLog.read(0).records;
+        return records.get(records.size() - 1 - reverseIndex);
+    }
+
+    @VisibleForTesting
+    long getLastIndex() {
+        return mLastIndex;
+    }
+
+    @VisibleForTesting
+    int getLogRecordCount() {
+        return mLog.read(0).records.size();
     }
 
     private String getSharedPreferencesKey(long index) {
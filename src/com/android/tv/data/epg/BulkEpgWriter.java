@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data.epg;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.media.tv.TvContract;
+import android.media.tv.TvContract.Programs;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.tv.common.concurrent.NamedThreadFactory;
+import com.android.tv.common.util.Clock;
+import com.android.tv.data.ProgramImpl;
+import com.android.tv.data.api.Program;
+import com.android.tv.util.TvProviderUtils;
+
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the fetched EPG data of many channels to TvProvider.
+ *
+ * <p>The old programs of the channels are read with a few queries, the differences between the old
+ * and the new programs are computed for the channels in parallel, and the operations are applied in
+ * batches whose estimated parcel size is limited, so that each batch is as large as a binder
+ * transaction can take.
+ */
+class BulkEpgWriter {
+    private static final String TAG = "BulkEpgWriter";
+    private static final boolean DEBUG = false;
+
+    private static final long PROGRAM_QUERY_DURATION_MS = TimeUnit.DAYS.toMillis(30);
+    // The binder transaction buffer is 1MB and shared by the process.
+    @VisibleForTesting static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final int MAX_CHANNELS_PER_QUERY = 100;
+    private static final int MAX_DIFF_THREAD_COUNT = 4;
+    private static final int DIFF_THREAD_COUNT =
+            Math.min(MAX_DIFF_THREAD_COUNT, Runtime.getRuntime().availableProcessors());
+    private static final long DIFF_THREAD_KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final NamedThreadFactory THREAD_FACTORY = new NamedThreadFactory("epg-diff");
+    // Shared by all the writes. The idle threads are terminated between the EPG fetches.
+    private static final ExecutorService DIFF_EXECUTOR = createDiffExecutor();
+
+    // Rough sizes of the parcel for each part of an operation.
+    private static final int OPERATION_OVERHEAD_BYTES = 64;
+    private static final int VALUE_OVERHEAD_BYTES = 8;
+
+    private final Context mContext;
+    private final Clock mClock;
+
+    BulkEpgWriter(Context context, Clock clock) {
+        mContext = context;
+        mClock = clock;
+    }
+
+    /** The result of {@link #write}. */
+    static final class Stats {
+        int channelCount;
+        int operationCount;
+        int appliedOperationCount;
+        int batchCount;
+        int failedBatchCount;
+        long byteCount;
+        long durationMs;
+
+        /** Returns {@code true} if any program is updated. */
+        boolean isUpdated() {
+            return appliedOperationCount > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "channels="
+                    + channelCount
+                    + ", operations="
+                    + appliedOperationCount
+                    + "/"
+                    + operationCount
+                    + ", batches="
+                    + batchCount
+                    + ", failedBatches="
+                    + failedBatchCount
+                    + ", bytes="
+                    + byteCount
+                    + ", durationMs="
+                    + durationMs
+                    + ", operationsPerSec="
+                    + (durationMs == 0
+                            ? appliedOperationCount
+                            : appliedOperationCount * 1000L / durationMs);
+        }
+    }
+
+    /**
+     * Updates the programs of the channels with the newly fetched programs. Each fetched program is
+     * matched with the old programs of the channel in the database. The matched old program is
+     * updated, and the new program is inserted if there's no matching program. The old programs
+     * which conflict with the inserted ones are removed.
+     *
+     * @param fetchedPrograms the newly fetched programs sorted by time, keyed by channel ID
+     */
+    @WorkerThread
+    Stats write(Map<Long, List<Program>> fetchedPrograms) {
+        Stats stats = new Stats();
+        long startMs = SystemClock.elapsedRealtime();
+        Map<Long, List<Program>> newPrograms = new HashMap<>();
+        for (Map.Entry<Long, List<Program>> entry : fetchedPrograms.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                newPrograms.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (newPrograms.isEmpty()) {
+            return stats;
+        }
+        stats.channelCount = newPrograms.size();
+        long startTimeMs = mClock.currentTimeMillis();
+        long endTimeMs = startTimeMs + PROGRAM_QUERY_DURATION_MS;
+        Map<Long, List<Program>> oldPrograms =
+                queryPrograms(newPrograms.keySet(), startTimeMs, endTimeMs);
+        List<SizedOperation> operations = computeOperations(oldPrograms, newPrograms);
+        stats.operationCount = operations.size();
+        applyOperations(operations, stats);
+        stats.durationMs = SystemClock.elapsedRealtime() - startMs;
+        Log.i(TAG, "Updated EPG data: " + stats);
+        return stats;
+    }
+
+    @WorkerThread
+    private Map<Long, List<Program>> queryPrograms(
+            Iterable<Long> channelIds, long startTimeMs, long endTimeMs) {
+        Map<Long, List<Program>> programMap = new HashMap<>();
+        String[] projection = ProgramImpl.PROJECTION;
+        if (TvProviderUtils.checkSeriesIdColumn(mContext, Programs.CONTENT_URI)) {
+            projection =
+                    TvProviderUtils.addExtraColumnsToProjection(
+                            projection, TvProviderUtils.EXTRA_PROGRAM_COLUMN_SERIES_ID);
+        }
+        Uri uri =
+                Programs.CONTENT_URI
+                        .buildUpon()
+                        .appendQueryParameter(
+                                TvContract.PARAM_START_TIME, String.valueOf(startTimeMs))
+                        .appendQueryParameter(TvContract.PARAM_END_TIME, String.valueOf(endTimeMs))
+                        .build();
+        for (List<Long> ids : Iterables.partition(channelIds, MAX_CHANNELS_PER_QUERY)) {
+            String selection =
+                    Programs.COLUMN_CHANNEL_ID + " IN (" + TextUtils.join(",", ids) + ")";
+            try (Cursor c =
+                    mContext.getContentResolver()
+                            .query(
+                                    uri,
+                                    projection,
+                                    selection,
+                                    null,
+                                    Programs.COLUMN_CHANNEL_ID
+                                            + ", "
+                                            + Programs.COLUMN_START_TIME_UTC_MILLIS)) {
+                if (c == null) {
+                    continue;
+                }
+                while (c.moveToNext()) {
+                    Program program = ProgramImpl.fromCursor(c);
+                    List<Program> programs = programMap.get(program.getChannelId());
+                    if (programs == null) {
+                        programs = new ArrayList<>();
+                        programMap.put(program.getChannelId(), programs);
+                    }
+                    programs.add(program);
+                }
+            }
+        }
+        return programMap;
+    }
+
+    /** Computes the operations of the channels in parallel. */
+    @WorkerThread
+    private List<SizedOperation> computeOperations(
+            Map<Long, List<Program>> oldPrograms, Map<Long, List<Program>> newPrograms) {
+        List<Callable<List<SizedOperation>>> tasks = new ArrayList<>();
+        for (Map.Entry<Long, List<Program>> entry : newPrograms.entrySet()) {
+            List<Program> old = oldPrograms.get(entry.getKey());
+            List<Program> fetched = entry.getValue();
+            tasks.add(
+                    () ->
+                            computeOperations(
+                                    mContext,
+                                    old == null ? Collections.emptyList() : old,
+                                    fetched));
+        }
+        List<SizedOperation> operations = new ArrayList<>();
+        if (tasks.size() <= 1 || DIFF_THREAD_COUNT <= 1) {
+            for (Callable<List<SizedOperation>> task : tasks) {
+                try {
+                    operations.addAll(task.call());
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to compute EPG operations", e);
+                }
+            }
+            return operations;
+        }
+        try {
+            // The unfinished tasks are cancelled by invokeAll if it's interrupted.
+            for (Future<List<SizedOperation>> future : DIFF_EXECUTOR.invokeAll(tasks)) {
+                try {
+                    operations.addAll(future.get());
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Failed to compute EPG operations", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return operations;
+    }
+
+    private static ExecutorService createDiffExecutor() {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        DIFF_THREAD_COUNT,
+                        DIFF_THREAD_COUNT,
+                        DIFF_THREAD_KEEP_ALIVE_MS,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(),
+                        THREAD_FACTORY);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Compares the new programs with old programs one by one and returns the operations which
+     * update or delete the old ones, or insert the new ones if there's no matching program.
+     */
+    @VisibleForTesting
+    static List<SizedOperation> computeOperations(
+            Context context, List<Program> oldPrograms, List<Program> newPrograms) {
+        List<SizedOperation> ops = new ArrayList<>();
+        int oldProgramsIndex = 0;
+        int newProgramsIndex = 0;
+        while (newProgramsIndex < newPrograms.size()) {
+            Program oldProgram =
+                    oldProgramsIndex < oldPrograms.size()
+                            ? oldPrograms.get(oldProgramsIndex)
+                            : null;
+            Program newProgram = newPrograms.get(newProgramsIndex);
+            boolean addNewProgram = false;
+            if (oldProgram != null) {
+                if (oldProgram.equals(newProgram)) {
+                    // Exact match. No need to update. Move on to the next programs.
+                    oldProgramsIndex++;
+                    newProgramsIndex++;
+                } else if (hasSameTitleAndOverlap(oldProgram, newProgram)) {
+                    // Partial match. Update the old program with the new one.
+                    // NOTE: Use 'update' in this case instead of 'insert' and 'delete'. There
+                    // could be application specific settings which belong to the old program.
+                    Uri uri = TvContract.buildProgramUri(oldProgram.getId());
+                    ContentValues values = ProgramImpl.toContentValues(newProgram, context);
+                    ops.add(
+                            new SizedOperation(
+                                    ContentProviderOperation.newUpdate(uri)
+                                            .withValues(values)
+                                            .build(),
+                                    estimateParcelSize(uri, values)));
+                    oldProgramsIndex++;
+                    newProgramsIndex++;
+                } else if (oldProgram.getEndTimeUtcMillis() < newProgram.getEndTimeUtcMillis()) {
+                    // No match. Remove the old program first to see if the next program in
+                    // {@code oldPrograms} partially matches the new program.
+                    Uri uri = TvContract.buildProgramUri(oldProgram.getId());
+                    ops.add(
+                            new SizedOperation(
+                                    ContentProviderOperation.newDelete(uri).build(),
+                                    estimateParcelSize(uri, null)));
+                    oldProgramsIndex++;
+                } else {
+                    // No match. The new program does not match any of the old programs. Insert
+                    // it as a new program.
+                    addNewProgram = true;
+                    newProgramsIndex++;
+                }
+            } else {
+                // No old programs. Just insert new programs.
+                addNewProgram = true;
+                newProgramsIndex++;
+            }
+            if (addNewProgram) {
+                ContentValues values = ProgramImpl.toContentValues(newProgram, context);
+                ops.add(
+                        new SizedOperation(
+                                ContentProviderOperation.newInsert(Programs.CONTENT_URI)
+                                        .withValues(values)
+                                        .build(),
+                                estimateParcelSize(Programs.CONTENT_URI, values)));
+            }
+        }
+        return ops;
+    }
+
+    @VisibleForTesting
+    @WorkerThread
+    void applyOperations(List<SizedOperation> operations, Stats stats) {
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        int batchBytes = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            SizedOperation operation = operations.get(i);
+            if (!batch.isEmpty() && batchBytes + operation.mSizeBytes > MAX_BATCH_BYTES) {
+                applyBatch(batch, batchBytes, stats);
+                batch.clear();
+                batchBytes = 0;
+            }
+            batch.add(operation.mOperation);
+            batchBytes += operation.mSizeBytes;
+        }
+        if (!batch.isEmpty()) {
+            applyBatch(batch, batchBytes, stats);
+        }
+    }
+
+    private void applyBatch(
+            ArrayList<ContentProviderOperation> batch, int batchBytes, Stats stats) {
+        stats.batchCount++;
+        stats.byteCount += batchBytes;
+        try {
+            mContext.getContentResolver().applyBatch(TvContract.AUTHORITY, batch);
+            stats.appliedOperationCount += batch.size();
+        } catch (RemoteException | OperationApplicationException e) {
+            // The next batches are still applied, since they may be for other channels.
+            Log.e(TAG, "Failed to apply " + batch.size() + " program operations.", e);
+            stats.failedBatchCount++;
+        }
+        if (DEBUG) {
+            Log.d(
+                    TAG,
+                    "Applied "
+                            + stats.appliedOperationCount
+                            + "/"
+                            + stats.operationCount
+                            + " program operations ("
+                            + batchBytes
+                            + " bytes in the last batch)");
+        }
+    }
+
+    /** Returns the rough size of the parcel of an operation with the given URI and values. */
+    @VisibleForTesting
+    static int estimateParcelSize(Uri uri, ContentValues values) {
+        int size = OPERATION_OVERHEAD_BYTES + uri.toString().length() * 2;
+        if (values == null) {
+            return size;
+        }
+        for (String key : values.keySet()) {
+            size += VALUE_OVERHEAD_BYTES * 2 + key.length() * 2;
+            Object value = values.get(key);
+            if (value instanceof String) {
+                size += ((String) value).length() * 2;
+            } else if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            } else if (value != null) {
+                size += VALUE_OVERHEAD_BYTES;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if the {@code oldProgram} needs to be updated with the {@code
+     * newProgram}.
+     */
+    private static boolean hasSameTitleAndOverlap(Program oldProgram, Program newProgram) {
+        // NOTE: Here, we update the old program if it has the same title and overlaps with the
+        // new program. The test logic is just an example and you can modify this. E.g. check
+        // whether the both programs have the same program ID if your EPG supports any ID for
+        // the programs.
+        return TextUtils.equals(oldProgram.getTitle(), newProgram.getTitle())
+                && oldProgram.getStartTimeUtcMillis() <= newProgram.getEndTimeUtcMillis()
+                && newProgram.getStartTimeUtcMillis() <= oldProgram.getEndTimeUtcMillis();
+    }
+
+    /** A {@link ContentProviderOperation} with its estimated parcel size. */
+    @VisibleForTesting
+    static final class SizedOperation {
+        final ContentProviderOperation mOperation;
+        final int mSizeBytes;
+
+        SizedOperation(ContentProviderOperation operation, int sizeBytes) {
+            mOperation = operation;
+            mSizeBytes = sizeBytes;
+        }
+    }
+}
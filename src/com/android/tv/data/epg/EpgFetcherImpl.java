@@ -43,6 +43,7 @@ import com.android.tv.TvSingletons;
 import com.android.tv.common.BuildConfig;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.common.buildtype.HasBuildType;
+import com.android.tv.common.concurrent.NamedThreadFactory;
 import com.android.tv.common.dagger.annotations.ApplicationContext;
 import com.android.tv.common.util.Clock;
 import com.android.tv.common.util.CommonUtils;
@@ -74,10 +75,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -120,6 +129,9 @@ public class EpgFetcherImpl implements EpgFetcher {
 
     private static final int MINIMUM_CHANNELS_TO_DECIDE_LINEUP = 3;
 
+    private static final NamedThreadFactory THREAD_FACTORY =
+            new NamedThreadFactory("epg-program-fetch");
+
     private final Context mContext;
     private final ChannelDataManager mChannelDataManager;
     private final EpgReader mEpgReader;
@@ -449,6 +461,15 @@ public class EpgFetcherImpl implements EpgFetcher {
         return null;
     }
 
+    /**
+     * Fetches the programs of the channels in batches and writes them to the database.
+     *
+     * <p>Up to {@link BackendKnobsFlags#epgFetcherConcurrentProgramFetches} batches are fetched at
+     * the same time, while the fetched ones are written one by one on the calling thread. The next
+     * batch isn't fetched until a fetched one is taken by the writer, so the fetched programs don't
+     * pile up when the database is slower than the network. Interrupting the calling thread, e.g.
+     * by {@link #stopFetchingJob}, cancels the pending fetches.
+     */
     @WorkerThread
     private void batchFetchEpg(Set<EpgReader.EpgChannel> epgChannels, long durationSec) {
         Log.i(TAG, "Start batch fetching (" + durationSec + ")...." + epgChannels.size());
@@ -456,25 +477,64 @@ public class EpgFetcherImpl implements EpgFetcher {
             return;
         }
         int batchSize = (int) Math.max(1, mBackendKnobsFlags.epgFetcherChannelsPerProgramFetch());
-        for (Iterable<EpgChannel> batch : Iterables.partition(epgChannels, batchSize)) {
-            batchUpdateEpg(mEpgReader.getPrograms(ImmutableSet.copyOf(batch), durationSec));
+        int concurrency =
+                (int) Math.max(1, mBackendKnobsFlags.epgFetcherConcurrentProgramFetches());
+        Iterator<List<EpgChannel>> batches =
+                Iterables.partition(epgChannels, batchSize).iterator();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, THREAD_FACTORY);
+        CompletionService<Map<EpgChannel, Collection<Program>>> completionService =
+                new ExecutorCompletionService<>(
+                        new NetworkTrafficTags.TrafficStatsTaggingExecutor(
+                                executor, NetworkTrafficTags.EPG_FETCH));
+        int pendingCount = 0;
+        try {
+            for (; pendingCount < concurrency && batches.hasNext(); pendingCount++) {
+                submitBatchFetch(completionService, batches.next(), durationSec);
+            }
+            while (pendingCount > 0) {
+                Future<Map<EpgChannel, Collection<Program>>> fetched = completionService.take();
+                pendingCount--;
+                if (batches.hasNext()) {
+                    submitBatchFetch(completionService, batches.next(), durationSec);
+                    pendingCount++;
+                }
+                try {
+                    batchUpdateEpg(fetched.get());
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to fetch a batch of programs", e.getCause());
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Batch fetching is cancelled with " + pendingCount + " pending fetches");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
         }
     }
 
+    private void submitBatchFetch(
+            CompletionService<Map<EpgChannel, Collection<Program>>> completionService,
+            List<EpgChannel> batch,
+            long durationSec) {
+        completionService.submit(
+                () -> mEpgReader.getPrograms(ImmutableSet.copyOf(batch), durationSec));
+    }
+
     @WorkerThread
     private void batchUpdateEpg(Map<EpgReader.EpgChannel, Collection<Program>> allPrograms) {
+        Map<Long, List<Program>> programMap = new HashMap<>();
         for (Map.Entry<EpgReader.EpgChannel, Collection<Program>> entry : allPrograms.entrySet()) {
             List<Program> programs = new ArrayList<>(entry.getValue());
-            if (programs == null) {
-                continue;
-            }
             Collections.sort(programs);
             Log.i(
                     TAG,
                     "Batch fetched " + programs.size() + " programs for channel " + entry.getKey());
-            EpgFetchHelper.updateEpgData(
-                    mContext, mClock, entry.getKey().getChannel().getId(), programs);
+            programMap.put(entry.getKey().getChannel().getId(), programs);
         }
+        EpgFetchHelper.updateEpgData(mContext, mClock, programMap);
     }
 
     @Nullable
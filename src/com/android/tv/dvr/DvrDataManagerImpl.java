@@ -32,7 +32,6 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.MainThread;
 import android.support.annotation.Nullable;
-import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
@@ -53,6 +52,7 @@ import com.android.tv.dvr.data.SeriesRecording;
 import com.android.tv.dvr.provider.DvrDatabaseHelper;
 import com.android.tv.dvr.provider.DvrDbFuture.AddScheduleFuture;
 import com.android.tv.dvr.provider.DvrDbFuture.AddSeriesRecordingFuture;
+import com.android.tv.dvr.provider.DvrDbFuture.DeleteAndUpdateScheduleFuture;
 import com.android.tv.dvr.provider.DvrDbFuture.DeleteScheduleFuture;
 import com.android.tv.dvr.provider.DvrDbFuture.DeleteSeriesRecordingFuture;
 import com.android.tv.dvr.provider.DvrDbFuture.DvrQueryScheduleFuture;
@@ -96,6 +96,8 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
     private final TvInputManagerHelper mInputManager;
 
     private final HashMap<Long, ScheduledRecording> mScheduledRecordings = new HashMap<>();
+    // Secondary indexes of mScheduledRecordings, which should be updated together.
+    private final ScheduleIndex mScheduleIndex = new ScheduleIndex();
     private final HashMap<Long, RecordedProgram> mRecordedPrograms = new HashMap<>();
     private final HashMap<Long, SeriesRecording> mSeriesRecordings = new HashMap<>();
     private final HashMap<Long, ScheduledRecording> mProgramId2ScheduledRecordings =
@@ -284,7 +286,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                                             == ScheduledRecording.STATE_RECORDING_DELETED) {
                                         getDeletedScheduleMap().put(r.getProgramId(), r);
                                     } else {
-                                        mScheduledRecordings.put(r.getId(), r);
+                                        putScheduledRecording(r);
                                         if (r.getProgramId() != ScheduledRecording.ID_NOT_SET) {
                                             mProgramId2ScheduledRecordings.put(r.getProgramId(), r);
                                         }
@@ -503,14 +505,14 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         return mRecordedProgramLoadFinished;
     }
 
-    private List<ScheduledRecording> getScheduledRecordingsPrograms() {
-        if (!mDvrLoadFinished) {
-            return Collections.emptyList();
-        }
-        ArrayList<ScheduledRecording> list = new ArrayList<>(mScheduledRecordings.size());
-        list.addAll(mScheduledRecordings.values());
-        Collections.sort(list, ScheduledRecording.START_TIME_COMPARATOR);
-        return list;
+    private ScheduledRecording putScheduledRecording(ScheduledRecording schedule) {
+        mScheduleIndex.put(schedule);
+        return mScheduledRecordings.put(schedule.getId(), schedule);
+    }
+
+    private void removeScheduledRecordingById(long scheduleId) {
+        mScheduleIndex.remove(scheduleId);
+        mScheduledRecordings.remove(scheduleId);
     }
 
     @Override
@@ -570,33 +572,18 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
 
     @Override
     public long getNextScheduledStartTimeAfter(long startTime) {
-        return getNextStartTimeAfter(getScheduledRecordingsPrograms(), startTime);
-    }
-
-    @VisibleForTesting
-    static long getNextStartTimeAfter(
-            List<ScheduledRecording> scheduledRecordings, long startTime) {
-        int start = 0;
-        int end = scheduledRecordings.size() - 1;
-        while (start <= end) {
-            int mid = (start + end) / 2;
-            if (scheduledRecordings.get(mid).getStartTimeMs() <= startTime) {
-                start = mid + 1;
-            } else {
-                end = mid - 1;
-            }
+        if (!mDvrLoadFinished) {
+            return NEXT_START_TIME_NOT_FOUND;
         }
-        return start < scheduledRecordings.size()
-                ? scheduledRecordings.get(start).getStartTimeMs()
-                : NEXT_START_TIME_NOT_FOUND;
+        return mScheduleIndex.getNextStartTimeAfter(startTime);
     }
 
     @Override
     public List<ScheduledRecording> getScheduledRecordings(
             Range<Long> period, @RecordingState int state) {
         List<ScheduledRecording> result = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (r.isOverLapping(period) && r.getState() == state) {
+        for (ScheduledRecording r : mScheduleIndex.getOverlapping(period)) {
+            if (r.getState() == state) {
                 result.add(r);
             }
         }
@@ -605,24 +592,12 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
 
     @Override
     public List<ScheduledRecording> getScheduledRecordings(long seriesRecordingId) {
-        List<ScheduledRecording> result = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (r.getSeriesRecordingId() == seriesRecordingId) {
-                result.add(r);
-            }
-        }
-        return result;
+        return mScheduleIndex.getBySeriesRecordingId(seriesRecordingId);
     }
 
     @Override
     public List<ScheduledRecording> getScheduledRecordings(String inputId) {
-        List<ScheduledRecording> result = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (TextUtils.equals(r.getInputId(), inputId)) {
-                result.add(r);
-            }
-        }
-        return result;
+        return mScheduleIndex.getByInputId(inputId);
     }
 
     @Nullable
@@ -661,7 +636,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
             if (r.getId() == ScheduledRecording.ID_NOT_SET) {
                 r.setId(IdGenerator.SCHEDULED_RECORDING.newId());
             }
-            mScheduledRecordings.put(r.getId(), r);
+            putScheduledRecording(r);
             if (r.getProgramId() != ScheduledRecording.ID_NOT_SET) {
                 mProgramId2ScheduledRecordings.put(r.getProgramId(), r);
             }
@@ -706,9 +681,32 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
     public void removeScheduledRecording(boolean forceRemove, ScheduledRecording... schedules) {
         List<ScheduledRecording> schedulesToDelete = new ArrayList<>();
         List<ScheduledRecording> schedulesNotToDelete = new ArrayList<>();
+        removeScheduledRecording(forceRemove, schedules, schedulesToDelete, schedulesNotToDelete);
+        writeScheduleChanges(schedulesToDelete, schedulesNotToDelete);
+    }
+
+    @Override
+    public void removeAndUpdateScheduledRecordings(
+            ScheduledRecording[] schedulesToRemove, ScheduledRecording[] schedulesToUpdate) {
+        List<ScheduledRecording> schedulesToDelete = new ArrayList<>();
+        List<ScheduledRecording> schedulesNotToDelete = new ArrayList<>();
+        removeScheduledRecording(false, schedulesToRemove, schedulesToDelete, schedulesNotToDelete);
+        updateScheduledRecording(true, schedulesToDelete, schedulesNotToDelete, schedulesToUpdate);
+    }
+
+    /**
+     * Removes the schedules from the memory. The schedules to be deleted from the DB and the ones
+     * to be marked deleted in the DB are added to {@code schedulesToDelete} and {@code
+     * schedulesNotToDelete}.
+     */
+    private void removeScheduledRecording(
+            boolean forceRemove,
+            ScheduledRecording[] schedules,
+            List<ScheduledRecording> schedulesToDelete,
+            List<ScheduledRecording> schedulesNotToDelete) {
         Set<Long> seriesRecordingIdsToCheck = new HashSet<>();
         for (ScheduledRecording r : schedules) {
-            mScheduledRecordings.remove(r.getId());
+            removeScheduledRecordingById(r.getId());
             getDeletedScheduleMap().remove(r.getProgramId());
             mProgramId2ScheduledRecordings.remove(r.getProgramId());
             if (r.getSeriesRecordingId() != SeriesRecording.ID_NOT_SET
@@ -750,22 +748,36 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                 schedulesToDelete.add(r);
             }
         }
-        if (!schedulesToDelete.isEmpty()) {
-            ListenableFuture deleteScheduleFuture =
+    }
+
+    /** Deletes and updates the schedules in the DB, in one transaction if both are given. */
+    private void writeScheduleChanges(
+            List<ScheduledRecording> schedulesToDelete, List<ScheduledRecording> schedulesToUpdate) {
+        ListenableFuture future;
+        if (schedulesToUpdate.isEmpty()) {
+            if (schedulesToDelete.isEmpty()) {
+                return;
+            }
+            future =
                     new DeleteScheduleFuture(mDbHelper)
                             .executeOnDbThread(
                                     removeFromSetOnCompletion,
                                     ScheduledRecording.toArray(schedulesToDelete));
-            mNoStopFuture.add(deleteScheduleFuture);
-        }
-        if (!schedulesNotToDelete.isEmpty()) {
-            ListenableFuture updateScheduleFuture =
+        } else if (schedulesToDelete.isEmpty()) {
+            future =
                     new UpdateScheduleFuture(mDbHelper)
                             .executeOnDbThread(
                                     removeFromSetOnCompletion,
-                                    ScheduledRecording.toArray(schedulesNotToDelete));
-            mNoStopFuture.add(updateScheduleFuture);
+                                    ScheduledRecording.toArray(schedulesToUpdate));
+        } else {
+            future =
+                    new DeleteAndUpdateScheduleFuture(mDbHelper)
+                            .executeOnDbThread(
+                                    removeFromSetOnCompletion,
+                                    ScheduledRecording.toArray(schedulesToDelete),
+                                    ScheduledRecording.toArray(schedulesToUpdate));
         }
+        mNoStopFuture.add(future);
     }
 
     @Override
@@ -779,8 +791,8 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         // Reset series recording ID of the scheduled recording.
         List<ScheduledRecording> toUpdate = new ArrayList<>();
         List<ScheduledRecording> toDelete = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (ids.contains(r.getSeriesRecordingId())) {
+        for (long id : ids) {
+            for (ScheduledRecording r : mScheduleIndex.getBySeriesRecordingId(id)) {
                 if (r.getState() == ScheduledRecording.STATE_RECORDING_NOT_STARTED) {
                     toDelete.add(r);
                 } else {
@@ -815,6 +827,18 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
     }
 
     private void updateScheduledRecording(boolean updateDb, final ScheduledRecording... schedules) {
+        updateScheduledRecording(updateDb, new ArrayList<>(), new ArrayList<>(), schedules);
+    }
+
+    /**
+     * Updates the schedules. The DB changes of the preceding removal, {@code schedulesToDelete} and
+     * {@code schedulesToUpdateInDb}, are written along with the update in one transaction.
+     */
+    private void updateScheduledRecording(
+            boolean updateDb,
+            List<ScheduledRecording> schedulesToDelete,
+            List<ScheduledRecording> schedulesToUpdateInDb,
+            final ScheduledRecording... schedules) {
         List<ScheduledRecording> toUpdate = new ArrayList<>();
         Set<Long> seriesRecordingIdsToCheck = new HashSet<>();
         for (ScheduledRecording r : schedules) {
@@ -825,7 +849,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                 continue;
             }
             toUpdate.add(r);
-            ScheduledRecording oldScheduledRecording = mScheduledRecordings.put(r.getId(), r);
+            ScheduledRecording oldScheduledRecording = putScheduledRecording(r);
             // The channel ID should not be changed.
             SoftPreconditions.checkState(r.getChannelId() == oldScheduledRecording.getChannelId());
             long programId = r.getProgramId();
@@ -850,6 +874,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
             }
         }
         if (toUpdate.isEmpty()) {
+            writeScheduleChanges(schedulesToDelete, schedulesToUpdateInDb);
             return;
         }
         ScheduledRecording[] scheduleArray = ScheduledRecording.toArray(toUpdate);
@@ -857,11 +882,9 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
             notifyScheduledRecordingStatusChanged(scheduleArray);
         }
         if (updateDb) {
-            ListenableFuture updateScheduleFuture =
-                    new UpdateScheduleFuture(mDbHelper)
-                            .executeOnDbThread(removeFromSetOnCompletion, scheduleArray);
-            mNoStopFuture.add(updateScheduleFuture);
+            schedulesToUpdateInDb.addAll(toUpdate);
         }
+        writeScheduleChanges(schedulesToDelete, schedulesToUpdateInDb);
         checkAndRemoveEmptySeriesRecording(seriesRecordingIdsToCheck);
         removeDeletedSchedules(schedules);
     }
@@ -967,6 +990,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                         });
         if (!movedSchedules.isEmpty()) {
             for (ScheduledRecording schedule : movedSchedules) {
+                mScheduleIndex.put(schedule);
                 mProgramId2ScheduledRecordings.put(schedule.getProgramId(), schedule);
             }
         }
@@ -1015,6 +1039,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                         r -> r.getInputId().equals(inputId));
         if (!movedSchedules.isEmpty()) {
             for (ScheduledRecording schedule : movedSchedules) {
+                mScheduleIndex.remove(schedule.getId());
                 mProgramId2ScheduledRecordings.remove(schedule.getProgramId());
             }
         }
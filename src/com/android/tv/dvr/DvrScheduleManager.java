@@ -22,6 +22,7 @@ import android.media.tv.TvInputInfo;
 import android.os.Build;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.util.ArraySet;
 import android.util.Range;
@@ -35,11 +36,11 @@ import com.android.tv.dvr.DvrDataManager.OnDvrScheduleLoadFinishedListener;
 import com.android.tv.dvr.DvrDataManager.ScheduledRecordingListener;
 import com.android.tv.dvr.data.ScheduledRecording;
 import com.android.tv.dvr.data.SeriesRecording;
-import com.android.tv.dvr.recorder.InputTaskScheduler;
 import com.android.tv.util.CompositeComparator;
 import com.android.tv.util.Utils;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -69,19 +70,11 @@ public class DvrScheduleManager {
                     ScheduledRecording.START_TIME_COMPARATOR,
                     ScheduledRecording.ID_COMPARATOR.reversed());
 
-    // The candidate comparator should be the consistent with
-    // InputTaskScheduler#CANDIDATE_COMPARATOR.
-    private static final Comparator<ScheduledRecording> CANDIDATE_COMPARATOR =
-            new CompositeComparator<>(
-                    ScheduledRecording.PRIORITY_COMPARATOR,
-                    ScheduledRecording.END_TIME_COMPARATOR,
-                    ScheduledRecording.ID_COMPARATOR);
-
     private final Context mContext;
     private final DvrDataManager mDataManager;
     private final ChannelDataManager mChannelDataManager;
 
-    private final Map<String, List<ScheduledRecording>> mInputScheduleMap = new HashMap<>();
+    private final Map<String, ScheduleIndex> mInputScheduleMap = new HashMap<>();
     // The inner map is a hash map from scheduled recording to its conflicting status, i.e.,
     // the boolean value true denotes the schedule is just partially conflicting, which means
     // although there's conflict, it might still be recorded partially.
@@ -121,6 +114,7 @@ public class DvrScheduleManager {
                         if (!mInitialized) {
                             return;
                         }
+                        Map<String, List<Range<Long>>> changedRanges = new HashMap<>();
                         for (ScheduledRecording schedule : scheduledRecordings) {
                             if (!schedule.isNotStarted() && !schedule.isInProgress()) {
                                 continue;
@@ -135,14 +129,10 @@ public class DvrScheduleManager {
                                 continue;
                             }
                             String inputId = input.getId();
-                            List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
-                            if (schedules == null) {
-                                schedules = new ArrayList<>();
-                                mInputScheduleMap.put(inputId, schedules);
-                            }
-                            schedules.add(schedule);
+                            getOrCreateScheduleIndex(inputId).put(schedule);
+                            addChangedRange(changedRanges, inputId, schedule);
                         }
-                        onSchedulesChanged();
+                        onSchedulesChanged(changedRanges);
                         notifyScheduledRecordingAdded(scheduledRecordings);
                     }
 
@@ -152,6 +142,7 @@ public class DvrScheduleManager {
                         if (!mInitialized) {
                             return;
                         }
+                        Map<String, List<Range<Long>>> changedRanges = new HashMap<>();
                         for (ScheduledRecording schedule : scheduledRecordings) {
                             TvInputInfo input =
                                     Utils.getTvInputInfoForInputId(mContext, schedule.getInputId());
@@ -162,13 +153,14 @@ public class DvrScheduleManager {
                                 continue;
                             }
                             String inputId = input.getId();
-                            List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
+                            ScheduleIndex schedules = mInputScheduleMap.get(inputId);
                             if (schedules != null) {
-                                schedules.remove(schedule);
+                                schedules.remove(schedule.getId());
                                 if (schedules.isEmpty()) {
                                     mInputScheduleMap.remove(inputId);
                                 }
                             }
+                            addChangedRange(changedRanges, inputId, schedule);
                             Map<Long, ConflictInfo> conflictInfo =
                                     mInputConflictInfoMap.get(inputId);
                             if (conflictInfo != null) {
@@ -178,7 +170,7 @@ public class DvrScheduleManager {
                                 }
                             }
                         }
-                        onSchedulesChanged();
+                        onSchedulesChanged(changedRanges);
                         notifyScheduledRecordingRemoved(scheduledRecordings);
                     }
 
@@ -188,6 +180,7 @@ public class DvrScheduleManager {
                         if (!mInitialized) {
                             return;
                         }
+                        Map<String, List<Range<Long>>> changedRanges = new HashMap<>();
                         for (ScheduledRecording schedule : scheduledRecordings) {
                             TvInputInfo input =
                                     Utils.getTvInputInfoForInputId(mContext, schedule.getInputId());
@@ -199,24 +192,18 @@ public class DvrScheduleManager {
                                 continue;
                             }
                             String inputId = input.getId();
-                            List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
-                            if (schedules == null) {
-                                schedules = new ArrayList<>();
-                                mInputScheduleMap.put(inputId, schedules);
-                            }
+                            ScheduleIndex schedules = getOrCreateScheduleIndex(inputId);
                             // Compare ID because ScheduledRecording.equals() doesn't work if the
-                            // state
-                            // is changed.
-                            for (Iterator<ScheduledRecording> i = schedules.iterator();
-                                    i.hasNext(); ) {
-                                if (i.next().getId() == schedule.getId()) {
-                                    i.remove();
-                                    break;
-                                }
+                            // state is changed.
+                            ScheduledRecording oldSchedule = schedules.get(schedule.getId());
+                            if (oldSchedule != null) {
+                                schedules.remove(oldSchedule.getId());
+                                addChangedRange(changedRanges, inputId, oldSchedule);
                             }
                             if (schedule.isNotStarted() || schedule.isInProgress()) {
-                                schedules.add(schedule);
+                                schedules.put(schedule);
                             }
+                            addChangedRange(changedRanges, inputId, schedule);
                             if (schedules.isEmpty()) {
                                 mInputScheduleMap.remove(inputId);
                             }
@@ -230,7 +217,7 @@ public class DvrScheduleManager {
                                 }
                             }
                         }
-                        onSchedulesChanged();
+                        onSchedulesChanged(changedRanges);
                         notifyScheduledRecordingStatusChanged(scheduledRecordings);
                     }
                 };
@@ -263,9 +250,9 @@ public class DvrScheduleManager {
             return Collections.emptyList();
         }
         List<ScheduledRecording> result = new ArrayList<>();
-        List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
+        ScheduleIndex schedules = mInputScheduleMap.get(inputId);
         if (schedules != null) {
-            for (ScheduledRecording schedule : schedules) {
+            for (ScheduledRecording schedule : schedules.getAll()) {
                 if (schedule.getState() == ScheduledRecording.STATE_RECORDING_IN_PROGRESS) {
                     result.add(schedule);
                 }
@@ -285,27 +272,52 @@ public class DvrScheduleManager {
                 String inputId = channel.getInputId();
                 // Do not check whether the input is valid or not. The input might be temporarily
                 // invalid.
-                List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
-                if (schedules == null) {
-                    schedules = new ArrayList<>();
-                    mInputScheduleMap.put(inputId, schedules);
-                }
-                schedules.add(schedule);
+                getOrCreateScheduleIndex(inputId).put(schedule);
             }
         }
         if (!mInitialized) {
             mInitialized = true;
             notifyInitialize();
         }
-        onSchedulesChanged();
+        onSchedulesChanged(null);
+    }
+
+    private ScheduleIndex getOrCreateScheduleIndex(String inputId) {
+        ScheduleIndex schedules = mInputScheduleMap.get(inputId);
+        if (schedules == null) {
+            schedules = new ScheduleIndex();
+            mInputScheduleMap.put(inputId, schedules);
+        }
+        return schedules;
+    }
+
+    private static void addChangedRange(
+            Map<String, List<Range<Long>>> changedRanges,
+            String inputId,
+            ScheduledRecording schedule) {
+        List<Range<Long>> ranges = changedRanges.get(inputId);
+        if (ranges == null) {
+            ranges = new ArrayList<>();
+            changedRanges.put(inputId, ranges);
+        }
+        ranges.add(new Range<>(schedule.getStartTimeMs(), schedule.getEndTimeMs()));
     }
 
-    private void onSchedulesChanged() {
+    /**
+     * Updates the conflicts.
+     *
+     * @param changedRanges the periods of the added, removed or updated schedules per input. Only
+     *     the schedules connected to them are checked again. If {@code null}, all the schedules
+     *     are checked.
+     */
+    private void onSchedulesChanged(@Nullable Map<String, List<Range<Long>>> changedRanges) {
         // TODO: notify conflict state change when some conflicting recording becomes partially
         //       conflicting, vice versa.
         List<ScheduledRecording> addedConflicts = new ArrayList<>();
         List<ScheduledRecording> removedConflicts = new ArrayList<>();
-        for (String inputId : mInputScheduleMap.keySet()) {
+        Set<String> inputIds =
+                changedRanges == null ? mInputScheduleMap.keySet() : changedRanges.keySet();
+        for (String inputId : inputIds) {
             Map<Long, ConflictInfo> oldConflictInfo = mInputConflictInfoMap.get(inputId);
             Map<Long, ScheduledRecording> oldConflictMap = new HashMap<>();
             if (oldConflictInfo != null) {
@@ -313,13 +325,40 @@ public class DvrScheduleManager {
                     oldConflictMap.put(conflictInfo.schedule.getId(), conflictInfo.schedule);
                 }
             }
-            List<ConflictInfo> conflicts = getConflictingSchedulesInfo(inputId);
-            if (conflicts.isEmpty()) {
+            Map<Long, ConflictInfo> conflictInfos = new HashMap<>();
+            List<ConflictInfo> conflicts;
+            if (changedRanges == null) {
+                conflicts = getConflictingSchedulesInfo(inputId);
+            } else {
+                ScheduleIndex schedules = mInputScheduleMap.get(inputId);
+                List<Range<Long>> spans =
+                        schedules == null
+                                ? changedRanges.get(inputId)
+                                : ScheduleConflictEngine.getAffectedSpans(
+                                        schedules, changedRanges.get(inputId));
+                // Keeps the conflicts out of the spans, which are not affected.
+                if (oldConflictInfo != null) {
+                    for (ConflictInfo conflictInfo : oldConflictInfo.values()) {
+                        if (!ScheduleConflictEngine.isInSpans(spans, conflictInfo.schedule)) {
+                            conflictInfos.put(conflictInfo.schedule.getId(), conflictInfo);
+                        }
+                    }
+                }
+                conflicts =
+                        schedules == null
+                                ? Collections.emptyList()
+                                : getConflictingSchedulesInfo(
+                                        inputId,
+                                        ScheduleConflictEngine.getSchedulesInSpans(
+                                                schedules, spans));
+            }
+            for (ConflictInfo conflictInfo : conflicts) {
+                conflictInfos.put(conflictInfo.schedule.getId(), conflictInfo);
+            }
+            if (conflictInfos.isEmpty()) {
                 mInputConflictInfoMap.remove(inputId);
             } else {
-                Map<Long, ConflictInfo> conflictInfos = new HashMap<>();
-                for (ConflictInfo conflictInfo : conflicts) {
-                    conflictInfos.put(conflictInfo.schedule.getId(), conflictInfo);
+                for (ConflictInfo conflictInfo : conflictInfos.values()) {
                     if (oldConflictMap.remove(conflictInfo.schedule.getId()) == null) {
                         addedConflicts.add(conflictInfo.schedule);
                     }
@@ -433,15 +472,15 @@ public class DvrScheduleManager {
 
     /** Suggests the higher priority than the schedules which overlap with {@code schedule}. */
     public long suggestHighestPriority(ScheduledRecording schedule) {
-        List<ScheduledRecording> schedules = mInputScheduleMap.get(schedule.getInputId());
+        ScheduleIndex schedules = mInputScheduleMap.get(schedule.getInputId());
         if (schedules == null) {
             return DEFAULT_PRIORITY;
         }
         long highestPriority = Long.MIN_VALUE;
-        for (ScheduledRecording r : schedules) {
-            if (!r.equals(schedule)
-                    && r.isOverLapping(schedule)
-                    && r.getPriority() > highestPriority) {
+        for (ScheduledRecording r :
+                schedules.getOverlapping(
+                        new Range<>(schedule.getStartTimeMs(), schedule.getEndTimeMs()))) {
+            if (!r.equals(schedule) && r.getPriority() > highestPriority) {
                 highestPriority = r.getPriority();
             }
         }
@@ -453,13 +492,13 @@ public class DvrScheduleManager {
 
     /** Suggests the higher priority than the schedules which overlap with {@code schedule}. */
     public long suggestHighestPriority(String inputId, Range<Long> peroid, long basePriority) {
-        List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
+        ScheduleIndex schedules = mInputScheduleMap.get(inputId);
         if (schedules == null) {
             return DEFAULT_PRIORITY;
         }
         long highestPriority = Long.MIN_VALUE;
-        for (ScheduledRecording r : schedules) {
-            if (r.isOverLapping(peroid) && r.getPriority() > highestPriority) {
+        for (ScheduledRecording r : schedules.getOverlapping(peroid)) {
+            if (r.getPriority() > highestPriority) {
                 highestPriority = r.getPriority();
             }
         }
@@ -597,17 +636,25 @@ public class DvrScheduleManager {
      */
     @NonNull
     private List<ConflictInfo> getConflictingSchedulesInfo(String inputId) {
+        ScheduleIndex schedules = mInputScheduleMap.get(inputId);
+        if (schedules == null || schedules.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return getConflictingSchedulesInfo(inputId, schedules.getAll());
+    }
+
+    /** Returns the conflicting schedules among the given schedules of the input. */
+    @NonNull
+    private List<ConflictInfo> getConflictingSchedulesInfo(
+            String inputId, Collection<ScheduledRecording> schedules) {
         SoftPreconditions.checkState(mInitialized, TAG, "Not initialized yet");
         TvInputInfo input = Utils.getTvInputInfoForInputId(mContext, inputId);
         SoftPreconditions.checkState(input != null, TAG, "Can't find input for : " + inputId);
-        if (!mInitialized || input == null) {
+        if (!mInitialized || input == null || schedules.isEmpty()) {
             return Collections.emptyList();
         }
-        List<ScheduledRecording> schedules = mInputScheduleMap.get(input.getId());
-        if (schedules == null || schedules.isEmpty()) {
-            return Collections.emptyList();
-        }
-        return getConflictingSchedulesInfo(schedules, input.getTunerCount());
+        return new ArrayList<>(
+                ScheduleConflictEngine.getConflicts(schedules, input.getTunerCount()));
     }
 
     /**
@@ -717,7 +764,7 @@ public class DvrScheduleManager {
         if (!mInitialized || channelId == Channel.INVALID_ID || input == null) {
             return Collections.emptyList();
         }
-        List<ScheduledRecording> schedules = mInputScheduleMap.get(input.getId());
+        ScheduleIndex schedules = mInputScheduleMap.get(input.getId());
         if (schedules == null || schedules.isEmpty()) {
             return Collections.emptyList();
         }
@@ -726,7 +773,7 @@ public class DvrScheduleManager {
                 channelId,
                 System.currentTimeMillis(),
                 suggestNewPriority(),
-                schedules,
+                schedules.getAll(),
                 input.getTunerCount());
     }
 
@@ -736,11 +783,12 @@ public class DvrScheduleManager {
         if (input == null || !input.canRecord() || input.getTunerCount() <= 0) {
             return Collections.emptyList();
         }
-        List<ScheduledRecording> currentSchedules = mInputScheduleMap.get(input.getId());
+        ScheduleIndex currentSchedules = mInputScheduleMap.get(input.getId());
         if (currentSchedules == null || currentSchedules.isEmpty()) {
             return Collections.emptyList();
         }
-        return getConflictingSchedules(schedulesToAdd, currentSchedules, input.getTunerCount());
+        return getConflictingSchedules(
+                schedulesToAdd, currentSchedules.getAll(), input.getTunerCount());
     }
 
     @VisibleForTesting
@@ -833,96 +881,22 @@ public class DvrScheduleManager {
      * <p>Note that this method will ignore duplicated schedules with a same hash code. (Please
      * refer to {@link ScheduledRecording#hashCode}.)
      *
-     * @return A {@link HashMap} from {@link ScheduledRecording} to {@link Boolean}. The boolean
-     *     value denotes if the scheduled recording is partially conflicting, i.e., is possible to
-     *     be partially recorded under the given schedules and tuner count {@code true}, or not
-     *     {@code false}.
+     * @return The conflicting schedules in the order of {@code RESULT_COMPARATOR}. {@link
+     *     ConflictInfo#partialConflict} denotes if the scheduled recording is partially
+     *     conflicting, i.e., is possible to be partially recorded under the given schedules and
+     *     tuner count {@code true}, or not {@code false}.
+     * @see ScheduleConflictEngine
      */
     private static List<ConflictInfo> getConflictingSchedulesInfo(
             List<ScheduledRecording> schedules, int tunerCount, List<Range<Long>> periods) {
-        List<ScheduledRecording> schedulesToCheck = new ArrayList<>(schedules);
-        // Sort by the same order as that in InputTaskScheduler.
-        Collections.sort(schedulesToCheck, InputTaskScheduler.getRecordingOrderComparator());
-        List<ScheduledRecording> recordings = new ArrayList<>();
-        Map<ScheduledRecording, ConflictInfo> conflicts = new HashMap<>();
-        Map<ScheduledRecording, ScheduledRecording> modified2OriginalSchedules = new HashMap<>();
-        // Simulate InputTaskScheduler.
-        while (!schedulesToCheck.isEmpty()) {
-            ScheduledRecording schedule = schedulesToCheck.remove(0);
-            removeFinishedRecordings(recordings, schedule.getStartTimeMs());
-            if (recordings.size() < tunerCount) {
-                recordings.add(schedule);
-                if (modified2OriginalSchedules.containsKey(schedule)) {
-                    // Schedule has been modified, which means it's already conflicted.
-                    // Modify its state to partially conflicted.
-                    ScheduledRecording originalSchedule = modified2OriginalSchedules.get(schedule);
-                    conflicts.put(originalSchedule, new ConflictInfo(originalSchedule, true));
-                }
-            } else {
-                ScheduledRecording candidate = findReplaceableRecording(recordings, schedule);
-                if (candidate != null) {
-                    if (!modified2OriginalSchedules.containsKey(candidate)) {
-                        conflicts.put(candidate, new ConflictInfo(candidate, true));
-                    }
-                    recordings.remove(candidate);
-                    recordings.add(schedule);
-                    if (modified2OriginalSchedules.containsKey(schedule)) {
-                        // Schedule has been modified, which means it's already conflicted.
-                        // Modify its state to partially conflicted.
-                        ScheduledRecording originalSchedule =
-                                modified2OriginalSchedules.get(schedule);
-                        conflicts.put(originalSchedule, new ConflictInfo(originalSchedule, true));
-                    }
-                } else {
-                    if (!modified2OriginalSchedules.containsKey(schedule)) {
-                        // if schedule has been modified, it's already conflicted.
-                        // No need to add it again.
-                        conflicts.put(schedule, new ConflictInfo(schedule, false));
-                    }
-                    long earliestEndTime = getEarliestEndTime(recordings);
-                    if (earliestEndTime < schedule.getEndTimeMs()) {
-                        // The schedule can starts when other recording ends even though it's
-                        // clipped.
-                        ScheduledRecording modifiedSchedule =
-                                ScheduledRecording.buildFrom(schedule)
-                                        .setStartTimeMs(earliestEndTime)
-                                        .build();
-                        ScheduledRecording originalSchedule =
-                                modified2OriginalSchedules.getOrDefault(schedule, schedule);
-                        modified2OriginalSchedules.put(modifiedSchedule, originalSchedule);
-                        int insertPosition =
-                                Collections.binarySearch(
-                                        schedulesToCheck,
-                                        modifiedSchedule,
-                                        ScheduledRecording
-                                                .START_TIME_THEN_PRIORITY_THEN_ID_COMPARATOR);
-                        if (insertPosition >= 0) {
-                            schedulesToCheck.add(insertPosition, modifiedSchedule);
-                        } else {
-                            schedulesToCheck.add(-insertPosition - 1, modifiedSchedule);
-                        }
-                    }
-                }
-            }
-        }
-        // Returns only the schedules with the given range.
-        if (periods != null && !periods.isEmpty()) {
-            for (Iterator<ScheduledRecording> iter = conflicts.keySet().iterator();
-                    iter.hasNext(); ) {
-                boolean overlapping = false;
-                ScheduledRecording schedule = iter.next();
-                for (Range<Long> period : periods) {
-                    if (schedule.isOverLapping(period)) {
-                        overlapping = true;
-                        break;
-                    }
-                }
-                if (!overlapping) {
-                    iter.remove();
-                }
+        List<ConflictInfo> result = new ArrayList<>();
+        for (ConflictInfo conflictInfo :
+                ScheduleConflictEngine.getConflicts(schedules, tunerCount)) {
+            // Returns only the schedules with the given range.
+            if (periods == null || periods.isEmpty() || isOverlapping(conflictInfo, periods)) {
+                result.add(conflictInfo);
             }
         }
-        List<ConflictInfo> result = new ArrayList<>(conflicts.values());
         Collections.sort(
                 result,
                 (ConflictInfo lhs, ConflictInfo rhs) ->
@@ -930,41 +904,13 @@ public class DvrScheduleManager {
         return result;
     }
 
-    private static void removeFinishedRecordings(
-            List<ScheduledRecording> recordings, long currentTimeMs) {
-        for (Iterator<ScheduledRecording> iter = recordings.iterator(); iter.hasNext(); ) {
-            if (iter.next().getEndTimeMs() <= currentTimeMs) {
-                iter.remove();
+    private static boolean isOverlapping(ConflictInfo conflictInfo, List<Range<Long>> periods) {
+        for (Range<Long> period : periods) {
+            if (conflictInfo.schedule.isOverLapping(period)) {
+                return true;
             }
         }
-    }
-
-    /** @see InputTaskScheduler#getReplacableTask */
-    private static ScheduledRecording findReplaceableRecording(
-            List<ScheduledRecording> recordings, ScheduledRecording schedule) {
-        // Returns the recording with the following priority.
-        // 1. The recording with the lowest priority is returned.
-        // 2. If the priorities are the same, the recording which finishes early is returned.
-        // 3. If 1) and 2) are the same, the early created schedule is returned.
-        ScheduledRecording candidate = null;
-        for (ScheduledRecording recording : recordings) {
-            if (schedule.getPriority() > recording.getPriority()) {
-                if (candidate == null || CANDIDATE_COMPARATOR.compare(candidate, recording) > 0) {
-                    candidate = recording;
-                }
-            }
-        }
-        return candidate;
-    }
-
-    private static long getEarliestEndTime(List<ScheduledRecording> recordings) {
-        long earliest = Long.MAX_VALUE;
-        for (ScheduledRecording recording : recordings) {
-            if (earliest > recording.getEndTimeMs()) {
-                earliest = recording.getEndTimeMs();
-            }
-        }
-        return earliest;
+        return false;
     }
 
     @VisibleForTesting
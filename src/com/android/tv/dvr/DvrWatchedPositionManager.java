@@ -17,17 +17,21 @@
 package com.android.tv.dvr;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.media.tv.TvInputManager;
+import android.os.AsyncTask;
 import android.support.annotation.IntDef;
 
 import com.android.tv.common.util.SharedPreferencesUtils;
 import com.android.tv.dvr.data.RecordedProgram;
 
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -35,9 +39,13 @@ import java.util.concurrent.CopyOnWriteArraySet;
 /**
  * A class to manage DVR watched state. It will remember and provides previous watched position of
  * DVR playback.
+ *
+ * <p>The positions are kept in {@link WatchedPositionStore}.
  */
 public class DvrWatchedPositionManager {
-    private SharedPreferences mWatchedPositions;
+    private static final String STORE_FILE_NAME = "dvr_watched_positions";
+
+    private final WatchedPositionStore mWatchedPositions;
     private final Map<Long, Set<WatchedPositionChangedListener>> mListeners = new HashMap<>();
 
     /**
@@ -58,21 +66,40 @@ public class DvrWatchedPositionManager {
 
     public DvrWatchedPositionManager(Context context) {
         mWatchedPositions =
-                context.getSharedPreferences(
-                        SharedPreferencesUtils.SHARED_PREF_DVR_WATCHED_POSITION,
-                        Context.MODE_PRIVATE);
+                new WatchedPositionStore(
+                        new File(context.getFilesDir(), STORE_FILE_NAME),
+                        context.getSharedPreferences(
+                                SharedPreferencesUtils.SHARED_PREF_DVR_WATCHED_POSITION,
+                                Context.MODE_PRIVATE),
+                        MoreExecutors.newSequentialExecutor(AsyncTask.THREAD_POOL_EXECUTOR));
     }
 
-    /** Sets the watched position of the give program. */
+    /**
+     * Sets the watched position of the give program. The positions set during the playback are
+     * written together later, call {@link #flush()} when the playback stops.
+     */
     public void setWatchedPosition(long recordedProgramId, long positionMs) {
-        mWatchedPositions.edit().putLong(Long.toString(recordedProgramId), positionMs).apply();
+        mWatchedPositions.put(recordedProgramId, positionMs);
         notifyWatchedPositionChanged(recordedProgramId, positionMs);
     }
 
     /** Gets the watched position of the give program. */
     public long getWatchedPosition(long recordedProgramId) {
-        return mWatchedPositions.getLong(
-                Long.toString(recordedProgramId), TvInputManager.TIME_SHIFT_INVALID_TIME);
+        return mWatchedPositions.get(recordedProgramId);
+    }
+
+    /** Gets the watched positions of the given programs at once, in the same order. */
+    public long[] getWatchedPositions(List<RecordedProgram> recordedPrograms) {
+        long[] recordedProgramIds = new long[recordedPrograms.size()];
+        for (int i = 0; i < recordedProgramIds.length; i++) {
+            recordedProgramIds[i] = recordedPrograms.get(i).getId();
+        }
+        return mWatchedPositions.get(recordedProgramIds);
+    }
+
+    /** Writes the watched positions which are not written yet. */
+    public void flush() {
+        mWatchedPositions.flush();
     }
 
     @DvrWatchedStatus
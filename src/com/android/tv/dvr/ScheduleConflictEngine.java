@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import android.util.Range;
+import com.android.tv.dvr.DvrScheduleManager.ConflictInfo;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.dvr.recorder.InputTaskScheduler;
+import com.android.tv.util.CompositeComparator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Finds the conflicting schedules by simulating {@link InputTaskScheduler} with a sweep line.
+ *
+ * <p>The schedules are events ordered by the start time. While sweeping, the recordings in
+ * progress are kept in a priority queue of the end time, so the finished ones are removed from
+ * the head, and in a set ordered as the replacement candidates.
+ *
+ * <p>The schedules which are connected by overlapping each other don't affect the others, so when
+ * some schedules change, only the schedules connected to them need to be simulated again. See
+ * {@link #getAffectedSpans}.
+ */
+final class ScheduleConflictEngine {
+    // The candidate comparator should be the consistent with
+    // InputTaskScheduler#CANDIDATE_COMPARATOR.
+    private static final Comparator<ScheduledRecording> CANDIDATE_COMPARATOR =
+            new CompositeComparator<>(
+                    ScheduledRecording.PRIORITY_COMPARATOR,
+                    ScheduledRecording.END_TIME_COMPARATOR,
+                    ScheduledRecording.ID_COMPARATOR);
+
+    /**
+     * Returns the conflicting schedules and whether they can be recorded partially.
+     *
+     * <p>Note that duplicated schedules with a same hash code are reported once. (Please refer to
+     * {@link ScheduledRecording#hashCode}.)
+     */
+    static Collection<ConflictInfo> getConflicts(
+            Collection<ScheduledRecording> schedules, int tunerCount) {
+        Comparator<ScheduledRecording> recordingOrder =
+                InputTaskScheduler.getRecordingOrderComparator();
+        PriorityQueue<Event> events =
+                new PriorityQueue<>(
+                        Math.max(1, schedules.size()),
+                        (lhs, rhs) -> {
+                            int compare = recordingOrder.compare(lhs.mSchedule, rhs.mSchedule);
+                            return compare != 0 ? compare : Long.compare(lhs.mOrder, rhs.mOrder);
+                        });
+        long order = 0;
+        for (ScheduledRecording schedule : schedules) {
+            events.add(new Event(schedule, null, order++));
+        }
+        PriorityQueue<Event> recordingsByEndTime =
+                new PriorityQueue<>(
+                        Math.max(1, tunerCount),
+                        (lhs, rhs) ->
+                                Long.compare(
+                                        lhs.mSchedule.getEndTimeMs(),
+                                        rhs.mSchedule.getEndTimeMs()));
+        TreeSet<Event> candidates =
+                new TreeSet<>(
+                        (lhs, rhs) -> {
+                            int compare =
+                                    CANDIDATE_COMPARATOR.compare(lhs.mSchedule, rhs.mSchedule);
+                            return compare != 0 ? compare : Long.compare(lhs.mOrder, rhs.mOrder);
+                        });
+        Map<ScheduledRecording, ConflictInfo> conflicts = new HashMap<>();
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            ScheduledRecording schedule = event.mSchedule;
+            while (!recordingsByEndTime.isEmpty()
+                    && recordingsByEndTime.peek().mSchedule.getEndTimeMs()
+                            <= schedule.getStartTimeMs()) {
+                candidates.remove(recordingsByEndTime.poll());
+            }
+            if (recordingsByEndTime.size() < tunerCount) {
+                recordingsByEndTime.add(event);
+                candidates.add(event);
+                if (event.mOriginal != null) {
+                    // The clipped schedule can be recorded partially.
+                    conflicts.put(event.mOriginal, new ConflictInfo(event.mOriginal, true));
+                }
+                continue;
+            }
+            // The recording with the lowest priority which finishes early is replaced.
+            Event candidate = candidates.isEmpty() ? null : candidates.first();
+            if (candidate != null
+                    && candidate.mSchedule.getPriority() < schedule.getPriority()) {
+                if (candidate.mOriginal == null) {
+                    conflicts.put(
+                            candidate.mSchedule, new ConflictInfo(candidate.mSchedule, true));
+                }
+                candidates.remove(candidate);
+                recordingsByEndTime.remove(candidate);
+                recordingsByEndTime.add(event);
+                candidates.add(event);
+                if (event.mOriginal != null) {
+                    conflicts.put(event.mOriginal, new ConflictInfo(event.mOriginal, true));
+                }
+                continue;
+            }
+            if (event.mOriginal == null) {
+                // If the schedule has been clipped, it's already conflicted.
+                conflicts.put(schedule, new ConflictInfo(schedule, false));
+            }
+            long earliestEndTime =
+                    recordingsByEndTime.isEmpty()
+                            ? Long.MAX_VALUE
+                            : recordingsByEndTime.peek().mSchedule.getEndTimeMs();
+            if (earliestEndTime < schedule.getEndTimeMs()) {
+                // The schedule can start when other recording ends even though it's clipped.
+                events.add(
+                        new Event(
+                                ScheduledRecording.buildFrom(schedule)
+                                        .setStartTimeMs(earliestEndTime)
+                                        .build(),
+                                event.mOriginal != null ? event.mOriginal : schedule,
+                                order++));
+            }
+        }
+        return conflicts.values();
+    }
+
+    /**
+     * Returns the spans which should be simulated again when the schedules in the {@code ranges}
+     * are changed.
+     *
+     * <p>Each span covers all the schedules in {@code index} which are connected to the ranges by
+     * overlapping or touching each other, so the conflicts of the schedules in the spans don't
+     * depend on the schedules out of them. The schedules touching at the end are considered
+     * connected to be on the safe side.
+     */
+    static List<Range<Long>> getAffectedSpans(ScheduleIndex index, List<Range<Long>> ranges) {
+        List<Range<Long>> spans = new ArrayList<>();
+        ArrayDeque<Range<Long>> toQuery = new ArrayDeque<>();
+        for (Range<Long> range : ranges) {
+            if (isCovered(spans, range)) {
+                // The span already has all the schedules connected to the range.
+                continue;
+            }
+            long lower = range.getLower();
+            long upper = range.getUpper();
+            // Queries only the newly covered parts as the span grows.
+            toQuery.add(range);
+            while (!toQuery.isEmpty()) {
+                for (ScheduledRecording schedule : index.getOverlapping(widen(toQuery.poll()))) {
+                    if (schedule.getStartTimeMs() < lower) {
+                        toQuery.add(new Range<>(schedule.getStartTimeMs(), lower));
+                        lower = schedule.getStartTimeMs();
+                    }
+                    if (schedule.getEndTimeMs() > upper) {
+                        toQuery.add(new Range<>(upper, schedule.getEndTimeMs()));
+                        upper = schedule.getEndTimeMs();
+                    }
+                }
+            }
+            spans.add(new Range<>(lower, upper));
+        }
+        return spans;
+    }
+
+    /** Returns the schedules in the {@code index} which are in the spans. */
+    static Collection<ScheduledRecording> getSchedulesInSpans(
+            ScheduleIndex index, List<Range<Long>> spans) {
+        Map<Long, ScheduledRecording> schedules = new HashMap<>();
+        for (Range<Long> span : spans) {
+            for (ScheduledRecording schedule : index.getOverlapping(widen(span))) {
+                schedules.put(schedule.getId(), schedule);
+            }
+        }
+        return schedules.values();
+    }
+
+    /** Returns {@code true} if the schedule overlaps or touches one of the spans. */
+    static boolean isInSpans(List<Range<Long>> spans, ScheduledRecording schedule) {
+        for (Range<Long> span : spans) {
+            if (schedule.getStartTimeMs() <= span.getUpper()
+                    && schedule.getEndTimeMs() >= span.getLower()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCovered(List<Range<Long>> spans, Range<Long> range) {
+        for (Range<Long> span : spans) {
+            if (span.getLower() <= range.getLower() && range.getUpper() <= span.getUpper()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Widens the range by one to include the schedules touching it. */
+    private static Range<Long> widen(Range<Long> range) {
+        long lower = range.getLower();
+        long upper = range.getUpper();
+        return new Range<>(
+                lower == Long.MIN_VALUE ? lower : lower - 1,
+                upper == Long.MAX_VALUE ? upper : upper + 1);
+    }
+
+    private static final class Event {
+        private final ScheduledRecording mSchedule;
+        // The schedule before clipped, or null if it's not clipped.
+        private final ScheduledRecording mOriginal;
+        // Keeps the order of the schedules which the comparators consider the same.
+        private final long mOrder;
+
+        Event(ScheduledRecording schedule, ScheduledRecording original, long order) {
+            mSchedule = schedule;
+            mOriginal = original;
+            mOrder = order;
+        }
+    }
+
+    private ScheduleConflictEngine() {}
+}
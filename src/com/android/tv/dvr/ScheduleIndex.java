@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.util.Range;
+import com.android.tv.dvr.data.ScheduledRecording;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Secondary indexes of the scheduled recordings, which are updated incrementally when a schedule
+ * is added, updated or removed.
+ *
+ * <ul>
+ *   <li>An interval tree by the recording period, which finds the schedules overlapping a period
+ *       and the next start time without scanning all the schedules.
+ *   <li>The schedules per input and per series recording.
+ * </ul>
+ *
+ * <p>The interval tree is a treap ordered by the start time and the ID, where each node keeps the
+ * largest end time of its subtree.
+ */
+@MainThread
+class ScheduleIndex {
+    private final Map<Long, Node> mNodes = new HashMap<>();
+    private final Map<String, Map<Long, ScheduledRecording>> mInputIdToSchedules =
+            new HashMap<>();
+    private final Map<Long, Map<Long, ScheduledRecording>> mSeriesIdToSchedules = new HashMap<>();
+    private final Random mRandom = new Random();
+    private Node mRoot;
+
+    /** Adds the schedule, or replaces the schedule with the same ID. */
+    void put(ScheduledRecording schedule) {
+        remove(schedule.getId());
+        Node node = new Node(schedule, mRandom.nextInt());
+        mNodes.put(schedule.getId(), node);
+        mRoot = insert(mRoot, node);
+        getOrCreate(mInputIdToSchedules, schedule.getInputId()).put(schedule.getId(), schedule);
+        getOrCreate(mSeriesIdToSchedules, schedule.getSeriesRecordingId())
+                .put(schedule.getId(), schedule);
+    }
+
+    /** Removes the schedule of the ID if exists. */
+    void remove(long scheduleId) {
+        Node node = mNodes.remove(scheduleId);
+        if (node == null) {
+            return;
+        }
+        mRoot = delete(mRoot, node);
+        ScheduledRecording schedule = node.mSchedule;
+        removeFrom(mInputIdToSchedules, schedule.getInputId(), scheduleId);
+        removeFrom(mSeriesIdToSchedules, schedule.getSeriesRecordingId(), scheduleId);
+    }
+
+    /** Returns the schedule of the ID, or {@code null} if there's no such schedule. */
+    @Nullable
+    ScheduledRecording get(long scheduleId) {
+        Node node = mNodes.get(scheduleId);
+        return node == null ? null : node.mSchedule;
+    }
+
+    /** Returns all the schedules in the order of the start time. */
+    List<ScheduledRecording> getAll() {
+        List<ScheduledRecording> result = new ArrayList<>(mNodes.size());
+        collectAll(mRoot, result);
+        return result;
+    }
+
+    /** Returns the schedules overlapping the period, in the order of the start time. */
+    List<ScheduledRecording> getOverlapping(Range<Long> period) {
+        List<ScheduledRecording> result = new ArrayList<>();
+        collectOverlapping(mRoot, period.getLower(), period.getUpper(), result);
+        return result;
+    }
+
+    /** Returns the schedules of the input. */
+    List<ScheduledRecording> getByInputId(String inputId) {
+        return copyValues(mInputIdToSchedules.get(inputId));
+    }
+
+    /** Returns the schedules of the series recording. */
+    List<ScheduledRecording> getBySeriesRecordingId(long seriesRecordingId) {
+        return copyValues(mSeriesIdToSchedules.get(seriesRecordingId));
+    }
+
+    /**
+     * Returns the earliest start time after {@code time}, or {@link
+     * DvrDataManager#NEXT_START_TIME_NOT_FOUND} if there's no such schedule.
+     */
+    long getNextStartTimeAfter(long time) {
+        long result = DvrDataManager.NEXT_START_TIME_NOT_FOUND;
+        Node node = mRoot;
+        while (node != null) {
+            if (node.mStartTimeMs > time) {
+                result = node.mStartTimeMs;
+                node = node.mLeft;
+            } else {
+                node = node.mRight;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of the schedules. */
+    int size() {
+        return mNodes.size();
+    }
+
+    /** Returns {@code true} if there's no schedule. */
+    boolean isEmpty() {
+        return mNodes.isEmpty();
+    }
+
+    private static void collectAll(Node node, List<ScheduledRecording> result) {
+        while (node != null) {
+            collectAll(node.mLeft, result);
+            result.add(node.mSchedule);
+            node = node.mRight;
+        }
+    }
+
+    private static void collectOverlapping(
+            Node node, long lower, long upper, List<ScheduledRecording> result) {
+        // Same as ScheduledRecording.isOverLapping(Range).
+        while (node != null && node.mMaxEndTimeMs > lower) {
+            collectOverlapping(node.mLeft, lower, upper, result);
+            if (node.mStartTimeMs >= upper) {
+                // The nodes on the right start even later.
+                return;
+            }
+            if (node.mEndTimeMs > lower) {
+                result.add(node.mSchedule);
+            }
+            node = node.mRight;
+        }
+    }
+
+    private static Node insert(Node root, Node node) {
+        if (root == null) {
+            return node;
+        }
+        if (node.compareTo(root) < 0) {
+            root.mLeft = insert(root.mLeft, node);
+            if (root.mLeft.mPriority > root.mPriority) {
+                root = rotateRight(root);
+            }
+        } else {
+            root.mRight = insert(root.mRight, node);
+            if (root.mRight.mPriority > root.mPriority) {
+                root = rotateLeft(root);
+            }
+        }
+        root.update();
+        return root;
+    }
+
+    private static Node delete(Node root, Node node) {
+        if (root == null) {
+            return null;
+        }
+        int compare = node.compareTo(root);
+        if (compare < 0) {
+            root.mLeft = delete(root.mLeft, node);
+        } else if (compare > 0) {
+            root.mRight = delete(root.mRight, node);
+        } else if (root.mLeft == null) {
+            return root.mRight;
+        } else if (root.mRight == null) {
+            return root.mLeft;
+        } else {
+            // Rotates the node down until it has at most one child.
+            root =
+                    root.mLeft.mPriority > root.mRight.mPriority
+                            ? rotateRight(root)
+                            : rotateLeft(root);
+            return delete(root, node);
+        }
+        root.update();
+        return root;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.mLeft;
+        node.mLeft = left.mRight;
+        left.mRight = node;
+        node.update();
+        left.update();
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.mRight;
+        node.mRight = right.mLeft;
+        right.mLeft = node;
+        node.update();
+        right.update();
+        return right;
+    }
+
+    private static <K> Map<Long, ScheduledRecording> getOrCreate(
+            Map<K, Map<Long, ScheduledRecording>> map, K key) {
+        Map<Long, ScheduledRecording> schedules = map.get(key);
+        if (schedules == null) {
+            schedules = new HashMap<>();
+            map.put(key, schedules);
+        }
+        return schedules;
+    }
+
+    private static <K> void removeFrom(
+            Map<K, Map<Long, ScheduledRecording>> map, K key, long scheduleId) {
+        Map<Long, ScheduledRecording> schedules = map.get(key);
+        if (schedules != null) {
+            schedules.remove(scheduleId);
+            if (schedules.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    private static List<ScheduledRecording> copyValues(Map<Long, ScheduledRecording> schedules) {
+        return schedules == null
+                ? Collections.emptyList()
+                : new ArrayList<>(schedules.values());
+    }
+
+    private static final class Node implements Comparable<Node> {
+        private final ScheduledRecording mSchedule;
+        private final long mId;
+        private final long mStartTimeMs;
+        private final long mEndTimeMs;
+        private final int mPriority;
+        private long mMaxEndTimeMs;
+        private Node mLeft;
+        private Node mRight;
+
+        Node(ScheduledRecording schedule, int priority) {
+            mSchedule = schedule;
+            mId = schedule.getId();
+            mStartTimeMs = schedule.getStartTimeMs();
+            mEndTimeMs = schedule.getEndTimeMs();
+            mPriority = priority;
+            mMaxEndTimeMs = mEndTimeMs;
+        }
+
+        void update() {
+            mMaxEndTimeMs = mEndTimeMs;
+            if (mLeft != null) {
+                mMaxEndTimeMs = Math.max(mMaxEndTimeMs, mLeft.mMaxEndTimeMs);
+            }
+            if (mRight != null) {
+                mMaxEndTimeMs = Math.max(mMaxEndTimeMs, mRight.mMaxEndTimeMs);
+            }
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            if (mStartTimeMs != other.mStartTimeMs) {
+                return Long.compare(mStartTimeMs, other.mStartTimeMs);
+            }
+            return Long.compare(mId, other.mId);
+        }
+    }
+}
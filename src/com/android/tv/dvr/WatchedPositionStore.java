@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import android.content.SharedPreferences;
+import android.media.tv.TvInputManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A compact store of the watched positions of the recorded programs.
+ *
+ * <p>The positions are kept in memory in arrays sorted by the recorded program ID, and persisted
+ * in a binary log of fixed size records of the ID and the position. A later record overrides the
+ * earlier ones of the same ID. The updates are coalesced, so during the playback only the latest
+ * position is appended once every {@link #FLUSH_DELAY_MS}. When the log has twice as many records
+ * as the positions, it's replaced with the current positions.
+ *
+ * <p>The positions are loaded synchronously on the first access, as {@link SharedPreferences} did
+ * for the previous versions. The log is small enough, 16 bytes per recorded program.
+ */
+@MainThread
+class WatchedPositionStore {
+    private static final String TAG = "WatchedPositionStore";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x44575053; // "DWPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8; // magic and version
+    private static final int RECORD_SIZE = 16; // recorded program ID and position
+    private static final int MIN_RECORD_COUNT_TO_COMPACT = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    @VisibleForTesting static final long FLUSH_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private final AtomicFile mFile;
+    private final SharedPreferences mLegacyPreferences;
+    private final Executor mWriteExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushRunnable = this::flush;
+
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private long[] mPositions = new long[INITIAL_CAPACITY];
+    private int mSize;
+    private final Set<Long> mDirtyIds = new HashSet<>();
+    private boolean mLoaded;
+    private boolean mFlushScheduled;
+    // The number of the records in the log.
+    private int mRecordCount;
+    // Whether the log should be replaced instead of appended at the next flush.
+    private boolean mNeedsRewrite;
+    // Whether the positions are moved from the preferences and not written to the log yet.
+    private boolean mMigrating;
+
+    /**
+     * Creates a store.
+     *
+     * @param file the log file
+     * @param legacyPreferences the preferences which the previous versions stored the positions
+     * @param writeExecutor a sequential executor to write the log
+     */
+    WatchedPositionStore(File file, SharedPreferences legacyPreferences, Executor writeExecutor) {
+        mFile = new AtomicFile(file);
+        mLegacyPreferences = legacyPreferences;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Returns the position of the recorded program, or {@link
+     * TvInputManager#TIME_SHIFT_INVALID_TIME} if it hasn't been watched.
+     */
+    long get(long recordedProgramId) {
+        ensureLoaded();
+        int index = Arrays.binarySearch(mIds, 0, mSize, recordedProgramId);
+        return index >= 0 ? mPositions[index] : TvInputManager.TIME_SHIFT_INVALID_TIME;
+    }
+
+    /** Returns the positions of the recorded programs, in the same order as the IDs. */
+    long[] get(long[] recordedProgramIds) {
+        ensureLoaded();
+        long[] positions = new long[recordedProgramIds.length];
+        for (int i = 0; i < recordedProgramIds.length; i++) {
+            int index = Arrays.binarySearch(mIds, 0, mSize, recordedProgramIds[i]);
+            positions[i] = index >= 0 ? mPositions[index] : TvInputManager.TIME_SHIFT_INVALID_TIME;
+        }
+        return positions;
+    }
+
+    /** Sets the position of the recorded program. It's written to the log later. */
+    void put(long recordedProgramId, long positionMs) {
+        ensureLoaded();
+        if (!putInMemory(recordedProgramId, positionMs)) {
+            return;
+        }
+        mDirtyIds.add(recordedProgramId);
+        scheduleFlush();
+    }
+
+    /** Writes the pending positions to the log now. */
+    void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        if (!mLoaded || (mDirtyIds.isEmpty() && !mNeedsRewrite)) {
+            return;
+        }
+        final boolean append =
+                !mNeedsRewrite
+                        && mRecordCount + mDirtyIds.size()
+                                < Math.max(MIN_RECORD_COUNT_TO_COMPACT, mSize * 2);
+        ByteBuffer buffer;
+        if (append) {
+            buffer = ByteBuffer.allocate(mDirtyIds.size() * RECORD_SIZE);
+            for (long id : mDirtyIds) {
+                buffer.putLong(id).putLong(get(id));
+            }
+            mRecordCount += mDirtyIds.size();
+        } else {
+            buffer = ByteBuffer.allocate(HEADER_SIZE + mSize * RECORD_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            for (int i = 0; i < mSize; i++) {
+                buffer.putLong(mIds[i]).putLong(mPositions[i]);
+            }
+            mRecordCount = mSize;
+        }
+        if (DEBUG) Log.d(TAG, (append ? "Append " : "Write ") + buffer.capacity() + " bytes");
+        mDirtyIds.clear();
+        mNeedsRewrite = false;
+        final boolean migrating = mMigrating;
+        mMigrating = false;
+        final byte[] data = buffer.array();
+        mWriteExecutor.execute(
+                () -> {
+                    if (!(append ? appendToLog(data) : writeLog(data))) {
+                        mHandler.post(
+                                () -> {
+                                    mNeedsRewrite = true;
+                                    mMigrating |= migrating;
+                                    scheduleFlush();
+                                });
+                    } else if (migrating) {
+                        mLegacyPreferences.edit().clear().apply();
+                    }
+                });
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            migrateFromSharedPreferences();
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read watched positions", e);
+            mNeedsRewrite = true;
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.remaining() < HEADER_SIZE
+                || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION) {
+            Log.w(TAG, "Unknown watched position format");
+            mNeedsRewrite = true;
+            return;
+        }
+        // A record partially written by a crash is ignored, and the log is replaced later.
+        mNeedsRewrite = buffer.remaining() % RECORD_SIZE != 0;
+        mRecordCount = buffer.remaining() / RECORD_SIZE;
+        for (int i = 0; i < mRecordCount; i++) {
+            putInMemory(buffer.getLong(), buffer.getLong());
+        }
+        if (DEBUG) Log.d(TAG, "Loaded " + mSize + " positions from " + mRecordCount + " records");
+    }
+
+    /** Moves the positions stored by the previous versions to the log. */
+    private void migrateFromSharedPreferences() {
+        for (Map.Entry<String, ?> entry : mLegacyPreferences.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof Long)) {
+                continue;
+            }
+            try {
+                putInMemory(Long.parseLong(entry.getKey()), (Long) entry.getValue());
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Invalid recorded program ID: " + entry.getKey());
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Migrated " + mSize + " positions");
+        // Creates the log even if it's empty, so that the preferences are read only once.
+        mNeedsRewrite = true;
+        mMigrating = true;
+        flush();
+    }
+
+    /** Returns {@code true} if the position is changed. */
+    private boolean putInMemory(long recordedProgramId, long positionMs) {
+        int index = Arrays.binarySearch(mIds, 0, mSize, recordedProgramId);
+        if (index >= 0) {
+            if (mPositions[index] == positionMs) {
+                return false;
+            }
+            mPositions[index] = positionMs;
+            return true;
+        }
+        index = ~index;
+        if (mSize == mIds.length) {
+            mIds = Arrays.copyOf(mIds, mSize * 2);
+            mPositions = Arrays.copyOf(mPositions, mSize * 2);
+        }
+        System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+        System.arraycopy(mPositions, index, mPositions, index + 1, mSize - index);
+        mIds[index] = recordedProgramId;
+        mPositions[index] = positionMs;
+        mSize++;
+        return true;
+    }
+
+    @WorkerThread
+    private boolean writeLog(byte[] data) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(data);
+            mFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write watched positions", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+            return false;
+        }
+    }
+
+    @WorkerThread
+    private boolean appendToLog(byte[] data) {
+        if (!mFile.getBaseFile().exists()) {
+            return false;
+        }
+        try (FileOutputStream out = new FileOutputStream(mFile.getBaseFile(), true)) {
+            out.write(data);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append watched positions", e);
+            return false;
+        }
+    }
+}
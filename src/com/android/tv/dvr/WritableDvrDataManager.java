@@ -50,6 +50,13 @@ public interface WritableDvrDataManager extends DvrDataManager {
     /** Updates existing recordings. */
     void updateScheduledRecording(ScheduledRecording... scheduledRecordings);
 
+    /**
+     * Removes and updates recordings at once. The changes are written to the DB in one transaction.
+     */
+    void removeAndUpdateScheduledRecordings(
+            ScheduledRecording[] scheduledRecordingsToRemove,
+            ScheduledRecording[] scheduledRecordingsToUpdate);
+
     /** Updates existing series recordings. */
     void updateSeriesRecording(SeriesRecording... seriesRecordings);
 
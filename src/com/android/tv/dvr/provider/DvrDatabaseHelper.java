@@ -24,6 +24,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
@@ -37,6 +38,9 @@ import com.android.tv.dvr.provider.DvrContract.SeriesRecordings;
 
 import com.google.common.collect.ObjectArrays;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -46,7 +50,9 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "DvrDatabaseHelper";
     private static final boolean DEBUG = false;
 
-    private static final int DATABASE_VERSION = 18;
+    // The version 19 was used for the time offset columns before the indexes were added. Now the
+    // time offset columns are added or removed by checking the columns. See onUpgrade().
+    private static final int DATABASE_VERSION = 20;
     private static final String DB_NAME = "dvr.db";
     private static final String NOT_NULL = " NOT NULL";
     private static final String PRIMARY_KEY_AUTOINCREMENT = " PRIMARY KEY AUTOINCREMENT";
@@ -123,6 +129,15 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String SQL_DELETE_SCHEDULES = buildDeleteSql(Schedules.TABLE_NAME);
     @VisibleForTesting
+    static final String[] SQL_CREATE_SCHEDULES_INDEXES =
+            new String[] {
+                buildCreateIndexSql(Schedules.TABLE_NAME, Schedules.COLUMN_START_TIME_UTC_MILLIS),
+                buildCreateIndexSql(Schedules.TABLE_NAME, Schedules.COLUMN_END_TIME_UTC_MILLIS),
+                buildCreateIndexSql(Schedules.TABLE_NAME, Schedules.COLUMN_CHANNEL_ID),
+                buildCreateIndexSql(Schedules.TABLE_NAME, Schedules.COLUMN_PROGRAM_ID),
+                buildCreateIndexSql(Schedules.TABLE_NAME, Schedules.COLUMN_SERIES_RECORDING_ID)
+            };
+    @VisibleForTesting
     static final String SQL_DROP_SCHEDULES = buildDropSql(Schedules.TABLE_NAME);
 
     private static final ColumnInfo[] COLUMNS_SERIES_RECORDINGS =
@@ -170,6 +185,10 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
             buildDropSql(SeriesRecordings.TABLE_NAME);
 
     private final DvrFlags mDvrFlags;
+    // The compiled statements of the bulk operations, which are reused until the database is
+    // closed. Guarded by this.
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+    private SQLiteDatabase mStatementDatabase;
 
     private static String defaultConstraint(int value) {
         return defaultConstraint(String.valueOf(value));
@@ -289,10 +308,28 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
         return "DROP TABLE IF EXISTS " + tableName;
     }
 
+    private static String buildCreateIndexSql(String tableName, String column) {
+        return "CREATE INDEX IF NOT EXISTS "
+                + tableName
+                + "_"
+                + column
+                + "_index ON "
+                + tableName
+                + "("
+                + column
+                + ")";
+    }
+
     @Inject
     public DvrDatabaseHelper(@ApplicationContext Context context, DvrFlags dvrFlags) {
+        this(context, dvrFlags, DB_NAME);
+    }
+
+    /** Creates the helper of the database {@code name}, or an in-memory one if it's null. */
+    @VisibleForTesting
+    DvrDatabaseHelper(Context context, DvrFlags dvrFlags, @Nullable String name) {
         super(context,
-                DB_NAME,
+                name,
                 null,
                 (dvrFlags.startEarlyEndLateEnabled() ? DATABASE_VERSION + 1 : DATABASE_VERSION));
         mDvrFlags = dvrFlags;
@@ -314,6 +351,7 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
         }
         if (DEBUG) Log.d(TAG, "Executing SQL: " + SQL_CREATE_SERIES_RECORDINGS);
         db.execSQL(SQL_CREATE_SERIES_RECORDINGS);
+        createSchedulesIndexes(db);
     }
 
     @Override
@@ -334,29 +372,87 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
                             + Schedules.COLUMN_FAILED_REASON
                             + " TEXT DEFAULT null;");
         }
-        if (mDvrFlags.startEarlyEndLateEnabled() && oldVersion < 19) {
+        if (oldVersion < 20) {
+            createSchedulesIndexes(db);
+        }
+        // The version 19 could have the time offset columns or not, so check the columns.
+        boolean hasTimeOffsetColumns =
+                hasColumn(db, Schedules.TABLE_NAME, Schedules.COLUMN_START_OFFSET_MILLIS);
+        if (mDvrFlags.startEarlyEndLateEnabled() && !hasTimeOffsetColumns) {
             db.execSQL("ALTER TABLE " + Schedules.TABLE_NAME + " ADD COLUMN "
                     + Schedules.COLUMN_START_OFFSET_MILLIS + " INTEGER NOT NULL DEFAULT '0';");
             db.execSQL("ALTER TABLE " + Schedules.TABLE_NAME + " ADD COLUMN "
                     + Schedules.COLUMN_END_OFFSET_MILLIS + " INTEGER NOT NULL DEFAULT '0';");
+        } else if (!mDvrFlags.startEarlyEndLateEnabled() && hasTimeOffsetColumns) {
+            removeTimeOffsetColumns(db);
         }
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (oldVersion > DATABASE_VERSION) {
-            String schedulesBackup = "schedules_backup";
-            db.execSQL(buildCreateSchedulesSql(schedulesBackup, COLUMNS_SCHEDULES));
-            db.execSQL("INSERT INTO " + schedulesBackup +
-                    buildSelectSql(COLUMNS_SCHEDULES) + " FROM " + Schedules.TABLE_NAME);
-            db.execSQL(SQL_DROP_SCHEDULES);
-            db.execSQL(SQL_CREATE_SCHEDULES);
-            db.execSQL("INSERT INTO " + Schedules.TABLE_NAME +
-                    buildSelectSql(COLUMNS_SCHEDULES) + " FROM " + schedulesBackup);
-            db.execSQL(buildDropSql(schedulesBackup));
+            removeTimeOffsetColumns(db);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeStatements();
+        super.close();
+    }
+
+    private void removeTimeOffsetColumns(SQLiteDatabase db) {
+        String schedulesBackup = "schedules_backup";
+        db.execSQL(buildCreateSchedulesSql(schedulesBackup, COLUMNS_SCHEDULES));
+        db.execSQL("INSERT INTO " + schedulesBackup +
+                buildSelectSql(COLUMNS_SCHEDULES) + " FROM " + Schedules.TABLE_NAME);
+        db.execSQL(SQL_DROP_SCHEDULES);
+        db.execSQL(SQL_CREATE_SCHEDULES);
+        db.execSQL("INSERT INTO " + Schedules.TABLE_NAME +
+                buildSelectSql(COLUMNS_SCHEDULES) + " FROM " + schedulesBackup);
+        db.execSQL(buildDropSql(schedulesBackup));
+        // The indexes are dropped with the table.
+        createSchedulesIndexes(db);
+    }
+
+    private static void createSchedulesIndexes(SQLiteDatabase db) {
+        for (String sql : SQL_CREATE_SCHEDULES_INDEXES) {
+            if (DEBUG) Log.d(TAG, "Executing SQL: " + sql);
+            db.execSQL(sql);
         }
     }
 
+    private static boolean hasColumn(SQLiteDatabase db, String tableName, String column) {
+        try (Cursor c = db.query(tableName, null, null, null, null, null, null, "0")) {
+            return c.getColumnIndex(column) >= 0;
+        }
+    }
+
+    /**
+     * Returns the compiled statement of the {@code sql}. It's cached and reused for the later bulk
+     * operations on the same database.
+     */
+    private SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+        if (db != mStatementDatabase) {
+            closeStatements();
+            mStatementDatabase = db;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private void closeStatements() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mStatementDatabase = null;
+    }
+
     /** Handles the query request and returns a {@link Cursor}. */
     public Cursor query(String tableName, String[] projections) {
         SQLiteDatabase db = getReadableDatabase();
@@ -366,13 +462,12 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /** Inserts schedules. */
-    public void insertSchedules(ScheduledRecording... scheduledRecordings) {
+    public synchronized void insertSchedules(ScheduledRecording... scheduledRecordings) {
         SQLiteDatabase db = getWritableDatabase();
         db.beginTransaction();
         try {
             if (mDvrFlags.startEarlyEndLateEnabled()) {
-                SQLiteStatement statement =
-                        db.compileStatement(SQL_INSERT_SCHEDULES_WITH_TIME_OFFSET);
+                SQLiteStatement statement = getStatement(db, SQL_INSERT_SCHEDULES_WITH_TIME_OFFSET);
                 for (ScheduledRecording r : scheduledRecordings) {
                     statement.clearBindings();
                     ContentValues values = ScheduledRecording.toContentValuesWithTimeOffset(r);
@@ -380,7 +475,7 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
                     statement.execute();
                 }
             } else {
-                SQLiteStatement statement = db.compileStatement(SQL_INSERT_SCHEDULES);
+                SQLiteStatement statement = getStatement(db, SQL_INSERT_SCHEDULES);
                 for (ScheduledRecording r : scheduledRecordings) {
                     statement.clearBindings();
                     ContentValues values = ScheduledRecording.toContentValues(r);
@@ -395,13 +490,12 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /** Update schedules. */
-    public void updateSchedules(ScheduledRecording... scheduledRecordings) {
+    public synchronized void updateSchedules(ScheduledRecording... scheduledRecordings) {
         SQLiteDatabase db = getWritableDatabase();
         db.beginTransaction();
         try {
             if (mDvrFlags.startEarlyEndLateEnabled()) {
-                SQLiteStatement statement =
-                        db.compileStatement(SQL_UPDATE_SCHEDULES_WITH_TIME_OFFSET);
+                SQLiteStatement statement = getStatement(db, SQL_UPDATE_SCHEDULES_WITH_TIME_OFFSET);
                 for (ScheduledRecording r : scheduledRecordings) {
                     statement.clearBindings();
                     ContentValues values = ScheduledRecording.toContentValuesWithTimeOffset(r);
@@ -410,7 +504,7 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
                     statement.execute();
                 }
             } else {
-                SQLiteStatement statement = db.compileStatement(SQL_UPDATE_SCHEDULES);
+                SQLiteStatement statement = getStatement(db, SQL_UPDATE_SCHEDULES);
                 for (ScheduledRecording r : scheduledRecordings) {
                     statement.clearBindings();
                     ContentValues values = ScheduledRecording.toContentValues(r);
@@ -426,9 +520,9 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /** Delete schedules. */
-    public void deleteSchedules(ScheduledRecording... scheduledRecordings) {
+    public synchronized void deleteSchedules(ScheduledRecording... scheduledRecordings) {
         SQLiteDatabase db = getWritableDatabase();
-        SQLiteStatement statement = db.compileStatement(SQL_DELETE_SCHEDULES);
+        SQLiteStatement statement = getStatement(db, SQL_DELETE_SCHEDULES);
         db.beginTransaction();
         try {
             for (ScheduledRecording r : scheduledRecordings) {
@@ -442,10 +536,25 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /** Deletes and updates schedules in one transaction. */
+    public synchronized void deleteAndUpdateSchedules(
+            ScheduledRecording[] schedulesToDelete, ScheduledRecording[] schedulesToUpdate) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // The nested transactions are committed along with this one.
+            deleteSchedules(schedulesToDelete);
+            updateSchedules(schedulesToUpdate);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /** Inserts series recordings. */
-    public void insertSeriesRecordings(SeriesRecording... seriesRecordings) {
+    public synchronized void insertSeriesRecordings(SeriesRecording... seriesRecordings) {
         SQLiteDatabase db = getWritableDatabase();
-        SQLiteStatement statement = db.compileStatement(SQL_INSERT_SERIES_RECORDINGS);
+        SQLiteStatement statement = getStatement(db, SQL_INSERT_SERIES_RECORDINGS);
         db.beginTransaction();
         try {
             for (SeriesRecording r : seriesRecordings) {
@@ -461,9 +570,9 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /** Update series recordings. */
-    public void updateSeriesRecordings(SeriesRecording... seriesRecordings) {
+    public synchronized void updateSeriesRecordings(SeriesRecording... seriesRecordings) {
         SQLiteDatabase db = getWritableDatabase();
-        SQLiteStatement statement = db.compileStatement(SQL_UPDATE_SERIES_RECORDINGS);
+        SQLiteStatement statement = getStatement(db, SQL_UPDATE_SERIES_RECORDINGS);
         db.beginTransaction();
         try {
             for (SeriesRecording r : seriesRecordings) {
@@ -480,9 +589,9 @@ public class DvrDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /** Delete series recordings. */
-    public void deleteSeriesRecordings(SeriesRecording... seriesRecordings) {
+    public synchronized void deleteSeriesRecordings(SeriesRecording... seriesRecordings) {
         SQLiteDatabase db = getWritableDatabase();
-        SQLiteStatement statement = db.compileStatement(SQL_DELETE_SERIES_RECORDINGS);
+        SQLiteStatement statement = getStatement(db, SQL_DELETE_SERIES_RECORDINGS);
         db.beginTransaction();
         try {
             for (SeriesRecording r : seriesRecordings) {
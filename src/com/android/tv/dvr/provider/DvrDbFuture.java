@@ -110,6 +110,23 @@ public abstract class DvrDbFuture<ParamsT, ResultT> {
         }
     }
 
+    /**
+     * Deletes and updates schedules in one transaction. The first param is the schedules to delete,
+     * and the second one is the schedules to update.
+     */
+    public static class DeleteAndUpdateScheduleFuture
+            extends DvrDbFuture<ScheduledRecording[], Void> {
+        public DeleteAndUpdateScheduleFuture(DvrDatabaseHelper dbHelper) {
+            super(dbHelper);
+        }
+
+        @Override
+        protected final Void dbHelperInBackground(ScheduledRecording[]... params) {
+            mDbHelper.deleteAndUpdateSchedules(params[0], params[1]);
+            return null;
+        }
+    }
+
     /** Returns all {@link ScheduledRecording}s. */
     public static class DvrQueryScheduleFuture extends DvrDbFuture<Void, List<ScheduledRecording>> {
 
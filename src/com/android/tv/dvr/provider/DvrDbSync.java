@@ -28,6 +28,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.MainThread;
 import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.tv.common.flags.DvrFlags;
@@ -39,17 +40,22 @@ import com.android.tv.dvr.WritableDvrDataManager;
 import com.android.tv.dvr.data.ScheduledRecording;
 import com.android.tv.dvr.data.SeriesRecording;
 import com.android.tv.dvr.recorder.SeriesRecordingScheduler;
+import com.android.tv.util.AsyncDbTask.AsyncProgramQueryTask;
 import com.android.tv.util.AsyncDbTask.AsyncQueryProgramTask;
+import com.android.tv.util.AsyncDbTask.AsyncQueryTask;
 import com.android.tv.util.AsyncDbTask.DbExecutor;
+import com.android.tv.util.PartitionedDbExecutor;
 import com.android.tv.util.TvUriMatcher;
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
@@ -64,6 +70,11 @@ import java.util.concurrent.TimeUnit;
  * jobs which take long time, it should not block others if possible. For this reason, only one
  * program is queried at a time and others are queued and will be executed on the other
  * AsyncDbTask's after the current one finishes to minimize the execution time of one AsyncDbTask.
+ *
+ * <p>If {@link DvrFlags#batchedProgramSyncEnabled()} is set, the queued programs are queried in
+ * chunks of up to 100 programs with one {@code IN (...)} query per chunk instead. The results are
+ * kept until the queue is drained, and then the schedules are updated or removed together, so that
+ * a big EPG update doesn't turn into thousands of single row queries and DB writes.
  */
 @MainThread
 @TargetApi(Build.VERSION_CODES.N)
@@ -72,6 +83,9 @@ public class DvrDbSync {
     private static final boolean DEBUG = false;
 
     private static final long RECORD_MARGIN_MS = TimeUnit.SECONDS.toMillis(10);
+    private static final int MAX_PROGRAMS_PER_QUERY = 100;
+    private static final long QUERY_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+    @VisibleForTesting static final int MAX_QUERY_RETRY_COUNT = 5;
 
     private final Context mContext;
     private final DvrManager mDvrManager;
@@ -79,8 +93,15 @@ public class DvrDbSync {
     private final ChannelDataManager mChannelDataManager;
     private final Executor mDbExecutor;
     private final Queue<Long> mProgramIdQueue = new LinkedList<>();
+    // The programs queried in the batched mode, which are not handled yet. The value is null if the
+    // program doesn't exist any more.
+    private final Map<Long, Program> mQueriedPrograms = new HashMap<>();
     private final DvrFlags mDvrFlags;
-    private QueryProgramTask mQueryProgramTask;
+    private AsyncQueryTask<?> mQueryProgramTask;
+    // The number of the consecutive failed queries.
+    private int mQueryRetryCount;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mStartNextUpdateRunnable = this::startNextUpdateIfNeeded;
     private final SeriesRecordingScheduler mSeriesRecordingScheduler;
     private final ContentObserver mContentObserver =
             new ContentObserver(new Handler(Looper.getMainLooper())) {
@@ -209,8 +230,14 @@ public class DvrDbSync {
     /** Stops the DB sync. */
     public void stop() {
         mProgramIdQueue.clear();
+        mQueriedPrograms.clear();
+        mQueryRetryCount = 0;
+        mHandler.removeCallbacks(mStartNextUpdateRunnable);
         if (mQueryProgramTask != null) {
-            mQueryProgramTask.cancel(true);
+            // Clears the task first, so that its program IDs are not enqueued again.
+            AsyncQueryTask<?> task = mQueryProgramTask;
+            mQueryProgramTask = null;
+            task.cancel(true);
         }
         mChannelDataManager.removeListener(mChannelDataManagerListener);
         mDataManager.removeScheduledRecordingListener(mScheduleListener);
@@ -276,14 +303,69 @@ public class DvrDbSync {
         }
     }
 
+    /**
+     * Enqueues the program IDs whose query didn't finish again, unless their schedules are removed
+     * or started in the meantime.
+     */
+    @VisibleForTesting
+    void requeueProgramIds(List<Long> programIds) {
+        for (long programId : programIds) {
+            addProgramIdToCheckIfNeeded(mDataManager.getScheduledRecordingForProgramId(programId));
+        }
+    }
+
+    /**
+     * Retries the failed query later, with the delay doubled on each consecutive failure. After
+     * {@link #MAX_QUERY_RETRY_COUNT} retries, the queued programs are dropped until the next program
+     * change.
+     */
+    @VisibleForTesting
+    void onQueryProgramsFailed(List<Long> programIds) {
+        // Don't remove the schedules as if the programs were deleted.
+        if (mQueryRetryCount >= MAX_QUERY_RETRY_COUNT) {
+            Log.w(
+                    TAG,
+                    "Failed to query programs after "
+                            + mQueryRetryCount
+                            + " retries. Giving up "
+                            + (programIds.size() + mProgramIdQueue.size())
+                            + " programs");
+            mQueryRetryCount = 0;
+            mProgramIdQueue.clear();
+            startNextUpdateIfNeeded();
+            return;
+        }
+        long delayMs = QUERY_RETRY_DELAY_MS << mQueryRetryCount;
+        ++mQueryRetryCount;
+        Log.w(TAG, "Failed to query programs: " + programIds + ". Retry in " + delayMs + "ms");
+        requeueProgramIds(programIds);
+        mHandler.removeCallbacks(mStartNextUpdateRunnable);
+        mHandler.postDelayed(mStartNextUpdateRunnable, delayMs);
+    }
+
     private void startNextUpdateIfNeeded() {
         if (mQueryProgramTask != null && !mQueryProgramTask.isCancelled()) {
             return;
         }
         if (!mProgramIdQueue.isEmpty()) {
-            if (DEBUG) Log.d(TAG, "Program ID dequeued: " + mProgramIdQueue.peek());
-            mQueryProgramTask = new QueryProgramTask(mProgramIdQueue.poll());
+            if (mDvrFlags.batchedProgramSyncEnabled()) {
+                List<Long> programIds = new ArrayList<>();
+                while (!mProgramIdQueue.isEmpty() && programIds.size() < MAX_PROGRAMS_PER_QUERY) {
+                    programIds.add(mProgramIdQueue.poll());
+                }
+                if (DEBUG) Log.d(TAG, "Program IDs dequeued: " + programIds);
+                mQueryProgramTask = new QueryProgramsTask(programIds);
+            } else {
+                if (DEBUG) Log.d(TAG, "Program ID dequeued: " + mProgramIdQueue.peek());
+                mQueryProgramTask = new QueryProgramTask(mProgramIdQueue.poll());
+            }
             mQueryProgramTask.executeOnDbThread();
+        } else if (!mQueriedPrograms.isEmpty()) {
+            Map<Long, Program> programs = new HashMap<>(mQueriedPrograms);
+            mQueriedPrograms.clear();
+            handleUpdatePrograms(programs);
+            // The updated schedules are enqueued again by the listener.
+            startNextUpdateIfNeeded();
         } else {
             mSeriesRecordingScheduler.resumeUpdate();
         }
@@ -291,13 +373,54 @@ public class DvrDbSync {
 
     @VisibleForTesting
     void handleUpdateProgram(Program program, long programId) {
+        handleUpdatePrograms(Collections.singletonMap(programId, program));
+    }
+
+    /**
+     * Updates or removes the schedules of the programs at once. The value of {@code programs} is
+     * {@code null} if the program doesn't exist any more.
+     */
+    @VisibleForTesting
+    void handleUpdatePrograms(Map<Long, Program> programs) {
+        List<ScheduledRecording> schedulesToRemove = new ArrayList<>();
+        List<ScheduledRecording> schedulesToUpdate = new ArrayList<>();
         Set<SeriesRecording> seriesRecordingsToUpdate = new HashSet<>();
+        for (Map.Entry<Long, Program> entry : programs.entrySet()) {
+            collectScheduleChanges(
+                    entry.getValue(),
+                    entry.getKey(),
+                    schedulesToRemove,
+                    schedulesToUpdate,
+                    seriesRecordingsToUpdate);
+        }
+        if (!schedulesToRemove.isEmpty() && !schedulesToUpdate.isEmpty()) {
+            // Applies them in one DB transaction.
+            mDataManager.removeAndUpdateScheduledRecordings(
+                    ScheduledRecording.toArray(schedulesToRemove),
+                    ScheduledRecording.toArray(schedulesToUpdate));
+        } else if (!schedulesToRemove.isEmpty()) {
+            mDataManager.removeScheduledRecording(ScheduledRecording.toArray(schedulesToRemove));
+        } else if (!schedulesToUpdate.isEmpty()) {
+            mDataManager.updateScheduledRecording(ScheduledRecording.toArray(schedulesToUpdate));
+        }
+        if (!seriesRecordingsToUpdate.isEmpty()) {
+            // The series recordings will be updated after it's resumed.
+            mSeriesRecordingScheduler.updateSchedules(seriesRecordingsToUpdate);
+        }
+    }
+
+    private void collectScheduleChanges(
+            Program program,
+            long programId,
+            List<ScheduledRecording> schedulesToRemove,
+            List<ScheduledRecording> schedulesToUpdate,
+            Set<SeriesRecording> seriesRecordingsToUpdate) {
         ScheduledRecording schedule = mDataManager.getScheduledRecordingForProgramId(programId);
         if (schedule != null
                 && (schedule.getState() == ScheduledRecording.STATE_RECORDING_NOT_STARTED
                         || schedule.getState() == ScheduledRecording.STATE_RECORDING_IN_PROGRESS)) {
             if (program == null) {
-                mDataManager.removeScheduledRecording(schedule);
+                schedulesToRemove.add(schedule);
                 if (schedule.getSeriesRecordingId() != SeriesRecording.ID_NOT_SET) {
                     SeriesRecording seriesRecording =
                             mDataManager.getSeriesRecording(schedule.getSeriesRecordingId());
@@ -391,11 +514,7 @@ public class DvrDbSync {
                                 schedule.getProgramPosterArtUri(), program.getPosterArtUri())
                         || !Objects.equals(
                                 schedule.getProgramThumbnailUri(), program.getThumbnailUri())) {
-                    mDataManager.updateScheduledRecording(builder.build());
-                }
-                if (!seriesRecordingsToUpdate.isEmpty()) {
-                    // The series recordings will be updated after it's resumed.
-                    mSeriesRecordingScheduler.updateSchedules(seriesRecordingsToUpdate);
+                    schedulesToUpdate.add(builder.build());
                 }
             }
         }
@@ -438,11 +557,19 @@ public class DvrDbSync {
             mProgramId = programId;
         }
 
+        @Override
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_BACKGROUND;
+        }
+
         @Override
         protected void onCancelled(Program program) {
-            if (mQueryProgramTask == this) {
-                mQueryProgramTask = null;
+            if (mQueryProgramTask != this) {
+                // Cancelled by stop().
+                return;
             }
+            mQueryProgramTask = null;
+            requeueProgramIds(Collections.singletonList(mProgramId));
             startNextUpdateIfNeeded();
         }
 
@@ -455,4 +582,55 @@ public class DvrDbSync {
             startNextUpdateIfNeeded();
         }
     }
+
+    private class QueryProgramsTask extends AsyncProgramQueryTask {
+        private final List<Long> mProgramIds;
+
+        QueryProgramsTask(List<Long> programIds) {
+            super(
+                    mDbExecutor,
+                    mContext,
+                    Programs.CONTENT_URI,
+                    Programs._ID + " IN (" + TextUtils.join(",", programIds) + ")",
+                    null,
+                    null,
+                    null);
+            mProgramIds = programIds;
+        }
+
+        @Override
+        protected int getPriority() {
+            return PartitionedDbExecutor.PRIORITY_BACKGROUND;
+        }
+
+        @Override
+        protected void onCancelled(List<Program> programs) {
+            if (mQueryProgramTask != this) {
+                // Cancelled by stop().
+                return;
+            }
+            mQueryProgramTask = null;
+            requeueProgramIds(mProgramIds);
+            startNextUpdateIfNeeded();
+        }
+
+        @Override
+        protected void onPostExecute(List<Program> programs) {
+            if (mQueryProgramTask == this) {
+                mQueryProgramTask = null;
+            }
+            if (programs == null) {
+                onQueryProgramsFailed(mProgramIds);
+                return;
+            }
+            mQueryRetryCount = 0;
+            for (long programId : mProgramIds) {
+                mQueriedPrograms.put(programId, null);
+            }
+            for (Program program : programs) {
+                mQueriedPrograms.put(program.getId(), program);
+            }
+            startNextUpdateIfNeeded();
+        }
+    }
 }
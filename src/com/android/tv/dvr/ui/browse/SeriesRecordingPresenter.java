@@ -137,11 +137,12 @@ class SeriesRecordingPresenter extends DvrItemPresenter<SeriesRecording> {
             mSeriesRecording = seriesRecording;
             mDvrDataManager.addScheduledRecordingListener(this);
             mDvrDataManager.addRecordedProgramListener(this);
-            for (RecordedProgram recordedProgram :
-                    mDvrDataManager.getRecordedPrograms(mSeriesRecording.getId())) {
-                if (mWatchedPositionManager.getWatchedPosition(recordedProgram.getId())
-                        == TvInputManager.TIME_SHIFT_INVALID_TIME) {
-                    mWatchedPositionManager.addListener(this, recordedProgram.getId());
+            List<RecordedProgram> recordedPrograms =
+                    mDvrDataManager.getRecordedPrograms(mSeriesRecording.getId());
+            long[] watchedPositions = mWatchedPositionManager.getWatchedPositions(recordedPrograms);
+            for (int i = 0; i < watchedPositions.length; i++) {
+                if (watchedPositions[i] == TvInputManager.TIME_SHIFT_INVALID_TIME) {
+                    mWatchedPositionManager.addListener(this, recordedPrograms.get(i).getId());
                 }
             }
             updateCardViewContent();
@@ -164,9 +165,9 @@ class SeriesRecordingPresenter extends DvrItemPresenter<SeriesRecording> {
                 count = mDvrManager.getAvailableScheduledRecording(mSeriesRecording.getId()).size();
                 quantityStringID = R.plurals.dvr_count_scheduled_recordings;
             } else {
-                for (RecordedProgram recordedProgram : recordedPrograms) {
-                    if (mWatchedPositionManager.getWatchedPosition(recordedProgram.getId())
-                            == TvInputManager.TIME_SHIFT_INVALID_TIME) {
+                for (long watchedPosition :
+                        mWatchedPositionManager.getWatchedPositions(recordedPrograms)) {
+                    if (watchedPosition == TvInputManager.TIME_SHIFT_INVALID_TIME) {
                         count++;
                     }
                 }
@@ -108,6 +108,7 @@ class DvrPlaybackMediaSessionHelper {
         if (mDvrPlayer != null) {
             mDvrPlayer.reset();
         }
+        mDvrWatchedPositionManager.flush();
         if (mMediaSession != null) {
             mMediaSession.release();
             mMediaSession = null;
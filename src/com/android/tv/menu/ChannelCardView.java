@@ -32,6 +32,7 @@ import com.android.tv.R;
 import com.android.tv.data.api.Channel;
 import com.android.tv.data.api.Program;
 import com.android.tv.parental.ParentalControlSettings;
+import com.android.tv.util.images.BitmapPool;
 import com.android.tv.util.images.ImageLoader;
 
 import java.util.Objects;
@@ -50,6 +51,8 @@ public class ChannelCardView extends BaseCardView<ChannelsRowItem> {
     private Channel mChannel;
     private Program mProgram;
     private String mPosterArtUri;
+    // The poster art drawn by mImageView, whose reference is taken from BitmapPool.
+    @Nullable private Bitmap mPosterArt;
     private final MainActivity mMainActivity;
 
     public ChannelCardView(Context context) {
@@ -157,6 +160,11 @@ public class ChannelCardView extends BaseCardView<ChannelsRowItem> {
                 }
                 cardView.updatePosterArt(posterArt);
             }
+
+            @Override
+            protected boolean releasesBitmap() {
+                return true;
+            }
         };
     }
 
@@ -171,6 +179,7 @@ public class ChannelCardView extends BaseCardView<ChannelsRowItem> {
                             createProgramPosterArtCallback(this, mProgram))) {
                 mImageView.setImageResource(R.drawable.ic_recent_thumbnail_default);
                 mImageView.setForeground(null);
+                setPosterArtReference(null);
             }
         }
     }
@@ -178,5 +187,15 @@ public class ChannelCardView extends BaseCardView<ChannelsRowItem> {
     private void updatePosterArt(Bitmap posterArt) {
         mImageView.setImageBitmap(posterArt);
         mImageView.setForeground(getContext().getDrawable(R.drawable.card_image_gradient));
+        setPosterArtReference(posterArt);
+    }
+
+    /** Releases the previous poster art, which is no longer drawn, so that it can be reused. */
+    private void setPosterArtReference(@Nullable Bitmap posterArt) {
+        if (posterArt != mPosterArt) {
+            BitmapPool.getInstance().acquire(posterArt);
+            BitmapPool.getInstance().release(mPosterArt);
+            mPosterArt = posterArt;
+        }
     }
 }
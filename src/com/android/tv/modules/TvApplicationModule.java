@@ -48,6 +48,7 @@ import com.android.tv.onboarding.SetupSourcesFragment;
 import com.android.tv.setup.SystemSetupActivity;
 import com.android.tv.ui.DetailsActivity;
 import com.android.tv.util.AsyncDbTask;
+import com.android.tv.util.PartitionedDbExecutor;
 import com.android.tv.util.TvInputManagerHelper;
 
 import dagger.Binds;
@@ -58,7 +59,6 @@ import dagger.android.ContributesAndroidInjector;
 import com.android.tv.common.flags.LegacyFlags;
 
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import javax.inject.Singleton;
 
@@ -78,12 +78,13 @@ import javax.inject.Singleton;
         })
 public abstract class TvApplicationModule {
     private static final NamedThreadFactory THREAD_FACTORY = new NamedThreadFactory("tv-app-db");
+    private static final int DB_READ_THREAD_COUNT = 3;
 
     @Provides
     @AsyncDbTask.DbExecutor
     @Singleton
     static Executor providesDbExecutor() {
-        return Executors.newSingleThreadExecutor(THREAD_FACTORY);
+        return new PartitionedDbExecutor(THREAD_FACTORY, DB_READ_THREAD_COUNT);
     }
 
     @Provides
@@ -35,6 +35,7 @@ public final class EventNames {
         ON_DEVICE_SEARCH,
         PROGRAM_GUIDE_SHOW,
         PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_TASK_DO_IN_BACKGROUND,
+        PROGRAM_DATA_MANAGER_LOAD_SNAPSHOT,
         PROGRAM_GUIDE_SHOW_FROM_EMPTY_CACHE,
         PROGRAM_GUIDE_SCROLL_HORIZONTALLY,
         PROGRAM_GUIDE_SCROLL_VERTICALLY,
@@ -52,6 +53,8 @@ public final class EventNames {
     public static final String PROGRAM_GUIDE_SHOW = "ProgramGuide.show";
     public static final String PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_TASK_DO_IN_BACKGROUND =
             "ProgramDataManager.ProgramsPrefetchTask.doInBackground";
+    public static final String PROGRAM_DATA_MANAGER_LOAD_SNAPSHOT =
+            "ProgramDataManager.loadSnapshot";
     public static final String PROGRAM_GUIDE_SHOW_FROM_EMPTY_CACHE =
             "ProgramGuide.show.fromEmptyCache";
     public static final String PROGRAM_GUIDE_SCROLL_HORIZONTALLY =
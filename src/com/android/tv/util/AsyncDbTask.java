@@ -70,6 +70,23 @@ public abstract class AsyncDbTask<Params, Progress, Result>
         this.mExecutor = mExecutor;
     }
 
+    /**
+     * Returns {@code true} if the task only reads the data base. Such tasks can run in parallel
+     * when the executor is a {@link PartitionedDbExecutor}.
+     */
+    protected boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Returns the priority of the task. It's applied to read-only tasks when the executor is a
+     * {@link PartitionedDbExecutor}.
+     */
+    @PartitionedDbExecutor.Priority
+    protected int getPriority() {
+        return PartitionedDbExecutor.PRIORITY_DEFAULT;
+    }
+
     /**
      * Returns the result of a {@link ContentResolver#query(Uri, String[], String, String[],
      * String)}.
@@ -104,6 +121,11 @@ public abstract class AsyncDbTask<Params, Progress, Result>
             mOrderBy = orderBy;
         }
 
+        @Override
+        protected boolean isReadOnly() {
+            return true;
+        }
+
         @Override
         protected final Result doInBackground(Void... params) {
             if (!mCalledExecuteOnDbThread) {
@@ -386,7 +408,14 @@ public abstract class AsyncDbTask<Params, Progress, Result>
     @MainThread
     public final void executeOnDbThread(Params... params) {
         mCalledExecuteOnDbThread = true;
-        executeOnExecutor(mExecutor, params);
+        if (mExecutor instanceof PartitionedDbExecutor) {
+            executeOnExecutor(
+                    ((PartitionedDbExecutor) mExecutor)
+                            .asExecutor(isReadOnly(), getPriority(), getClass().getName()),
+                    params);
+        } else {
+            executeOnExecutor(mExecutor, params);
+        }
     }
 
     /**
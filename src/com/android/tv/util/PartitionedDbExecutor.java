@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Executor} for data base access, which runs read-only tasks in parallel.
+ *
+ * <p>Tasks are partitioned into two lanes.
+ *
+ * <ul>
+ *   <li>The write lane is a single thread, so the tasks in it run one by one in the submitted
+ *       order. {@link #execute(Runnable)} uses this lane, so the tasks which don't opt in keep the
+ *       behavior of a single threaded executor.
+ *   <li>The read lane is a pool of threads, where the tasks with higher priority run first. A read
+ *       task doesn't start until the write tasks submitted before it are done, so it always sees
+ *       the result of them.
+ * </ul>
+ *
+ * <p>The time each task waited in the queue is accumulated per task name. See {@link
+ * #getQueueWaitStats}.
+ */
+public class PartitionedDbExecutor implements Executor {
+    private static final String TAG = "PartitionedDbExecutor";
+    private static final boolean DEBUG = false;
+
+    @IntDef({PRIORITY_BACKGROUND, PRIORITY_DEFAULT, PRIORITY_USER_VISIBLE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+
+    /** Priority for tasks whose result is not waited by users, e.g. prefetch. */
+    public static final int PRIORITY_BACKGROUND = -1;
+
+    /** The default priority. */
+    public static final int PRIORITY_DEFAULT = 0;
+
+    /** Priority for tasks whose result is waited by users. */
+    public static final int PRIORITY_USER_VISIBLE = 1;
+
+    private static final String DEFAULT_TASK_NAME = "default";
+    private static final long KEEP_ALIVE_TIME_SEC = 30;
+    private static final long SLOW_QUEUE_WAIT_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private final ThreadPoolExecutor mReadExecutor;
+    private final ThreadPoolExecutor mWriteExecutor;
+    private final AtomicLong mReadSequence = new AtomicLong();
+    // The number of write tasks submitted and completed. Guarded by mWriteLock.
+    private final Object mWriteLock = new Object();
+    private long mSubmittedWriteCount;
+    private long mCompletedWriteCount;
+    private final Map<String, QueueWaitStats> mQueueWaitStats = new HashMap<>();
+
+    /**
+     * Creates an executor.
+     *
+     * @param threadFactory the factory for the threads of both lanes
+     * @param readThreadCount the number of the threads of the read lane
+     */
+    public PartitionedDbExecutor(ThreadFactory threadFactory, int readThreadCount) {
+        mReadExecutor =
+                new ThreadPoolExecutor(
+                        readThreadCount,
+                        readThreadCount,
+                        KEEP_ALIVE_TIME_SEC,
+                        TimeUnit.SECONDS,
+                        new PriorityBlockingQueue<>(),
+                        threadFactory);
+        mReadExecutor.allowCoreThreadTimeOut(true);
+        mWriteExecutor =
+                new ThreadPoolExecutor(
+                        1,
+                        1,
+                        KEEP_ALIVE_TIME_SEC,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        threadFactory);
+        mWriteExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Executes the task in the write lane. */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        execute(command, false, PRIORITY_DEFAULT, DEFAULT_TASK_NAME);
+    }
+
+    /**
+     * Executes the task.
+     *
+     * @param command the task
+     * @param readOnly {@code true} if the task only reads the data base, so it can run in the
+     *     read lane
+     * @param priority the priority of the task. It's applied only to the read lane.
+     * @param taskName the name used for the queue wait time statistics
+     */
+    public void execute(
+            @NonNull Runnable command, boolean readOnly, @Priority int priority, String taskName) {
+        if (readOnly) {
+            long writeBarrier;
+            synchronized (mWriteLock) {
+                writeBarrier = mSubmittedWriteCount;
+            }
+            mReadExecutor.execute(
+                    new ReadTask(
+                            command,
+                            priority,
+                            mReadSequence.getAndIncrement(),
+                            writeBarrier,
+                            taskName));
+        } else {
+            synchronized (mWriteLock) {
+                mSubmittedWriteCount++;
+            }
+            long submitTimeMs = SystemClock.elapsedRealtime();
+            mWriteExecutor.execute(
+                    () -> {
+                        recordQueueWait(taskName, SystemClock.elapsedRealtime() - submitTimeMs);
+                        try {
+                            command.run();
+                        } finally {
+                            synchronized (mWriteLock) {
+                                mCompletedWriteCount++;
+                                mWriteLock.notifyAll();
+                            }
+                        }
+                    });
+        }
+    }
+
+    /** Returns an {@link Executor} which executes tasks with the given parameters. */
+    public Executor asExecutor(boolean readOnly, @Priority int priority, String taskName) {
+        return command -> execute(command, readOnly, priority, taskName);
+    }
+
+    /** Returns a snapshot of the queue wait time statistics per task name. */
+    public Map<String, QueueWaitStats> getQueueWaitStats() {
+        Map<String, QueueWaitStats> stats = new HashMap<>();
+        synchronized (mQueueWaitStats) {
+            for (Map.Entry<String, QueueWaitStats> entry : mQueueWaitStats.entrySet()) {
+                stats.put(entry.getKey(), new QueueWaitStats(entry.getValue()));
+            }
+        }
+        return stats;
+    }
+
+    private void awaitWrites(long writeCount) {
+        synchronized (mWriteLock) {
+            while (mCompletedWriteCount < writeCount) {
+                try {
+                    mWriteLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void recordQueueWait(String taskName, long waitMs) {
+        synchronized (mQueueWaitStats) {
+            QueueWaitStats stats = mQueueWaitStats.get(taskName);
+            if (stats == null) {
+                stats = new QueueWaitStats();
+                mQueueWaitStats.put(taskName, stats);
+            }
+            stats.add(waitMs);
+        }
+        if (waitMs >= SLOW_QUEUE_WAIT_MS) {
+            Log.i(TAG, taskName + " waited " + waitMs + "ms in the queue");
+        } else if (DEBUG) {
+            Log.d(TAG, taskName + " waited " + waitMs + "ms in the queue");
+        }
+    }
+
+    /** Statistics of the time tasks waited in the queue. */
+    public static final class QueueWaitStats {
+        private int mCount;
+        private long mTotalMs;
+        private long mMaxMs;
+
+        private QueueWaitStats() {}
+
+        private QueueWaitStats(QueueWaitStats other) {
+            mCount = other.mCount;
+            mTotalMs = other.mTotalMs;
+            mMaxMs = other.mMaxMs;
+        }
+
+        private void add(long waitMs) {
+            mCount++;
+            mTotalMs += waitMs;
+            mMaxMs = Math.max(mMaxMs, waitMs);
+        }
+
+        /** Returns the number of the tasks. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Returns the average wait time in milliseconds. */
+        public long getAverageMs() {
+            return mCount == 0 ? 0 : mTotalMs / mCount;
+        }
+
+        /** Returns the maximum wait time in milliseconds. */
+        public long getMaxMs() {
+            return mMaxMs;
+        }
+
+        @Override
+        public String toString() {
+            return "QueueWaitStats{count="
+                    + mCount
+                    + ", averageMs="
+                    + getAverageMs()
+                    + ", maxMs="
+                    + mMaxMs
+                    + "}";
+        }
+    }
+
+    private final class ReadTask implements Runnable, Comparable<ReadTask> {
+        private final Runnable mCommand;
+        private final int mPriority;
+        private final long mSequence;
+        private final long mWriteBarrier;
+        private final String mTaskName;
+        private final long mSubmitTimeMs = SystemClock.elapsedRealtime();
+
+        ReadTask(
+                Runnable command,
+                int priority,
+                long sequence,
+                long writeBarrier,
+                String taskName) {
+            mCommand = command;
+            mPriority = priority;
+            mSequence = sequence;
+            mWriteBarrier = writeBarrier;
+            mTaskName = taskName;
+        }
+
+        @Override
+        public void run() {
+            awaitWrites(mWriteBarrier);
+            recordQueueWait(mTaskName, SystemClock.elapsedRealtime() - mSubmitTimeMs);
+            mCommand.run();
+        }
+
+        @Override
+        public int compareTo(ReadTask other) {
+            // Higher priority first, and then FIFO.
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
@@ -295,6 +295,14 @@ public class Utils {
         return pathSegments.size() == 2 && pathSegment.equals(pathSegments.get(0));
     }
 
+    /**
+     * Returns {@code true}, if {@code uri} is a program URI for a specific program. It is copied
+     * from the hidden method TvContract.isProgramUri.
+     */
+    public static boolean isProgramUri(Uri uri) {
+        return isTvUri(uri) && isTwoSegmentUriStartingWith(uri, PATH_PROGRAM);
+    }
+
     /** Returns {@code true}, if {@code uri} is a programs URI. */
     public static boolean isProgramsUri(Uri uri) {
         return isTvUri(uri) && PATH_PROGRAM.equals(uri.getPathSegments().get(0));
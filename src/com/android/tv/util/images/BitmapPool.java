@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of bitmaps which are no longer used, to be reused by {@link
+ * android.graphics.BitmapFactory.Options#inBitmap} instead of allocating new ones.
+ *
+ * <p>Bitmaps are bucketed by their allocation size. A bitmap is reused only for a request which
+ * needs at least half of its allocation, so that small images don't hold large buffers.
+ *
+ * <p>A bitmap evicted from {@link ImageCache} can be still drawn by a view, so it's put here only
+ * when every view which got it has released it. A view which wants its bitmaps reused takes a
+ * reference by {@link #acquire} when it starts drawing the bitmap and drops it by {@link #release}
+ * once it stops. A bitmap handed to any other code is {@link #pin pinned} and never reused.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    private static final boolean DEBUG = false;
+
+    private static final float DEFAULT_POOL_SIZE_PERCENT = 0.03f;
+    private static final int MAX_WASTE_FACTOR = 2;
+
+    private static BitmapPool sInstance;
+
+    private final long mMaxSizeBytes;
+    // Allocation size to the bitmaps of the size. Guarded by this.
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<>();
+    // The number of the views drawing the bitmap. Guarded by this.
+    private final WeakHashMap<Bitmap, Integer> mRefCounts = new WeakHashMap<>();
+    // The bitmaps evicted from the cache while a view still draws them. Guarded by this.
+    private final Set<Bitmap> mEvictedBitmaps = Collections.newSetFromMap(new WeakHashMap<>());
+    // The bitmaps which can be drawn by the code not releasing them. Guarded by this.
+    private final Set<Bitmap> mPinnedBitmaps = Collections.newSetFromMap(new WeakHashMap<>());
+    private boolean mEnabled = true;
+    private long mSizeBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    /** Returns the pool sized by a percent of the available app memory. */
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance =
+                    new BitmapPool(
+                            (long) (Runtime.getRuntime().maxMemory() * DEFAULT_POOL_SIZE_PERCENT));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BitmapPool(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Sets whether the bitmaps are reused. When disabled, the pool is cleared and every bitmap is
+     * allocated by the decoder, which is useful to compare the performance.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            clear();
+            mRefCounts.clear();
+            mEvictedBitmaps.clear();
+        }
+    }
+
+    /** Takes a reference of the bitmap, which a view starts drawing. */
+    public synchronized void acquire(@Nullable Bitmap bitmap) {
+        if (bitmap == null || !mEnabled) {
+            return;
+        }
+        Integer count = mRefCounts.get(bitmap);
+        mRefCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Drops a reference taken by {@link #acquire}. The view must not draw the bitmap anymore. If
+     * the bitmap has been evicted from the cache and this was the last reference, it's put to the
+     * pool.
+     */
+    public synchronized void release(@Nullable Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        Integer count = mRefCounts.get(bitmap);
+        if (count == null || count == 0) {
+            return;
+        }
+        mRefCounts.put(bitmap, count - 1);
+        if (count == 1 && mEvictedBitmaps.remove(bitmap)) {
+            put(bitmap);
+        }
+    }
+
+    /** Marks the bitmap as held by the code which doesn't release it, so that it's not reused. */
+    public synchronized void pin(@Nullable Bitmap bitmap) {
+        if (bitmap != null && mEnabled) {
+            mPinnedBitmaps.add(bitmap);
+        }
+    }
+
+    /**
+     * Called when {@link ImageCache} evicts the bitmap. It's put to the pool if it has been drawn
+     * only by the views releasing it and they all have released it, or later when they do.
+     */
+    synchronized void onEvicted(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        if (!mEnabled || count == null || mPinnedBitmaps.contains(bitmap)) {
+            return;
+        }
+        if (count > 0) {
+            mEvictedBitmaps.add(bitmap);
+        } else {
+            put(bitmap);
+        }
+    }
+
+    /** Puts the bitmap to the pool. The caller must not use the bitmap afterwards. */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !mEnabled || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        // A reused bitmap is a new image, so it doesn't inherit the references.
+        mRefCounts.remove(bitmap);
+        mEvictedBitmaps.remove(bitmap);
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSizeBytes) {
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.push(bitmap);
+        mSizeBytes += size;
+        mPutCount++;
+        trimToSize(mMaxSizeBytes);
+    }
+
+    /**
+     * Takes a bitmap which can hold {@code byteCount} bytes out of the pool.
+     *
+     * @return the bitmap, or {@code null} if there's no bitmap of the proper size
+     */
+    @Nullable
+    public synchronized Bitmap get(int byteCount) {
+        if (!mEnabled) {
+            return null;
+        }
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(byteCount);
+        if (entry == null || entry.getKey() > (long) byteCount * MAX_WASTE_FACTOR) {
+            mMissCount++;
+            return null;
+        }
+        ArrayDeque<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.pop();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mSizeBytes -= entry.getKey();
+        mHitCount++;
+        if (DEBUG) Log.d(TAG, "Reuse " + entry.getKey() + " bytes for " + byteCount + " " + this);
+        return bitmap;
+    }
+
+    /** Removes all the bitmaps. */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /** Returns the number of the requests which got a bitmap. */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of the requests which didn't get a bitmap. */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /** Returns the total allocation size of the pooled bitmaps in bytes. */
+    public synchronized long size() {
+        return mSizeBytes;
+    }
+
+    private void trimToSize(long maxSizeBytes) {
+        while (mSizeBytes > maxSizeBytes) {
+            // Evicts the largest ones first, since they free the most memory.
+            Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.lastEntry();
+            ArrayDeque<Bitmap> bucket = entry.getValue();
+            bucket.removeLast();
+            if (bucket.isEmpty()) {
+                mBuckets.remove(entry.getKey());
+            }
+            mSizeBytes -= entry.getKey();
+            mEvictionCount++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{size="
+                + mSizeBytes
+                + "/"
+                + mMaxSizeBytes
+                + ", hits="
+                + mHitCount
+                + ", misses="
+                + mMissCount
+                + ", puts="
+                + mPutCount
+                + ", evictions="
+                + mEvictionCount
+                + "}";
+    }
+}
@@ -34,9 +34,12 @@ import android.text.TextUtils;
 import android.util.Log;
 import com.android.tv.common.util.NetworkTrafficTags;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -49,6 +52,9 @@ public final class BitmapUtils {
     // of BufferedInputStream (8K) allowing it to double its buffers three times. Also it is a
     // fairly reasonable value, not using too much memory and being large enough for most cases.
     private static final int MARK_READ_LIMIT = 64 * 1024; // 64K
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // A larger remote image is decoded from the stream, not from the memory.
+    private static final int MAX_BUFFERED_IMAGE_SIZE = 1024 * 1024; // 1M
 
     private static final int CONNECTION_TIMEOUT_MS_FOR_URLCONNECTION = 3000; // 3 sec
     private static final int READ_TIMEOUT_MS_FOR_URLCONNECTION = 10000; // 10 sec
@@ -104,7 +110,14 @@ public final class BitmapUtils {
         return bm;
     }
 
-    /** Decode large sized bitmap into requested size. */
+    /**
+     * Decode large sized bitmap into requested size.
+     *
+     * <p>A remote image is downloaded only once and decoded from memory, since its stream can't
+     * be rewound to decode it after reading the bounds. If it's larger than {@link
+     * #MAX_BUFFERED_IMAGE_SIZE}, only its beginning is kept to read the bounds and the rest is
+     * decoded from the stream. Such a bitmap is marked as {@link ScaledBitmapInfo#fromLargeImage}.
+     */
     public static ScaledBitmapInfo decodeSampledBitmapFromUriString(
             Context context, String uriString, int reqWidth, int reqHeight) {
         if (TextUtils.isEmpty(uriString)) {
@@ -118,14 +131,26 @@ public final class BitmapUtils {
         final int oldTag = TrafficStats.getThreadStatsTag();
         TrafficStats.setThreadStatsTag(NetworkTrafficTags.LOGO_FETCHER);
         try {
-            if (isResourceUri) {
-                inputStream = context.getContentResolver().openInputStream(uri);
-            } else {
+            if (!isResourceUri) {
                 // If the URLConnection is HttpURLConnection, disconnect() should be called
                 // explicitly.
                 urlConnection = getUrlConnection(uriString);
                 inputStream = urlConnection.getInputStream();
+                if (urlConnection.getContentLength() > MAX_BUFFERED_IMAGE_SIZE) {
+                    byte[] header = readAtMost(inputStream, MARK_READ_LIMIT);
+                    return decodeSampledBitmapFromStream(
+                            uriString, header, inputStream, reqWidth, reqHeight);
+                }
+                // The content length can be unknown or wrong. Reads one more byte to find out
+                // whether the image fits.
+                byte[] data = readAtMost(inputStream, MAX_BUFFERED_IMAGE_SIZE + 1);
+                if (data.length > MAX_BUFFERED_IMAGE_SIZE) {
+                    return decodeSampledBitmapFromStream(
+                            uriString, data, inputStream, reqWidth, reqHeight);
+                }
+                return decodeSampledBitmapFromByteArray(uriString, data, reqWidth, reqHeight);
             }
+            inputStream = context.getContentResolver().openInputStream(uri);
             inputStream = new BufferedInputStream(inputStream);
             inputStream.mark(MARK_READ_LIMIT);
 
@@ -142,12 +167,7 @@ public final class BitmapUtils {
 
                 // Failed to rewind the stream, try to reopen it.
                 close(inputStream, urlConnection);
-                if (isResourceUri) {
-                    inputStream = context.getContentResolver().openInputStream(uri);
-                } else {
-                    urlConnection = getUrlConnection(uriString);
-                    inputStream = urlConnection.getInputStream();
-                }
+                inputStream = context.getContentResolver().openInputStream(uri);
             }
 
             // Decode the bitmap possibly resizing it.
@@ -174,6 +194,91 @@ public final class BitmapUtils {
         }
     }
 
+    @Nullable
+    private static ScaledBitmapInfo decodeSampledBitmapFromByteArray(
+            String id, byte[] data, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        Bitmap bitmap = decodeByteArrayReusingBitmap(data, 0, data.length, options);
+        return bitmap == null ? null : new ScaledBitmapInfo(id, bitmap, options.inSampleSize);
+    }
+
+    /**
+     * Decodes the image whose first bytes, {@code header}, were already read from {@code
+     * inputStream}. The bounds are read from the header, and the image is decoded while the rest
+     * is read.
+     */
+    @Nullable
+    private static ScaledBitmapInfo decodeSampledBitmapFromStream(
+            String id, byte[] header, InputStream inputStream, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(header, 0, header.length, options);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        Bitmap bitmap =
+                BitmapFactory.decodeStream(
+                        new SequenceInputStream(new ByteArrayInputStream(header), inputStream),
+                        null,
+                        options);
+        if (DEBUG) Log.d(TAG, "Decoded a large image from the stream: " + id);
+        return bitmap == null ? null : new ScaledBitmapInfo(id, bitmap, options.inSampleSize, true);
+    }
+
+    /**
+     * Decodes the bitmap into a bitmap from {@link BitmapPool} if there's one of the proper size.
+     * The bounds, the sample size and the preferred config of {@code options} should be set.
+     */
+    @Nullable
+    static Bitmap decodeByteArrayReusingBitmap(
+            byte[] data, int offset, int length, BitmapFactory.Options options) {
+        options.inMutable = true;
+        int byteCount = getDecodedByteCount(options);
+        options.inBitmap = byteCount > 0 ? BitmapPool.getInstance().get(byteCount) : null;
+        if (options.inBitmap != null) {
+            try {
+                return BitmapFactory.decodeByteArray(data, offset, length, options);
+            } catch (IllegalArgumentException e) {
+                // The image needs another config than the preferred one, so it doesn't fit.
+                if (DEBUG) Log.d(TAG, "Failed to reuse " + options.inBitmap, e);
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, offset, length, options);
+    }
+
+    private static int getDecodedByteCount(BitmapFactory.Options options) {
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return 0;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+        return width * height * bytesPerPixel;
+    }
+
+    /**
+     * Reads up to {@code maxLength} bytes. The stream is at its end if fewer bytes are returned.
+     */
+    private static byte[] readAtMost(InputStream inputStream, int maxLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        while (out.size() < maxLength) {
+            int read = inputStream.read(buffer, 0, Math.min(buffer.length, maxLength - out.size()));
+            if (read == -1) {
+                break;
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
     private static URLConnection getUrlConnection(String uriString) throws IOException {
         URLConnection urlConnection = new URL(uriString).openConnection();
         urlConnection.setConnectTimeout(CONNECTION_TIMEOUT_MS_FOR_URLCONNECTION);
@@ -229,6 +334,12 @@ public final class BitmapUtils {
          */
         public final int inSampleSize;
 
+        /**
+         * Whether the original image was too large to be kept in the memory while decoding. It's
+         * not worth caching on the disk.
+         */
+        public final boolean fromLargeImage;
+
         /**
          * A constructor.
          *
@@ -237,9 +348,18 @@ public final class BitmapUtils {
          *     android.graphics.BitmapFactory.Options#inSampleSize}
          */
         public ScaledBitmapInfo(@NonNull String id, @NonNull Bitmap bitmap, int inSampleSize) {
+            this(id, bitmap, inSampleSize, false);
+        }
+
+        private ScaledBitmapInfo(
+                @NonNull String id,
+                @NonNull Bitmap bitmap,
+                int inSampleSize,
+                boolean fromLargeImage) {
             this.id = id;
             this.bitmap = bitmap;
             this.inSampleSize = inSampleSize;
+            this.fromLargeImage = fromLargeImage;
         }
 
         /**
@@ -55,6 +55,19 @@ public class ImageCache implements MemoryManageable {
                     protected int sizeOf(String key, ScaledBitmapInfo bitmapInfo) {
                         return (bitmapInfo.bitmap.getByteCount() + 1023) / 1024;
                     }
+
+                    @Override
+                    protected void entryRemoved(
+                            boolean evicted,
+                            String key,
+                            ScaledBitmapInfo oldValue,
+                            ScaledBitmapInfo newValue) {
+                        // A replaced or removed bitmap can be still drawn by anyone. The pool takes
+                        // an evicted one only after the views drawing it release it.
+                        if (evicted) {
+                            BitmapPool.getInstance().onEvicted(oldValue.bitmap);
+                        }
+                    }
                 };
     }
 
@@ -162,6 +175,16 @@ public class ImageCache implements MemoryManageable {
         return mMemoryCache.remove(key);
     }
 
+    /** Returns the number of the lookups which found the bitmap in memory. */
+    public int hitCount() {
+        return mMemoryCache.hitCount();
+    }
+
+    /** Returns the number of the lookups which didn't find the bitmap in memory. */
+    public int missCount() {
+        return mMemoryCache.missCount();
+    }
+
     /**
      * Calculates the memory cache size based on a percentage of the max available VM memory. Eg.
      * setting percent to 0.2 would set the memory cache to one fifth of the available memory.
@@ -187,5 +210,6 @@ public class ImageCache implements MemoryManageable {
     @Override
     public void performTrimMemory(int level) {
         mMemoryCache.evictAll();
+        BitmapPool.getInstance().clear();
     }
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The on-disk tier of the image cache, which keeps the downsampled bitmaps of remote images so
+ * that they aren't downloaded again after the app restarts.
+ *
+ * <p>Entries are keyed by the URI and the requested size, and the least recently used entries are
+ * removed when the total size exceeds the limit. The last modified time of a file is its last use
+ * time, so the order survives restarts.
+ */
+public class ImageDiskCache {
+    private static final String TAG = "ImageDiskCache";
+    private static final boolean DEBUG = false;
+
+    private static final String DIRECTORY_NAME = "images";
+    private static final long DEFAULT_MAX_SIZE_BYTES = 20 * 1024 * 1024;
+    private static final int MAGIC = 0x494d4743; // "IMGC"
+    private static final int HEADER_SIZE = 8; // magic and inSampleSize
+    private static final int JPEG_QUALITY = 90;
+
+    private static ImageDiskCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    // File name to file size, in the access order. Guarded by this.
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean mInitialized;
+    private long mSizeBytes;
+    private int mHitCount;
+    private int mMissCount;
+
+    /** Returns the instance which is stored in the cache directory of the app. */
+    public static synchronized ImageDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance =
+                    new ImageDiskCache(
+                            new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME),
+                            DEFAULT_MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ImageDiskCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /** Returns {@code true} if the image of the URI can be cached, i.e. it's a remote image. */
+    public static boolean isCacheable(String uriString) {
+        return uriString != null
+                && (uriString.startsWith("http://") || uriString.startsWith("https://"));
+    }
+
+    /**
+     * Reads the bitmap of the URI which was decoded for the requested size.
+     *
+     * @return the bitmap, or {@code null} if it's not cached
+     */
+    @Nullable
+    @WorkerThread
+    public ScaledBitmapInfo get(String uriString, int reqWidth, int reqHeight) {
+        String fileName = getFileName(uriString, reqWidth, reqHeight);
+        File file = new File(mDirectory, fileName);
+        synchronized (this) {
+            initializeIfNeeded();
+            if (mEntries.get(fileName) == null) {
+                mMissCount++;
+                return null;
+            }
+        }
+        ScaledBitmapInfo bitmapInfo = read(uriString, file);
+        synchronized (this) {
+            if (bitmapInfo == null) {
+                mMissCount++;
+                removeEntry(fileName);
+                return null;
+            }
+            mHitCount++;
+            if (DEBUG) Log.d(TAG, "Disk cache hit for " + uriString + " " + getHitRateString());
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmapInfo;
+    }
+
+    /** Writes the bitmap decoded for the requested size. */
+    @WorkerThread
+    public void put(ScaledBitmapInfo bitmapInfo, int reqWidth, int reqHeight) {
+        String fileName = getFileName(bitmapInfo.id, reqWidth, reqHeight);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(bitmapInfo.inSampleSize);
+            Bitmap.CompressFormat format =
+                    bitmapInfo.bitmap.hasAlpha()
+                            ? Bitmap.CompressFormat.PNG
+                            : Bitmap.CompressFormat.JPEG;
+            if (!bitmapInfo.bitmap.compress(format, JPEG_QUALITY, out)) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        synchronized (this) {
+            // Initializes first, so that the temp file written below isn't deleted as a leftover.
+            initializeIfNeeded();
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.w(TAG, "Failed to create " + mDirectory);
+                return;
+            }
+        }
+        // Writes the file without the lock, so that the other lookups are not blocked by the I/O.
+        File tempFile;
+        try {
+            tempFile = File.createTempFile(fileName + ".new", ".tmp", mDirectory);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to create a temp file for " + bitmapInfo, e);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            bytes.writeTo(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + bitmapInfo, e);
+            tempFile.delete();
+            return;
+        }
+        File file = new File(mDirectory, fileName);
+        synchronized (this) {
+            removeEntry(fileName);
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+            mEntries.put(fileName, file.length());
+            mSizeBytes += file.length();
+            trimToSize();
+        }
+    }
+
+    /** Returns the number of the lookups which found the bitmap. */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of the lookups which didn't find the bitmap. */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /** Returns the total size of the cached files in bytes. */
+    public synchronized long size() {
+        initializeIfNeeded();
+        return mSizeBytes;
+    }
+
+    private String getHitRateString() {
+        int total = mHitCount + mMissCount;
+        int ratio = total == 0 ? 0 : mHitCount * 100 / total;
+        return mHitCount + "h:" + mMissCount + "m " + ratio + "%";
+    }
+
+    @Nullable
+    private static ScaledBitmapInfo read(String uriString, File file) {
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        } catch (IOException e) {
+            if (DEBUG) Log.d(TAG, "Failed to read " + file, e);
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || header.getInt() != MAGIC) {
+            return null;
+        }
+        int inSampleSize = header.getInt();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, HEADER_SIZE, data.length - HEADER_SIZE, options);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap =
+                BitmapUtils.decodeByteArrayReusingBitmap(
+                        data, HEADER_SIZE, data.length - HEADER_SIZE, options);
+        return bitmap == null ? null : new ScaledBitmapInfo(uriString, bitmap, inSampleSize);
+    }
+
+    private void initializeIfNeeded() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // The least recently used file comes first.
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSizeBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private void removeEntry(String fileName) {
+        Long size = mEntries.remove(fileName);
+        if (size != null) {
+            mSizeBytes -= size;
+            new File(mDirectory, fileName).delete();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            mSizeBytes -= entry.getValue();
+            new File(mDirectory, entry.getKey()).delete();
+            if (DEBUG) Log.d(TAG, "Evicted " + entry.getKey());
+        }
+    }
+
+    private static String getFileName(String uriString, int reqWidth, int reqHeight) {
+        String key = uriString + "#" + reqWidth + "x" + reqHeight;
+        try {
+            byte[] digest =
+                    MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -40,10 +40,8 @@ import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -51,48 +49,46 @@ import java.util.concurrent.TimeUnit;
 /**
  * This class wraps up completing some arbitrary long running work when loading a bitmap. It handles
  * things like using a memory cache, running the work in a background thread.
+ *
+ * <p>Remote images are also kept in {@link ImageDiskCache}, which is checked after the memory
+ * cache and before the download.
  */
 public final class ImageLoader {
     private static final String TAG = "ImageLoader";
     private static final boolean DEBUG = false;
 
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-    // We want at least 2 threads and at most 4 threads in the core pool,
-    // preferring to have 1 less than the CPU count to avoid saturating
-    // the CPU with background work
-    private static final int CORE_POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
     private static final int MAXIMUM_POOL_SIZE = CPU_COUNT * 2 + 1;
+    private static final int MAXIMUM_RUNNING_COUNT_PER_HOST = 4;
     private static final int KEEP_ALIVE_SECONDS = 30;
 
     private static final ThreadFactory sThreadFactory = new NamedThreadFactory("ImageLoader");
 
-    private static final BlockingQueue<Runnable> sPoolWorkQueue = new LinkedBlockingQueue<>(128);
-
     /**
      * An private {@link Executor} that can be used to execute tasks in parallel.
      *
-     * <p>{@code IMAGE_THREAD_POOL_EXECUTOR} setting are copied from {@link AsyncTask} Since we do a
-     * lot of concurrent image loading we can exhaust a thread pool. ImageLoader catches the error,
-     * and just leaves the image blank. However other tasks will fail and crash the application.
-     *
-     * <p>Using a separate thread pool prevents image loading from causing other tasks to fail.
+     * <p>Since we do a lot of concurrent image loading we can exhaust a thread pool. Using a
+     * separate thread pool prevents image loading from causing other tasks to fail. The queue is
+     * not bounded, because {@link ImageRequestScheduler} never runs more than {@code
+     * MAXIMUM_POOL_SIZE} tasks at the same time.
      */
     private static final Executor IMAGE_THREAD_POOL_EXECUTOR;
 
     static {
         ThreadPoolExecutor threadPoolExecutor =
                 new ThreadPoolExecutor(
-                        CORE_POOL_SIZE,
+                        MAXIMUM_POOL_SIZE,
                         MAXIMUM_POOL_SIZE,
                         KEEP_ALIVE_SECONDS,
                         TimeUnit.SECONDS,
-                        sPoolWorkQueue,
+                        new LinkedBlockingQueue<>(),
                         sThreadFactory);
         threadPoolExecutor.allowCoreThreadTimeOut(true);
         IMAGE_THREAD_POOL_EXECUTOR = threadPoolExecutor;
     }
 
     private static Handler sMainHandler;
+    private static ImageRequestScheduler sScheduler;
 
     /**
      * Handles when image loading is finished.
@@ -118,6 +114,9 @@ public final class ImageLoader {
 
         /** Called when bitmap is loaded. */
         private void onBitmapLoaded(@Nullable Bitmap bitmap) {
+            if (!releasesBitmap()) {
+                BitmapPool.getInstance().pin(bitmap);
+            }
             T referent = mWeakReference.get();
             if (referent != null) {
                 onBitmapLoaded(referent, bitmap);
@@ -128,6 +127,15 @@ public final class ImageLoader {
 
         /** Called when bitmap is loaded if the weak reference is still valid. */
         public abstract void onBitmapLoaded(T referent, @Nullable Bitmap bitmap);
+
+        /**
+         * Returns {@code true} if the referent takes a reference of the bitmap by {@link
+         * BitmapPool#acquire} while it draws the bitmap and releases it afterwards. Otherwise the
+         * bitmap is never reused for another image.
+         */
+        protected boolean releasesBitmap() {
+            return false;
+        }
     }
 
     private static final Map<String, LoadBitmapTask> sPendingListMap = new HashMap<>();
@@ -135,7 +143,8 @@ public final class ImageLoader {
     /**
      * Preload a bitmap image into the cache.
      *
-     * <p>Not to make heavy CPU load, AsyncTask.SERIAL_EXECUTOR is used for the image loading.
+     * <p>Not to make heavy CPU load, prefetches run one by one and only when no image for the
+     * visible views is waiting.
      *
      * <p>This method is thread safe.
      */
@@ -143,7 +152,13 @@ public final class ImageLoader {
             Context context, final String uriString, final int maxWidth, final int maxHeight) {
         if (DEBUG) Log.d(TAG, "prefetchBitmap() " + uriString);
         if (Looper.getMainLooper() == Looper.myLooper()) {
-            doLoadBitmap(context, uriString, maxWidth, maxHeight, null, AsyncTask.SERIAL_EXECUTOR);
+            doLoadBitmap(
+                    context,
+                    uriString,
+                    maxWidth,
+                    maxHeight,
+                    null,
+                    ImageRequestScheduler.PRIORITY_PREFETCH);
         } else {
             final Context appContext = context.getApplicationContext();
             getMainHandler()
@@ -155,7 +170,7 @@ public final class ImageLoader {
                                             maxWidth,
                                             maxHeight,
                                             null,
-                                            AsyncTask.SERIAL_EXECUTOR));
+                                            ImageRequestScheduler.PRIORITY_PREFETCH));
         }
     }
 
@@ -192,7 +207,12 @@ public final class ImageLoader {
             Log.d(TAG, "loadBitmap() " + uriString);
         }
         return doLoadBitmap(
-                context, uriString, maxWidth, maxHeight, callback, IMAGE_THREAD_POOL_EXECUTOR);
+                context,
+                uriString,
+                maxWidth,
+                maxHeight,
+                callback,
+                ImageRequestScheduler.PRIORITY_VISIBLE);
     }
 
     private static <T> boolean doLoadBitmap(
@@ -201,7 +221,7 @@ public final class ImageLoader {
             int maxWidth,
             int maxHeight,
             ImageLoaderCallback<T> callback,
-            Executor executor) {
+            @ImageRequestScheduler.Priority int priority) {
         // Check the cache before creating a Task.  The cache will be checked again in doLoadBitmap
         // but checking a cache is much cheaper than creating an new task.
         ImageCache imageCache = ImageCache.getInstance();
@@ -214,7 +234,7 @@ public final class ImageLoader {
         }
         return doLoadBitmap(
                 callback,
-                executor,
+                priority,
                 new LoadBitmapFromUriTask(context, imageCache, uriString, maxWidth, maxHeight));
     }
 
@@ -231,13 +251,15 @@ public final class ImageLoader {
         if (DEBUG) {
             Log.d(TAG, "loadBitmap() " + loadBitmapTask);
         }
-        return doLoadBitmap(callback, IMAGE_THREAD_POOL_EXECUTOR, loadBitmapTask);
+        return doLoadBitmap(callback, ImageRequestScheduler.PRIORITY_VISIBLE, loadBitmapTask);
     }
 
     /** @return {@code true} if the load is complete and the callback is executed. */
     @UiThread
     private static <T> boolean doLoadBitmap(
-            ImageLoaderCallback<T> callback, Executor executor, LoadBitmapTask<T> loadBitmapTask) {
+            ImageLoaderCallback<T> callback,
+            @ImageRequestScheduler.Priority int priority,
+            LoadBitmapTask<T> loadBitmapTask) {
         ScaledBitmapInfo bitmapInfo = loadBitmapTask.getFromCache();
         boolean needToReload = loadBitmapTask.isReloadNeeded();
         if (bitmapInfo != null && !needToReload) {
@@ -246,23 +268,28 @@ public final class ImageLoader {
             }
             return true;
         }
+        ImageRequestScheduler scheduler = getScheduler();
         LoadBitmapTask existingTask = sPendingListMap.get(loadBitmapTask.getKey());
+        if (existingTask != null && existingTask.isCancelled()) {
+            // It's cancelled but onCancelled() is not called yet.
+            existingTask = null;
+        }
         if (existingTask != null && !loadBitmapTask.isReloadNeeded(existingTask)) {
             // The image loading is already scheduled and is large enough.
             if (callback != null) {
                 existingTask.mCallbacks.add(callback);
             }
+            scheduler.raisePriority(existingTask, priority);
         } else {
             if (callback != null) {
                 loadBitmapTask.mCallbacks.add(callback);
             }
-            sPendingListMap.put(loadBitmapTask.getKey(), loadBitmapTask);
-            try {
-                loadBitmapTask.executeOnExecutor(executor);
-            } catch (RejectedExecutionException e) {
-                Log.e(TAG, "Failed to create new image loader", e);
-                sPendingListMap.remove(loadBitmapTask.getKey());
+            if (existingTask != null && scheduler.cancelIfQueued(existingTask)) {
+                // The new task loads a larger image for the callbacks of the existing one.
+                loadBitmapTask.mCallbacks.addAll(existingTask.mCallbacks);
             }
+            sPendingListMap.put(loadBitmapTask.getKey(), loadBitmapTask);
+            scheduler.schedule(loadBitmapTask, priority);
         }
         return false;
     }
@@ -361,7 +388,36 @@ public final class ImageLoader {
             for (ImageLoader.ImageLoaderCallback<T> callback : mCallbacks) {
                 callback.onBitmapLoaded(scaledBitmapInfo == null ? null : scaledBitmapInfo.bitmap);
             }
-            ImageLoader.sPendingListMap.remove(mKey);
+            removeFromPendingList();
+        }
+
+        @Override
+        public final void onCancelled(ScaledBitmapInfo scaledBitmapInfo) {
+            if (DEBUG) Log.d(ImageLoader.TAG, "Bitmap loading is cancelled " + mKey);
+            removeFromPendingList();
+        }
+
+        /**
+         * Returns {@code true} if nobody waits for the bitmap anymore, i.e. the referents of all
+         * the callbacks are gone. A prefetch, which has no callbacks, is never obsolete.
+         */
+        boolean isObsolete() {
+            if (mCallbacks.isEmpty()) {
+                return false;
+            }
+            for (ImageLoaderCallback<T> callback : mCallbacks) {
+                if (callback.mWeakReference.get() != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void removeFromPendingList() {
+            // The entry may have been replaced by a task which loads a larger image.
+            if (ImageLoader.sPendingListMap.get(mKey) == this) {
+                ImageLoader.sPendingListMap.remove(mKey);
+            }
         }
 
         public final String getKey() {
@@ -394,8 +450,31 @@ public final class ImageLoader {
         @Override
         @Nullable
         public final ScaledBitmapInfo doGetBitmapInBackground() {
-            return BitmapUtils.decodeSampledBitmapFromUriString(
-                    mAppContext, getKey(), mMaxWidth, mMaxHeight);
+            if (!ImageDiskCache.isCacheable(getKey())) {
+                return BitmapUtils.decodeSampledBitmapFromUriString(
+                        mAppContext, getKey(), mMaxWidth, mMaxHeight);
+            }
+            ImageDiskCache diskCache = ImageDiskCache.getInstance(mAppContext);
+            ScaledBitmapInfo bitmapInfo = diskCache.get(getKey(), mMaxWidth, mMaxHeight);
+            if (bitmapInfo == null) {
+                bitmapInfo =
+                        BitmapUtils.decodeSampledBitmapFromUriString(
+                                mAppContext, getKey(), mMaxWidth, mMaxHeight);
+                if (bitmapInfo != null && !bitmapInfo.fromLargeImage) {
+                    diskCache.put(bitmapInfo, mMaxWidth, mMaxHeight);
+                }
+            }
+            if (DEBUG) {
+                Log.d(
+                        TAG,
+                        "Disk cache "
+                                + diskCache.hitCount()
+                                + "h:"
+                                + diskCache.missCount()
+                                + "m, size="
+                                + diskCache.size());
+            }
+            return bitmapInfo;
         }
     }
 
@@ -481,5 +560,18 @@ public final class ImageLoader {
         return sMainHandler;
     }
 
+    @UiThread
+    private static ImageRequestScheduler getScheduler() {
+        if (sScheduler == null) {
+            sScheduler =
+                    new ImageRequestScheduler(
+                            IMAGE_THREAD_POOL_EXECUTOR,
+                            getMainHandler()::post,
+                            MAXIMUM_POOL_SIZE,
+                            MAXIMUM_RUNNING_COUNT_PER_HOST);
+        }
+        return sScheduler;
+    }
+
     private ImageLoader() {}
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import android.net.Uri;
+import android.support.annotation.IntDef;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import com.android.tv.util.images.ImageLoader.LoadBitmapTask;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Schedules {@link LoadBitmapTask}s.
+ *
+ * <ul>
+ *   <li>Requests for visible images run before prefetches, and only one prefetch runs at a time
+ *       not to make heavy load.
+ *   <li>The number of the requests running for a host is limited, so a slow server doesn't occupy
+ *       all the threads.
+ *   <li>A queued request is dropped when it's about to start if the referents of all its
+ *       callbacks have been garbage collected. A card which is scrolled off and recycled is still
+ *       referenced, so its request isn't dropped until the card itself is collected.
+ * </ul>
+ *
+ * <p>The scheduler is confined to the main thread, where the requests are made and finished.
+ */
+class ImageRequestScheduler {
+    private static final String TAG = "ImageRequestScheduler";
+    private static final boolean DEBUG = false;
+
+    @IntDef({PRIORITY_PREFETCH, PRIORITY_VISIBLE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface Priority {}
+
+    /** Priority for the images which are not shown yet. */
+    static final int PRIORITY_PREFETCH = 0;
+
+    /** Priority for the images which are shown now. */
+    static final int PRIORITY_VISIBLE = 1;
+
+    private static final int MAX_RUNNING_PREFETCH_COUNT = 1;
+    // Local images, e.g. TV input logos, have no host and no limit.
+    private static final String NO_HOST = "";
+
+    private final Executor mWorkerExecutor;
+    private final Executor mMainExecutor;
+    private final int mMaxRunningCount;
+    private final int mMaxRunningCountPerHost;
+    private final TreeSet<Request> mQueue = new TreeSet<>();
+    private final Map<LoadBitmapTask<?>, Request> mQueuedRequests = new HashMap<>();
+    private final Map<String, Integer> mRunningCountPerHost = new HashMap<>();
+    private int mRunningCount;
+    private int mRunningPrefetchCount;
+    private long mSequence;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param workerExecutor the executor which runs the requests. It should be able to run {@code
+     *     maxRunningCount} requests at the same time.
+     * @param mainExecutor the executor which runs tasks on the main thread
+     * @param maxRunningCount the maximum number of the requests running at the same time
+     * @param maxRunningCountPerHost the maximum number of the requests for a host running at the
+     *     same time
+     */
+    ImageRequestScheduler(
+            Executor workerExecutor,
+            Executor mainExecutor,
+            int maxRunningCount,
+            int maxRunningCountPerHost) {
+        mWorkerExecutor = workerExecutor;
+        mMainExecutor = mainExecutor;
+        mMaxRunningCount = maxRunningCount;
+        mMaxRunningCountPerHost = maxRunningCountPerHost;
+    }
+
+    /** Queues the task. */
+    @MainThread
+    void schedule(LoadBitmapTask<?> task, @Priority int priority) {
+        // executeOnExecutor() hands the work of the task synchronously.
+        task.executeOnExecutor(
+                command -> {
+                    Request request =
+                            new Request(task, command, getHost(task.getKey()), priority);
+                    mQueue.add(request);
+                    mQueuedRequests.put(task, request);
+                });
+        dispatch();
+    }
+
+    /**
+     * Raises the priority of the task if it's queued.
+     *
+     * @return {@code true} if the task is queued
+     */
+    @MainThread
+    boolean raisePriority(LoadBitmapTask<?> task, @Priority int priority) {
+        Request request = mQueuedRequests.get(task);
+        if (request == null) {
+            return false;
+        }
+        if (request.mPriority < priority) {
+            mQueue.remove(request);
+            request.mPriority = priority;
+            mQueue.add(request);
+            dispatch();
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the task if it hasn't started yet.
+     *
+     * @return {@code true} if the task is cancelled
+     */
+    @MainThread
+    boolean cancelIfQueued(LoadBitmapTask<?> task) {
+        Request request = mQueuedRequests.remove(task);
+        if (request == null) {
+            return false;
+        }
+        mQueue.remove(request);
+        task.cancel(false);
+        return true;
+    }
+
+    @VisibleForTesting
+    int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    private void dispatch() {
+        Iterator<Request> iterator = mQueue.iterator();
+        while (mRunningCount < mMaxRunningCount && iterator.hasNext()) {
+            Request request = iterator.next();
+            if (request.mTask.isObsolete()) {
+                if (DEBUG) Log.d(TAG, "Cancel obsolete request " + request.mTask);
+                iterator.remove();
+                mQueuedRequests.remove(request.mTask);
+                request.mTask.cancel(false);
+                continue;
+            }
+            boolean prefetch = request.mPriority == PRIORITY_PREFETCH;
+            if ((prefetch && mRunningPrefetchCount >= MAX_RUNNING_PREFETCH_COUNT)
+                    || getRunningCount(request.mHost) >= mMaxRunningCountPerHost) {
+                continue;
+            }
+            iterator.remove();
+            mQueuedRequests.remove(request.mTask);
+            start(request, prefetch);
+        }
+    }
+
+    private void start(Request request, boolean prefetch) {
+        mRunningCount++;
+        if (prefetch) {
+            mRunningPrefetchCount++;
+        }
+        mRunningCountPerHost.put(request.mHost, getRunningCount(request.mHost) + 1);
+        mWorkerExecutor.execute(
+                () -> {
+                    try {
+                        request.mCommand.run();
+                    } finally {
+                        mMainExecutor.execute(() -> onFinished(request, prefetch));
+                    }
+                });
+    }
+
+    private void onFinished(Request request, boolean prefetch) {
+        mRunningCount--;
+        if (prefetch) {
+            mRunningPrefetchCount--;
+        }
+        int count = getRunningCount(request.mHost) - 1;
+        if (count > 0) {
+            mRunningCountPerHost.put(request.mHost, count);
+        } else {
+            mRunningCountPerHost.remove(request.mHost);
+        }
+        dispatch();
+    }
+
+    private int getRunningCount(String host) {
+        if (NO_HOST.equals(host)) {
+            return 0;
+        }
+        Integer count = mRunningCountPerHost.get(host);
+        return count == null ? 0 : count;
+    }
+
+    private static String getHost(@Nullable String key) {
+        String host = key == null ? null : Uri.parse(key).getHost();
+        return host == null ? NO_HOST : host;
+    }
+
+    private final class Request implements Comparable<Request> {
+        private final LoadBitmapTask<?> mTask;
+        private final Runnable mCommand;
+        private final String mHost;
+        private final long mSequence = ImageRequestScheduler.this.mSequence++;
+        private int mPriority;
+
+        Request(LoadBitmapTask<?> task, Runnable command, String host, int priority) {
+            mTask = task;
+            mCommand = command;
+            mHost = host;
+            mPriority = priority;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            // Higher priority first, and then FIFO.
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
@@ -44,13 +44,29 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /** Fake {@link EpgReader} for testing. */
 public final class FakeEpgReader implements EpgReader {
+    private static final long PROGRAM_FETCH_LATCH_TIMEOUT_SEC = 5;
+
     public final ListMultimap<String, Lineup> zip2lineups = LinkedListMultimap.create(2);
     public final ListMultimap<String, Channel> lineup2Channels = LinkedListMultimap.create(2);
     public final ListMultimap<String, Program> epgChannelId2Programs = LinkedListMultimap.create(2);
     public final FakeClock fakeClock;
+    /** The time {@link #getPrograms(Set, long)} takes, to model the latency of the network. */
+    public volatile long programFetchLatencyMs;
+    /**
+     * If set, {@link #getPrograms(Set, long)} counts it down and waits until the other calls count
+     * it down to zero, so that the calls can finish only if they run at the same time.
+     */
+    public volatile CountDownLatch programFetchLatch;
+
+    private final Object mProgramFetchLock = new Object();
+    private int mConcurrentProgramFetches;
+    private int mMaxConcurrentProgramFetches;
+    private boolean mProgramFetchLatchTimedOut;
 
     public FakeEpgReader(FakeClock fakeClock) {
         this.fakeClock = fakeClock;
@@ -130,6 +146,54 @@ public final class FakeEpgReader implements EpgReader {
     @Override
     public Map<EpgChannel, Collection<Program>> getPrograms(
             @NonNull Set<EpgChannel> epgChannels, long duration) {
+        synchronized (mProgramFetchLock) {
+            mConcurrentProgramFetches++;
+            mMaxConcurrentProgramFetches =
+                    Math.max(mMaxConcurrentProgramFetches, mConcurrentProgramFetches);
+        }
+        try {
+            if (programFetchLatencyMs > 0) {
+                // Sleeps in real time, since SystemClock is faked in Robolectric.
+                Thread.sleep(programFetchLatencyMs);
+            }
+            CountDownLatch latch = programFetchLatch;
+            if (latch != null) {
+                latch.countDown();
+                if (!latch.await(PROGRAM_FETCH_LATCH_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                    synchronized (mProgramFetchLock) {
+                        mProgramFetchLatchTimedOut = true;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (mProgramFetchLock) {
+                mConcurrentProgramFetches--;
+            }
+        }
+        return getProgramsDuring(epgChannels, duration);
+    }
+
+    /** Returns the maximum number of {@link #getPrograms(Set, long)} calls run at the same time. */
+    public int getMaxConcurrentProgramFetches() {
+        synchronized (mProgramFetchLock) {
+            return mMaxConcurrentProgramFetches;
+        }
+    }
+
+    /**
+     * Returns {@code true} if a {@link #getPrograms(Set, long)} call gave up waiting for {@link
+     * #programFetchLatch}.
+     */
+    public boolean isProgramFetchLatchTimedOut() {
+        synchronized (mProgramFetchLock) {
+            return mProgramFetchLatchTimedOut;
+        }
+    }
+
+    private Map<EpgChannel, Collection<Program>> getProgramsDuring(
+            Set<EpgChannel> epgChannels, long duration) {
         Range<Long> validRange =
                 Range.create(
                         fakeClock.currentTimeMillis(), fakeClock.currentTimeMillis() + duration);
@@ -253,6 +253,14 @@ public final class DvrDataManagerInMemoryImpl extends BaseDvrDataManager {
         notifyScheduledRecordingStatusChanged(scheduledRecordings);
     }
 
+    @Override
+    public void removeAndUpdateScheduledRecordings(
+            ScheduledRecording[] scheduledRecordingsToRemove,
+            ScheduledRecording[] scheduledRecordingsToUpdate) {
+        removeScheduledRecording(scheduledRecordingsToRemove);
+        updateScheduledRecording(scheduledRecordingsToUpdate);
+    }
+
     @Override
     public void updateSeriesRecording(SeriesRecording... seriesRecordings) {
         for (SeriesRecording r : seriesRecordings) {
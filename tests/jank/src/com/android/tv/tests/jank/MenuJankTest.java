@@ -18,6 +18,7 @@ package com.android.tv.tests.jank;
 import android.support.test.jank.GfxMonitor;
 import android.support.test.jank.JankTest;
 import androidx.test.filters.MediumTest;
+import com.android.tv.R;
 import com.android.tv.testing.uihelper.MenuHelper;
 
 /** Jank tests for the program guide. */
@@ -58,6 +59,27 @@ public class MenuJankTest extends LiveChannelsTestCase {
         }
     }
 
+    /**
+     * Scrolls the channels row, which decodes a poster for each card. Compare the result with a
+     * build whose {@code UiFlags#enableBitmapPool} is {@code false} to see the effect of reusing
+     * bitmaps.
+     */
+    @JankTest(expectedFrames = EXPECTED_FRAMES, beforeTest = "fillTheMenuRowWithPreviousChannels")
+    @GfxMonitor(processName = Utils.LIVE_CHANNELS_PROCESS_NAME)
+    public void testScrollChannelsRow() {
+        int frames = 20; // estimated, one card move in each direction.
+        int repeat = EXPECTED_FRAMES * 2 / frames;
+        mMenuHelper.showMenu();
+        mMenuHelper.assertNavigateToRow(R.string.menu_title_channels);
+        for (int i = 0; i < repeat; i++) {
+            mDevice.pressDPadRight();
+            mDevice.waitForIdle();
+            mDevice.pressDPadLeft();
+            mDevice.waitForIdle();
+        }
+        mDevice.pressBack();
+    }
+
     public void fillTheMenuRowWithPreviousChannels() {
         int cardViewCount = 6;
         for (int i = 0; i < cardViewCount; i++) {
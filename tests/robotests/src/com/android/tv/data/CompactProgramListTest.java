@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tv.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.data.api.Program;
+import com.android.tv.testing.TvRobolectricTestRunner;
+import com.android.tv.testing.constants.ConfigConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link CompactProgramList}. */
+@RunWith(TvRobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class CompactProgramListTest {
+    private static final long CHANNEL_ID = 7;
+
+    private CompactProgramList mPrograms;
+
+    @Before
+    public void setUp() {
+        CompactProgramList.Builder builder =
+                new CompactProgramList.Builder(CHANNEL_ID, new CompactProgramList.StringPool());
+        for (int i = 0; i < 40; i++) {
+            builder.add(i, "Title" + i % 3, null, "MOVIES", i * 100, (i + 1) * 100);
+        }
+        mPrograms = builder.build();
+    }
+
+    @Test
+    public void get() {
+        Program program = mPrograms.get(4);
+
+        assertThat(program.getId()).isEqualTo(4);
+        assertThat(program.getChannelId()).isEqualTo(CHANNEL_ID);
+        assertThat(program.getTitle()).isEqualTo("Title1");
+        assertThat(program.getStartTimeUtcMillis()).isEqualTo(400);
+        assertThat(program.getEndTimeUtcMillis()).isEqualTo(500);
+        assertThat(mPrograms.get(4)).isSameInstanceAs(program);
+        assertThat(mPrograms.get(7).getTitle()).isSameInstanceAs(program.getTitle());
+    }
+
+    @Test
+    public void getProgramIndexAt() {
+        assertThat(mPrograms.getProgramIndexAt(-1)).isEqualTo(0);
+        assertThat(mPrograms.getProgramIndexAt(250)).isEqualTo(2);
+        assertThat(mPrograms.getProgramIndexAt(300)).isEqualTo(3);
+        assertThat(mPrograms.getProgramIndexAt(5000)).isEqualTo(40);
+    }
+
+    @Test
+    public void builder_keepsPinnedPrograms() {
+        Program current =
+                new ProgramImpl.Builder()
+                        .setId(100)
+                        .setChannelId(CHANNEL_ID)
+                        .setStartTimeUtcMillis(4000)
+                        .setEndTimeUtcMillis(4100)
+                        .build();
+        CompactProgramList programs =
+                new CompactProgramList.Builder(CHANNEL_ID)
+                        .addAll(mPrograms, 38, 40)
+                        .add(current)
+                        .build();
+        CompactProgramList copied =
+                new CompactProgramList.Builder(CHANNEL_ID).addAll(programs, 1, 3).build();
+
+        assertThat(programs).hasSize(3);
+        assertThat(programs.get(0).getId()).isEqualTo(38);
+        assertThat(programs.get(2)).isSameInstanceAs(current);
+        assertThat(copied.get(1)).isSameInstanceAs(current);
+        assertThat(copied.getLastEndTimeUtcMillis()).isEqualTo(4100);
+    }
+}
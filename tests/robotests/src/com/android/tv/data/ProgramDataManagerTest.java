@@ -24,6 +24,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import static org.robolectric.Shadows.shadowOf;
 
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.media.tv.TvContract;
 
 import com.android.tv.common.flags.impl.DefaultBackendKnobsFlags;
@@ -49,8 +50,10 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.android.util.concurrent.RoboExecutorService;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /** Test for {@link ProgramDataManager} */
@@ -65,6 +68,10 @@ public class ProgramDataManagerTest {
 
     private ProgramDataManager mProgramDataManager;
     private FakeClock mClock;
+    private RoboExecutorService mExecutor;
+    private HoldingExecutor mDbExecutor;
+    private ChannelDataManager mChannelDataManager;
+    private FakeTvInputManagerHelper mTvInputManagerHelper;
     private TestProgramDataManagerCallback mCallback;
 
     @Before
@@ -74,27 +81,17 @@ public class ProgramDataManagerTest {
         ContentProviders.register(FakeTvProvider.class, TvContract.AUTHORITY);
         TestData.DEFAULT_10_CHANNELS.init(
                 RuntimeEnvironment.application, mClock, TimeUnit.DAYS.toMillis(1));
-        FakeTvInputManagerHelper tvInputManagerHelper =
-                new FakeTvInputManagerHelper(RuntimeEnvironment.application);
-        RoboExecutorService executor = new RoboExecutorService();
+        mTvInputManagerHelper = new FakeTvInputManagerHelper(RuntimeEnvironment.application);
+        mExecutor = new RoboExecutorService();
+        mDbExecutor = new HoldingExecutor(mExecutor);
         ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
-        ChannelDataManager channelDataManager =
+        mChannelDataManager =
                 new ChannelDataManager(
                         RuntimeEnvironment.application,
-                        tvInputManagerHelper,
-                        executor,
+                        mTvInputManagerHelper,
+                        mExecutor,
                         contentResolver);
-        mProgramDataManager =
-                new ProgramDataManager(
-                        RuntimeEnvironment.application,
-                        executor,
-                        RuntimeEnvironment.application.getContentResolver(),
-                        mClock,
-                        getMainLooper(),
-                        new DefaultBackendKnobsFlags(),
-                        new StubPerformanceMonitor(),
-                        channelDataManager,
-                        tvInputManagerHelper);
+        mProgramDataManager = createProgramDataManager();
 
         mProgramDataManager.setPrefetchEnabled(true);
         mProgramDataManager.addCallback(mCallback);
@@ -105,6 +102,19 @@ public class ProgramDataManagerTest {
         mProgramDataManager.stop();
     }
 
+    private ProgramDataManager createProgramDataManager() {
+        return new ProgramDataManager(
+                RuntimeEnvironment.application,
+                mDbExecutor,
+                RuntimeEnvironment.application.getContentResolver(),
+                mClock,
+                getMainLooper(),
+                new DefaultBackendKnobsFlags(),
+                new StubPerformanceMonitor(),
+                mChannelDataManager,
+                mTvInputManagerHelper);
+    }
+
     private void startAndWaitForComplete() throws InterruptedException {
         mProgramDataManager.start();
         shadowOf(getMainLooper()).idle();
@@ -243,6 +253,91 @@ public class ProgramDataManagerTest {
                 .isLessThan(programList.get(programList.size() - 1).getEndTimeUtcMillis());
     }
 
+    /** Test if only the changed program is refreshed after the program update. */
+    @Test
+    public void testContentProviderUpdate_changedProgram() throws InterruptedException {
+        startAndWaitForComplete();
+        mProgramDataManager.setProgramPrefetchUpdateWait(0);
+        mCallback.reset();
+        List<Program> otherPrograms =
+                mProgramDataManager.getPrograms(2, mClock.currentTimeMillis());
+        List<Program> programList = mProgramDataManager.getPrograms(1, mClock.currentTimeMillis());
+        Program program = programList.get(programList.size() - 1);
+        ContentValues values = new ContentValues();
+        values.put(TvContract.Programs.COLUMN_TITLE, "Changed title");
+        RuntimeEnvironment.application
+                .getContentResolver()
+                .update(TvContract.buildProgramUri(program.getId()), values, null, null);
+        shadowOf(getMainLooper()).runToEndOfTasks();
+        assertThat(mCallback.programUpdatedLatch.await(WAIT_TIME_OUT_MS, TimeUnit.MILLISECONDS))
+                .isTrue();
+
+        programList = mProgramDataManager.getPrograms(1, mClock.currentTimeMillis());
+        assertThat(programList.get(programList.size() - 1).getTitle()).isEqualTo("Changed title");
+        assertThat(mProgramDataManager.getPrograms(2, mClock.currentTimeMillis()))
+                .containsExactlyElementsIn(otherPrograms)
+                .inOrder();
+    }
+
+    /**
+     * Test if the complete programs fetched for a channel while an incremental prefetch runs are
+     * not overwritten by the prefetch.
+     */
+    @Test
+    public void testContentProviderUpdate_singleChannelPrefetchDuringIncrementalPrefetch()
+            throws InterruptedException {
+        startAndWaitForComplete();
+        mProgramDataManager.setProgramPrefetchUpdateWait(0);
+        mCallback.reset();
+        Program program = getLastProgram(1);
+        // Only the current program has the complete data.
+        assertThat(getLastProgram(2).getDescription()).isNull();
+
+        // The incremental prefetch takes the snapshot of the cache, and waits on the DB thread.
+        mDbExecutor.hold();
+        ContentValues values = new ContentValues();
+        values.put(TvContract.Programs.COLUMN_TITLE, "Changed title");
+        RuntimeEnvironment.application
+                .getContentResolver()
+                .update(TvContract.buildProgramUri(program.getId()), values, null, null);
+        shadowOf(getMainLooper()).idle();
+        // The complete programs of another channel are fetched and cached in the meantime.
+        mProgramDataManager.prefetchChannel(2);
+        mDbExecutor.releaseInReverseOrder();
+        shadowOf(getMainLooper()).runToEndOfTasks();
+        assertThat(mCallback.programUpdatedLatch.await(WAIT_TIME_OUT_MS, TimeUnit.MILLISECONDS))
+                .isTrue();
+
+        assertThat(getLastProgram(1).getTitle()).isEqualTo("Changed title");
+        assertThat(getLastProgram(2).getDescription()).isNotNull();
+    }
+
+    private Program getLastProgram(long channelId) {
+        List<Program> programList =
+                mProgramDataManager.getPrograms(channelId, mClock.currentTimeMillis());
+        return programList.get(programList.size() - 1);
+    }
+
+    /** Test if the programs are loaded from the snapshot before the first prefetch. */
+    @Test
+    public void testLoadSnapshot() throws InterruptedException {
+        startAndWaitForComplete();
+        shadowOf(getMainLooper()).idle();
+        Program program = mProgramDataManager.getPrograms(1, mClock.currentTimeMillis()).get(0);
+
+        ProgramDataManager programDataManager = createProgramDataManager();
+        programDataManager.setPrefetchEnabled(true);
+
+        List<Program> programList = programDataManager.getPrograms(1, mClock.currentTimeMillis());
+        assertThat(programList).isNotEmpty();
+        assertThat(programList.get(0).getId()).isEqualTo(program.getId());
+        assertThat(programList.get(0).getTitle()).isEqualTo(program.getTitle());
+        assertThat(programList.get(0).getStartTimeUtcMillis())
+                .isEqualTo(program.getStartTimeUtcMillis());
+        assertThat(programList.get(0).getEndTimeUtcMillis())
+                .isEqualTo(program.getEndTimeUtcMillis());
+    }
+
     /** Test for {@link ProgramDataManager#setPauseProgramUpdate(boolean)}. */
     @Test
     public void testSetPauseProgramUpdate() throws InterruptedException {
@@ -280,6 +375,39 @@ public class ProgramDataManagerTest {
                 .isEqualTo(expectedStartTime + expectedInfo.durationMs);
     }
 
+    /** An executor which can hold the tasks and run them in a different order later. */
+    private static class HoldingExecutor implements Executor {
+        private final Executor mDelegate;
+        private final List<Runnable> mHeldTasks = new ArrayList<>();
+        private boolean mHolding;
+
+        HoldingExecutor(Executor delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (mHolding) {
+                mHeldTasks.add(command);
+            } else {
+                mDelegate.execute(command);
+            }
+        }
+
+        void hold() {
+            mHolding = true;
+        }
+
+        /** Runs the held tasks from the last one, so the later ones finish first. */
+        void releaseInReverseOrder() {
+            mHolding = false;
+            for (int i = mHeldTasks.size() - 1; i >= 0; i--) {
+                mDelegate.execute(mHeldTasks.get(i));
+            }
+            mHeldTasks.clear();
+        }
+    }
+
     private static class TestProgramDataManagerCallback implements ProgramDataManager.Callback {
         public CountDownLatch programUpdatedLatch = new CountDownLatch(1);
         public CountDownLatch channelUpdatedLatch = new CountDownLatch(1);
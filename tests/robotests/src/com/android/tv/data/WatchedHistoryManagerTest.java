@@ -18,8 +18,12 @@ package com.android.tv.data;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import android.content.Context;
+import android.content.SharedPreferences;
+
 import androidx.test.filters.SmallTest;
 
+import com.android.tv.common.util.SharedPreferencesUtils;
 import com.android.tv.data.WatchedHistoryManager.WatchedRecord;
 import com.android.tv.testing.constants.ConfigConstants;
 
@@ -32,6 +36,8 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /** Test for {@link WatchedHistoryManagerTest}. */
@@ -77,12 +83,11 @@ public class WatchedHistoryManagerTest {
         mWatchedHistoryManager.logChannelViewStop(channel, time, duration);
 
         WatchedRecord record = mWatchedHistoryManager.getRecord(0);
-        WatchedRecord recordFromSharedPreferences =
-                mWatchedHistoryManager.getRecordFromSharedPreferences(0);
+        WatchedRecord recordFromLog = mWatchedHistoryManager.getRecordFromLog(0);
         assertThat(fakeId).isEqualTo(record.channelId);
         assertThat(time - duration).isEqualTo(record.watchedStartTime);
         assertThat(duration).isEqualTo(record.duration);
-        assertThat(recordFromSharedPreferences).isEqualTo(record);
+        assertThat(recordFromLog).isEqualTo(record);
     }
 
     @Test
@@ -99,15 +104,81 @@ public class WatchedHistoryManagerTest {
         }
         for (int i = 0; i < MAX_HISTORY_SIZE; ++i) {
             WatchedRecord record = mWatchedHistoryManager.getRecord(i);
-            WatchedRecord recordFromSharedPreferences =
-                    mWatchedHistoryManager.getRecordFromSharedPreferences(i);
-            assertThat(recordFromSharedPreferences).isEqualTo(record);
+            WatchedRecord recordFromLog = mWatchedHistoryManager.getRecordFromLog(i);
+            assertThat(recordFromLog).isEqualTo(record);
             assertThat(startChannelId + size - 1 - i).isEqualTo(record.channelId);
         }
-        // Since the WatchedHistory is a circular queue, the value for 0 and maxHistorySize
-        // are same.
-        assertThat(mWatchedHistoryManager.getRecordFromSharedPreferences(MAX_HISTORY_SIZE))
-                .isEqualTo(mWatchedHistoryManager.getRecordFromSharedPreferences(0));
+        // The log is compacted not to grow indefinitely.
+        assertThat(mWatchedHistoryManager.getLogRecordCount()).isLessThan(MAX_HISTORY_SIZE * 2);
+
+        WatchedHistoryManager reloaded =
+                new WatchedHistoryManager(
+                        RuntimeEnvironment.application,
+                        MAX_HISTORY_SIZE,
+                        MoreExecutors.directExecutor());
+        reloaded.start();
+        assertThat(reloaded.getWatchedHistory()).hasSize(MAX_HISTORY_SIZE);
+        assertThat(reloaded.getRecord(0)).isEqualTo(mWatchedHistoryManager.getRecord(0));
+    }
+
+    @Test
+    public void testLogChannelViewStop_appendFailed() {
+        FailingWatchedHistoryLog log =
+                new FailingWatchedHistoryLog(
+                        new File(RuntimeEnvironment.application.getFilesDir(), "failing.log"),
+                        MAX_HISTORY_SIZE);
+        WatchedHistoryManager manager =
+                new WatchedHistoryManager(
+                        RuntimeEnvironment.application,
+                        MAX_HISTORY_SIZE,
+                        MoreExecutors.directExecutor(),
+                        log);
+        manager.start();
+        long duration = TimeUnit.MINUTES.toMillis(10);
+        manager.logChannelViewStop(
+                new ChannelImpl.Builder().setId(1).build(), System.currentTimeMillis(), duration);
+        long lastIndex = manager.getLastIndex();
+
+        log.mFailing = true;
+        manager.logChannelViewStop(
+                new ChannelImpl.Builder().setId(2).build(), System.currentTimeMillis(), duration);
+
+        // The failed record is kept in memory, but it doesn't take an index in the log.
+        assertThat(manager.getWatchedHistory()).hasSize(2);
+        assertThat(manager.getLastIndex()).isEqualTo(lastIndex);
+        assertThat(manager.getRecordFromLog(0).channelId).isEqualTo(1);
+
+        // The record appended by another instance at the index is still read.
+        WatchedHistoryManager other =
+                new WatchedHistoryManager(
+                        RuntimeEnvironment.application,
+                        MAX_HISTORY_SIZE,
+                        MoreExecutors.directExecutor(),
+                        new FailingWatchedHistoryLog(log.getFile(), MAX_HISTORY_SIZE));
+        other.start();
+        other.logChannelViewStop(
+                new ChannelImpl.Builder().setId(3).build(), System.currentTimeMillis(), duration);
+        assertThat(manager.getWatchedHistory()).hasSize(3);
+        assertThat(manager.getRecord(0).channelId).isEqualTo(3);
+    }
+
+    @Test
+    public void testMigrateFromSharedPreferences() {
+        WatchedRecord record = new WatchedRecord(1, 2, TimeUnit.MINUTES.toMillis(10));
+        SharedPreferences sharedPreferences =
+                RuntimeEnvironment.application.getSharedPreferences(
+                        SharedPreferencesUtils.SHARED_PREF_WATCHED_HISTORY, Context.MODE_PRIVATE);
+        sharedPreferences
+                .edit()
+                .putString("0", mWatchedHistoryManager.encode(record))
+                .putLong("last_index", 0)
+                .commit();
+
+        startAndWaitForComplete();
+
+        assertThat(mWatchedHistoryManager.getWatchedHistory()).containsExactly(record);
+        assertThat(mWatchedHistoryManager.getRecordFromLog(0)).isEqualTo(record);
+        assertThat(sharedPreferences.contains("0")).isFalse();
     }
 
     @Test
@@ -129,6 +200,26 @@ public class WatchedHistoryManagerTest {
         assertThat(sameRecord).isEqualTo(record);
     }
 
+    /** A log which fails to append the records as if the file couldn't be written. */
+    private static final class FailingWatchedHistoryLog extends WatchedHistoryLog {
+        private final File mFile;
+        boolean mFailing;
+
+        FailingWatchedHistoryLog(File file, int maxRecordCount) {
+            super(file, maxRecordCount);
+            mFile = file;
+        }
+
+        File getFile() {
+            return mFile;
+        }
+
+        @Override
+        long append(List<WatchedRecord> records) {
+            return mFailing ? read(0).lastIndex : super.append(records);
+        }
+    }
+
     private static final class TestWatchedHistoryManagerListener
             implements WatchedHistoryManager.Listener {
         boolean mLoadFinished;
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tv.data.epg;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.media.tv.TvContract;
+import android.media.tv.TvContract.Programs;
+import android.net.Uri;
+
+import com.android.tv.common.util.Clock;
+import com.android.tv.data.ProgramImpl;
+import com.android.tv.data.api.Program;
+import com.android.tv.testing.constants.ConfigConstants;
+import com.android.tv.testing.robo.ContentProviders;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Tests for {@link BulkEpgWriter}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class BulkEpgWriterTest {
+    private static final long CHANNEL_ID = 1;
+
+    @Test
+    public void computeOperations_noOldPrograms_insertsAll() {
+        List<BulkEpgWriter.SizedOperation> ops =
+                BulkEpgWriter.computeOperations(
+                        RuntimeEnvironment.application,
+                        Collections.emptyList(),
+                        ImmutableList.of(program(0, "A", 0, 100), program(0, "B", 100, 200)));
+
+        assertThat(ops).hasSize(2);
+        assertThat(ops.get(0).mOperation.getUri()).isEqualTo(Programs.CONTENT_URI);
+        assertThat(ops.get(1).mOperation.getUri()).isEqualTo(Programs.CONTENT_URI);
+    }
+
+    @Test
+    public void computeOperations_matchesOldPrograms() {
+        List<Program> oldPrograms =
+                ImmutableList.of(
+                        program(1, "A", 0, 100),
+                        program(2, "B", 100, 200),
+                        program(3, "C", 200, 300));
+        List<Program> newPrograms =
+                ImmutableList.of(
+                        program(1, "A", 0, 100),
+                        program(0, "B", 100, 250),
+                        program(0, "D", 250, 350));
+
+        List<BulkEpgWriter.SizedOperation> ops =
+                BulkEpgWriter.computeOperations(
+                        RuntimeEnvironment.application, oldPrograms, newPrograms);
+
+        // "A" is unchanged, "B" is updated, "C" is deleted and "D" is inserted.
+        assertThat(ops).hasSize(3);
+        assertThat(ops.get(0).mOperation.getUri()).isEqualTo(TvContract.buildProgramUri(2));
+        assertThat(ops.get(1).mOperation.getUri()).isEqualTo(TvContract.buildProgramUri(3));
+        assertThat(ops.get(1).mSizeBytes)
+                .isEqualTo(BulkEpgWriter.estimateParcelSize(TvContract.buildProgramUri(3), null));
+        assertThat(ops.get(2).mOperation.getUri()).isEqualTo(Programs.CONTENT_URI);
+    }
+
+    @Test
+    public void estimateParcelSize_growsWithValues() {
+        ContentValues values = new ContentValues();
+        values.put(Programs.COLUMN_TITLE, "Title");
+        int small = BulkEpgWriter.estimateParcelSize(Programs.CONTENT_URI, values);
+        values.put(Programs.COLUMN_LONG_DESCRIPTION, new String(new char[1000]));
+
+        assertThat(BulkEpgWriter.estimateParcelSize(Programs.CONTENT_URI, values))
+                .isGreaterThan(small + 2000);
+        assertThat(BulkEpgWriter.estimateParcelSize(Programs.CONTENT_URI, null))
+                .isLessThan(small);
+    }
+
+    @Test
+    public void applyOperations_splitsBatchesBySize() {
+        RecordingProvider provider =
+                ContentProviders.register(RecordingProvider.class, TvContract.AUTHORITY);
+        int max = BulkEpgWriter.MAX_BATCH_BYTES;
+        List<BulkEpgWriter.SizedOperation> ops =
+                ImmutableList.of(
+                        deleteOperation(1, max / 2),
+                        deleteOperation(2, max / 2),
+                        deleteOperation(3, 1),
+                        deleteOperation(4, max * 2),
+                        deleteOperation(5, 1));
+        BulkEpgWriter.Stats stats = new BulkEpgWriter.Stats();
+        stats.operationCount = ops.size();
+
+        new BulkEpgWriter(RuntimeEnvironment.application, Clock.SYSTEM)
+                .applyOperations(ops, stats);
+
+        // The first two fill a batch exactly, and the oversized one is applied alone.
+        assertThat(provider.mBatchSizes).containsExactly(2, 1, 1, 1).inOrder();
+        assertThat(stats.batchCount).isEqualTo(4);
+        assertThat(stats.failedBatchCount).isEqualTo(0);
+        assertThat(stats.appliedOperationCount).isEqualTo(5);
+        assertThat(stats.byteCount).isEqualTo(max * 3L + 2);
+    }
+
+    private static BulkEpgWriter.SizedOperation deleteOperation(long id, int sizeBytes) {
+        return new BulkEpgWriter.SizedOperation(
+                ContentProviderOperation.newDelete(TvContract.buildProgramUri(id)).build(),
+                sizeBytes);
+    }
+
+    private static Program program(long id, String title, long startTimeMs, long endTimeMs) {
+        return new ProgramImpl.Builder()
+                .setId(id)
+                .setChannelId(CHANNEL_ID)
+                .setTitle(title)
+                .setStartTimeUtcMillis(startTimeMs)
+                .setEndTimeUtcMillis(endTimeMs)
+                .build();
+    }
+
+    /** A provider which records the size of each batch without applying it. */
+    public static class RecordingProvider extends ContentProvider {
+        final List<Integer> mBatchSizes = new ArrayList<>();
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations) {
+            mBatchSizes.add(operations.size());
+            return new ContentProviderResult[operations.size()];
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(
+                Uri uri,
+                String[] projection,
+                String selection,
+                String[] selectionArgs,
+                String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
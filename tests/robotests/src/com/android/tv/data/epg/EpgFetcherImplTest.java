@@ -68,6 +68,7 @@ import org.robolectric.android.util.concurrent.RoboExecutorService;
 import org.robolectric.annotation.Config;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -128,6 +129,7 @@ public class EpgFetcherImplTest {
     private ChannelDataManager mChannelDataManager;
     private FakeEpgReader mEpgReader;
     private PerformanceMonitor mPerformanceMonitor = new StubPerformanceMonitor();
+    private DefaultBackendKnobsFlags mBackendKnobsFlags = new DefaultBackendKnobsFlags();
     private ContentResolver mContentResolver;
     private FakeTvProvider mTvProvider;
     private EpgContentProvider mEpgProvider;
@@ -171,7 +173,7 @@ public class EpgFetcherImplTest {
                         mEpgReader,
                         mPerformanceMonitor,
                         mFakeClock,
-                        new DefaultBackendKnobsFlags(),
+                        mBackendKnobsFlags,
                         BuildType.NO_JNI_TEST);
         EpgTestData.DATA_90210.loadData(mFakeClock, mEpgReader); // This also sets fake clock
         EpgFetchHelper.setLastEpgUpdatedTimestamp(
@@ -249,6 +251,55 @@ public class EpgFetcherImplTest {
                         ImmutableList.of("2", "Program 2", "1496359800000", "1496361600000"));
     }
 
+    @Test
+    public void fetchImmediately_batchesFetchedConcurrently()
+            throws ExecutionException, InterruptedException {
+        insertTestChannels(
+                "com.android.tv.data.epg/.tuner.TunerTvInputService",
+                EpgTestData.CHANNEL_10,
+                EpgTestData.CHANNEL_90_2);
+        EpgFetchHelper.setLastEpgUpdatedTimestamp(RuntimeEnvironment.application, 0);
+        mBackendKnobsFlags.setEpgFetcherChannelsPerProgramFetch(1);
+        mBackendKnobsFlags.setEpgFetcherConcurrentProgramFetches(2);
+        // Each batch waits until the other batch is being fetched too.
+        mEpgReader.programFetchLatch = new CountDownLatch(2);
+        EpgFetcherImpl.FetchAsyncTask fetcherTask = mEpgFetcher.createFetchTask(null, null);
+        fetcherTask.execute();
+
+        assertThat(fetcherTask.get()).isNull();
+        assertThat(mEpgReader.isProgramFetchLatchTimedOut()).isFalse();
+        assertThat(mEpgReader.getMaxConcurrentProgramFetches()).isEqualTo(2);
+        List<List<String>> rows =
+                DbTestingUtils.toList(
+                        mContentResolver.query(
+                                TvContract.Programs.CONTENT_URI,
+                                PROGRAM_COLUMNS,
+                                null,
+                                null,
+                                null));
+        assertThat(rows)
+                .containsExactly(
+                        ImmutableList.of("1", "Program 1", "1496358000000", "1496359800000"));
+    }
+
+    @Test
+    public void fetchImmediately_batchesFetchedSequentially()
+            throws ExecutionException, InterruptedException {
+        insertTestChannels(
+                "com.android.tv.data.epg/.tuner.TunerTvInputService",
+                EpgTestData.CHANNEL_10,
+                EpgTestData.CHANNEL_90_2);
+        EpgFetchHelper.setLastEpgUpdatedTimestamp(RuntimeEnvironment.application, 0);
+        mBackendKnobsFlags.setEpgFetcherChannelsPerProgramFetch(1);
+        mBackendKnobsFlags.setEpgFetcherConcurrentProgramFetches(1);
+        mEpgReader.programFetchLatencyMs = 300;
+        EpgFetcherImpl.FetchAsyncTask fetcherTask = mEpgFetcher.createFetchTask(null, null);
+        fetcherTask.execute();
+
+        assertThat(fetcherTask.get()).isNull();
+        assertThat(mEpgReader.getMaxConcurrentProgramFetches()).isEqualTo(1);
+    }
+
     @Test
     public void testUpdateNetworkAffiliation() throws ExecutionException, InterruptedException {
         if (!TvFeatures.STORE_NETWORK_AFFILIATION.isEnabled(RuntimeEnvironment.application)) {
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.os.Build;
+import android.util.Range;
+
+import com.android.tv.dvr.DvrScheduleManager.ConflictInfo;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.testing.TestSingletonApp;
+import com.android.tv.testing.dvr.RecordingTestUtils;
+import com.android.tv.util.CompositeComparator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Tests for {@link ScheduleConflictEngine}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.N, application = TestSingletonApp.class)
+public class ScheduleConflictEngineTest {
+    private static final long CHANNEL_ID = 273;
+
+    @Test
+    public void getConflicts_sameAsListSimulation() {
+        Random random = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            int tunerCount = random.nextInt(4);
+            List<ScheduledRecording> schedules = new ArrayList<>();
+            int scheduleCount = random.nextInt(40);
+            for (long id = 1; id <= scheduleCount; id++) {
+                schedules.add(createRandomSchedule(random, id, 200, 60));
+            }
+            assertWithMessage("Conflicts of " + schedules + " with " + tunerCount + " tuners")
+                    .that(toMap(ScheduleConflictEngine.getConflicts(schedules, tunerCount)))
+                    .isEqualTo(toMap(getConflictsBySimulatingWithList(schedules, tunerCount)));
+        }
+    }
+
+    @Test
+    public void getAffectedSpans_incrementalUpdateSameAsFullUpdate() {
+        Random random = new Random(0);
+        int tunerCount = 2;
+        ScheduleIndex index = new ScheduleIndex();
+        Map<Long, ConflictInfo> conflicts = new HashMap<>();
+        long nextId = 1;
+        for (int i = 0; i < 500; i++) {
+            List<ScheduledRecording> schedules = index.getAll();
+            ScheduledRecording changed;
+            if (!schedules.isEmpty() && random.nextInt(3) == 0) {
+                changed = schedules.get(random.nextInt(schedules.size()));
+                index.remove(changed.getId());
+                conflicts.remove(changed.getId());
+            } else {
+                changed = createRandomSchedule(random, nextId++, 2000, 100);
+                index.put(changed);
+            }
+            List<Range<Long>> spans =
+                    ScheduleConflictEngine.getAffectedSpans(
+                            index,
+                            Collections.singletonList(
+                                    new Range<>(
+                                            changed.getStartTimeMs(), changed.getEndTimeMs())));
+            Iterator<ConflictInfo> iterator = conflicts.values().iterator();
+            while (iterator.hasNext()) {
+                if (ScheduleConflictEngine.isInSpans(spans, iterator.next().schedule)) {
+                    iterator.remove();
+                }
+            }
+            for (ConflictInfo conflictInfo :
+                    ScheduleConflictEngine.getConflicts(
+                            ScheduleConflictEngine.getSchedulesInSpans(index, spans),
+                            tunerCount)) {
+                conflicts.put(conflictInfo.schedule.getId(), conflictInfo);
+            }
+            assertWithMessage("Conflicts after changing " + changed)
+                    .that(toMap(conflicts.values()))
+                    .isEqualTo(toMap(getConflictsBySimulatingWithList(index.getAll(), tunerCount)));
+        }
+    }
+
+    private static ScheduledRecording createRandomSchedule(
+            Random random, long id, int maxStartTime, int maxDuration) {
+        long startTime = random.nextInt(maxStartTime);
+        return RecordingTestUtils.createTestRecordingWithIdAndPriorityAndPeriod(
+                id,
+                CHANNEL_ID,
+                random.nextInt(5),
+                startTime,
+                startTime + random.nextInt(maxDuration));
+    }
+
+    /** Returns the map from the schedule ID to whether it's partially conflicting. */
+    private static Map<Long, Boolean> toMap(Collection<ConflictInfo> conflicts) {
+        Map<Long, Boolean> result = new HashMap<>();
+        for (ConflictInfo conflictInfo : conflicts) {
+            result.put(conflictInfo.schedule.getId(), conflictInfo.partialConflict);
+        }
+        return result;
+    }
+
+    /** The simulation which {@link DvrScheduleManager} used before the sweep line. */
+    private static Collection<ConflictInfo> getConflictsBySimulatingWithList(
+            List<ScheduledRecording> schedules, int tunerCount) {
+        Comparator<ScheduledRecording> candidateComparator =
+                new CompositeComparator<>(
+                        ScheduledRecording.PRIORITY_COMPARATOR,
+                        ScheduledRecording.END_TIME_COMPARATOR,
+                        ScheduledRecording.ID_COMPARATOR);
+        List<ScheduledRecording> schedulesToCheck = new ArrayList<>(schedules);
+        Collections.sort(
+                schedulesToCheck, ScheduledRecording.START_TIME_THEN_PRIORITY_THEN_ID_COMPARATOR);
+        List<ScheduledRecording> recordings = new ArrayList<>();
+        Map<ScheduledRecording, ConflictInfo> conflicts = new HashMap<>();
+        Map<ScheduledRecording, ScheduledRecording> modified2OriginalSchedules = new HashMap<>();
+        while (!schedulesToCheck.isEmpty()) {
+            ScheduledRecording schedule = schedulesToCheck.remove(0);
+            for (Iterator<ScheduledRecording> iter = recordings.iterator(); iter.hasNext(); ) {
+                if (iter.next().getEndTimeMs() <= schedule.getStartTimeMs()) {
+                    iter.remove();
+                }
+            }
+            ScheduledRecording original = modified2OriginalSchedules.get(schedule);
+            if (recordings.size() < tunerCount) {
+                recordings.add(schedule);
+                if (original != null) {
+                    conflicts.put(original, new ConflictInfo(original, true));
+                }
+                continue;
+            }
+            ScheduledRecording candidate = null;
+            for (ScheduledRecording recording : recordings) {
+                if (schedule.getPriority() > recording.getPriority()
+                        && (candidate == null
+                                || candidateComparator.compare(candidate, recording) > 0)) {
+                    candidate = recording;
+                }
+            }
+            if (candidate != null) {
+                if (!modified2OriginalSchedules.containsKey(candidate)) {
+                    conflicts.put(candidate, new ConflictInfo(candidate, true));
+                }
+                recordings.remove(candidate);
+                recordings.add(schedule);
+                if (original != null) {
+                    conflicts.put(original, new ConflictInfo(original, true));
+                }
+                continue;
+            }
+            if (original == null) {
+                conflicts.put(schedule, new ConflictInfo(schedule, false));
+            }
+            long earliestEndTime = Long.MAX_VALUE;
+            for (ScheduledRecording recording : recordings) {
+                earliestEndTime = Math.min(earliestEndTime, recording.getEndTimeMs());
+            }
+            if (earliestEndTime < schedule.getEndTimeMs()) {
+                ScheduledRecording modifiedSchedule =
+                        ScheduledRecording.buildFrom(schedule)
+                                .setStartTimeMs(earliestEndTime)
+                                .build();
+                modified2OriginalSchedules.put(
+                        modifiedSchedule, original != null ? original : schedule);
+                int insertPosition =
+                        Collections.binarySearch(
+                                schedulesToCheck,
+                                modifiedSchedule,
+                                ScheduledRecording.START_TIME_THEN_PRIORITY_THEN_ID_COMPARATOR);
+                schedulesToCheck.add(
+                        insertPosition >= 0 ? insertPosition : -insertPosition - 1,
+                        modifiedSchedule);
+            }
+        }
+        return conflicts.values();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.os.Build;
+import android.util.Range;
+
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.testing.TestSingletonApp;
+import com.android.tv.testing.dvr.RecordingTestUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Tests for {@link ScheduleIndex}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.N, application = TestSingletonApp.class)
+public class ScheduleIndexTest {
+    private static final String INPUT_ID = "input_id";
+    private static final String INPUT_ID_2 = "input_id_2";
+    private static final int CHANNEL_ID = 273;
+
+    private final ScheduleIndex mIndex = new ScheduleIndex();
+
+    @Test
+    public void getOverlapping() {
+        mIndex.put(createSchedule(1, 10L, 20L));
+        mIndex.put(createSchedule(2, 15L, 100L));
+        mIndex.put(createSchedule(3, 30L, 40L));
+        assertIds(mIndex.getOverlapping(new Range<>(0L, 10L)));
+        assertIds(mIndex.getOverlapping(new Range<>(0L, 11L)), 1L);
+        assertIds(mIndex.getOverlapping(new Range<>(20L, 30L)), 2L);
+        assertIds(mIndex.getOverlapping(new Range<>(35L, 36L)), 2L, 3L);
+        assertIds(mIndex.getOverlapping(new Range<>(100L, 200L)));
+    }
+
+    @Test
+    public void put_replacesScheduleWithSameId() {
+        mIndex.put(createSchedule(1, 10L, 20L));
+        mIndex.put(createSchedule(1, 30L, 40L));
+        assertThat(mIndex.size()).isEqualTo(1);
+        assertIds(mIndex.getOverlapping(new Range<>(10L, 20L)));
+        assertIds(mIndex.getOverlapping(new Range<>(30L, 40L)), 1L);
+        assertThat(mIndex.getNextStartTimeAfter(0L)).isEqualTo(30L);
+    }
+
+    @Test
+    public void remove() {
+        ScheduledRecording schedule = createSchedule(1, 10L, 20L);
+        mIndex.put(schedule);
+        mIndex.remove(schedule.getId());
+        assertThat(mIndex.size()).isEqualTo(0);
+        assertThat(mIndex.getOverlapping(new Range<>(0L, 100L))).isEmpty();
+        assertThat(mIndex.getByInputId(INPUT_ID)).isEmpty();
+        assertThat(mIndex.getNextStartTimeAfter(0L))
+                .isEqualTo(DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+    }
+
+    @Test
+    public void getNextStartTimeAfter() {
+        assertThat(mIndex.getNextStartTimeAfter(0L))
+                .isEqualTo(DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+        mIndex.put(createSchedule(1, 10L, 20L));
+        assertNextStartTime(9L, 10L);
+        assertNextStartTime(10L, DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+        mIndex.put(createSchedule(2, 20L, 30L));
+        assertNextStartTime(9L, 10L);
+        assertNextStartTime(10L, 20L);
+        assertNextStartTime(20L, DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+        mIndex.put(createSchedule(3, 30L, 40L));
+        assertNextStartTime(9L, 10L);
+        assertNextStartTime(10L, 20L);
+        assertNextStartTime(20L, 30L);
+        assertNextStartTime(30L, DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+    }
+
+    @Test
+    public void getNextStartTimeAfter_sameStartTimes() {
+        mIndex.put(createSchedule(1, 10L, 20L));
+        mIndex.put(createSchedule(2, 10L, 20L));
+        mIndex.put(createSchedule(3, 10L, 20L));
+        assertNextStartTime(9L, 10L);
+        assertNextStartTime(10L, DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+    }
+
+    @Test
+    public void randomOperations_sameAsFullScan() {
+        Random random = new Random(0);
+        Map<Long, ScheduledRecording> schedules = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            long id = random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                schedules.remove(id);
+                mIndex.remove(id);
+            } else {
+                long start = random.nextInt(1000);
+                ScheduledRecording schedule =
+                        ScheduledRecording.buildFrom(
+                                        RecordingTestUtils.createTestRecordingWithIdAndPeriod(
+                                                id,
+                                                random.nextBoolean() ? INPUT_ID : INPUT_ID_2,
+                                                CHANNEL_ID,
+                                                start,
+                                                start + 1 + random.nextInt(200)))
+                                .setSeriesRecordingId(random.nextInt(5))
+                                .build();
+                schedules.put(id, schedule);
+                mIndex.put(schedule);
+            }
+            long lower = random.nextInt(1200);
+            Range<Long> period = new Range<>(lower, lower + random.nextInt(100));
+            long seriesRecordingId = random.nextInt(5);
+            List<ScheduledRecording> overlapping = new ArrayList<>();
+            List<ScheduledRecording> ofInput = new ArrayList<>();
+            List<ScheduledRecording> ofSeries = new ArrayList<>();
+            long nextStartTime = DvrDataManager.NEXT_START_TIME_NOT_FOUND;
+            for (ScheduledRecording r : schedules.values()) {
+                if (r.isOverLapping(period)) {
+                    overlapping.add(r);
+                }
+                if (r.getInputId().equals(INPUT_ID)) {
+                    ofInput.add(r);
+                }
+                if (r.getSeriesRecordingId() == seriesRecordingId) {
+                    ofSeries.add(r);
+                }
+                if (r.getStartTimeMs() > lower
+                        && (nextStartTime == DvrDataManager.NEXT_START_TIME_NOT_FOUND
+                                || r.getStartTimeMs() < nextStartTime)) {
+                    nextStartTime = r.getStartTimeMs();
+                }
+            }
+            assertThat(mIndex.size()).isEqualTo(schedules.size());
+            assertThat(mIndex.getOverlapping(period)).containsExactlyElementsIn(overlapping);
+            assertThat(mIndex.getByInputId(INPUT_ID)).containsExactlyElementsIn(ofInput);
+            assertThat(mIndex.getBySeriesRecordingId(seriesRecordingId))
+                    .containsExactlyElementsIn(ofSeries);
+            assertThat(mIndex.getNextStartTimeAfter(lower)).isEqualTo(nextStartTime);
+        }
+    }
+
+    private static ScheduledRecording createSchedule(long id, long startTime, long endTime) {
+        return RecordingTestUtils.createTestRecordingWithIdAndPeriod(
+                id, INPUT_ID, CHANNEL_ID, startTime, endTime);
+    }
+
+    private void assertNextStartTime(long time, long expected) {
+        assertWithMessage("getNextStartTimeAfter(" + time + ")")
+                .that(mIndex.getNextStartTimeAfter(time))
+                .isEqualTo(expected);
+    }
+
+    private static void assertIds(List<ScheduledRecording> schedules, Long... expectedIds) {
+        List<Long> ids = new ArrayList<>();
+        for (ScheduledRecording r : schedules) {
+            ids.add(r.getId());
+        }
+        assertWithMessage("schedule IDs").that(ids).containsExactlyElementsIn(expectedIds);
+    }
+}
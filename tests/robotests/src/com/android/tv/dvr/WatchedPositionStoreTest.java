@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.tv.TvInputManager;
+
+import com.android.tv.common.util.SharedPreferencesUtils;
+import com.android.tv.testing.constants.ConfigConstants;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for {@link WatchedPositionStore}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class WatchedPositionStoreTest {
+    private File mFile;
+    private SharedPreferences mLegacyPreferences;
+
+    @Before
+    public void setUp() {
+        mFile = new File(RuntimeEnvironment.application.getFilesDir(), "watched_positions_test");
+        mFile.delete();
+        mLegacyPreferences =
+                RuntimeEnvironment.application.getSharedPreferences(
+                        SharedPreferencesUtils.SHARED_PREF_DVR_WATCHED_POSITION,
+                        Context.MODE_PRIVATE);
+        mLegacyPreferences.edit().clear().commit();
+    }
+
+    @Test
+    public void put_coalescedUntilFlushDelay() {
+        WatchedPositionStore store = createStore();
+        store.put(1, 100);
+        store.put(1, 200);
+        store.put(2, 300);
+        assertThat(createStore().get(1)).isEqualTo(TvInputManager.TIME_SHIFT_INVALID_TIME);
+        ShadowLooper.getShadowMainLooper()
+                .idle(WatchedPositionStore.FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        WatchedPositionStore reloaded = createStore();
+        assertThat(reloaded.get(new long[] {1, 2, 3}))
+                .asList()
+                .containsExactly(200L, 300L, TvInputManager.TIME_SHIFT_INVALID_TIME)
+                .inOrder();
+    }
+
+    @Test
+    public void flush_compactsLog() {
+        WatchedPositionStore store = createStore();
+        for (int i = 0; i < 1000; i++) {
+            store.put(i % 10, i);
+            store.flush();
+        }
+        // The log is replaced with the 10 positions before it reaches 64 records.
+        assertThat(mFile.length()).isLessThan(8 + 64 * 16L);
+        assertThat(createStore().get(9)).isEqualTo(999L);
+    }
+
+    @Test
+    public void get_migratesFromSharedPreferences() {
+        mLegacyPreferences.edit().putLong("10", 1000L).putLong("11", 1100L).commit();
+        WatchedPositionStore store = createStore();
+        assertThat(store.get(10)).isEqualTo(1000L);
+        assertThat(mLegacyPreferences.getAll()).isEmpty();
+        assertThat(createStore().get(11)).isEqualTo(1100L);
+    }
+
+    private WatchedPositionStore createStore() {
+        return new WatchedPositionStore(
+                mFile, mLegacyPreferences, MoreExecutors.directExecutor());
+    }
+}
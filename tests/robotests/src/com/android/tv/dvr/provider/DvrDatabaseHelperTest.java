@@ -18,13 +18,24 @@ package com.android.tv.dvr.provider;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.Build.VERSION_CODES;
 
+import com.android.tv.common.flags.impl.DefaultDvrFlags;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.dvr.provider.DvrContract.Schedules;
+import com.android.tv.testing.dvr.RecordingTestUtils;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /** Tests for {@link DvrDatabaseHelper} */
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = VERSION_CODES.N)
@@ -94,4 +105,70 @@ public class DvrDatabaseHelperTest {
                 "DROP TABLE IF EXISTS series_recording"
         );
     }
+
+    @Test
+    public void testSqlCreateSchedulesIndexes() {
+        assertThat(DvrDatabaseHelper.SQL_CREATE_SCHEDULES_INDEXES).asList().contains(
+                "CREATE INDEX IF NOT EXISTS schedules_end_time_utc_millis_index "
+                        + "ON schedules(end_time_utc_millis)"
+        );
+    }
+
+    @Test
+    public void testOnUpgrade_createsIndexes() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL(DvrDatabaseHelper.SQL_CREATE_SCHEDULES);
+        db.execSQL(DvrDatabaseHelper.SQL_CREATE_SERIES_RECORDINGS);
+        new DvrDatabaseHelper(RuntimeEnvironment.application, new DefaultDvrFlags(), null)
+                .onUpgrade(db, 18, 20);
+        assertThat(getIndexNames(db)).containsExactly(
+                "schedules_start_time_utc_millis_index",
+                "schedules_end_time_utc_millis_index",
+                "schedules_channel_id_index",
+                "schedules_program_id_index",
+                "schedules_series_recording_id_index");
+        db.close();
+    }
+
+    @Test
+    public void testBulkOperations_reuseStatements() {
+        DvrDatabaseHelper helper =
+                new DvrDatabaseHelper(RuntimeEnvironment.application, new DefaultDvrFlags(), null);
+        ScheduledRecording first = createSchedule(1);
+        ScheduledRecording second = createSchedule(2);
+        helper.insertSchedules(first);
+        helper.insertSchedules(second);
+        helper.updateSchedules(
+                ScheduledRecording.buildFrom(first)
+                        .setState(ScheduledRecording.STATE_RECORDING_FINISHED)
+                        .build());
+        helper.deleteSchedules(second);
+        try (Cursor c = helper.query(Schedules.TABLE_NAME, ScheduledRecording.PROJECTION)) {
+            assertThat(c.moveToNext()).isTrue();
+            assertThat(ScheduledRecording.fromCursor(c).getState())
+                    .isEqualTo(ScheduledRecording.STATE_RECORDING_FINISHED);
+            assertThat(c.moveToNext()).isFalse();
+        }
+        helper.close();
+    }
+
+    private static ScheduledRecording createSchedule(long id) {
+        return RecordingTestUtils.createTestRecordingWithIdAndPeriod(
+                id, "input_id", 273, id * 100, id * 100 + 50);
+    }
+
+    private static List<String> getIndexNames(SQLiteDatabase db) {
+        List<String> names = new ArrayList<>();
+        try (Cursor c =
+                db.rawQuery(
+                        "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?",
+                        new String[] {Schedules.TABLE_NAME})) {
+            while (c.moveToNext()) {
+                if (!c.getString(0).startsWith("sqlite_")) {
+                    names.add(c.getString(0));
+                }
+            }
+        }
+        return names;
+    }
 }
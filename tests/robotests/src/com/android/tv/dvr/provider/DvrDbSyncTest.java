@@ -20,9 +20,11 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.lang.Math.abs;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.refEq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +40,9 @@ import com.android.tv.dvr.recorder.SeriesRecordingScheduler;
 import com.android.tv.testing.TestSingletonApp;
 import com.android.tv.testing.constants.ConfigConstants;
 import com.android.tv.common.flags.DvrFlags;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.junit.Assume;
 import org.junit.Before;
@@ -293,6 +298,71 @@ public class DvrDbSyncTest {
         assertUpdateScheduleCalledWithinRange(expectedSchedule, RECORD_MARGIN_MS);
     }
 
+    @Test
+    public void testHandleUpdatePrograms_appliedTogether() {
+        long removedProgramId = BASE_PROGRAM_ID + 1;
+        ScheduledRecording removedSchedule =
+                ScheduledRecording.buildFrom(baseSchedule).setProgramId(removedProgramId).build();
+        long unchangedProgramId = BASE_PROGRAM_ID + 2;
+        Program unchangedProgram =
+                new ProgramImpl.Builder(baseProgram).setId(unchangedProgramId).build();
+        addSchedule(BASE_PROGRAM_ID, baseSchedule);
+        addSchedule(removedProgramId, removedSchedule);
+        addSchedule(
+                unchangedProgramId, ScheduledRecording.builder(INPUT_ID, unchangedProgram).build());
+        Program changedProgram =
+                new ProgramImpl.Builder(baseProgram)
+                        .setStartTimeUtcMillis(BASE_START_TIME_MS + 1)
+                        .setEndTimeUtcMillis(BASE_END_TIME_MS + 1)
+                        .build();
+        Map<Long, Program> programs = new HashMap<>();
+        programs.put(BASE_PROGRAM_ID, changedProgram);
+        programs.put(removedProgramId, null);
+        programs.put(unchangedProgramId, unchangedProgram);
+        mDbSync.handleUpdatePrograms(programs);
+        verify(mDataManager)
+                .removeAndUpdateScheduledRecordings(
+                        aryEq(new ScheduledRecording[] {removedSchedule}),
+                        aryEq(
+                                new ScheduledRecording[] {
+                                    ScheduledRecording.builder(INPUT_ID, changedProgram).build()
+                                }));
+        verify(mDataManager, never()).removeScheduledRecording(any());
+        verify(mDataManager, never()).updateScheduledRecording(any());
+    }
+
+    @Test
+    public void testOnQueryProgramsFailed_givesUpAfterMaxRetries() {
+        addSchedule(BASE_PROGRAM_ID, baseSchedule);
+        for (int i = 0; i < DvrDbSync.MAX_QUERY_RETRY_COUNT; ++i) {
+            mDbSync.onQueryProgramsFailed(Arrays.asList(BASE_PROGRAM_ID));
+        }
+        // The program is enqueued again on each retry.
+        verify(mSeriesRecordingScheduler, times(1)).pauseUpdate();
+        verify(mSeriesRecordingScheduler, never()).resumeUpdate();
+
+        mDbSync.onQueryProgramsFailed(Arrays.asList(BASE_PROGRAM_ID));
+        verify(mSeriesRecordingScheduler).resumeUpdate();
+    }
+
+    @Test
+    public void testRequeueProgramIds_onlyPendingSchedules() {
+        long finishedProgramId = BASE_PROGRAM_ID + 1;
+        long removedProgramId = BASE_PROGRAM_ID + 2;
+        addSchedule(BASE_PROGRAM_ID, baseSchedule);
+        addSchedule(
+                finishedProgramId,
+                ScheduledRecording.buildFrom(baseSchedule)
+                        .setProgramId(finishedProgramId)
+                        .setState(ScheduledRecording.STATE_RECORDING_FINISHED)
+                        .build());
+        mDbSync.requeueProgramIds(
+                Arrays.asList(BASE_PROGRAM_ID, finishedProgramId, removedProgramId));
+        mDbSync.requeueProgramIds(Arrays.asList(BASE_PROGRAM_ID));
+        // Only the not started schedule is enqueued again, and only once.
+        verify(mSeriesRecordingScheduler, times(1)).pauseUpdate();
+    }
+
     private void addSchedule(long programId, ScheduledRecording schedule) {
         when(mDataManager.getScheduledRecordingForProgramId(programId)).thenReturn(schedule);
     }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.common.concurrent.NamedThreadFactory;
+import com.android.tv.testing.constants.ConfigConstants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for {@link PartitionedDbExecutor}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class PartitionedDbExecutorTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final PartitionedDbExecutor mExecutor =
+            new PartitionedDbExecutor(new NamedThreadFactory("test-db"), 1);
+
+    @Test
+    public void execute_readWaitsForPreviousWrites() throws InterruptedException {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch releaseWrite = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        mExecutor.execute(
+                () -> {
+                    writeStarted.countDown();
+                    await(releaseWrite);
+                    order.add("write");
+                });
+        assertThat(writeStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        mExecutor.execute(
+                () -> {
+                    order.add("read");
+                    done.countDown();
+                },
+                true,
+                PartitionedDbExecutor.PRIORITY_DEFAULT,
+                "read");
+        releaseWrite.countDown();
+
+        assertThat(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(order).containsExactly("write", "read").inOrder();
+    }
+
+    @Test
+    public void execute_higherPriorityReadRunsFirst() throws InterruptedException {
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        // Occupies the only read thread, so that the next tasks are queued.
+        mExecutor.execute(
+                () -> {
+                    blockerStarted.countDown();
+                    await(releaseBlocker);
+                },
+                true,
+                PartitionedDbExecutor.PRIORITY_DEFAULT,
+                "blocker");
+        assertThat(blockerStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        mExecutor.execute(
+                () -> {
+                    order.add("prefetch");
+                    done.countDown();
+                },
+                true,
+                PartitionedDbExecutor.PRIORITY_BACKGROUND,
+                "prefetch");
+        mExecutor.execute(
+                () -> {
+                    order.add("default");
+                    done.countDown();
+                },
+                true,
+                PartitionedDbExecutor.PRIORITY_DEFAULT,
+                "default");
+        mExecutor.execute(
+                () -> {
+                    order.add("current");
+                    done.countDown();
+                },
+                true,
+                PartitionedDbExecutor.PRIORITY_USER_VISIBLE,
+                "current");
+        releaseBlocker.countDown();
+
+        assertThat(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(order).containsExactly("current", "default", "prefetch").inOrder();
+        assertThat(mExecutor.getQueueWaitStats().get("prefetch").getCount()).isEqualTo(1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
+import com.android.tv.util.images.ImageLoader.LoadBitmapTask;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for {@link ImageRequestScheduler}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class ImageRequestSchedulerTest {
+    private final ImageCache mImageCache = ImageCache.newInstance(0.1f);
+    private final ArrayDeque<Runnable> mWorkerQueue = new ArrayDeque<>();
+    private final List<String> mLoaded = new ArrayList<>();
+
+    @Test
+    public void schedule_visibleRunsBeforePrefetch() {
+        ImageRequestScheduler scheduler = createScheduler(1, 1);
+        scheduler.schedule(new TestTask("content://a/1"), ImageRequestScheduler.PRIORITY_VISIBLE);
+        scheduler.schedule(new TestTask("content://b/1"), ImageRequestScheduler.PRIORITY_PREFETCH);
+        scheduler.schedule(new TestTask("content://c/1"), ImageRequestScheduler.PRIORITY_VISIBLE);
+        runAll();
+        assertThat(mLoaded)
+                .containsExactly("content://a/1", "content://c/1", "content://b/1")
+                .inOrder();
+    }
+
+    @Test
+    public void raisePriority_prefetchRunsAsVisible() {
+        ImageRequestScheduler scheduler = createScheduler(1, 1);
+        scheduler.schedule(new TestTask("content://a/1"), ImageRequestScheduler.PRIORITY_VISIBLE);
+        TestTask prefetch = new TestTask("content://b/1");
+        scheduler.schedule(prefetch, ImageRequestScheduler.PRIORITY_PREFETCH);
+        scheduler.schedule(new TestTask("content://c/1"), ImageRequestScheduler.PRIORITY_VISIBLE);
+        assertThat(scheduler.raisePriority(prefetch, ImageRequestScheduler.PRIORITY_VISIBLE))
+                .isTrue();
+        runAll();
+        assertThat(mLoaded)
+                .containsExactly("content://a/1", "content://b/1", "content://c/1")
+                .inOrder();
+    }
+
+    @Test
+    public void schedule_limitsRunningRequestsPerHost() {
+        ImageRequestScheduler scheduler = createScheduler(4, 2);
+        for (int i = 0; i < 3; i++) {
+            scheduler.schedule(
+                    new TestTask("http://slow/" + i), ImageRequestScheduler.PRIORITY_VISIBLE);
+        }
+        scheduler.schedule(new TestTask("http://fast/0"), ImageRequestScheduler.PRIORITY_VISIBLE);
+        assertThat(mWorkerQueue).hasSize(3);
+        assertThat(scheduler.getQueuedCount()).isEqualTo(1);
+        runAll();
+        assertThat(mLoaded)
+                .containsExactly("http://slow/0", "http://slow/1", "http://fast/0", "http://slow/2")
+                .inOrder();
+    }
+
+    @Test
+    public void schedule_obsoleteRequestIsCancelled() {
+        ImageRequestScheduler scheduler = createScheduler(1, 1);
+        scheduler.schedule(new TestTask("content://a/1"), ImageRequestScheduler.PRIORITY_VISIBLE);
+        TestTask obsolete = new TestTask("content://b/1");
+        scheduler.schedule(obsolete, ImageRequestScheduler.PRIORITY_VISIBLE);
+        obsolete.mObsolete = true;
+        runAll();
+        assertThat(mLoaded).containsExactly("content://a/1");
+        assertThat(obsolete.isCancelled()).isTrue();
+        assertThat(scheduler.getQueuedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancelIfQueued() {
+        ImageRequestScheduler scheduler = createScheduler(1, 1);
+        TestTask running = new TestTask("content://a/1");
+        TestTask queued = new TestTask("content://b/1");
+        scheduler.schedule(running, ImageRequestScheduler.PRIORITY_VISIBLE);
+        scheduler.schedule(queued, ImageRequestScheduler.PRIORITY_VISIBLE);
+        assertThat(scheduler.cancelIfQueued(running)).isFalse();
+        assertThat(scheduler.cancelIfQueued(queued)).isTrue();
+        runAll();
+        assertThat(mLoaded).containsExactly("content://a/1");
+        assertThat(queued.isCancelled()).isTrue();
+    }
+
+    private ImageRequestScheduler createScheduler(int maxRunningCount, int maxPerHost) {
+        return new ImageRequestScheduler(
+                mWorkerQueue::add, Runnable::run, maxRunningCount, maxPerHost);
+    }
+
+    /** Runs the requests given to the worker one by one, in the order they were started. */
+    private void runAll() {
+        Runnable command;
+        while ((command = mWorkerQueue.poll()) != null) {
+            command.run();
+        }
+    }
+
+    private final class TestTask extends LoadBitmapTask<Object> {
+        private boolean mObsolete;
+
+        TestTask(String key) {
+            super(RuntimeEnvironment.application, mImageCache, key, 100, 100);
+        }
+
+        @Override
+        public ScaledBitmapInfo doGetBitmapInBackground() {
+            mLoaded.add(getKey());
+            return null;
+        }
+
+        @Override
+        boolean isObsolete() {
+            return mObsolete;
+        }
+    }
+}
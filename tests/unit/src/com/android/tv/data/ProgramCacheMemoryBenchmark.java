@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.data.api.Program;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the heap used by the program guide cache of {@link ProgramDataManager} when the
+ * programs are kept as {@link ProgramImpl} objects and when they're kept in {@link
+ * CompactProgramList}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ProgramCacheMemoryBenchmark {
+    private static final String TAG = "ProgramCacheMemoryBenchmark";
+
+    // About two weeks of half-hour programs for 200 channels.
+    private static final int CHANNEL_COUNT = 200;
+    private static final int PROGRAM_COUNT_PER_CHANNEL = 24 * 2 * 14;
+    private static final long PROGRAM_DURATION_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final int TITLE_COUNT = 500;
+
+    @Test
+    public void compareHeapUsage() {
+        long baseline = usedHeap();
+        List<List<Program>> objects = new ArrayList<>();
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            List<Program> programs = new ArrayList<>();
+            for (int i = 0; i < PROGRAM_COUNT_PER_CHANNEL; i++) {
+                programs.add(
+                        new ProgramImpl.Builder()
+                                .setId(channel * PROGRAM_COUNT_PER_CHANNEL + i)
+                                .setChannelId(channel)
+                                .setTitle(title(channel, i))
+                                .setEpisodeTitle(episodeTitle(i))
+                                .setCanonicalGenres(genres(channel))
+                                .setStartTimeUtcMillis(i * PROGRAM_DURATION_MS)
+                                .setEndTimeUtcMillis((i + 1) * PROGRAM_DURATION_MS)
+                                .build());
+            }
+            objects.add(programs);
+        }
+        long objectHeap = usedHeap() - baseline;
+        assertThat(objects).hasSize(CHANNEL_COUNT);
+        objects = null;
+
+        baseline = usedHeap();
+        CompactProgramList.StringPool pool = new CompactProgramList.StringPool();
+        List<CompactProgramList> columns = new ArrayList<>();
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            CompactProgramList.Builder builder = new CompactProgramList.Builder(channel, pool);
+            for (int i = 0; i < PROGRAM_COUNT_PER_CHANNEL; i++) {
+                builder.add(
+                        channel * PROGRAM_COUNT_PER_CHANNEL + i,
+                        title(channel, i),
+                        episodeTitle(i),
+                        genres(channel),
+                        i * PROGRAM_DURATION_MS,
+                        (i + 1) * PROGRAM_DURATION_MS);
+            }
+            columns.add(builder.build());
+        }
+        pool = null;
+        long compactHeap = usedHeap() - baseline;
+
+        Log.i(
+                TAG,
+                "Heap for "
+                        + CHANNEL_COUNT * PROGRAM_COUNT_PER_CHANNEL
+                        + " programs: objects="
+                        + objectHeap / 1024
+                        + "KB, columns="
+                        + compactHeap / 1024
+                        + "KB");
+        assertThat(columns).hasSize(CHANNEL_COUNT);
+        assertThat(compactHeap).isLessThan(objectHeap);
+    }
+
+    // Each string is created separately as the cursor does.
+    private static String title(int channel, int index) {
+        return "Title " + (channel * 31 + index) % TITLE_COUNT;
+    }
+
+    private static String episodeTitle(int index) {
+        return "Episode " + index % 20;
+    }
+
+    private static String genres(int channel) {
+        return "GENRE" + channel % 4;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr.provider;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.common.flags.impl.DefaultDvrFlags;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.dvr.provider.DvrContract.Schedules;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the size of the DVR database and the time of the bulk operations and the indexed
+ * queries with a large number of schedules.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class DvrDatabaseBenchmark {
+    private static final String TAG = "DvrDatabaseBenchmark";
+    private static final String DB_NAME = "dvr_benchmark.db";
+
+    // About two weeks of half-hour schedules for 60 channels.
+    private static final int SCHEDULE_COUNT = 20000;
+    private static final int CHANNEL_COUNT = 60;
+    private static final long DURATION_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final int CHUNK_SIZE = 500;
+
+    private Context mContext;
+    private DvrDatabaseHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mDbHelper = new DvrDatabaseHelper(mContext, new DefaultDvrFlags(), DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void schedules() {
+        ScheduledRecording[] schedules = new ScheduledRecording[SCHEDULE_COUNT];
+        for (int i = 0; i < SCHEDULE_COUNT; i++) {
+            long startTimeMs = (i / CHANNEL_COUNT) * DURATION_MS;
+            schedules[i] =
+                    ScheduledRecording.builder(
+                                    "input_id",
+                                    i % CHANNEL_COUNT,
+                                    startTimeMs,
+                                    startTimeMs + DURATION_MS)
+                            .setId(i + 1)
+                            .setProgramId(i + 1)
+                            .setProgramTitle("Title " + i % 500)
+                            .setProgramDescription("Description " + i)
+                            .build();
+        }
+
+        long insertStartMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SCHEDULE_COUNT; i += CHUNK_SIZE) {
+            ScheduledRecording[] chunk = new ScheduledRecording[CHUNK_SIZE];
+            System.arraycopy(schedules, i, chunk, 0, CHUNK_SIZE);
+            mDbHelper.insertSchedules(chunk);
+        }
+        long insertMs = SystemClock.elapsedRealtime() - insertStartMs;
+
+        long updateStartMs = SystemClock.elapsedRealtime();
+        mDbHelper.updateSchedules(schedules);
+        long updateMs = SystemClock.elapsedRealtime() - updateStartMs;
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        long cutoffMs = (SCHEDULE_COUNT / CHANNEL_COUNT / 2) * DURATION_MS;
+        String selection = Schedules.COLUMN_END_TIME_UTC_MILLIS + "<?";
+        String[] selectionArgs = new String[] {String.valueOf(cutoffMs)};
+        long queryStartMs = SystemClock.elapsedRealtime();
+        int expiredCount;
+        try (Cursor c =
+                db.query(
+                        Schedules.TABLE_NAME,
+                        new String[] {Schedules._ID},
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        null)) {
+            expiredCount = c.getCount();
+        }
+        long queryMs = SystemClock.elapsedRealtime() - queryStartMs;
+
+        Log.i(
+                TAG,
+                SCHEDULE_COUNT
+                        + " schedules: size="
+                        + mContext.getDatabasePath(DB_NAME).length() / 1024
+                        + "KB, insert="
+                        + insertMs
+                        + "ms, update="
+                        + updateMs
+                        + "ms, query by end time="
+                        + queryMs
+                        + "ms");
+        assertThat(expiredCount).isGreaterThan(0);
+        assertThat(getQueryPlan(db, selection, selectionArgs))
+                .contains("schedules_end_time_utc_millis_index");
+    }
+
+    private static String getQueryPlan(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        StringBuilder sb = new StringBuilder();
+        try (Cursor c =
+                db.rawQuery(
+                        "EXPLAIN QUERY PLAN SELECT "
+                                + Schedules._ID
+                                + " FROM "
+                                + Schedules.TABLE_NAME
+                                + " WHERE "
+                                + selection,
+                        selectionArgs)) {
+            while (c.moveToNext()) {
+                sb.append(c.getString(c.getColumnCount() - 1)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
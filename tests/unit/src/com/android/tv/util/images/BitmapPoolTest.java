@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link BitmapPool}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+    private static final int SIZE_100 = 100 * 100 * 2;
+
+    @Test
+    public void testGet_reusesLargeEnoughBitmap() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        pool.put(bitmap);
+
+        assertThat(pool.get(SIZE_100 / 4 - 1)).isNull();
+        assertThat(pool.get(SIZE_100 + 1)).isNull();
+        assertThat(pool.get(SIZE_100 * 3 / 4)).isSameInstanceAs(bitmap);
+        assertThat(pool.get(SIZE_100 * 3 / 4)).isNull();
+        assertThat(pool.hitCount()).isEqualTo(1);
+        assertThat(pool.missCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testPut_evictsLargestWhenFull() {
+        BitmapPool pool = new BitmapPool(SIZE_100 + 50 * 50 * 2);
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565));
+        pool.put(Bitmap.createBitmap(50, 50, Bitmap.Config.RGB_565));
+        pool.put(Bitmap.createBitmap(40, 40, Bitmap.Config.RGB_565));
+
+        assertThat(pool.get(SIZE_100)).isNull();
+        assertThat(pool.size()).isEqualTo(50 * 50 * 2 + 40 * 40 * 2);
+    }
+
+    @Test
+    public void testOnEvicted_waitsForRelease() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        pool.acquire(bitmap);
+        pool.onEvicted(bitmap);
+
+        assertThat(pool.size()).isEqualTo(0);
+        pool.release(bitmap);
+        assertThat(pool.get(SIZE_100)).isSameInstanceAs(bitmap);
+    }
+
+    @Test
+    public void testOnEvicted_ignoresUnreleasedBitmaps() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap untracked = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        Bitmap pinned = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        pool.acquire(pinned);
+        pool.pin(pinned);
+        pool.release(pinned);
+        pool.onEvicted(untracked);
+        pool.onEvicted(pinned);
+
+        assertThat(pool.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSetEnabled_false() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565));
+        pool.setEnabled(false);
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565));
+
+        assertThat(pool.size()).isEqualTo(0);
+        assertThat(pool.get(SIZE_100)).isNull();
+    }
+
+    @Test
+    public void testPut_ignoresImmutableBitmap() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap bitmap =
+                Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565)
+                        .copy(Bitmap.Config.RGB_565, false);
+        pool.put(bitmap);
+
+        assertThat(pool.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link ImageDiskCache}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class ImageDiskCacheTest {
+    private static final String URI_1 = "https://example.com/1.png";
+    private static final String URI_2 = "https://example.com/2.png";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(getTargetContext().getCacheDir(), "image_disk_cache_test");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ImageDiskCache cache = new ImageDiskCache(mDirectory, Long.MAX_VALUE);
+        cache.put(createBitmapInfo(URI_1, 2), 100, 100);
+
+        ScaledBitmapInfo bitmapInfo =
+                new ImageDiskCache(mDirectory, Long.MAX_VALUE).get(URI_1, 100, 100);
+
+        assertThat(bitmapInfo).isNotNull();
+        assertThat(bitmapInfo.id).isEqualTo(URI_1);
+        assertThat(bitmapInfo.inSampleSize).isEqualTo(2);
+        assertThat(bitmapInfo.bitmap.getWidth()).isEqualTo(50);
+        assertThat(cache.get(URI_1, 200, 200)).isNull();
+        assertThat(cache.hitCount()).isEqualTo(0);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        ImageDiskCache cache = new ImageDiskCache(mDirectory, Long.MAX_VALUE);
+        cache.put(createBitmapInfo(URI_1, 1), 100, 100);
+        long entrySize = cache.size();
+        cache = new ImageDiskCache(mDirectory, entrySize * 3 / 2);
+        cache.put(createBitmapInfo(URI_2, 1), 100, 100);
+
+        assertThat(cache.get(URI_1, 100, 100)).isNull();
+        assertThat(cache.get(URI_2, 100, 100)).isNotNull();
+    }
+
+    @Test
+    public void testPut_concurrently() throws InterruptedException {
+        ImageDiskCache cache = new ImageDiskCache(mDirectory, Long.MAX_VALUE);
+        Thread thread = new Thread(() -> cache.put(createBitmapInfo(URI_1, 1), 100, 100));
+        thread.start();
+        cache.put(createBitmapInfo(URI_1, 2), 100, 100);
+        thread.join();
+
+        // Only one of the files is kept, and no temp file is left.
+        String[] fileNames = mDirectory.list();
+        assertThat(fileNames).hasLength(1);
+        assertThat(cache.size()).isEqualTo(new File(mDirectory, fileNames[0]).length());
+        assertThat(cache.get(URI_1, 100, 100)).isNotNull();
+    }
+
+    @Test
+    public void testIsCacheable() {
+        assertThat(ImageDiskCache.isCacheable(URI_1)).isTrue();
+        assertThat(ImageDiskCache.isCacheable("android.resource://com.android.tv/1")).isFalse();
+    }
+
+    private static ScaledBitmapInfo createBitmapInfo(String uri, int inSampleSize) {
+        Bitmap bitmap = Bitmap.createBitmap(50, 50, Bitmap.Config.RGB_565);
+        return new ScaledBitmapInfo(uri, bitmap, inSampleSize);
+    }
+}
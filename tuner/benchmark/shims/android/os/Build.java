@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/** Replaces the framework class for benchmarks on a plain JVM, which has no system properties. */
+public class Build {
+    public static final String UNKNOWN = "unknown";
+    public static final String DEVICE = UNKNOWN;
+    public static final String MANUFACTURER = UNKNOWN;
+    public static final String MODEL = UNKNOWN;
+    public static final String PRODUCT = UNKNOWN;
+
+    /** Version information. */
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.M;
+    }
+
+    /** Version codes. */
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+        public static final int LOLLIPOP_MR1 = 22;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.benchmark;
+
+import com.android.tv.tuner.data.Cea708Parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks {@link Cea708Parser} with the closed caption data of video frames. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Cea708ParserBenchmark {
+    private static final int FRAME_COUNT = 300;
+    private static final long FRAME_DURATION_US = 33367;
+    // A frame of 29.97fps video carries 20 cc_data triples including padding.
+    private static final int CC_COUNT_PER_FRAME = 20;
+    private static final int SERVICE_NUMBER = 1;
+
+    private final ByteBuffer[] mFrames = new ByteBuffer[FRAME_COUNT];
+    private Cea708Parser mParser;
+    private long mFramePtsUs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < FRAME_COUNT; ++i) {
+            mFrames[i] = createFrame(i);
+        }
+        mParser = new Cea708Parser();
+        mParser.setListenServiceNumber(SERVICE_NUMBER);
+    }
+
+    @Benchmark
+    public void parseClosedCaptions(ThroughputCounters counters) {
+        for (ByteBuffer frame : mFrames) {
+            mParser.parseClosedCaption(frame, mFramePtsUs);
+            mFramePtsUs += FRAME_DURATION_US;
+            mParser.processClosedCaptions(mFramePtsUs);
+        }
+        ThroughputCounters.countItems(counters, FRAME_COUNT * CC_COUNT_PER_FRAME * 3, FRAME_COUNT);
+    }
+
+    /** Creates the cc_data of a frame which carries a DTVCC packet with two characters. */
+    private static ByteBuffer createFrame(int index) {
+        ByteBuffer frame = ByteBuffer.allocate(CC_COUNT_PER_FRAME * 3);
+        // DTVCC packet start: sequence_number, packet_size_code, service header.
+        frame.put((byte) 0xff).put((byte) ((index & 0x03) << 6 | 0x02));
+        frame.put((byte) (SERVICE_NUMBER << 5 | 0x02));
+        // DTVCC packet data: two G0 characters.
+        frame.put((byte) 0xfe).put((byte) ('A' + index % 26)).put((byte) 'a');
+        while (frame.hasRemaining()) {
+            // Padding with cc_valid unset.
+            frame.put((byte) 0xfa).put((byte) 0x00).put((byte) 0x00);
+        }
+        frame.flip();
+        return frame;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.benchmark;
+
+import com.android.tv.tuner.exoplayer2.buffer.InputBufferPool;
+
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link InputBufferPool} with sample sizes of a broadcast stream, where small audio
+ * samples are mixed with video samples of various sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InputBufferPoolBenchmark {
+    private static final int SIZE_COUNT = 1024;
+    // The number of samples which are held at the same time, like the samples in the queues.
+    private static final int IN_FLIGHT_SAMPLE_COUNT = 32;
+
+    private final InputBufferPool mPool = new InputBufferPool();
+    private final int[] mSizes = new int[SIZE_COUNT];
+
+    /** Samples held by a thread. */
+    @State(Scope.Thread)
+    public static class InFlightSamples {
+        final DecoderInputBuffer[] mSamples = new DecoderInputBuffer[IN_FLIGHT_SAMPLE_COUNT];
+        int mIndex;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(0);
+        for (int i = 0; i < SIZE_COUNT; ++i) {
+            if (i % 3 == 0) {
+                // Audio
+                mSizes[i] = 768 + random.nextInt(1024);
+            } else if (i % 30 == 1) {
+                // Video key frame
+                mSizes[i] = 100 * 1024 + random.nextInt(200 * 1024);
+            } else {
+                // Video
+                mSizes[i] = 4 * 1024 + random.nextInt(60 * 1024);
+            }
+        }
+    }
+
+    @Benchmark
+    public void acquireAndRelease(InFlightSamples samples, ThroughputCounters counters) {
+        acquireAndReleaseSamples(samples, counters);
+    }
+
+    /** Shares the pool between an extractor thread and an I/O thread like the playback. */
+    @Benchmark
+    @Threads(2)
+    public void acquireAndRelease_contended(InFlightSamples samples, ThroughputCounters counters) {
+        acquireAndReleaseSamples(samples, counters);
+    }
+
+    private void acquireAndReleaseSamples(InFlightSamples samples, ThroughputCounters counters) {
+        long bytes = 0;
+        for (int size : mSizes) {
+            int index = samples.mIndex++ % IN_FLIGHT_SAMPLE_COUNT;
+            if (samples.mSamples[index] != null) {
+                mPool.releaseSample(samples.mSamples[index]);
+            }
+            samples.mSamples[index] = mPool.acquireSample(size);
+            bytes += size;
+        }
+        ThroughputCounters.countItems(counters, bytes, SIZE_COUNT);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.benchmark;
+
+import com.android.tv.tuner.data.Crc32Mpeg;
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.EttItem;
+import com.android.tv.tuner.data.PsipData.MgtItem;
+import com.android.tv.tuner.data.PsipData.SdtItem;
+import com.android.tv.tuner.data.PsipData.VctItem;
+import com.android.tv.tuner.data.SectionParser;
+import com.android.tv.tuner.util.ByteArrayBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks {@link SectionParser} with PAT and PMT sections. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SectionParserBenchmark {
+    private static final int MAX_SECTION_LENGTH = 4096;
+
+    private final ByteArrayBuffer mSections = new ByteArrayBuffer(TsFixtures.TS_PACKET_SIZE);
+    private final byte[] mLargestSection = new byte[MAX_SECTION_LENGTH];
+    private SectionParser mParser;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] pat = TsFixtures.createPatSection(0);
+        byte[] pmt = TsFixtures.createPmtSection(0);
+        mSections.append(pat, 0, pat.length);
+        mSections.append(pmt, 0, pmt.length);
+        new Random(0).nextBytes(mLargestSection);
+        mParser = new SectionParser(new NullOutputListener());
+    }
+
+    /** Parses sections which were already parsed, like the tables repeated in a stream. */
+    @Benchmark
+    public void parseSections_repeated(ThroughputCounters counters) {
+        mParser.parseSections(mSections);
+        ThroughputCounters.countItems(counters, mSections.length(), 2);
+    }
+
+    /** Parses sections which have new versions. */
+    @Benchmark
+    public void parseSections_updated(ThroughputCounters counters) {
+        mParser.resetVersionNumbers();
+        mParser.parseSections(mSections);
+        ThroughputCounters.countItems(counters, mSections.length(), 2);
+    }
+
+    /** Computes the CRC of the largest section. */
+    @Benchmark
+    public int crc(ThroughputCounters counters) {
+        ThroughputCounters.countItems(counters, MAX_SECTION_LENGTH, 1);
+        return Crc32Mpeg.compute(mLargestSection, 0, MAX_SECTION_LENGTH);
+    }
+
+    private static class NullOutputListener implements SectionParser.OutputListener {
+        @Override
+        public void onPatParsed(List<PatItem> items) {}
+
+        @Override
+        public void onPmtParsed(int programNumber, List<PmtItem> items) {}
+
+        @Override
+        public void onMgtParsed(List<MgtItem> items) {}
+
+        @Override
+        public void onVctParsed(List<VctItem> items, int sectionNumber, int lastSectionNumber) {}
+
+        @Override
+        public void onEitParsed(int sourceId, List<EitItem> items) {}
+
+        @Override
+        public void onEttParsed(int sourceId, List<EttItem> descriptions) {}
+
+        @Override
+        public void onSdtParsed(List<SdtItem> items) {}
+    }
+}
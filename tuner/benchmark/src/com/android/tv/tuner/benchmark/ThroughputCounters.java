@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the processed data, which JMH reports as rates per second in addition to the score.
+ * Benchmarks update the counters which are relevant to them.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class ThroughputCounters {
+    private static final double BYTES_PER_MEGABYTE = 1000 * 1000;
+
+    /** Processed megabytes. Reported as MB/s. */
+    public double megabytes;
+    /** Processed TS packets. Reported as packets/s. */
+    public long packets;
+    /** Processed items such as samples, sections or video frames. Reported as items/s. */
+    public long items;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+        packets = 0;
+        items = 0;
+    }
+
+    /** Counts the bytes and the TS packets of a stream. */
+    public static void countStream(ThroughputCounters counters, int bytes) {
+        counters.megabytes += bytes / BYTES_PER_MEGABYTE;
+        counters.packets += bytes / TsFixtures.TS_PACKET_SIZE;
+    }
+
+    /** Counts the bytes and the number of items. */
+    public static void countItems(ThroughputCounters counters, long bytes, int items) {
+        counters.megabytes += bytes / BYTES_PER_MEGABYTE;
+        counters.items += items;
+    }
+}
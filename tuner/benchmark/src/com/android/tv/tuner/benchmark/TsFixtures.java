@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.benchmark;
+
+import com.android.tv.tuner.data.Crc32Mpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Provides MPEG-TS streams for benchmarks.
+ *
+ * <p>A captured stream is used when the {@code tuner.benchmark.tsFile} system property is set.
+ * Otherwise a synthetic ATSC stream is generated, where PAT and PMT are repeated between video
+ * packets like a broadcast stream.
+ */
+public final class TsFixtures {
+    public static final int TS_PACKET_SIZE = 188;
+    public static final int PMT_PID = 0x30;
+    public static final int VIDEO_PID = 0x31;
+    public static final int PROGRAM_NUMBER = 3;
+
+    private static final String TS_FILE_PROPERTY = "tuner.benchmark.tsFile";
+    private static final int VIDEO_PACKETS_PER_TABLE = 40;
+    private static final int SYNTHETIC_REPETITION_COUNT = 2000;
+
+    private TsFixtures() {}
+
+    /** Returns the captured stream if it is given, or a synthetic stream otherwise. */
+    public static byte[] loadStream() throws IOException {
+        String path = System.getProperty(TS_FILE_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return createSyntheticStream();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(new File(path), "r")) {
+            // Drops the trailing partial packet.
+            long length = file.length() / TS_PACKET_SIZE * TS_PACKET_SIZE;
+            byte[] stream = new byte[(int) Math.min(length, Integer.MAX_VALUE / 2)];
+            file.readFully(stream);
+            return stream;
+        }
+    }
+
+    /** Returns a PAT section with the given version, including its CRC. */
+    public static byte[] createPatSection(int version) {
+        return withCrc(
+                new byte[] {
+                    0x00, // table_id
+                    (byte) 0xb0, 0x0d, // section_syntax_indicator, section_length
+                    0x00, 0x01, // transport_stream_id
+                    (byte) (0xc1 | version << 1), // version_number, current_next_indicator
+                    0x00, 0x00, // section_number, last_section_number
+                    0x00, PROGRAM_NUMBER, (byte) 0xe0, PMT_PID // program_number, program_map_PID
+                });
+    }
+
+    /** Returns a PMT section with the given version, including its CRC. */
+    public static byte[] createPmtSection(int version) {
+        return withCrc(
+                new byte[] {
+                    0x02, // table_id
+                    (byte) 0xb0, 0x12, // section_syntax_indicator, section_length
+                    0x00, PROGRAM_NUMBER, // program_number
+                    (byte) (0xc1 | version << 1), // version_number, current_next_indicator
+                    0x00, 0x00, // section_number, last_section_number
+                    (byte) 0xe0, VIDEO_PID, // PCR_PID
+                    (byte) 0xf0, 0x00, // program_info_length
+                    0x02, (byte) 0xe0, VIDEO_PID, (byte) 0xf0, 0x00 // stream_type, elementary_PID
+                });
+    }
+
+    private static byte[] createSyntheticStream() {
+        int packetsPerRepetition = VIDEO_PACKETS_PER_TABLE + 2;
+        byte[] stream =
+                new byte[packetsPerRepetition * SYNTHETIC_REPETITION_COUNT * TS_PACKET_SIZE];
+        byte[] pat = createPatSection(0);
+        byte[] pmt = createPmtSection(0);
+        int pos = 0;
+        for (int i = 0; i < SYNTHETIC_REPETITION_COUNT; ++i) {
+            writeSectionPacket(stream, pos, 0, i, pat);
+            pos += TS_PACKET_SIZE;
+            writeSectionPacket(stream, pos, PMT_PID, i, pmt);
+            pos += TS_PACKET_SIZE;
+            for (int j = 0; j < VIDEO_PACKETS_PER_TABLE; ++j) {
+                writePacketHeader(stream, pos, VIDEO_PID, i * VIDEO_PACKETS_PER_TABLE + j, j == 0);
+                pos += TS_PACKET_SIZE;
+            }
+        }
+        return stream;
+    }
+
+    private static void writeSectionPacket(
+            byte[] stream, int pos, int pid, int continuityCounter, byte[] section) {
+        writePacketHeader(stream, pos, pid, continuityCounter, true);
+        Arrays.fill(stream, pos + 4, pos + TS_PACKET_SIZE, (byte) 0xff);
+        stream[pos + 4] = 0x00; // pointer_field
+        System.arraycopy(section, 0, stream, pos + 5, section.length);
+    }
+
+    private static void writePacketHeader(
+            byte[] stream, int pos, int pid, int continuityCounter, boolean startIndicator) {
+        stream[pos] = 0x47;
+        stream[pos + 1] = (byte) ((startIndicator ? 0x40 : 0x00) | (pid >> 8));
+        stream[pos + 2] = (byte) pid;
+        stream[pos + 3] = (byte) (0x10 | (continuityCounter & 0x0f));
+    }
+
+    private static byte[] withCrc(byte[] section) {
+        byte[] data = Arrays.copyOf(section, section.length + 4);
+        int crc = Crc32Mpeg.compute(section, 0, section.length);
+        for (int i = 0; i < 4; ++i) {
+            data[section.length + i] = (byte) (crc >>> (24 - i * 8));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.benchmark;
+
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.SdtItem;
+import com.android.tv.tuner.data.PsipData.VctItem;
+import com.android.tv.tuner.ts.TsParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks {@link TsParser} which demuxes the PSI and PSIP tables from a TS stream. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TsParserBenchmark {
+    private byte[] mStream;
+    private TsParser mParser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mStream = TsFixtures.loadStream();
+        mParser = new TsParser(new NullTsOutputListener(), false);
+    }
+
+    /** Feeds the stream to a parser which already parsed the tables, like a live session. */
+    @Benchmark
+    public void feedTSData(ThroughputCounters counters) {
+        mParser.feedTSData(mStream, 0, mStream.length);
+        ThroughputCounters.countStream(counters, mStream.length);
+    }
+
+    /** Feeds the stream to a new parser, like a channel scan. */
+    @Benchmark
+    public TsParser feedTSData_newParser(ThroughputCounters counters) {
+        TsParser parser = new TsParser(new NullTsOutputListener(), false);
+        parser.feedTSData(mStream, 0, mStream.length);
+        ThroughputCounters.countStream(counters, mStream.length);
+        return parser;
+    }
+
+    private static class NullTsOutputListener implements TsParser.TsOutputListener {
+        @Override
+        public void onPatDetected(List<PatItem> items) {}
+
+        @Override
+        public void onEitPidDetected(int pid) {}
+
+        @Override
+        public void onVctItemParsed(VctItem channel, List<PmtItem> pmtItems) {}
+
+        @Override
+        public void onEitItemParsed(VctItem channel, List<EitItem> items) {}
+
+        @Override
+        public void onEttPidDetected(int pid) {}
+
+        @Override
+        public void onAllVctItemsParsed() {}
+
+        @Override
+        public void onSdtItemParsed(SdtItem channel, List<PmtItem> pmtItems) {}
+    }
+}
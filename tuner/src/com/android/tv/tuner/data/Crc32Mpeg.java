@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.data;
+
+/**
+ * Computes CRC-32/MPEG-2 which protects PSI and PSIP sections. See H.222.0 Annex A.
+ *
+ * <p>The slice-by-8 algorithm is used, which processes eight bytes per table lookup round instead
+ * of one byte.
+ */
+public final class Crc32Mpeg {
+    private static final int[][] SLICE_TABLES = createSliceTables();
+
+    private Crc32Mpeg() {}
+
+    /**
+     * Computes the CRC of the given range. For a section with a CRC trailer, the result is {@code
+     * 0} when the section is not corrupted.
+     *
+     * @param data the buffer holding the data
+     * @param offset the start position of the data
+     * @param length the length of the data
+     * @return the CRC
+     */
+    public static int compute(byte[] data, int offset, int length) {
+        int[] t0 = SLICE_TABLES[0];
+        int[] t1 = SLICE_TABLES[1];
+        int[] t2 = SLICE_TABLES[2];
+        int[] t3 = SLICE_TABLES[3];
+        int[] t4 = SLICE_TABLES[4];
+        int[] t5 = SLICE_TABLES[5];
+        int[] t6 = SLICE_TABLES[6];
+        int[] t7 = SLICE_TABLES[7];
+        int crc = 0xffffffff;
+        int pos = offset;
+        int end = offset + length;
+        for (; pos + 8 <= end; pos += 8) {
+            int word =
+                    crc
+                            ^ ((data[pos] & 0xff) << 24
+                                    | (data[pos + 1] & 0xff) << 16
+                                    | (data[pos + 2] & 0xff) << 8
+                                    | (data[pos + 3] & 0xff));
+            crc =
+                    t7[word >>> 24]
+                            ^ t6[(word >>> 16) & 0xff]
+                            ^ t5[(word >>> 8) & 0xff]
+                            ^ t4[word & 0xff]
+                            ^ t3[data[pos + 4] & 0xff]
+                            ^ t2[data[pos + 5] & 0xff]
+                            ^ t1[data[pos + 6] & 0xff]
+                            ^ t0[data[pos + 7] & 0xff];
+        }
+        for (; pos < end; ++pos) {
+            crc = t0[((crc >>> 24) ^ data[pos]) & 0xff] ^ (crc << 8);
+        }
+        return crc;
+    }
+
+    private static int[][] createSliceTables() {
+        int[][] tables = new int[8][];
+        tables[0] = SectionParser.CRC_TABLE;
+        for (int i = 1; i < tables.length; ++i) {
+            tables[i] = new int[256];
+            for (int j = 0; j < 256; ++j) {
+                int prev = tables[i - 1][j];
+                tables[i][j] = (prev << 8) ^ tables[0][prev >>> 24];
+            }
+        }
+        return tables;
+    }
+}
@@ -24,6 +24,7 @@ import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
 import com.android.tv.common.feature.Model;
 import com.android.tv.tuner.data.Channel.AtscServiceType;
 import com.android.tv.tuner.data.PsiData.PatItem;
@@ -100,6 +101,8 @@ public class SectionParser {
     private static final byte MODE_UTF16 = (byte) 0x3f;
     private static final byte MODE_SCSU = (byte) 0x3e;
     private static final int MAX_SHORT_NAME_BYTES = 14;
+    // The length of the section header and the CRC trailer of a long form section.
+    private static final int MIN_LONG_SECTION_LENGTH = 12;
 
     // See ANSI/CEA-766-C.
     private static final int RATING_REGION_US_TV = 1;
@@ -622,6 +625,9 @@ public class SectionParser {
 
     // Containers to store the last version numbers of the PSIP sections.
     private final HashMap<PsipSection, Integer> mSectionVersionMap = new HashMap<>();
+    // Maps the parsed long form sections to their version numbers and CRCs, so that repeated
+    // sections can be dropped before being copied and CRC-checked.
+    private final SparseLongArray mParsedSectionCrcMap = new SparseLongArray();
     private final SparseArray<List<EttItem>> mParsedEttItems = new SparseArray<>();
 
     public interface OutputListener {
@@ -662,6 +668,10 @@ public class SectionParser {
             if (DEBUG) {
                 Log.d(TAG, "parseSections 0x" + Integer.toHexString(data.byteAt(pos) & 0xff));
             }
+            if (isParsedSection(data.buffer(), pos, sectionLength)) {
+                pos += sectionLength;
+                continue;
+            }
             parseSection(Arrays.copyOfRange(data.buffer(), pos, pos + sectionLength));
             pos += sectionLength;
         }
@@ -677,6 +687,42 @@ public class SectionParser {
 
     public void resetVersionNumbers() {
         mSectionVersionMap.clear();
+        mParsedSectionCrcMap.clear();
+    }
+
+    private boolean isParsedSection(byte[] data, int pos, int length) {
+        if (length < MIN_LONG_SECTION_LENGTH || (data[pos + 1] & 0x80) == 0) {
+            return false;
+        }
+        int index = mParsedSectionCrcMap.indexOfKey(getSectionKey(data, pos));
+        return index >= 0
+                && mParsedSectionCrcMap.valueAt(index) == getVersionAndCrc(data, pos, length);
+    }
+
+    private void addParsedSection(byte[] data) {
+        if (data.length < MIN_LONG_SECTION_LENGTH || (data[1] & 0x80) == 0) {
+            return;
+        }
+        mParsedSectionCrcMap.put(getSectionKey(data, 0), getVersionAndCrc(data, 0, data.length));
+    }
+
+    /** Returns the table_id, table_id_extension and section_number of the section. */
+    private static int getSectionKey(byte[] data, int pos) {
+        return (data[pos] & 0xff) << 24
+                | (data[pos + 3] & 0xff) << 16
+                | (data[pos + 4] & 0xff) << 8
+                | (data[pos + 6] & 0xff);
+    }
+
+    /** Returns the version_number, current_next_indicator and CRC_32 of the section. */
+    private static long getVersionAndCrc(byte[] data, int pos, int length) {
+        int crcPos = pos + length - 4;
+        long crc =
+                (data[crcPos] & 0xffL) << 24
+                        | (data[crcPos + 1] & 0xffL) << 16
+                        | (data[crcPos + 2] & 0xffL) << 8
+                        | (data[crcPos + 3] & 0xffL);
+        return (data[pos + 5] & 0x3fL) << 32 | crc;
     }
 
     private void parseSection(byte[] data) {
@@ -734,6 +780,7 @@ public class SectionParser {
         }
         if (result) {
             mSectionVersionMap.put(section, versionNumber);
+            addParsedSection(data);
         }
     }
 
@@ -2097,16 +2144,6 @@ public class SectionParser {
             return false;
         }
         boolean hasCRC = (data[1] & 0x80) != 0; // section_syntax_indicator
-        if (hasCRC) {
-            int crc = 0xffffffff;
-            for (byte b : data) {
-                int index = ((crc >> 24) ^ (b & 0xff)) & 0xff;
-                crc = CRC_TABLE[index] ^ (crc << 8);
-            }
-            if (crc != 0) {
-                return false;
-            }
-        }
-        return true;
+        return !hasCRC || Crc32Mpeg.compute(data, 0, data.length) == 0;
     }
 }
@@ -25,6 +25,7 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.util.Log;
 import android.util.Pair;
 
 import com.android.tv.tuner.exoplayer.audio.MpegTsDefaultAudioTrackRenderer;
@@ -32,6 +33,8 @@ import com.android.tv.tuner.exoplayer.buffer.BufferManager;
 import com.android.tv.tuner.exoplayer.buffer.PlaybackBufferListener;
 import com.android.tv.tuner.exoplayer.buffer.RecordingSampleBuffer;
 import com.android.tv.tuner.exoplayer.buffer.SimpleSampleBuffer;
+import com.android.tv.tuner.source.TsDataSource;
+import com.android.tv.tuner.tvinput.debug.TunerDebug;
 
 import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.MediaFormatHolder;
@@ -59,6 +62,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class that extracts samples from a live broadcast stream while storing the sample on the disk.
@@ -70,6 +74,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
     private static final int INVALID_TRACK_INDEX = -1;
     private final HandlerThread mSourceReaderThread;
     private final long mId;
+    @Nullable private final TsDataSource mTsDataSource;
 
     private final Handler.Callback mSourceReaderWorker;
 
@@ -87,6 +92,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
     private OnCompletionListener mOnCompletionListener;
     private Handler mOnCompletionListenerHandler;
     private IOException mError;
+    private long mPrepareStartTimeMs;
 
     /**
      * Factory for {@link ExoPlayerSampleExtractor}.
@@ -137,6 +143,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
         mId = System.currentTimeMillis();
 
         mSourceReaderThread = sourceReaderThread;
+        mTsDataSource = source instanceof TsDataSource ? (TsDataSource) source : null;
         mSourceReaderWorker =
                 new SourceReaderWorker(
                         new ExtractorMediaSource(
@@ -172,14 +179,30 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
         mOnCompletionListenerHandler = handler;
     }
 
-    private class SourceReaderWorker implements Handler.Callback, MediaPeriod.Callback {
+    private class SourceReaderWorker
+            implements Handler.Callback,
+                    MediaPeriod.Callback,
+                    TsDataSource.OnDataAvailableListener {
         public static final int MSG_PREPARE = 1;
         public static final int MSG_FETCH_SAMPLES = 2;
         public static final int MSG_RELEASE = 3;
+        // Used when the data source doesn't notify the new data.
         private static final int RETRY_INTERVAL_MS = 50;
+        // Used when the data source notifies the new data. The timeout is a fallback for the end
+        // of the stream, whose last samples may be queued after the notification.
+        private static final int DATA_WAIT_TIMEOUT_MS = 500;
 
         private final MediaSource mSampleSource;
         private final MediaSource.SourceInfoRefreshListener mSampleSourceListener;
+        private final AtomicBoolean mFetchScheduled = new AtomicBoolean();
+        // Whether a fetch found nothing and the worker waits for onDataAvailable().
+        private final AtomicBoolean mWaitingForData = new AtomicBoolean();
+        // The number of onDataAvailable() calls, to find the ones missed during a fetch.
+        private final AtomicLong mDataAvailableCount = new AtomicLong();
+        private final FormatHolder mFormatHolder = new FormatHolder();
+        private final ConditionVariable mConditionVariable = new ConditionVariable();
+        private boolean mDataAvailableNotified;
+        private boolean mFirstSampleWritten;
         private MediaPeriod mMediaPeriod;
         private SampleStream[] mStreams;
         private boolean[] mTrackMetEos;
@@ -294,7 +317,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     mExceptionOnPrepare = e;
                     return;
                 }
-                mSourceReaderHandler.sendEmptyMessage(MSG_FETCH_SAMPLES);
+                mDataAvailableNotified =
+                        mTsDataSource != null && mTsDataSource.setOnDataAvailableListener(this);
+                scheduleFetch();
                 mPrepared = true;
             }
         }
@@ -304,6 +329,23 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             source.continueLoading(mCurrentPosition);
         }
 
+        @Override
+        public void onDataAvailable() {
+            // Called on the loading thread for every read. Only the first call after a fetch found
+            // nothing wakes the worker up, since the worker keeps fetching until it drains.
+            mDataAvailableCount.incrementAndGet();
+            if (mWaitingForData.compareAndSet(true, false)) {
+                scheduleFetch();
+            }
+        }
+
+        private void scheduleFetch() {
+            if (mFetchScheduled.compareAndSet(false, true)) {
+                mSourceReaderHandler.removeMessages(MSG_FETCH_SAMPLES);
+                mSourceReaderHandler.sendEmptyMessage(MSG_FETCH_SAMPLES);
+            }
+        }
+
         @Override
         public boolean handleMessage(Message message) {
             switch (message.what) {
@@ -324,12 +366,17 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     }
                     return true;
                 case MSG_FETCH_SAMPLES:
+                    mFetchScheduled.set(false);
+                    if (mMediaPeriod == null) {
+                        // Already released.
+                        return true;
+                    }
+                    mWaitingForData.set(false);
+                    long dataAvailableCount = mDataAvailableCount.get();
                     boolean didSomething = false;
-                    ConditionVariable conditionVariable = new ConditionVariable();
                     int trackCount = mStreams.length;
                     for (int i = 0; i < trackCount; ++i) {
-                        if (!mTrackMetEos[i]
-                                && C.RESULT_NOTHING_READ != fetchSample(i, conditionVariable)) {
+                        if (!mTrackMetEos[i] && C.RESULT_NOTHING_READ != fetchSample(i)) {
                             if (mMetEos) {
                                 // If mMetEos was on during fetchSample() due to an error,
                                 // fetching from other tracks is not necessary.
@@ -341,7 +388,19 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     mMediaPeriod.continueLoading(mCurrentPosition);
                     if (!mMetEos) {
                         if (didSomething) {
-                            mSourceReaderHandler.sendEmptyMessage(MSG_FETCH_SAMPLES);
+                            scheduleFetch();
+                        } else if (mDataAvailableNotified) {
+                            // Waits for the new samples. onDataAvailable() replaces the timeout
+                            // with an immediate fetch.
+                            mWaitingForData.set(true);
+                            if (mDataAvailableCount.get() != dataAvailableCount
+                                    && mWaitingForData.compareAndSet(true, false)) {
+                                // Samples were queued during the fetch.
+                                scheduleFetch();
+                            } else {
+                                mSourceReaderHandler.sendEmptyMessageDelayed(
+                                        MSG_FETCH_SAMPLES, DATA_WAIT_TIMEOUT_MS);
+                            }
                         } else {
                             mSourceReaderHandler.sendEmptyMessageDelayed(
                                     MSG_FETCH_SAMPLES, RETRY_INTERVAL_MS);
@@ -364,10 +423,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             return false;
         }
 
-        private int fetchSample(int track, ConditionVariable conditionVariable) {
-            FormatHolder dummyFormatHolder = new FormatHolder();
+        private int fetchSample(int track) {
             mDecoderInputBuffer.clear();
-            int ret = mStreams[track].readData(dummyFormatHolder, mDecoderInputBuffer, false);
+            int ret = mStreams[track].readData(mFormatHolder, mDecoderInputBuffer, false);
             if (ret == C.RESULT_BUFFER_READ
                     // Double-check if the extractor provided the data to prevent NPE. b/33758354
                     && mDecoderInputBuffer.data != null) {
@@ -386,7 +444,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                                 track,
                                 Math.max(lastExtractedPositionUs, mDecoderInputBuffer.timeUs));
                     }
-                    queueSample(track, conditionVariable);
+                    queueSample(track);
                 } catch (IOException e) {
                     mLastExtractedPositionUsMap.clear();
                     mMetEos = true;
@@ -408,8 +466,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             return ret;
         }
 
-        private void queueSample(int index, ConditionVariable conditionVariable)
-                throws IOException {
+        private void queueSample(int index) throws IOException {
             if (mVideoTrackIndex != INVALID_TRACK_INDEX) {
                 if (!mVideoTrackMet) {
                     if (index != mVideoTrackIndex) {
@@ -443,7 +500,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                                             .INITIAL_AUDIO_BUFFERING_TIME_US;
                     for (Pair<Integer, SampleHolder> pair : mPendingSamples) {
                         if (pair.second.timeUs >= mBaseSamplePts) {
-                            mSampleBuffer.writeSample(pair.first, pair.second, conditionVariable);
+                            mSampleBuffer.writeSample(pair.first, pair.second, mConditionVariable);
                         }
                     }
                     mPendingSamples.clear();
@@ -470,7 +527,13 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             mSampleHolder.data.put(mDecoderInputBuffer.data);
             mSampleHolder.data.flip();
             long writeStartTimeNs = SystemClock.elapsedRealtimeNanos();
-            mSampleBuffer.writeSample(index, mSampleHolder, conditionVariable);
+            mSampleBuffer.writeSample(index, mSampleHolder, mConditionVariable);
+            if (!mFirstSampleWritten) {
+                mFirstSampleWritten = true;
+                long timeToFirstSampleMs = SystemClock.elapsedRealtime() - mPrepareStartTimeMs;
+                Log.i(TAG, "Time to first sample: " + timeToFirstSampleMs + "ms");
+                TunerDebug.setTimeToFirstSampleMs(timeToFirstSampleMs);
+            }
 
             // Checks whether the storage has enough bandwidth for recording samples.
             if (mSampleBuffer.isWriteSpeedSlow(
@@ -492,6 +555,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
     @Override
     public boolean prepare() throws IOException {
         if (!mSourceReaderThread.isAlive()) {
+            mPrepareStartTimeMs = SystemClock.elapsedRealtime();
             mSourceReaderThread.start();
             mSourceReaderHandler =
                     new Handler(mSourceReaderThread.getLooper(), mSourceReaderWorker);
@@ -546,6 +610,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
 
     @Override
     public void release() {
+        if (mTsDataSource != null) {
+            mTsDataSource.setOnDataAvailableListener(null);
+        }
         if (mSourceReaderThread.isAlive()) {
             mSourceReaderHandler.removeCallbacksAndMessages(null);
             mSourceReaderHandler.sendEmptyMessage(SourceReaderWorker.MSG_RELEASE);
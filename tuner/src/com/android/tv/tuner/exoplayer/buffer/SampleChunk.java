@@ -23,7 +23,6 @@ import com.google.android.exoplayer.SampleHolder;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
 
 /**
  * {@link SampleChunk} stores samples into file and makes them available for read. Stored file = {
@@ -38,9 +37,6 @@ public class SampleChunk {
     private final long mStartPositionUs;
     private SampleChunk mNextChunk;
 
-    // Header = sample size : int, sample flag : int, sample PTS in micro second : long
-    private static final int SAMPLE_HEADER_LENGTH = 16;
-
     private final File mFile;
     private final ChunkCallback mChunkCallback;
     private final SamplePool mSamplePool;
@@ -124,6 +120,7 @@ public class SampleChunk {
      */
     @VisibleForTesting
     public static class IoState {
+        private final SampleChunkIoEngine mIoEngine = new SampleChunkIoEngine();
         private SampleChunk mChunk;
         private long mCurrentOffset;
 
@@ -191,6 +188,8 @@ public class SampleChunk {
                 mChunk.closeRead();
                 if (next != null) {
                     next.openRead();
+                } else {
+                    mIoEngine.release();
                 }
                 reset(next);
             }
@@ -365,21 +364,17 @@ public class SampleChunk {
                 return null;
             }
         }
-        mAccessFile.seek(offset);
-        int size = mAccessFile.readInt();
+        SampleChunkIoEngine ioEngine = state.mIoEngine;
+        ioEngine.readSampleHeader(this, mAccessFile.getChannel(), offset, mWriteOffset);
+        int size = ioEngine.getSampleSize();
         SampleHolder sample = mSamplePool.acquireSample(size);
         sample.size = size;
-        sample.flags = mAccessFile.readInt();
-        sample.timeUs = mAccessFile.readLong();
+        sample.flags = ioEngine.getSampleFlags();
+        sample.timeUs = ioEngine.getSampleTimeUs();
         sample.clearData();
-        sample.data.put(
-                mAccessFile
-                        .getChannel()
-                        .map(
-                                FileChannel.MapMode.READ_ONLY,
-                                offset + SAMPLE_HEADER_LENGTH,
-                                sample.size));
-        offset += sample.size + SAMPLE_HEADER_LENGTH;
+        ioEngine.readSamplePayload(
+                this, mAccessFile.getChannel(), offset, mWriteOffset, sample.data);
+        offset += sample.size + SampleChunkIoEngine.SAMPLE_HEADER_LENGTH;
         state.mCurrentOffset = offset;
         return sample;
     }
@@ -390,13 +385,14 @@ public class SampleChunk {
             throw new IllegalStateException("Requested write for wrong SampleChunk");
         }
 
-        mAccessFile.seek(mWriteOffset);
-        mAccessFile.writeInt(sample.size);
-        mAccessFile.writeInt(sample.flags);
-        mAccessFile.writeLong(sample.timeUs);
         sample.data.position(0).limit(sample.size);
-        mAccessFile.getChannel().position(mWriteOffset + SAMPLE_HEADER_LENGTH).write(sample.data);
-        mWriteOffset += sample.size + SAMPLE_HEADER_LENGTH;
+        mWriteOffset +=
+                state.mIoEngine.writeSample(
+                        mAccessFile.getChannel(),
+                        mWriteOffset,
+                        sample.flags,
+                        sample.timeUs,
+                        sample.data);
         state.mCurrentOffset = mWriteOffset;
     }
 
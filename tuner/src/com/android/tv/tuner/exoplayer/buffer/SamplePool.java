@@ -16,52 +16,189 @@
 
 package com.android.tv.tuner.exoplayer.buffer;
 
+import com.android.tv.tuner.tvinput.debug.TunerDebug;
 import com.google.android.exoplayer.SampleHolder;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** Pool of samples to recycle ByteBuffers as much as possible. */
-public class SamplePool {
-    private final LinkedList<SampleHolder> mSamplePool = new LinkedList<>();
+/**
+ * Pool of samples to recycle ByteBuffers as much as possible.
+ *
+ * <p>Samples are kept in size classes which are a quarter of an octave apart, so a sample is
+ * acquired and released without scanning the pool or taking a lock. Each size class retains a
+ * bounded number of samples, so the pool does not keep growing after a bitrate spike.
+ */
+public class SamplePool implements TunerDebug.SamplePoolStats {
+    /** The default number of samples which are retained per size class. */
+    public static final int DEFAULT_MAX_RETAINED_SAMPLES_PER_CLASS = 16;
+
+    private static final int MIN_CLASS_CAPACITY = 256;
+    private static final int MAX_CLASS_CAPACITY = 8 * 1024 * 1024;
+    private static final int CLASSES_PER_OCTAVE = 4;
+    private static final int[] CLASS_CAPACITIES = createClassCapacities();
+
+    private final int mMaxRetainedSamplesPerClass;
+    private final List<Queue<SampleHolder>> mPools;
+    private final AtomicIntegerArray mRetainedCounts;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mResizeCount = new AtomicLong();
+    private final AtomicLong mDiscardCount = new AtomicLong();
+
+    public SamplePool() {
+        this(DEFAULT_MAX_RETAINED_SAMPLES_PER_CLASS);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxRetainedSamplesPerClass the maximum number of samples which are kept per size
+     *     class. Released samples over the limit are left for garbage collection.
+     */
+    public SamplePool(int maxRetainedSamplesPerClass) {
+        mMaxRetainedSamplesPerClass = maxRetainedSamplesPerClass;
+        mPools = new ArrayList<>(CLASS_CAPACITIES.length);
+        for (int i = 0; i < CLASS_CAPACITIES.length; ++i) {
+            mPools.add(new ConcurrentLinkedQueue<>());
+        }
+        mRetainedCounts = new AtomicIntegerArray(CLASS_CAPACITIES.length);
+        if (TunerDebug.ENABLED) {
+            TunerDebug.addSamplePool(this);
+        }
+    }
 
     /**
      * Acquires a sample with a buffer larger than size from the pool. Allocate new one or resize an
      * existing buffer if necessary.
      */
-    public synchronized SampleHolder acquireSample(int size) {
-        if (mSamplePool.isEmpty()) {
-            SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
-            sample.ensureSpaceForWrite(size);
-            return sample;
+    public SampleHolder acquireSample(int size) {
+        int sizeClass = getSizeClassFor(size);
+        if (sizeClass < 0) {
+            // Too large to be pooled.
+            mMissCount.incrementAndGet();
+            return createSample(size);
         }
-        SampleHolder smallestSufficientSample = null;
-        SampleHolder maxSample = mSamplePool.getFirst();
-        for (SampleHolder sample : mSamplePool) {
-            // Grab the smallest sufficient sample.
-            if (sample.data.capacity() >= size
-                    && (smallestSufficientSample == null
-                            || smallestSufficientSample.data.capacity() > sample.data.capacity())) {
-                smallestSufficientSample = sample;
-            }
-
-            // Grab the max size sample.
-            if (maxSample.data.capacity() < sample.data.capacity()) {
-                maxSample = sample;
+        // Grab the smallest sufficient sample within an octave.
+        int maxSizeClass = Math.min(sizeClass + CLASSES_PER_OCTAVE, mPools.size() - 1);
+        for (int i = sizeClass; i <= maxSizeClass; ++i) {
+            SampleHolder sample = poll(i);
+            if (sample != null) {
+                mHitCount.incrementAndGet();
+                return sample;
             }
         }
-        SampleHolder sampleFromPool = smallestSufficientSample;
-
-        // If there's no sufficient sample, grab the maximum sample and resize it to size.
-        if (sampleFromPool == null) {
-            sampleFromPool = maxSample;
-            sampleFromPool.ensureSpaceForWrite(size);
+        // If there's no sufficient sample, grab the largest smaller sample and resize it.
+        for (int i = sizeClass - 1; i >= 0; --i) {
+            SampleHolder sample = poll(i);
+            if (sample != null) {
+                mResizeCount.incrementAndGet();
+                sample.ensureSpaceForWrite(CLASS_CAPACITIES[sizeClass]);
+                return sample;
+            }
         }
-        mSamplePool.remove(sampleFromPool);
-        return sampleFromPool;
+        mMissCount.incrementAndGet();
+        return createSample(CLASS_CAPACITIES[sizeClass]);
     }
 
     /** Releases the sample back to the pool. */
-    public synchronized void releaseSample(SampleHolder sample) {
+    public void releaseSample(SampleHolder sample) {
         sample.clearData();
-        mSamplePool.offerLast(sample);
+        int sizeClass = sample.data == null ? -1 : getSizeClassOf(sample.data.capacity());
+        if (sizeClass < 0) {
+            mDiscardCount.incrementAndGet();
+            return;
+        }
+        if (mRetainedCounts.incrementAndGet(sizeClass) > mMaxRetainedSamplesPerClass) {
+            mRetainedCounts.decrementAndGet(sizeClass);
+            mDiscardCount.incrementAndGet();
+            return;
+        }
+        mPools.get(sizeClass).offer(sample);
+    }
+
+    /** Returns the number of acquisitions which were served by a pooled sample as it is. */
+    @Override
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Returns the number of acquisitions which needed a newly allocated sample. */
+    @Override
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /** Returns the number of acquisitions which were served by resizing a smaller sample. */
+    @Override
+    public long getResizeCount() {
+        return mResizeCount.get();
+    }
+
+    /** Returns the number of released samples which were not kept by the pool. */
+    @Override
+    public long getDiscardCount() {
+        return mDiscardCount.get();
+    }
+
+    /** Returns the number of samples which are currently kept by the pool. */
+    @Override
+    public int getRetainedCount() {
+        int count = 0;
+        for (int i = 0; i < mRetainedCounts.length(); ++i) {
+            count += mRetainedCounts.get(i);
+        }
+        return count;
+    }
+
+    private SampleHolder poll(int sizeClass) {
+        SampleHolder sample = mPools.get(sizeClass).poll();
+        if (sample != null) {
+            mRetainedCounts.decrementAndGet(sizeClass);
+        }
+        return sample;
+    }
+
+    private static SampleHolder createSample(int capacity) {
+        SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(capacity);
+        return sample;
+    }
+
+    /** Returns the smallest size class whose samples can hold size bytes, or -1 if none. */
+    private static int getSizeClassFor(int size) {
+        int index = Arrays.binarySearch(CLASS_CAPACITIES, size);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < CLASS_CAPACITIES.length ? index : -1;
+    }
+
+    /** Returns the largest size class whose samples fit in capacity bytes, or -1 if none. */
+    private static int getSizeClassOf(int capacity) {
+        int index = Arrays.binarySearch(CLASS_CAPACITIES, capacity);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    private static int[] createClassCapacities() {
+        int octaves =
+                Integer.numberOfTrailingZeros(MAX_CLASS_CAPACITY)
+                        - Integer.numberOfTrailingZeros(MIN_CLASS_CAPACITY);
+        int[] capacities = new int[octaves * CLASSES_PER_OCTAVE + 1];
+        for (int i = 0; i < capacities.length; ++i) {
+            capacities[i] =
+                    (int)
+                            Math.ceil(
+                                    MIN_CLASS_CAPACITY
+                                            * Math.pow(2, (double) i / CLASSES_PER_OCTAVE));
+        }
+        return capacities;
     }
 }
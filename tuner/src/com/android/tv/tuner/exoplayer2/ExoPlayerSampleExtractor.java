@@ -24,12 +24,15 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.util.Log;
 import android.util.Pair;
 
 import com.android.tv.tuner.exoplayer2.buffer.BufferManager;
 import com.android.tv.tuner.exoplayer2.buffer.MemorySampleBuffer;
 import com.android.tv.tuner.exoplayer2.buffer.PlaybackBufferListener;
 import com.android.tv.tuner.exoplayer2.buffer.RecordingSampleBuffer;
+import com.android.tv.tuner.source.TsDataSource;
+import com.android.tv.tuner.tvinput.debug.TunerDebug;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
@@ -54,6 +57,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class that extracts samples from a live broadcast stream while storing the sample on the disk.
@@ -75,6 +79,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
 
     private final HandlerThread mSourceReaderThread;
     private final long mId;
+    @Nullable private final TsDataSource mTsDataSource;
 
     private final Handler.Callback mSourceReaderWorker;
 
@@ -95,6 +100,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
     private IOException mError;
     private MediaPeriod mMediaPeriod;
     private Callback mCallback;
+    private long mPrepareStartTimeMs;
 
     /**
      * Factory for {@link ExoPlayerSampleExtractor}.
@@ -142,6 +148,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
         mId = System.currentTimeMillis();
 
         mSourceReaderThread = sourceReaderThread;
+        mTsDataSource = source instanceof TsDataSource ? (TsDataSource) source : null;
         mSourceReaderWorker =
                 new SourceReaderWorker(
                         new ProgressiveMediaSource.Factory(() -> source).createMediaSource(uri));
@@ -172,14 +179,30 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
         mOnCompletionListenerHandler = handler;
     }
 
-    private class SourceReaderWorker implements Handler.Callback, MediaPeriod.Callback {
+    private class SourceReaderWorker
+            implements Handler.Callback,
+                    MediaPeriod.Callback,
+                    TsDataSource.OnDataAvailableListener {
         private static final int MSG_PREPARE = 1;
         private static final int MSG_FETCH_SAMPLES = 2;
         private static final int MSG_RELEASE = 3;
+        // Used when the data source doesn't notify the new data.
         private static final int RETRY_INTERVAL_MS = 50;
+        // Used when the data source notifies the new data. The timeout is a fallback for the end
+        // of the stream, whose last samples may be queued after the notification.
+        private static final int DATA_WAIT_TIMEOUT_MS = 500;
 
         private final MediaSource mSampleSource;
         private final MediaSource.SourceInfoRefreshListener mSampleSourceListener;
+        private final AtomicBoolean mFetchScheduled = new AtomicBoolean();
+        // Whether a fetch found nothing and the worker waits for onDataAvailable().
+        private final AtomicBoolean mWaitingForData = new AtomicBoolean();
+        // The number of onDataAvailable() calls, to find the ones missed during a fetch.
+        private final AtomicLong mDataAvailableCount = new AtomicLong();
+        private final FormatHolder mFormatHolder = new FormatHolder();
+        private final ConditionVariable mConditionVariable = new ConditionVariable();
+        private boolean mDataAvailableNotified;
+        private boolean mFirstSampleWritten;
         private SampleStream[] mStreams;
         private boolean[] mTrackMetEos;
         private boolean mMetEos = false;
@@ -249,7 +272,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     mExceptionOnPrepare = e;
                     return;
                 }
-                mSourceReaderHandler.sendEmptyMessage(MSG_FETCH_SAMPLES);
+                mDataAvailableNotified =
+                        mTsDataSource != null && mTsDataSource.setOnDataAvailableListener(this);
+                scheduleFetch();
                 mPrepared = true;
                 mCallback.onPrepared();
             }
@@ -260,6 +285,23 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             source.continueLoading(mCurrentPosition);
         }
 
+        @Override
+        public void onDataAvailable() {
+            // Called on the loading thread for every read. Only the first call after a fetch found
+            // nothing wakes the worker up, since the worker keeps fetching until it drains.
+            mDataAvailableCount.incrementAndGet();
+            if (mWaitingForData.compareAndSet(true, false)) {
+                scheduleFetch();
+            }
+        }
+
+        private void scheduleFetch() {
+            if (mFetchScheduled.compareAndSet(false, true)) {
+                mSourceReaderHandler.removeMessages(MSG_FETCH_SAMPLES);
+                mSourceReaderHandler.sendEmptyMessage(MSG_FETCH_SAMPLES);
+            }
+        }
+
         @Override
         public boolean handleMessage(Message message) {
             switch (message.what) {
@@ -280,12 +322,17 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     }
                     return true;
                 case MSG_FETCH_SAMPLES:
+                    mFetchScheduled.set(false);
+                    if (mMediaPeriod == null) {
+                        // Already released.
+                        return true;
+                    }
+                    mWaitingForData.set(false);
+                    long dataAvailableCount = mDataAvailableCount.get();
                     boolean didSomething = false;
-                    ConditionVariable conditionVariable = new ConditionVariable();
                     int trackCount = mStreams.length;
                     for (int i = 0; i < trackCount; ++i) {
-                        if (!mTrackMetEos[i]
-                                && C.RESULT_NOTHING_READ != fetchSample(i, conditionVariable)) {
+                        if (!mTrackMetEos[i] && C.RESULT_NOTHING_READ != fetchSample(i)) {
                             if (mMetEos) {
                                 // If mMetEos was on during fetchSample() due to an error,
                                 // fetching from other tracks is not necessary.
@@ -297,7 +344,19 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     mMediaPeriod.continueLoading(mCurrentPosition);
                     if (!mMetEos) {
                         if (didSomething) {
-                            mSourceReaderHandler.sendEmptyMessage(MSG_FETCH_SAMPLES);
+                            scheduleFetch();
+                        } else if (mDataAvailableNotified) {
+                            // Waits for the new samples. onDataAvailable() replaces the timeout
+                            // with an immediate fetch.
+                            mWaitingForData.set(true);
+                            if (mDataAvailableCount.get() != dataAvailableCount
+                                    && mWaitingForData.compareAndSet(true, false)) {
+                                // Samples were queued during the fetch.
+                                scheduleFetch();
+                            } else {
+                                mSourceReaderHandler.sendEmptyMessageDelayed(
+                                        MSG_FETCH_SAMPLES, DATA_WAIT_TIMEOUT_MS);
+                            }
                         } else {
                             mSourceReaderHandler.sendEmptyMessageDelayed(
                                     MSG_FETCH_SAMPLES, RETRY_INTERVAL_MS);
@@ -320,10 +379,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             return false;
         }
 
-        private int fetchSample(int track, ConditionVariable conditionVariable) {
-            FormatHolder dummyFormatHolder = new FormatHolder();
+        private int fetchSample(int track) {
             mDecoderInputBuffer.clear();
-            int ret = mStreams[track].readData(dummyFormatHolder, mDecoderInputBuffer, false);
+            int ret = mStreams[track].readData(mFormatHolder, mDecoderInputBuffer, false);
             if (ret == C.RESULT_BUFFER_READ
                     // Double-check if the extractor provided the data to prevent NPE. b/33758354
                     && mDecoderInputBuffer.data != null) {
@@ -342,7 +400,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                                 track,
                                 Math.max(lastExtractedPositionUs, mDecoderInputBuffer.timeUs));
                     }
-                    queueSample(track, conditionVariable);
+                    queueSample(track);
                 } catch (IOException e) {
                     mLastExtractedPositionUsMap.clear();
                     mMetEos = true;
@@ -364,8 +422,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             return ret;
         }
 
-        private void queueSample(int index, ConditionVariable conditionVariable)
-                throws IOException {
+        private void queueSample(int index) throws IOException {
             if (mVideoTrackIndex != INVALID_TRACK_INDEX) {
                 if (!mVideoTrackMet) {
                     if (index != mVideoTrackIndex) {
@@ -390,7 +447,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     mBaseSamplePts = mDecoderInputBuffer.timeUs - INITIAL_AUDIO_BUFFERING_TIME_US;
                     for (Pair<Integer, DecoderInputBuffer> pair : mPendingSamples) {
                         if (pair.second.timeUs >= mBaseSamplePts) {
-                            mSampleBuffer.writeSample(pair.first, pair.second, conditionVariable);
+                            mSampleBuffer.writeSample(pair.first, pair.second, mConditionVariable);
                         }
                     }
                     mPendingSamples.clear();
@@ -413,12 +470,18 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             mDecoderInputBufferDuplicate.data.position(0);
             mDecoderInputBufferDuplicate.data.put(mDecoderInputBuffer.data);
             long writeStartTimeNs = SystemClock.elapsedRealtimeNanos();
-            mSampleBuffer.writeSample(index, mDecoderInputBufferDuplicate, conditionVariable);
+            mSampleBuffer.writeSample(index, mDecoderInputBufferDuplicate, mConditionVariable);
+            if (!mFirstSampleWritten) {
+                mFirstSampleWritten = true;
+                long timeToFirstSampleMs = SystemClock.elapsedRealtime() - mPrepareStartTimeMs;
+                Log.i(TAG, "Time to first sample: " + timeToFirstSampleMs + "ms");
+                TunerDebug.setTimeToFirstSampleMs(timeToFirstSampleMs);
+            }
             // Checks whether the storage has enough bandwidth for recording samples.
-            if (mSampleBuffer.isWriteSpeedSlow(
+            if (mSampleBuffer.isWriteSpeedChanged(
                     mDecoderInputBufferDuplicate.data.position(),
                     SystemClock.elapsedRealtimeNanos() - writeStartTimeNs)) {
-                mSampleBuffer.handleWriteSpeedSlow();
+                mSampleBuffer.handleWriteSpeedChange();
             }
         }
     }
@@ -436,6 +499,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
     public void prepare(Callback callback) throws IOException {
         mCallback = callback;
         if (!mSourceReaderThread.isAlive()) {
+            mPrepareStartTimeMs = SystemClock.elapsedRealtime();
             mSourceReaderThread.start();
             mSourceReaderHandler =
                     new Handler(mSourceReaderThread.getLooper(), mSourceReaderWorker);
@@ -490,6 +554,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
 
     @Override
     public void release() {
+        if (mTsDataSource != null) {
+            mTsDataSource.setOnDataAvailableListener(null);
+        }
         if (mSourceReaderThread.isAlive()) {
             mSourceReaderHandler.removeCallbacksAndMessages(null);
             mSourceReaderHandler.sendEmptyMessage(SourceReaderWorker.MSG_RELEASE);
@@ -27,6 +27,7 @@ import android.util.Pair;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.common.util.CommonUtils;
 import com.android.tv.tuner.exoplayer2.SampleExtractor;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
 
@@ -40,32 +41,31 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Reads and writes the {@link SampleChunk} objects during playback and DVR. I/O operations are
  * handled by {@link StorageManager}.
  *
- * <p>The buffer manager is enabled for DVR and it can be disabled for playback, while running, if
- * the write throughput to the associated external storage is detected to be lower than a threshold
- * {@code MINIMUM_DISK_WRITE_SPEED_MBPS}". This leads to restarting playback flow.
+ * <p>The buffer manager is enabled for DVR. For playback, the write throughput to the associated
+ * external storage is continuously measured by {@link WriteSpeedGovernor}. While the storage is
+ * slow the buffer is reduced, and if it stays slow the buffer manager is disabled, which leads to
+ * restarting playback flow.
  */
 public class BufferManager {
     private static final String TAG = "BufferManager";
     private static final boolean DEBUG = false;
 
-    // Constants for the disk write speed checking
-    private static final long MINIMUM_WRITE_SIZE_FOR_SPEED_CHECK =
-            10L * 1024 * 1024; // Checks for every 10M disk write
-    private static final int MINIMUM_SAMPLE_SIZE_FOR_SPEED_CHECK = 15 * 1024;
-    private static final int MAXIMUM_SPEED_CHECK_COUNT = 5; // Checks only 5 times
-    private static final int MINIMUM_DISK_WRITE_SPEED_MBPS = 3; // 3 Megabytes per second
+    // The buffer is limited to 1 / REDUCED_BUFFER_SCALE of the storage max while it's reduced.
+    private static final int REDUCED_BUFFER_SCALE = 4;
 
     private final SampleChunk.SampleChunkCreator mSampleChunkCreator;
     // Maps from track name to a map which maps from starting position to {@link SampleChunk}.
     private final Map<String, SortedMap<Long, Pair<SampleChunk, Integer>>> mChunkMap =
             new ArrayMap<>();
     private final Map<String, Long> mStartPositionMap = new ArrayMap<>();
+    // Maps from track name to the index of all the key frames of the track. Since this is also
+    // accessed by the playback thread, access to the map itself is synchronized on the map.
+    private final Map<String, KeyFrameIndex> mKeyFrameIndexMap = new ArrayMap<>();
     private final Map<String, ChunkEvictedListener> mEvictListeners = new ArrayMap<>();
     private final StorageManager mStorageManager;
     private long mBufferSize = 0;
@@ -74,20 +74,23 @@ public class BufferManager {
             new SampleChunk.ChunkCallback() {
                 @Override
                 public void onChunkWrite(SampleChunk chunk) {
-                    mBufferSize += chunk.getSize();
+                    synchronized (BufferManager.this) {
+                        mBufferSize += chunk.getSize();
+                    }
                 }
 
                 @Override
                 public void onChunkDelete(SampleChunk chunk) {
-                    mBufferSize -= chunk.getSize();
+                    synchronized (BufferManager.this) {
+                        mBufferSize -= chunk.getSize();
+                    }
                 }
             };
 
-    private int mMinSampleSizeForSpeedCheck = MINIMUM_SAMPLE_SIZE_FOR_SPEED_CHECK;
-    private long mTotalWriteSize;
-    private long mTotalWriteTimeNs;
-    private float mWriteBandwidth = 0.0f;
-    private final AtomicInteger mSpeedCheckCount = new AtomicInteger();
+    private final WriteSpeedGovernor mWriteSpeedGovernor = new WriteSpeedGovernor();
+    private volatile boolean mBufferReduced;
+    private volatile boolean mKeyFrameOnlyRead;
+    private volatile boolean mTrackWriterLanesEnabled;
 
     public interface ChunkEvictedListener {
         /**
@@ -132,13 +135,14 @@ public class BufferManager {
         void writeSample(int index, DecoderInputBuffer sample, ConditionVariable conditionVariable)
                 throws IOException;
 
-        /** Checks whether storage write speed is slow. */
-        boolean isWriteSpeedSlow(int sampleSize, long writeDurationNs);
-
         /**
-         * Handles when write speed is slow.
+         * Adds the stat of a sample write and checks whether the level of the storage write speed
+         * has been changed.
          */
-        void handleWriteSpeedSlow();
+        boolean isWriteSpeedChanged(int sampleSize, long writeDurationNs);
+
+        /** Handles when the level of the storage write speed has been changed. */
+        void handleWriteSpeedChange();
 
         /** Sets the flag when EoS was reached. */
         void setEos();
@@ -304,6 +308,28 @@ public class BufferManager {
         void updateIndexFile(
                 String trackName, int size, long position, SampleChunk sampleChunk, int offset)
                 throws IOException;
+
+        /**
+         * Reads the positions of all the key frames of a track from storage.
+         *
+         * @param trackId track name
+         * @return key frame positions of the specified track, {@code null} if not available
+         * @throws IOException if an I/O error occurs.
+         */
+        List<PositionHolder> readKeyFrameIndexFile(String trackId) throws IOException;
+
+        /**
+         * Appends a key frame position to the key frame index file of a track.
+         *
+         * @param trackName track name
+         * @param position position of the key frame in micro seconds
+         * @param sampleChunk {@link SampleChunk} which holds the key frame
+         * @param offset offset of the key frame in the {@link SampleChunk}
+         * @throws IOException if an I/O error occurs.
+         */
+        void updateKeyFrameIndexFile(
+                String trackName, long position, SampleChunk sampleChunk, int offset)
+                throws IOException;
     }
 
     private static class EvictChunkQueueMap {
@@ -367,6 +393,20 @@ public class BufferManager {
         mEvictListeners.remove(id);
     }
 
+    /**
+     * Sets whether each track of a recording should be written by its own writer thread, so that
+     * a slow write of a track doesn't delay the other tracks. The chunk maps and the write stats of
+     * this class are synchronized, so they can be updated by the writer threads.
+     */
+    public void setTrackWriterLanesEnabled(boolean enabled) {
+        mTrackWriterLanesEnabled = enabled;
+    }
+
+    /** Returns whether each track of a recording is written by its own writer thread. */
+    public boolean isTrackWriterLanesEnabled() {
+        return mTrackWriterLanesEnabled;
+    }
+
     private static String getFileName(String id, long positionUs) {
         return String.format(Locale.ENGLISH, "%s_%016x.chunk", id, positionUs);
     }
@@ -383,7 +423,7 @@ public class BufferManager {
      * @return returns the created {@link SampleChunk}.
      * @throws IOException if an I/O error occurs.
      */
-    public SampleChunk createNewWriteFileIfNeeded(
+    public synchronized SampleChunk createNewWriteFileIfNeeded(
             String id,
             long positionUs,
             InputBufferPool inputBufferPool,
@@ -428,7 +468,7 @@ public class BufferManager {
      * @param inputBufferPool {@link InputBufferPool} for the fast creation of samples.
      * @throws IOException if an I/O error occurs.
      */
-    public void loadTrackFromStorage(String trackId, InputBufferPool inputBufferPool)
+    public synchronized void loadTrackFromStorage(String trackId, InputBufferPool inputBufferPool)
             throws IOException {
         ArrayList<PositionHolder> keyPositions = mStorageManager.readIndexFile(trackId);
         long startPositionUs = keyPositions.size() > 0 ? keyPositions.get(0).positionUs : 0;
@@ -456,6 +496,87 @@ public class BufferManager {
             }
             map.put(position.positionUs, Pair.create(chunk, position.offset));
         }
+        List<PositionHolder> keyFrames = mStorageManager.readKeyFrameIndexFile(trackId);
+        if (keyFrames != null && !keyFrames.isEmpty()) {
+            getOrCreateKeyFrameIndex(trackId).reset(keyFrames);
+        }
+    }
+
+    /**
+     * Adds a key frame which has been written to the index of all the key frames of the track.
+     *
+     * @param id the name of the track
+     * @param positionUs the position of the key frame
+     * @param chunk the {@link SampleChunk} where the key frame is written
+     * @param offset the offset of the key frame in the {@link SampleChunk}
+     * @param updateIndexFile {@code true} if the key frame index file should be updated as well
+     * @throws IOException if an I/O error occurs.
+     */
+    public void addKeyFrame(
+            String id, long positionUs, SampleChunk chunk, int offset, boolean updateIndexFile)
+            throws IOException {
+        if (getOrCreateKeyFrameIndex(id).add(positionUs, chunk.getStartPositionUs(), offset)
+                && updateIndexFile) {
+            mStorageManager.updateKeyFrameIndexFile(id, positionUs, chunk, offset);
+        }
+    }
+
+    /**
+     * Returns the position of the nearest key frame in the given direction, or {@link
+     * C#TIME_UNSET} if no track has a key frame index or there is no such key frame.
+     *
+     * @param positionUs the position to start searching from
+     * @param forward {@code true} to find the first key frame at or after the position, {@code
+     *     false} to find the last key frame at or before the position
+     */
+    public long getKeyFramePositionUs(long positionUs, boolean forward) {
+        synchronized (mKeyFrameIndexMap) {
+            for (KeyFrameIndex index : mKeyFrameIndexMap.values()) {
+                if (index.size() > 0) {
+                    return index.getKeyFramePositionUs(positionUs, forward);
+                }
+            }
+        }
+        return C.TIME_UNSET;
+    }
+
+    /**
+     * Sets whether only key frames should be read from tracks which have a key frame index. This
+     * is used for trickplay, so that the decoder is fed with key frames only.
+     */
+    public void setKeyFrameOnlyRead(boolean keyFrameOnly) {
+        mKeyFrameOnlyRead = keyFrameOnly;
+    }
+
+    /**
+     * Returns whether only key frames should be read from the specified track.
+     *
+     * @param id the name of the track
+     */
+    public boolean isKeyFrameOnlyRead(String id) {
+        if (!mKeyFrameOnlyRead) {
+            return false;
+        }
+        synchronized (mKeyFrameIndexMap) {
+            return mKeyFrameIndexMap.containsKey(id);
+        }
+    }
+
+    private KeyFrameIndex getKeyFrameIndex(String id) {
+        synchronized (mKeyFrameIndexMap) {
+            return mKeyFrameIndexMap.get(id);
+        }
+    }
+
+    private KeyFrameIndex getOrCreateKeyFrameIndex(String id) {
+        synchronized (mKeyFrameIndexMap) {
+            KeyFrameIndex index = mKeyFrameIndexMap.get(id);
+            if (index == null) {
+                index = new KeyFrameIndex();
+                mKeyFrameIndexMap.put(id, index);
+            }
+            return index;
+        }
     }
 
     /**
@@ -465,7 +586,7 @@ public class BufferManager {
      * @param positionUs the position.
      * @return returns the found {@link SampleChunk}.
      */
-    public Pair<SampleChunk, Integer> getReadFile(String id, long positionUs) {
+    public synchronized Pair<SampleChunk, Integer> getReadFile(String id, long positionUs) {
         SortedMap<Long, Pair<SampleChunk, Integer>> map = mChunkMap.get(id);
         if (map == null) {
             return null;
@@ -477,6 +598,17 @@ public class BufferManager {
         } else {
             ret = map.get(map.firstKey());
         }
+        // Starts from the exact key frame if it is in the same SampleChunk, so that samples
+        // between the seek index entry and the key frame need not be decoded.
+        KeyFrameIndex keyFrameIndex = getKeyFrameIndex(id);
+        if (keyFrameIndex != null && !headMap.isEmpty()) {
+            PositionHolder keyFrame = keyFrameIndex.getKeyFrameAtOrBefore(positionUs);
+            if (keyFrame != null
+                    && keyFrame.positionUs > headMap.lastKey()
+                    && keyFrame.basePositionUs == ret.first.getStartPositionUs()) {
+                ret = Pair.create(ret.first, keyFrame.offset);
+            }
+        }
         return ret;
     }
 
@@ -487,7 +619,7 @@ public class BufferManager {
      * @param earlierThanPositionUs the start position of the {@link SampleChunk} should be earlier
      *     than
      */
-    public void evictChunks(String id, long earlierThanPositionUs) {
+    public synchronized void evictChunks(String id, long earlierThanPositionUs) {
         SampleChunk chunk;
         while ((chunk = mPendingDelete.poll(id, earlierThanPositionUs)) != null) {
             SampleChunk.IoState.release(chunk, !mStorageManager.isPersistent());
@@ -499,14 +631,15 @@ public class BufferManager {
      *
      * @param id the specified track
      */
-    public long getStartPositionUs(String id) {
+    public synchronized long getStartPositionUs(String id) {
         Long ret = mStartPositionMap.get(id);
         return ret == null ? 0 : ret;
     }
 
     private boolean maybeEvictChunk() {
         long pendingDelete = mPendingDelete.getSize();
-        while (mStorageManager.reachedStorageMax(mBufferSize, pendingDelete)
+        int scale = mBufferReduced ? REDUCED_BUFFER_SCALE : 1;
+        while (mStorageManager.reachedStorageMax(mBufferSize * scale, pendingDelete * scale)
                 || !mStorageManager.hasEnoughBuffer(pendingDelete)) {
             if (mStorageManager.isPersistent()) {
                 // Since chunks are persistent, we cannot evict chunks.
@@ -534,6 +667,10 @@ public class BufferManager {
             }
             mPendingDelete.add(earliestChunkId, earliestChunk);
             earliestChunkMap.remove(earliestChunk.getStartPositionUs());
+            KeyFrameIndex keyFrameIndex = getKeyFrameIndex(earliestChunkId);
+            if (keyFrameIndex != null) {
+                keyFrameIndex.removeChunksUpTo(earliestChunk.getStartPositionUs());
+            }
             if (DEBUG) {
                 Log.d(
                         TAG,
@@ -587,7 +724,7 @@ public class BufferManager {
      * @param videos list of audio track information
      * @throws IOException if an I/O error occurs.
      */
-    public void writeMetaFiles(List<TrackFormat> audios, List<TrackFormat> videos)
+    public synchronized void writeMetaFiles(List<TrackFormat> audios, List<TrackFormat> videos)
             throws IOException {
         if (audios.isEmpty() && videos.isEmpty()) {
             throw new IOException("No track information to save");
@@ -637,7 +774,7 @@ public class BufferManager {
     }
 
     /** Releases all the resources. */
-    public void release() {
+    public synchronized void release() {
         try {
             mPendingDelete.release();
             for (Map.Entry<String, SortedMap<Long, Pair<SampleChunk, Integer>>> entry :
@@ -651,6 +788,9 @@ public class BufferManager {
                 }
             }
             mChunkMap.clear();
+            synchronized (mKeyFrameIndexMap) {
+                mKeyFrameIndexMap.clear();
+            }
         } catch (ConcurrentModificationException | NullPointerException e) {
             // TODO: remove this after it it confirmed that race condition issues are resolved.
             // b/32492258, b/32373376
@@ -659,41 +799,23 @@ public class BufferManager {
         }
     }
 
-    private void resetWriteStat(float writeBandwidth) {
-        mWriteBandwidth = writeBandwidth;
-        mTotalWriteSize = 0;
-        mTotalWriteTimeNs = 0;
-    }
-
-    /** Adds a disk write sample size to calculate the average disk write bandwidth. */
+    /** Adds a disk write sample size to calculate the disk write bandwidth. */
     public void addWriteStat(long size, long timeNs) {
-        if (size >= mMinSampleSizeForSpeedCheck) {
-            mTotalWriteSize += size;
-            mTotalWriteTimeNs += timeNs;
-        }
+        mWriteSpeedGovernor.addWriteStat(size, timeNs);
     }
 
     /**
-     * Returns if the average disk write bandwidth is slower than threshold {@code
-     * MINIMUM_DISK_WRITE_SPEED_MBPS}.
+     * Returns whether the level of the disk write speed has been changed since the last call.
+     *
+     * @see WriteSpeedGovernor
      */
-    public boolean isWriteSlow() {
-        if (mTotalWriteSize < MINIMUM_WRITE_SIZE_FOR_SPEED_CHECK) {
-            return false;
-        }
+    public boolean isWriteSpeedLevelChanged() {
+        return mWriteSpeedGovernor.pollLevelChange();
+    }
 
-        // Checks write speed for only MAXIMUM_SPEED_CHECK_COUNT times to ignore outliers
-        // by temporary system overloading during the playback.
-        if (mSpeedCheckCount.get() > MAXIMUM_SPEED_CHECK_COUNT) {
-            return false;
-        }
-        mSpeedCheckCount.incrementAndGet();
-        float megabytePerSecond = calculateWriteBandwidth();
-        resetWriteStat(megabytePerSecond);
-        if (DEBUG) {
-            Log.d(TAG, "Measured disk write performance: " + megabytePerSecond + "MBps");
-        }
-        return megabytePerSecond < MINIMUM_DISK_WRITE_SPEED_MBPS;
+    /** Returns the current level of the disk write speed. */
+    public @WriteSpeedGovernor.Level int getWriteSpeedLevel() {
+        return mWriteSpeedGovernor.getLevel();
     }
 
     /**
@@ -701,14 +823,15 @@ public class BufferManager {
      * -1.0f}.
      */
     public float getWriteBandwidth() {
-        return mWriteBandwidth == 0.0f ? -1.0f : mWriteBandwidth;
+        return mWriteSpeedGovernor.getBandwidthMbps();
     }
 
-    private float calculateWriteBandwidth() {
-        if (mTotalWriteTimeNs == 0) {
-            return -1;
-        }
-        return ((float) mTotalWriteSize * 1000 / mTotalWriteTimeNs);
+    /**
+     * Sets whether to reduce the buffer. While the buffer is reduced, older chunks are evicted
+     * earlier, which relieves the storage of the buffer.
+     */
+    public void setBufferReduced(boolean reduced) {
+        mBufferReduced = reduced;
     }
 
     /**
@@ -717,7 +840,7 @@ public class BufferManager {
      */
     @VisibleForTesting
     public boolean hasSpeedCheckDone() {
-        return mSpeedCheckCount.get() > 0;
+        return mWriteSpeedGovernor.hasEvaluated();
     }
 
     /**
@@ -727,6 +850,6 @@ public class BufferManager {
      */
     @VisibleForTesting
     public void setMinimumSampleSizeForSpeedCheck(int sampleSize) {
-        mMinSampleSizeForSpeedCheck = sampleSize;
+        mWriteSpeedGovernor.setMinimumSampleSize(sampleSize);
     }
 }
@@ -20,6 +20,7 @@ import android.media.MediaFormat;
 import android.util.Log;
 import android.util.Pair;
 import com.android.tv.tuner.data.Track.AtscCaptionTrack;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -47,6 +48,9 @@ public class DvrStorageManager implements BufferManager.StorageManager {
     private static final String META_FILE_SUFFIX = ".meta";
     private static final String IDX_FILE_SUFFIX = ".idx";
     private static final String IDX_FILE_SUFFIX_V2 = IDX_FILE_SUFFIX + "2";
+    private static final String KEY_FRAME_IDX_FILE_SUFFIX = ".kidx";
+    // Key frame index entry = position : long, base position : long, offset : int
+    private static final int KEY_FRAME_IDX_ENTRY_LENGTH = 20;
 
     // Size of minimum reserved storage buffer which will be used to save meta files
     // and index files after actual recording finished.
@@ -261,6 +265,29 @@ public class DvrStorageManager implements BufferManager.StorageManager {
         }
     }
 
+    @Override
+    public List<BufferManager.PositionHolder> readKeyFrameIndexFile(String trackId)
+            throws IOException {
+        File file = new File(getBufferDir(), trackId + KEY_FRAME_IDX_FILE_SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+        // The file may be being appended by an ongoing recording, so a partially written entry
+        // at the end is ignored.
+        long count = file.length() / KEY_FRAME_IDX_ENTRY_LENGTH;
+        List<BufferManager.PositionHolder> keyFrames = new ArrayList<>((int) count);
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (long i = 0; i < count; ++i) {
+                long positionUs = in.readLong();
+                long basePositionUs = in.readLong();
+                int offset = in.readInt();
+                keyFrames.add(new BufferManager.PositionHolder(positionUs, basePositionUs, offset));
+            }
+        }
+        return keyFrames;
+    }
+
     private void writeFormatInt(DataOutputStream out, MediaFormat mediaFormat, String key)
             throws IOException {
         if (mediaFormat.containsKey(key)) {
@@ -406,4 +433,17 @@ public class DvrStorageManager implements BufferManager.StorageManager {
         accessFile.writeInt(offset);
         accessFile.close();
     }
+
+    @Override
+    public void updateKeyFrameIndexFile(
+            String trackName, long position, SampleChunk sampleChunk, int offset)
+            throws IOException {
+        File indexFile = new File(getBufferDir(), trackName + KEY_FRAME_IDX_FILE_SUFFIX);
+        ByteBuffer entry = ByteBuffer.allocate(KEY_FRAME_IDX_ENTRY_LENGTH);
+        entry.putLong(position).putLong(sampleChunk.getStartPositionUs()).putInt(offset);
+        // Writes an entry at once, so that a concurrent reader only sees a partial last entry.
+        try (FileOutputStream out = new FileOutputStream(indexFile, true)) {
+            out.write(entry.array());
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2020 The Android Open Source Project
+ * Copyright (C) 2019 The Android Open Source Project
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,54 +16,192 @@
 
 package com.android.tv.tuner.exoplayer2.buffer;
 
+import com.android.tv.tuner.tvinput.debug.TunerDebug;
+
 import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of samples to recycle ByteBuffers as much as possible.
+ *
+ * <p>Samples are kept in size classes which are a quarter of an octave apart, so a sample is
+ * acquired and released without scanning the pool or taking a lock. Each size class retains a
+ * bounded number of samples, so the pool does not keep growing after a bitrate spike.
+ */
+public class InputBufferPool implements TunerDebug.SamplePoolStats {
+    /** The default number of samples which are retained per size class. */
+    public static final int DEFAULT_MAX_RETAINED_SAMPLES_PER_CLASS = 16;
+
+    private static final int MIN_CLASS_CAPACITY = 256;
+    private static final int MAX_CLASS_CAPACITY = 8 * 1024 * 1024;
+    private static final int CLASSES_PER_OCTAVE = 4;
+    private static final int[] CLASS_CAPACITIES = createClassCapacities();
+
+    private final int mMaxRetainedSamplesPerClass;
+    private final List<Queue<DecoderInputBuffer>> mPools;
+    private final AtomicIntegerArray mRetainedCounts;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mResizeCount = new AtomicLong();
+    private final AtomicLong mDiscardCount = new AtomicLong();
 
-/** Pool of samples to recycle ByteBuffers as much as possible. */
-public class InputBufferPool {
-    private final LinkedList<DecoderInputBuffer> mInputBufferPool = new LinkedList<>();
+    public InputBufferPool() {
+        this(DEFAULT_MAX_RETAINED_SAMPLES_PER_CLASS);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxRetainedSamplesPerClass the maximum number of samples which are kept per size
+     *     class. Released samples over the limit are left for garbage collection.
+     */
+    public InputBufferPool(int maxRetainedSamplesPerClass) {
+        mMaxRetainedSamplesPerClass = maxRetainedSamplesPerClass;
+        mPools = new ArrayList<>(CLASS_CAPACITIES.length);
+        for (int i = 0; i < CLASS_CAPACITIES.length; ++i) {
+            mPools.add(new ConcurrentLinkedQueue<>());
+        }
+        mRetainedCounts = new AtomicIntegerArray(CLASS_CAPACITIES.length);
+        if (TunerDebug.ENABLED) {
+            TunerDebug.addSamplePool(this);
+        }
+    }
 
     /**
      * Acquires a sample with a buffer larger than size from the pool. Allocate new one or resize an
      * existing buffer if necessary.
      */
-    public synchronized DecoderInputBuffer acquireSample(int size) {
-        if (mInputBufferPool.isEmpty()) {
-            DecoderInputBuffer sample =
-                    new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
-            sample.ensureSpaceForWrite(size);
-            return sample;
+    public DecoderInputBuffer acquireSample(int size) {
+        int sizeClass = getSizeClassFor(size);
+        if (sizeClass < 0) {
+            // Too large to be pooled.
+            mMissCount.incrementAndGet();
+            return createSample(size);
         }
-        DecoderInputBuffer smallestSufficientSample = null;
-        DecoderInputBuffer maxSample = mInputBufferPool.getFirst();
-        for (DecoderInputBuffer sample : mInputBufferPool) {
-            // Grab the smallest sufficient sample.
-            if (sample.data.capacity() >= size
-                    && (smallestSufficientSample == null
-                            || smallestSufficientSample.data.capacity() > sample.data.capacity())) {
-                smallestSufficientSample = sample;
-            }
-
-            // Grab the max size sample.
-            if (maxSample.data.capacity() < sample.data.capacity()) {
-                maxSample = sample;
+        // Grab the smallest sufficient sample within an octave.
+        int maxSizeClass = Math.min(sizeClass + CLASSES_PER_OCTAVE, mPools.size() - 1);
+        for (int i = sizeClass; i <= maxSizeClass; ++i) {
+            DecoderInputBuffer sample = poll(i);
+            if (sample != null) {
+                mHitCount.incrementAndGet();
+                return sample;
             }
         }
-        DecoderInputBuffer sampleFromPool = smallestSufficientSample;
-
-        // If there's no sufficient sample, grab the maximum sample and resize it to size.
-        if (sampleFromPool == null) {
-            sampleFromPool = maxSample;
-            sampleFromPool.ensureSpaceForWrite(size);
+        // If there's no sufficient sample, grab the largest smaller sample and resize it.
+        for (int i = sizeClass - 1; i >= 0; --i) {
+            DecoderInputBuffer sample = poll(i);
+            if (sample != null) {
+                mResizeCount.incrementAndGet();
+                sample.ensureSpaceForWrite(CLASS_CAPACITIES[sizeClass]);
+                return sample;
+            }
         }
-        mInputBufferPool.remove(sampleFromPool);
-        return sampleFromPool;
+        mMissCount.incrementAndGet();
+        return createSample(CLASS_CAPACITIES[sizeClass]);
     }
 
     /** Releases the sample back to the pool. */
-    public synchronized void releaseSample(DecoderInputBuffer sample) {
+    public void releaseSample(DecoderInputBuffer sample) {
         sample.clear();
-        mInputBufferPool.offerLast(sample);
+        int sizeClass = sample.data == null ? -1 : getSizeClassOf(sample.data.capacity());
+        if (sizeClass < 0) {
+            mDiscardCount.incrementAndGet();
+            return;
+        }
+        if (mRetainedCounts.incrementAndGet(sizeClass) > mMaxRetainedSamplesPerClass) {
+            mRetainedCounts.decrementAndGet(sizeClass);
+            mDiscardCount.incrementAndGet();
+            return;
+        }
+        mPools.get(sizeClass).offer(sample);
+    }
+
+    /** Returns the number of acquisitions which were served by a pooled sample as it is. */
+    @Override
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Returns the number of acquisitions which needed a newly allocated sample. */
+    @Override
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /** Returns the number of acquisitions which were served by resizing a smaller sample. */
+    @Override
+    public long getResizeCount() {
+        return mResizeCount.get();
+    }
+
+    /** Returns the number of released samples which were not kept by the pool. */
+    @Override
+    public long getDiscardCount() {
+        return mDiscardCount.get();
+    }
+
+    /** Returns the number of samples which are currently kept by the pool. */
+    @Override
+    public int getRetainedCount() {
+        int count = 0;
+        for (int i = 0; i < mRetainedCounts.length(); ++i) {
+            count += mRetainedCounts.get(i);
+        }
+        return count;
+    }
+
+    private DecoderInputBuffer poll(int sizeClass) {
+        DecoderInputBuffer sample = mPools.get(sizeClass).poll();
+        if (sample != null) {
+            mRetainedCounts.decrementAndGet(sizeClass);
+        }
+        return sample;
+    }
+
+    private static DecoderInputBuffer createSample(int capacity) {
+        DecoderInputBuffer sample =
+                new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(capacity);
+        return sample;
+    }
+
+    /** Returns the smallest size class whose samples can hold size bytes, or -1 if none. */
+    private static int getSizeClassFor(int size) {
+        int index = Arrays.binarySearch(CLASS_CAPACITIES, size);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < CLASS_CAPACITIES.length ? index : -1;
+    }
+
+    /** Returns the largest size class whose samples fit in capacity bytes, or -1 if none. */
+    private static int getSizeClassOf(int capacity) {
+        int index = Arrays.binarySearch(CLASS_CAPACITIES, capacity);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    private static int[] createClassCapacities() {
+        int octaves =
+                Integer.numberOfTrailingZeros(MAX_CLASS_CAPACITY)
+                        - Integer.numberOfTrailingZeros(MIN_CLASS_CAPACITY);
+        int[] capacities = new int[octaves * CLASSES_PER_OCTAVE + 1];
+        for (int i = 0; i < capacities.length; ++i) {
+            capacities[i] =
+                    (int)
+                            Math.ceil(
+                                    MIN_CLASS_CAPACITY
+                                            * Math.pow(2, (double) i / CLASSES_PER_OCTAVE));
+        }
+        return capacities;
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import com.google.android.exoplayer2.C;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of every key frame of a track, which maps the PTS of a key frame to the {@link
+ * SampleChunk} and the file offset where the key frame is stored.
+ *
+ * <p>Unlike the seek index of {@link BufferManager}, which has an entry per {@code
+ * MIN_SEEK_DURATION_US}, this has an entry for each key frame so that trickplay can jump from a key
+ * frame to another key frame without decoding samples in between. Key frames are written by the
+ * I/O thread and looked up by the playback thread, so all the methods are synchronized.
+ */
+class KeyFrameIndex {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] mPositionsUs = new long[INITIAL_CAPACITY];
+    private long[] mChunkPositionsUs = new long[INITIAL_CAPACITY];
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * Adds a key frame. Key frames should be added in the order of their positions, so a key frame
+     * which is not later than the last one is ignored.
+     *
+     * @param positionUs the PTS of the key frame
+     * @param chunkPositionUs the start position of the {@link SampleChunk} holding the key frame
+     * @param offset the file offset of the key frame in the {@link SampleChunk}
+     * @return {@code true} if the key frame is added
+     */
+    synchronized boolean add(long positionUs, long chunkPositionUs, int offset) {
+        if (mSize > 0 && positionUs <= mPositionsUs[mSize - 1]) {
+            return false;
+        }
+        if (mSize == mPositionsUs.length) {
+            int capacity = mSize * 2;
+            mPositionsUs = Arrays.copyOf(mPositionsUs, capacity);
+            mChunkPositionsUs = Arrays.copyOf(mChunkPositionsUs, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+        }
+        mPositionsUs[mSize] = positionUs;
+        mChunkPositionsUs[mSize] = chunkPositionUs;
+        mOffsets[mSize] = offset;
+        ++mSize;
+        return true;
+    }
+
+    /** Replaces all the key frames with the given ones which were read from storage. */
+    synchronized void reset(List<BufferManager.PositionHolder> keyFrames) {
+        mSize = 0;
+        for (BufferManager.PositionHolder keyFrame : keyFrames) {
+            add(keyFrame.positionUs, keyFrame.basePositionUs, keyFrame.offset);
+        }
+    }
+
+    /**
+     * Removes key frames which are stored in the {@link SampleChunk}s starting at or before the
+     * given position.
+     */
+    synchronized void removeChunksUpTo(long chunkPositionUs) {
+        int count = 0;
+        while (count < mSize && mChunkPositionsUs[count] <= chunkPositionUs) {
+            ++count;
+        }
+        if (count == 0) {
+            return;
+        }
+        mSize -= count;
+        System.arraycopy(mPositionsUs, count, mPositionsUs, 0, mSize);
+        System.arraycopy(mChunkPositionsUs, count, mChunkPositionsUs, 0, mSize);
+        System.arraycopy(mOffsets, count, mOffsets, 0, mSize);
+    }
+
+    /**
+     * Returns the key frame which is at or before the given position, or {@code null} if there is
+     * no such key frame.
+     */
+    synchronized BufferManager.PositionHolder getKeyFrameAtOrBefore(long positionUs) {
+        int index = floorIndex(positionUs);
+        return index < 0
+                ? null
+                : new BufferManager.PositionHolder(
+                        mPositionsUs[index], mChunkPositionsUs[index], mOffsets[index]);
+    }
+
+    /**
+     * Returns the position of the nearest key frame in the given direction, or {@link
+     * C#TIME_UNSET} if there is no such key frame.
+     *
+     * @param positionUs the position to start searching from
+     * @param forward {@code true} to find the first key frame at or after the position, {@code
+     *     false} to find the last key frame at or before the position
+     */
+    synchronized long getKeyFramePositionUs(long positionUs, boolean forward) {
+        int index = floorIndex(positionUs);
+        if (forward && (index < 0 || mPositionsUs[index] < positionUs)) {
+            ++index;
+        }
+        return index < 0 || index >= mSize ? C.TIME_UNSET : mPositionsUs[index];
+    }
+
+    /** Returns the number of key frames in the index. */
+    synchronized int size() {
+        return mSize;
+    }
+
+    private int floorIndex(long positionUs) {
+        int index = Arrays.binarySearch(mPositionsUs, 0, mSize, positionUs);
+        return index >= 0 ? index : -index - 2;
+    }
+}
@@ -113,14 +113,14 @@ public class MemorySampleBuffer implements BufferManager.SampleBuffer {
     }
 
     @Override
-    public boolean isWriteSpeedSlow(int sampleSize, long durationNs) {
+    public boolean isWriteSpeedChanged(int sampleSize, long durationNs) {
         // Since MemorySampleBuffer write samples only to memory (not to physical storage),
         // write speed is always fine.
         return false;
     }
 
     @Override
-    public void handleWriteSpeedSlow() {
+    public void handleWriteSpeedChange() {
         // no-op
     }
 
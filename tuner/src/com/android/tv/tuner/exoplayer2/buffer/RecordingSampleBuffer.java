@@ -191,30 +191,50 @@ public class RecordingSampleBuffer
     }
 
     @Override
-    public boolean isWriteSpeedSlow(int sampleSize, long writeDurationNs) {
+    public boolean isWriteSpeedChanged(int sampleSize, long writeDurationNs) {
         if (mBufferReason == BUFFER_REASON_RECORDED_PLAYBACK) {
             return false;
         }
-        mBufferManager.addWriteStat(sampleSize, writeDurationNs);
-        return mBufferManager.isWriteSlow();
+        if (!mSampleChunkIoHelper.hasWriterLanes()) {
+            // Writer lanes add the stats of the actual writes by themselves, since the given
+            // duration is only for queueing the sample.
+            mBufferManager.addWriteStat(sampleSize, writeDurationNs);
+        }
+        return mBufferManager.isWriteSpeedLevelChanged();
     }
 
     @Override
-    public void handleWriteSpeedSlow() {
+    public void handleWriteSpeedChange() {
+        int level = mBufferManager.getWriteSpeedLevel();
         if (mBufferReason == BUFFER_REASON_RECORDING) {
             // Recording does not need to stop because I/O speed is slow temporarily.
             // If fixed size buffer of TsStreamer overflows, TsDataSource will reach EoS.
             // Reaching EoS will stop recording eventually.
-            Log.w(
-                    TAG,
-                    "Disk I/O speed is slow for recording temporarily: "
-                            + mBufferManager.getWriteBandwidth()
-                            + "MBps");
+            if (level != WriteSpeedGovernor.LEVEL_NORMAL) {
+                Log.w(
+                        TAG,
+                        "Disk I/O speed is slow for recording temporarily: "
+                                + mBufferManager.getWriteBandwidth()
+                                + "MBps");
+            }
             return;
         }
-        // Disables buffering samples afterwards, and notifies the disk speed is slow.
-        Log.w(TAG, "Disk is too slow for trickplay");
-        mBufferListener.onDiskTooSlow();
+        switch (level) {
+            case WriteSpeedGovernor.LEVEL_NORMAL:
+                Log.i(TAG, "Disk speed is recovered for trickplay");
+                mBufferManager.setBufferReduced(false);
+                break;
+            case WriteSpeedGovernor.LEVEL_REDUCED_BUFFER:
+                Log.w(TAG, "Disk is slow for trickplay, reducing the buffer");
+                mBufferManager.setBufferReduced(true);
+                break;
+            case WriteSpeedGovernor.LEVEL_MEMORY_ONLY:
+                // Disables buffering samples afterwards, and notifies the disk speed is slow.
+                Log.w(TAG, "Disk is too slow for trickplay");
+                mBufferListener.onDiskTooSlow();
+                break;
+            default: // fall out
+        }
     }
 
     @Override
@@ -26,7 +26,6 @@ import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
 
 /**
  * {@link SampleChunk} stores samples into file and makes them available for read. Stored file = {
@@ -52,15 +51,13 @@ public class SampleChunk {
     private final long mStartPositionUs;
     private SampleChunk mNextChunk;
 
-    // Header = sample size : int, sample flag : int, sample PTS in micro second : long
-    private static final int SAMPLE_HEADER_LENGTH = 16;
-
     private final File mFile;
     private final ChunkCallback mChunkCallback;
     private final InputBufferPool mInputBufferPool;
     private RandomAccessFile mAccessFile;
-    private long mWriteOffset;
-    private boolean mWriteFinished;
+    // Written by the writer thread and read by the reader thread.
+    private volatile long mWriteOffset;
+    private volatile boolean mWriteFinished;
     private boolean mIsReading;
     private boolean mIsWriting;
 
@@ -141,8 +138,10 @@ public class SampleChunk {
      */
     @VisibleForTesting
     static class IoState {
+        private final SampleChunkIoEngine mIoEngine = new SampleChunkIoEngine();
         private SampleChunk mChunk;
         private long mCurrentOffset;
+        private boolean mKeyFrameOnly;
 
         private boolean equals(SampleChunk chunk, long offset) {
             return chunk == mChunk && mCurrentOffset == offset;
@@ -153,6 +152,14 @@ public class SampleChunk {
             return mChunk == null;
         }
 
+        /**
+         * Sets whether only key frames should be read. Other samples are skipped by their headers
+         * without reading their payloads.
+         */
+        void setKeyFrameOnly(boolean keyFrameOnly) {
+            mKeyFrameOnly = keyFrameOnly;
+        }
+
         /** Returns the start position of the current SampleChunk */
         long getStartPositionUs() {
             return mChunk == null ? 0 : mChunk.getStartPositionUs();
@@ -208,6 +215,8 @@ public class SampleChunk {
                 mChunk.closeRead();
                 if (next != null) {
                     next.openRead();
+                } else {
+                    mIoEngine.release();
                 }
                 reset(next);
             }
@@ -384,24 +393,29 @@ public class SampleChunk {
                 return null;
             }
         }
-        mAccessFile.seek(offset);
-        int size = mAccessFile.readInt();
+        SampleChunkIoEngine ioEngine = state.mIoEngine;
+        ioEngine.readSampleHeader(this, mAccessFile.getChannel(), offset, mWriteOffset);
+        while (state.mKeyFrameOnly && !isKeyFrame(ioEngine.getSampleFlags())) {
+            offset += ioEngine.getSampleSize() + SampleChunkIoEngine.SAMPLE_HEADER_LENGTH;
+            if (offset >= mWriteOffset) {
+                // No more key frame is available in this chunk for now.
+                state.mCurrentOffset = offset;
+                return null;
+            }
+            ioEngine.readSampleHeader(this, mAccessFile.getChannel(), offset, mWriteOffset);
+        }
+        int size = ioEngine.getSampleSize();
         DecoderInputBuffer sample = mInputBufferPool.acquireSample(size);
-        int flags = mAccessFile.readInt();
+        int flags = ioEngine.getSampleFlags();
         flags = (isKeyFrame(flags) ? C.BUFFER_FLAG_KEY_FRAME : 0)
                 | (isDecodeOnly(flags) ? C.BUFFER_FLAG_DECODE_ONLY : 0)
                 | (isEncrypted(flags) ? C.BUFFER_FLAG_ENCRYPTED : 0);
         sample.setFlags(flags);
-        sample.timeUs = mAccessFile.readLong();
+        sample.timeUs = ioEngine.getSampleTimeUs();
         sample.data.clear();
-        sample.data.put(
-                mAccessFile
-                        .getChannel()
-                        .map(
-                                FileChannel.MapMode.READ_ONLY,
-                                offset + SAMPLE_HEADER_LENGTH,
-                                size));
-        offset += size + SAMPLE_HEADER_LENGTH;
+        ioEngine.readSamplePayload(
+                this, mAccessFile.getChannel(), offset, mWriteOffset, sample.data);
+        offset += size + SampleChunkIoEngine.SAMPLE_HEADER_LENGTH;
         state.mCurrentOffset = offset;
         return sample;
     }
@@ -424,17 +438,14 @@ public class SampleChunk {
             throw new IllegalStateException("Requested write for wrong SampleChunk");
         }
 
-        mAccessFile.seek(mWriteOffset);
         int size = sample.data.position();
-        mAccessFile.writeInt(size);
         int flags = (sample.isKeyFrame() ? BUFFER_FLAG_KEY_FRAME : 0)
                 | (sample.isDecodeOnly() ? BUFFER_FLAG_DECODE_ONLY : 0)
                 | (sample.isEncrypted() ? BUFFER_FLAG_ENCRYPTED : 0);
-        mAccessFile.writeInt(flags);
-        mAccessFile.writeLong(sample.timeUs);
         sample.data.position(0).limit(size);
-        mAccessFile.getChannel().position(mWriteOffset + SAMPLE_HEADER_LENGTH).write(sample.data);
-        mWriteOffset += size + SAMPLE_HEADER_LENGTH;
+        mWriteOffset +=
+                state.mIoEngine.writeSample(
+                        mAccessFile.getChannel(), mWriteOffset, flags, sample.timeUs, sample.data);
         state.mCurrentOffset = mWriteOffset;
     }
 
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Performs file I/O for {@link SampleChunk}s on behalf of a single {@link SampleChunk.IoState}.
+ *
+ * <p>Reads are served from a read-ahead window which is filled by a single positional read, so
+ * consecutive sample headers and small payloads do not need a system call each. Payloads which do
+ * not fit into the window are read directly into the destination buffer. A sample is written by a
+ * single gathering write of its header and payload.
+ *
+ * <p>The on-disk format is the same as before: { Header, Sample } * N where Header = sample size :
+ * int, sample flag : int, sample PTS in micro second : long, all in big-endian.
+ */
+final class SampleChunkIoEngine {
+    // Header = sample size : int, sample flag : int, sample PTS in micro second : long
+    static final int SAMPLE_HEADER_LENGTH = 16;
+
+    // Large enough to hold a number of audio samples or a typical SD/HD video frame.
+    private static final int READ_AHEAD_WINDOW_SIZE = 256 * 1024;
+
+    private final ByteBuffer mHeaderBuffer = ByteBuffer.allocate(SAMPLE_HEADER_LENGTH);
+    private final ByteBuffer[] mWriteBuffers = new ByteBuffer[2];
+
+    private ByteBuffer mWindow;
+    private Object mWindowOwner;
+    private long mWindowStart;
+    private int mWindowLength;
+
+    private int mSampleSize;
+    private int mSampleFlags;
+    private long mSampleTimeUs;
+
+    /**
+     * Reads the header of the sample which starts at the given offset. The header fields are
+     * available via {@link #getSampleSize()}, {@link #getSampleFlags()} and {@link
+     * #getSampleTimeUs()} afterwards.
+     *
+     * @param owner the {@link SampleChunk} which is backed by the channel
+     * @param channel the channel to read from
+     * @param offset the offset of the sample
+     * @param endOffset the offset up to which the channel holds completely written samples
+     * @throws IOException if an I/O error occurs.
+     */
+    void readSampleHeader(Object owner, FileChannel channel, long offset, long endOffset)
+            throws IOException {
+        if (!isInWindow(owner, offset, SAMPLE_HEADER_LENGTH)) {
+            fillWindow(owner, channel, offset, endOffset);
+        }
+        if (isInWindow(owner, offset, SAMPLE_HEADER_LENGTH)) {
+            int position = (int) (offset - mWindowStart);
+            mSampleSize = mWindow.getInt(position);
+            mSampleFlags = mWindow.getInt(position + 4);
+            mSampleTimeUs = mWindow.getLong(position + 8);
+        } else {
+            // The header lies beyond the known end of the chunk.
+            mHeaderBuffer.clear();
+            readFully(channel, mHeaderBuffer, offset);
+            mSampleSize = mHeaderBuffer.getInt(0);
+            mSampleFlags = mHeaderBuffer.getInt(4);
+            mSampleTimeUs = mHeaderBuffer.getLong(8);
+        }
+    }
+
+    /**
+     * Reads the payload of the sample whose header was read last by {@link #readSampleHeader}.
+     *
+     * @param owner the {@link SampleChunk} which is backed by the channel
+     * @param channel the channel to read from
+     * @param offset the offset of the sample
+     * @param endOffset the offset up to which the channel holds completely written samples
+     * @param dst the buffer where the payload is put into
+     * @throws IOException if an I/O error occurs.
+     */
+    void readSamplePayload(
+            Object owner, FileChannel channel, long offset, long endOffset, ByteBuffer dst)
+            throws IOException {
+        long payloadOffset = offset + SAMPLE_HEADER_LENGTH;
+        int size = mSampleSize;
+        if (!isInWindow(owner, payloadOffset, size) && size <= READ_AHEAD_WINDOW_SIZE) {
+            fillWindow(owner, channel, payloadOffset, endOffset);
+        }
+        if (isInWindow(owner, payloadOffset, size)) {
+            int position = (int) (payloadOffset - mWindowStart);
+            mWindow.limit(position + size).position(position);
+            dst.put(mWindow);
+            mWindow.clear();
+        } else {
+            int limit = dst.limit();
+            dst.limit(dst.position() + size);
+            try {
+                readFully(channel, dst, payloadOffset);
+            } finally {
+                dst.limit(limit);
+            }
+        }
+    }
+
+    /** Returns the size of the sample whose header was read last. */
+    int getSampleSize() {
+        return mSampleSize;
+    }
+
+    /** Returns the flags of the sample whose header was read last, as they are stored on disk. */
+    int getSampleFlags() {
+        return mSampleFlags;
+    }
+
+    /** Returns the PTS of the sample whose header was read last. */
+    long getSampleTimeUs() {
+        return mSampleTimeUs;
+    }
+
+    /**
+     * Writes a sample at the given offset with a single gathering write.
+     *
+     * @param channel the channel to write to
+     * @param offset the offset where the sample will be written
+     * @param flags the flags of the sample as they should be stored on disk
+     * @param timeUs the PTS of the sample
+     * @param data the payload of the sample between its position and limit
+     * @return the number of bytes written including the header
+     * @throws IOException if an I/O error occurs.
+     */
+    long writeSample(FileChannel channel, long offset, int flags, long timeUs, ByteBuffer data)
+            throws IOException {
+        int size = data.remaining();
+        mHeaderBuffer.clear();
+        mHeaderBuffer.putInt(size).putInt(flags).putLong(timeUs).flip();
+        mWriteBuffers[0] = mHeaderBuffer;
+        mWriteBuffers[1] = data;
+        try {
+            channel.position(offset);
+            while (mHeaderBuffer.hasRemaining() || data.hasRemaining()) {
+                channel.write(mWriteBuffers);
+            }
+        } finally {
+            mWriteBuffers[1] = null;
+        }
+        return size + SAMPLE_HEADER_LENGTH;
+    }
+
+    /** Drops the contents of the read-ahead window and releases its memory. */
+    void release() {
+        mWindow = null;
+        mWindowOwner = null;
+        mWindowLength = 0;
+    }
+
+    private boolean isInWindow(Object owner, long offset, int length) {
+        return mWindowOwner == owner
+                && owner != null
+                && offset >= mWindowStart
+                && offset + length <= mWindowStart + mWindowLength;
+    }
+
+    private void fillWindow(Object owner, FileChannel channel, long offset, long endOffset)
+            throws IOException {
+        if (mWindow == null) {
+            mWindow = ByteBuffer.allocateDirect(READ_AHEAD_WINDOW_SIZE);
+        }
+        // Since samples are only appended, bytes before endOffset will not change afterwards.
+        mWindowOwner = owner;
+        mWindowStart = offset;
+        mWindowLength = 0;
+        long available = endOffset - offset;
+        if (available <= 0) {
+            return;
+        }
+        mWindow.clear();
+        mWindow.limit((int) Math.min(READ_AHEAD_WINDOW_SIZE, available));
+        readFully(channel, mWindow, offset);
+        mWindowLength = mWindow.position();
+        mWindow.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long offset)
+            throws IOException {
+        long position = offset;
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new EOFException("Reached the end of SampleChunk at " + position);
+            }
+            position += read;
+        }
+    }
+}
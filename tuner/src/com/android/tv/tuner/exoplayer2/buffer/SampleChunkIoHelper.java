@@ -21,6 +21,8 @@ import android.os.ConditionVariable;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
@@ -28,6 +30,7 @@ import android.util.Pair;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.tuner.exoplayer2.buffer.RecordingSampleBuffer.BufferReason;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
 import com.google.android.exoplayer2.mediacodec.MediaFormatUtil;
@@ -36,21 +39,34 @@ import com.google.android.exoplayer2.util.Util;
 import com.google.auto.factory.AutoFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles all {@link SampleChunk} I/O operations. An I/O dedicated thread handles all I/O
  * operations for synchronization.
+ *
+ * <p>For recordings, writes can be handled by a {@link WriterLane} per track instead, when it is
+ * enabled by {@link BufferManager#setTrackWriterLanesEnabled}.
  */
 public class SampleChunkIoHelper implements Handler.Callback {
     private static final String TAG = "SampleChunkIoHelper";
 
     private static final int MAX_READ_BUFFER_SAMPLES = 3;
     private static final int READ_RESCHEDULING_DELAY_MS = 10;
+    // About a second of video samples.
+    private static final int MAX_WRITE_LANE_SAMPLES = 30;
+    private static final long WRITE_LANE_TIMEOUT_MS = 10 * 1000; // 10 seconds
 
     private static final int MSG_OPEN_READ = 1;
     private static final int MSG_OPEN_WRITE = 2;
@@ -69,6 +85,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
     private final BufferManager mBufferManager;
     private final InputBufferPool mInputBufferPool;
     private final IoCallback mIoCallback;
+    @Nullable private final WriterLane[] mWriterLanes;
 
     private Handler mIoHandler;
     private final ConcurrentLinkedQueue<DecoderInputBuffer>[] mReadSampleBuffers;
@@ -81,8 +98,8 @@ public class SampleChunkIoHelper implements Handler.Callback {
     private final long[] mReadChunkOffset;
     private final long[] mReadChunkPositionUs;
     private long mBufferDurationUs = 0;
-    private boolean mWriteEnded;
-    private boolean mErrorNotified;
+    private volatile boolean mWriteEnded;
+    private volatile boolean mErrorNotified;
     private boolean mFinished;
 
     /** A Callback for I/O events. */
@@ -179,6 +196,15 @@ public class SampleChunkIoHelper implements Handler.Callback {
             mReadIoStates[i] = new SampleChunk.IoState();
             mWriteIoStates[i] = new SampleChunk.IoState();
         }
+        if (bufferReason == RecordingSampleBuffer.BUFFER_REASON_RECORDING
+                && bufferManager.isTrackWriterLanesEnabled()) {
+            mWriterLanes = new WriterLane[mTrackCount];
+            for (int i = 0; i < mTrackCount; ++i) {
+                mWriterLanes[i] = new WriterLane(i);
+            }
+        } else {
+            mWriterLanes = null;
+        }
     }
 
     /**
@@ -195,6 +221,11 @@ public class SampleChunkIoHelper implements Handler.Callback {
                 mBufferManager.loadTrackFromStorage(mIds.get(i), mInputBufferPool);
             }
             mWriteEnded = true;
+        } else if (mWriterLanes != null) {
+            for (WriterLane lane : mWriterLanes) {
+                lane.start();
+                lane.queue(Message.obtain(null, MSG_OPEN_WRITE, lane.mIndex));
+            }
         } else {
             for (int i = 0; i < mTrackCount; ++i) {
                 mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_OPEN_WRITE, i));
@@ -289,7 +320,8 @@ public class SampleChunkIoHelper implements Handler.Callback {
      *
      * @param index track index
      * @param sample to write
-     * @param conditionVariable which will be wait until the write is finished
+     * @param conditionVariable which will be wait until the write is finished, or until the sample
+     *     is queued if writer lanes are used
      * @throws IOException if an I/O error occurs.
      */
     public void writeSample(
@@ -299,6 +331,20 @@ public class SampleChunkIoHelper implements Handler.Callback {
         if (mErrorNotified) {
             throw new IOException("Storage I/O error happened");
         }
+        if (mWriterLanes != null) {
+            // The caller reuses the sample once this returns, so a copy is queued.
+            DecoderInputBuffer copy = copySample(sample);
+            try {
+                mWriterLanes[index].queue(
+                        Message.obtain(
+                                null, MSG_WRITE, new IoParams(index, 0, copy, null, null)));
+            } catch (IOException e) {
+                mInputBufferPool.releaseSample(copy);
+                throw e;
+            }
+            conditionVariable.open();
+            return;
+        }
         conditionVariable.close();
         IoParams params = new IoParams(index, 0, sample, conditionVariable, null);
         mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_WRITE, params));
@@ -343,6 +389,39 @@ public class SampleChunkIoHelper implements Handler.Callback {
         mIoHandler.sendEmptyMessage(MSG_CLOSE_WRITE);
     }
 
+    /** Returns whether each track is written by its own {@link WriterLane}. */
+    public boolean hasWriterLanes() {
+        return mWriterLanes != null;
+    }
+
+    /**
+     * Returns the number of samples of the track which are queued but not written yet. This is
+     * always {@code 0} without writer lanes.
+     *
+     * @param index track index
+     */
+    public int getWriteQueueDepth(int index) {
+        return mWriterLanes == null ? 0 : mWriterLanes[index].mQueue.size();
+    }
+
+    /**
+     * Returns the largest number of samples of the track which were queued at the same time.
+     *
+     * @param index track index
+     */
+    public int getMaxWriteQueueDepth(int index) {
+        return mWriterLanes == null ? 0 : mWriterLanes[index].mMaxQueueDepth;
+    }
+
+    /**
+     * Returns the number of writes of the track which had to wait since the queue was full.
+     *
+     * @param index track index
+     */
+    public long getBlockedWriteCount(int index) {
+        return mWriterLanes == null ? 0 : mWriterLanes[index].mBlockedWriteCount.get();
+    }
+
     /**
      * Finishes I/O operations and releases all the resources.
      *
@@ -352,6 +431,26 @@ public class SampleChunkIoHelper implements Handler.Callback {
         if (mIoHandler == null) {
             return;
         }
+        IOException ioException = null;
+        if (mWriterLanes != null) {
+            // Writes the queued samples before the index files are written.
+            for (WriterLane lane : mWriterLanes) {
+                try {
+                    lane.quit();
+                } catch (IOException e) {
+                    // The other lanes and the I/O thread should be finished anyway.
+                    ioException = e;
+                }
+                Log.i(
+                        TAG,
+                        String.format(
+                                Locale.ENGLISH,
+                                "Writer lane of %s: max queue depth %d, blocked writes %d",
+                                mIds.get(lane.mIndex),
+                                lane.mMaxQueueDepth,
+                                lane.mBlockedWriteCount.get()));
+            }
+        }
         // Finishes all I/O operations.
         ConditionVariable conditionVariable = new ConditionVariable();
         mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_RELEASE, conditionVariable));
@@ -391,6 +490,9 @@ public class SampleChunkIoHelper implements Handler.Callback {
             mBufferManager.release();
             mIoHandler.getLooper().quitSafely();
         }
+        if (ioException != null) {
+            throw ioException;
+        }
     }
 
     @Override
@@ -428,14 +530,34 @@ public class SampleChunkIoHelper implements Handler.Callback {
                     return true;
             }
         } catch (IOException e) {
-            mIoCallback.onIoError();
-            mErrorNotified = true;
-            Log.e(TAG, "IoException happened", e);
+            notifyIoError(e);
             return true;
         }
         return false;
     }
 
+    private void notifyIoError(IOException e) {
+        mIoCallback.onIoError();
+        mErrorNotified = true;
+        Log.e(TAG, "IoException happened", e);
+    }
+
+    private DecoderInputBuffer copySample(DecoderInputBuffer sample) {
+        int size = sample.data.position();
+        DecoderInputBuffer copy = mInputBufferPool.acquireSample(size);
+        copy.setFlags(
+                (sample.isDecodeOnly() ? C.BUFFER_FLAG_DECODE_ONLY : 0)
+                        | (sample.isEncrypted() ? C.BUFFER_FLAG_ENCRYPTED : 0)
+                        | (sample.isKeyFrame() ? C.BUFFER_FLAG_KEY_FRAME : 0));
+        copy.timeUs = sample.timeUs;
+        // The caller still reads the position of the sample, so a duplicate is consumed.
+        ByteBuffer data = sample.data.duplicate();
+        data.flip();
+        copy.data.clear();
+        copy.data.put(data);
+        return copy;
+    }
+
     private void doOpenRead(IoParams params) throws IOException {
         int index = params.index;
         mIoHandler.removeMessages(MSG_READ, index);
@@ -499,6 +621,8 @@ public class SampleChunkIoHelper implements Handler.Callback {
                 mIoCallback.onIoReachedEos();
                 return;
             }
+            mReadIoStates[index].setKeyFrameOnly(
+                    mBufferManager.isKeyFrameOnlyRead(mIds.get(index)));
             DecoderInputBuffer sample = mReadIoStates[index].read();
             if (sample != null) {
                 mHandlerReadSampleBuffers[index].offer(sample);
@@ -548,8 +672,11 @@ public class SampleChunkIoHelper implements Handler.Callback {
             DecoderInputBuffer sample = params.sample;
             SampleChunk nextChunk = null;
             if (sample.isKeyFrame()) {
-                if (sample.timeUs > mBufferDurationUs) {
-                    mBufferDurationUs = sample.timeUs;
+                synchronized (this) {
+                    // Writer lanes may update this at the same time.
+                    if (sample.timeUs > mBufferDurationUs) {
+                        mBufferDurationUs = sample.timeUs;
+                    }
                 }
                 if (sample.timeUs >= mWriteIndexEndPositionUs[index]) {
                     SampleChunk currentChunk =
@@ -581,9 +708,24 @@ public class SampleChunkIoHelper implements Handler.Callback {
                     }
                 }
             }
+            boolean isVideoKeyFrame =
+                    sample.isKeyFrame() && MimeTypes.isVideo(mFormats.get(index).sampleMimeType);
+            SampleChunk keyFrameChunk =
+                    nextChunk != null ? nextChunk : mWriteIoStates[index].getChunk();
+            long keyFrameOffset = nextChunk != null ? 0 : mWriteIoStates[index].getOffset();
             mWriteIoStates[params.index].write(params.sample, nextChunk);
+            if (isVideoKeyFrame) {
+                mBufferManager.addKeyFrame(
+                        mIds.get(index),
+                        sample.timeUs,
+                        keyFrameChunk,
+                        (int) keyFrameOffset,
+                        mBufferReason == RecordingSampleBuffer.BUFFER_REASON_RECORDING);
+            }
         } finally {
-            params.conditionVariable.open();
+            if (params.conditionVariable != null) {
+                params.conditionVariable.open();
+            }
         }
     }
 
@@ -591,11 +733,19 @@ public class SampleChunkIoHelper implements Handler.Callback {
         if (mWriteEnded) {
             return;
         }
+        if (mWriterLanes != null) {
+            // Waits until the queued samples are written and the lanes close their chunks.
+            for (WriterLane lane : mWriterLanes) {
+                lane.closeWrite();
+            }
+        }
         mWriteEnded = true;
         boolean readFinished = true;
         for (int i = 0; i < mTrackCount; ++i) {
             readFinished = readFinished && mReadIoStates[i].isReadFinished();
-            mWriteIoStates[i].closeWrite();
+            if (mWriterLanes == null) {
+                mWriteIoStates[i].closeWrite();
+            }
         }
         if (readFinished) {
             mIoCallback.onIoReachedEos();
@@ -627,4 +777,133 @@ public class SampleChunkIoHelper implements Handler.Callback {
             mBufferManager.evictChunks(mIds.get(i), evictEndPositionUs);
         }
     }
+
+    /**
+     * Writes the samples of a track on its own thread, so that a slow write of a track doesn't
+     * delay the other tracks. The queue is bounded, so {@link #writeSample} blocks when the track
+     * can't keep up with the stream, and fails after {@link #WRITE_LANE_TIMEOUT_MS}. Since a track
+     * is written only by its lane in the queued order, the index files of the track are updated in
+     * the order of the samples as before.
+     */
+    private class WriterLane extends Thread {
+        private final int mIndex;
+        private final BlockingQueue<Message> mQueue =
+                new ArrayBlockingQueue<>(MAX_WRITE_LANE_SAMPLES);
+        private final AtomicLong mBlockedWriteCount = new AtomicLong();
+        // Only for metrics, so a lost update by a racing closeWrite() or quit() is acceptable.
+        private volatile int mMaxQueueDepth;
+
+        private WriterLane(int index) {
+            super(TAG + "-" + index);
+            mIndex = index;
+        }
+
+        private void queue(Message message) throws IOException {
+            try {
+                if (!mQueue.offer(message)) {
+                    mBlockedWriteCount.incrementAndGet();
+                    if (!mQueue.offer(message, WRITE_LANE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        // The storage can't keep up at all, so the recording fails.
+                        message.recycle();
+                        IOException e =
+                                new IOException(
+                                        "Serious delay on writing track " + mIds.get(mIndex));
+                        notifyIoError(e);
+                        throw e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                message.recycle();
+                throw new InterruptedIOException("Interrupted while queueing a sample");
+            }
+            int depth = mQueue.size();
+            if (depth > mMaxQueueDepth) {
+                mMaxQueueDepth = depth;
+            }
+        }
+
+        /** Closes the chunk being written after the queued samples are written. */
+        private void closeWrite() throws IOException {
+            ConditionVariable conditionVariable = new ConditionVariable();
+            queue(Message.obtain(null, MSG_CLOSE_WRITE, conditionVariable));
+            conditionVariable.block();
+        }
+
+        /** Finishes the lane after the queued samples are written. */
+        private void quit() throws IOException {
+            try {
+                queue(Message.obtain(null, MSG_RELEASE));
+            } catch (IOException e) {
+                // Stops the lane without writing the queued samples.
+                interrupt();
+                throw e;
+            }
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while finishing writes");
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Message message;
+                try {
+                    message = mQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int what = message.what;
+                Object obj = message.obj;
+                message.recycle();
+                switch (what) {
+                    case MSG_OPEN_WRITE:
+                        if (!mErrorNotified) {
+                            try {
+                                doOpenWrite(mIndex);
+                            } catch (IOException e) {
+                                notifyIoError(e);
+                            }
+                        }
+                        break;
+                    case MSG_WRITE:
+                        write((IoParams) obj);
+                        break;
+                    case MSG_CLOSE_WRITE:
+                        try {
+                            mWriteIoStates[mIndex].closeWrite();
+                        } catch (IOException e) {
+                            notifyIoError(e);
+                        } finally {
+                            ((ConditionVariable) obj).open();
+                        }
+                        break;
+                    case MSG_RELEASE:
+                        return;
+                    default: // fall out
+                }
+            }
+        }
+
+        private void write(IoParams params) {
+            DecoderInputBuffer sample = params.sample;
+            try {
+                if (mErrorNotified) {
+                    return;
+                }
+                int size = sample.data.position();
+                long writeStartTimeNs = SystemClock.elapsedRealtimeNanos();
+                doWrite(params);
+                mBufferManager.addWriteStat(
+                        size, SystemClock.elapsedRealtimeNanos() - writeStartTimeNs);
+            } catch (IOException e) {
+                notifyIoError(e);
+            } finally {
+                mInputBufferPool.releaseSample(sample);
+            }
+        }
+    }
 }
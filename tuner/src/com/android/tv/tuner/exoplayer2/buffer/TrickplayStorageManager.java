@@ -146,4 +146,13 @@ public class TrickplayStorageManager implements BufferManager.StorageManager {
     @Override
     public void updateIndexFile(
             String trackName, int size, long position, SampleChunk sampleChunk, int offset) {}
+
+    @Override
+    public List<BufferManager.PositionHolder> readKeyFrameIndexFile(String trackId) {
+        return null;
+    }
+
+    @Override
+    public void updateKeyFrameIndexFile(
+            String trackName, long position, SampleChunk sampleChunk, int offset) {}
 }
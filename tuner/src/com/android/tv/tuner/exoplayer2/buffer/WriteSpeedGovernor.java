@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.android.tv.tuner.tvinput.debug.TunerDebug;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * Decides how much buffering the storage can afford from the disk write bandwidth measured over a
+ * sliding window.
+ *
+ * <p>Writes are accumulated into windows of {@code WINDOW_SIZE_BYTES}, and the bandwidth is the
+ * average of the last {@code WINDOW_COUNT} windows, so a single stall like a GC pause or a cache
+ * flush of USB storage can't decide the level by itself. The level goes down by one step after
+ * {@code DEGRADE_WINDOW_COUNT} consecutive windows slower than {@code
+ * MINIMUM_DISK_WRITE_SPEED_MBPS}, and goes back up after {@code RECOVER_WINDOW_COUNT} consecutive
+ * windows faster than {@code RECOVERY_DISK_WRITE_SPEED_MBPS}. The gap between the two thresholds
+ * keeps the level from flapping, and the sliding window is emptied whenever the level changes so
+ * that each step is decided by the writes made at the current level.
+ */
+public class WriteSpeedGovernor {
+    private static final String TAG = "WriteSpeedGovernor";
+    private static final boolean DEBUG = false;
+
+    @IntDef({LEVEL_NORMAL, LEVEL_REDUCED_BUFFER, LEVEL_MEMORY_ONLY})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Level {}
+
+    /** The storage is fast enough for the full buffer. */
+    public static final int LEVEL_NORMAL = 0;
+
+    /** The storage is slow, so the buffer on the storage should be reduced. */
+    public static final int LEVEL_REDUCED_BUFFER = 1;
+
+    /** The storage is too slow, so samples should be buffered only in memory. */
+    public static final int LEVEL_MEMORY_ONLY = 2;
+
+    private static final int MINIMUM_SAMPLE_SIZE = 15 * 1024;
+    @VisibleForTesting static final long WINDOW_SIZE_BYTES = 2L * 1024 * 1024;
+    // The bandwidth is evaluated over the last 10MB of writes.
+    @VisibleForTesting static final int WINDOW_COUNT = 5;
+    @VisibleForTesting static final int DEGRADE_WINDOW_COUNT = 3;
+    @VisibleForTesting static final int RECOVER_WINDOW_COUNT = 10;
+    private static final float MINIMUM_DISK_WRITE_SPEED_MBPS = 3.0f;
+    private static final float RECOVERY_DISK_WRITE_SPEED_MBPS = 6.0f;
+
+    private final long[] mWindowSizes = new long[WINDOW_COUNT];
+    private final long[] mWindowTimesNs = new long[WINDOW_COUNT];
+    private int mWindowIndex;
+    private int mFilledWindowCount;
+    private long mTotalSize;
+    private long mTotalTimeNs;
+    private long mCurrentWindowSize;
+    private long mCurrentWindowTimeNs;
+
+    private int mMinSampleSize = MINIMUM_SAMPLE_SIZE;
+    private float mBandwidthMbps = -1.0f;
+    private int mSlowWindowCount;
+    private int mFastWindowCount;
+    private boolean mEvaluated;
+    private @Level int mLevel = LEVEL_NORMAL;
+    private boolean mLevelChanged;
+
+    /**
+     * Adds a disk write. Writes smaller than the minimum sample size are ignored, since their
+     * duration is dominated by the overhead rather than the bandwidth.
+     *
+     * @param size the number of bytes written
+     * @param timeNs the time spent for the write in nanoseconds
+     */
+    public synchronized void addWriteStat(long size, long timeNs) {
+        if (size < mMinSampleSize) {
+            return;
+        }
+        mCurrentWindowSize += size;
+        mCurrentWindowTimeNs += timeNs;
+        if (mCurrentWindowSize >= WINDOW_SIZE_BYTES) {
+            completeWindow();
+        }
+    }
+
+    /** Returns the current level. */
+    public synchronized @Level int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Returns whether the level has been changed since the last call. The change is consumed by
+     * this call.
+     */
+    public synchronized boolean pollLevelChange() {
+        boolean changed = mLevelChanged;
+        mLevelChanged = false;
+        return changed;
+    }
+
+    /**
+     * Returns the bandwidth over the sliding window in MBps, or {@code -1.0f} if the bandwidth is
+     * not measured yet.
+     */
+    public synchronized float getBandwidthMbps() {
+        return mBandwidthMbps;
+    }
+
+    /** Returns whether the bandwidth has been evaluated at least once. */
+    public synchronized boolean hasEvaluated() {
+        return mEvaluated;
+    }
+
+    /** Sets the minimum size of the writes which are taken into account. */
+    public synchronized void setMinimumSampleSize(int sampleSize) {
+        mMinSampleSize = sampleSize;
+    }
+
+    private void completeWindow() {
+        mTotalSize += mCurrentWindowSize - mWindowSizes[mWindowIndex];
+        mTotalTimeNs += mCurrentWindowTimeNs - mWindowTimesNs[mWindowIndex];
+        mWindowSizes[mWindowIndex] = mCurrentWindowSize;
+        mWindowTimesNs[mWindowIndex] = mCurrentWindowTimeNs;
+        mWindowIndex = (mWindowIndex + 1) % WINDOW_COUNT;
+        mFilledWindowCount = Math.min(mFilledWindowCount + 1, WINDOW_COUNT);
+        TunerDebug.addWriteBandwidthSample(toMbps(mCurrentWindowSize, mCurrentWindowTimeNs));
+        mCurrentWindowSize = 0;
+        mCurrentWindowTimeNs = 0;
+        if (mFilledWindowCount < WINDOW_COUNT) {
+            return;
+        }
+        mEvaluated = true;
+        mBandwidthMbps = toMbps(mTotalSize, mTotalTimeNs);
+        if (DEBUG) {
+            Log.d(TAG, "Measured disk write performance: " + mBandwidthMbps + "MBps");
+        }
+        if (mBandwidthMbps < 0) {
+            return;
+        }
+        if (mBandwidthMbps < MINIMUM_DISK_WRITE_SPEED_MBPS) {
+            mFastWindowCount = 0;
+            if (++mSlowWindowCount >= DEGRADE_WINDOW_COUNT && mLevel < LEVEL_MEMORY_ONLY) {
+                setLevel(mLevel + 1);
+            }
+        } else if (mBandwidthMbps >= RECOVERY_DISK_WRITE_SPEED_MBPS) {
+            mSlowWindowCount = 0;
+            // Samples are not written to the storage any more in LEVEL_MEMORY_ONLY, so recovering
+            // from it is up to the owner of the buffer.
+            if (++mFastWindowCount >= RECOVER_WINDOW_COUNT && mLevel == LEVEL_REDUCED_BUFFER) {
+                setLevel(LEVEL_NORMAL);
+            }
+        } else {
+            mSlowWindowCount = 0;
+            mFastWindowCount = 0;
+        }
+    }
+
+    private void setLevel(@Level int level) {
+        Log.i(TAG, "Write speed level " + mLevel + " -> " + level + ": " + mBandwidthMbps + "MBps");
+        mLevel = level;
+        mLevelChanged = true;
+        mSlowWindowCount = 0;
+        mFastWindowCount = 0;
+        // Starts over the measurement, so that the next decision is made only from the writes
+        // after this change.
+        Arrays.fill(mWindowSizes, 0);
+        Arrays.fill(mWindowTimesNs, 0);
+        mFilledWindowCount = 0;
+        mTotalSize = 0;
+        mTotalTimeNs = 0;
+    }
+
+    private static float toMbps(long size, long timeNs) {
+        return timeNs == 0 ? -1.0f : (float) size * 1000 / timeNs;
+    }
+}
@@ -56,5 +56,14 @@ public class TunerFeatures extends CommonFeatures {
     /** Enable Dvb parsers and listeners. */
     public static final Feature ENABLE_FILE_DVB = OFF;
 
+    /**
+     * TRACK_WRITER_LANES
+     *
+     * <p>Write each track of a recording on its own thread, so that a slow video write doesn't
+     * delay audio and caption writes.
+     */
+    public static final Feature TRACK_WRITER_LANES =
+            DeveloperPreferenceFeature.create("track_writer_lanes", false);
+
     private TunerFeatures() {}
 }
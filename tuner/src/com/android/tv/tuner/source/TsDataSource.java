@@ -16,12 +16,25 @@
 
 package com.android.tv.tuner.source;
 
+import android.support.annotation.Nullable;
+
 import com.android.tv.common.compat.TvInputConstantCompat;
 import com.google.android.exoplayer2.upstream.DataSource;
 
 /** {@link DataSource} for MPEG-TS stream, which will be used by {@link TsExtractor}. */
 public abstract class TsDataSource implements DataSource {
 
+    /** Listener for the new samples which become available to the extractor. */
+    public interface OnDataAvailableListener {
+        /**
+         * Called when the extractor may have queued new samples, that is, when it has demuxed the
+         * data read so far and reads more, or when the stream ends. This is called on the thread
+         * which loads the stream, so it should return quickly. It can be called often, so the
+         * listener should coalesce the calls.
+         */
+        void onDataAvailable();
+    }
+
     /**
      * Returns the number of bytes being buffered by {@link TsStreamer} so far.
      *
@@ -51,4 +64,15 @@ public abstract class TsDataSource implements DataSource {
     public int getSignalStrength() {
         return TvInputConstantCompat.SIGNAL_STRENGTH_NOT_USED;
     }
+
+    /**
+     * Sets the listener which is notified when new samples may become available to the extractor.
+     *
+     * @param listener the listener, or {@code null} to remove the current listener
+     * @return {@code true} if this data source notifies the listener, {@code false} if the data
+     *     source doesn't support the notification and the reader should poll instead
+     */
+    public boolean setOnDataAvailableListener(@Nullable OnDataAvailableListener listener) {
+        return false;
+    }
 }
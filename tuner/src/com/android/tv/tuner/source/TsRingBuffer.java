@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.source;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of MPEG-TS stream which is written by a single writer and read by multiple readers.
+ *
+ * <p>The stream is kept in a direct {@link ByteBuffer}. The writer publishes the written range
+ * through volatile positions, and each {@link Reader} has its own cursor and its own view of the
+ * buffer, so readers don't contend with the writer or with each other. Since the writer never waits
+ * for readers, a reader which falls behind by more than the capacity loses data.
+ *
+ * <p>The buffer is guarded by a sequence lock. The writer makes the sequence odd before it modifies
+ * the buffer and even after it. A reader reads the sequence before and after copying, and if a
+ * write may have happened in between, it checks whether the write reached the copied range. Such
+ * overruns are counted.
+ */
+final class TsRingBuffer {
+    static final int READ_ERROR_STREAMING_ENDED = -1;
+    static final int READ_ERROR_BUFFER_OVERWRITTEN = -2;
+
+    private static final int READ_TIMEOUT_MS = 5000; // 5 secs.
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final List<Reader> mReaders = new CopyOnWriteArrayList<>();
+
+    // The end of the published data. Readers can read up to this position.
+    private volatile long mWritePosition;
+    // The end of the data which is being written. This is updated before the sequence becomes odd,
+    // so the data before {@code mWriteLimit - mCapacity} may have been overwritten.
+    private volatile long mWriteLimit;
+    // Odd while the writer modifies the buffer. Only the writer updates it.
+    private final AtomicLong mSequence = new AtomicLong();
+    private volatile boolean mOpened;
+
+    // Readers wait on the monitor only when they are ahead of the writer.
+    private final Object mWaitMonitor = new Object();
+    private final AtomicInteger mWaitingReaderCount = new AtomicInteger();
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity the size of the buffer in bytes
+     */
+    TsRingBuffer(int capacity) {
+        mBuffer = ByteBuffer.allocateDirect(capacity);
+        mCapacity = capacity;
+    }
+
+    /** Opens the buffer for a new stream. The stream starts from position 0. */
+    void open() {
+        mWritePosition = 0;
+        mWriteLimit = 0;
+        mOpened = true;
+    }
+
+    /** Closes the buffer. Readers waiting for data return {@link #READ_ERROR_STREAMING_ENDED}. */
+    void close() {
+        mOpened = false;
+        synchronized (mWaitMonitor) {
+            mWaitMonitor.notifyAll();
+        }
+        // Lets the listeners find the end of the stream without waiting for a timeout.
+        notifyDataAvailable();
+    }
+
+    /** Returns {@code true} if the buffer is opened. */
+    boolean isOpened() {
+        return mOpened;
+    }
+
+    /** Returns the total number of bytes written since the buffer was opened. */
+    long getWritePosition() {
+        return mWritePosition;
+    }
+
+    /**
+     * Appends data to the buffer. This should be called only by the writer thread.
+     *
+     * @param data the data to write
+     * @param offset the start position of the data
+     * @param length the number of bytes to write
+     */
+    void write(byte[] data, int offset, int length) {
+        long position = mWritePosition;
+        mWriteLimit = position + length;
+        // An atomic update is a full barrier, so the buffer isn't modified before it's visible.
+        mSequence.incrementAndGet();
+        int posInBuffer = (int) (position % mCapacity);
+        int bytesToCopyInFirstPass = Math.min(length, mCapacity - posInBuffer);
+        mBuffer.position(posInBuffer);
+        mBuffer.put(data, offset, bytesToCopyInFirstPass);
+        if (bytesToCopyInFirstPass < length) {
+            mBuffer.position(0);
+            mBuffer.put(data, offset + bytesToCopyInFirstPass, length - bytesToCopyInFirstPass);
+        }
+        mSequence.incrementAndGet();
+        mWritePosition = position + length;
+        if (mWaitingReaderCount.get() > 0) {
+            synchronized (mWaitMonitor) {
+                mWaitMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Creates a reader whose cursor is at the current write position.
+     *
+     * @return {@link Reader}
+     */
+    Reader createReader() {
+        Reader reader = new Reader(mWritePosition);
+        mReaders.add(reader);
+        return reader;
+    }
+
+    /** Removes the reader. The reader shouldn't be used after this. */
+    void releaseReader(Reader reader) {
+        mReaders.remove(reader);
+    }
+
+    /** Returns the readers which are not released yet. */
+    List<Reader> getReaders() {
+        return mReaders;
+    }
+
+    private void notifyDataAvailable() {
+        for (Reader reader : mReaders) {
+            TsDataSource.OnDataAvailableListener listener = reader.mOnDataAvailableListener;
+            if (listener != null) {
+                listener.onDataAvailable();
+            }
+        }
+    }
+
+    private boolean isOverwritten(long position) {
+        return position < mWriteLimit - mCapacity;
+    }
+
+    private void awaitData(long position) {
+        mWaitingReaderCount.incrementAndGet();
+        try {
+            synchronized (mWaitMonitor) {
+                if (mOpened && mWritePosition < position) {
+                    mWaitMonitor.wait(READ_TIMEOUT_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mWaitingReaderCount.decrementAndGet();
+        }
+    }
+
+    /** A cursor of {@link TsRingBuffer}. A reader should be used by a single thread at a time. */
+    final class Reader {
+        private final ByteBuffer mView = mBuffer.duplicate();
+        private final AtomicLong mOverrunCount = new AtomicLong();
+        private volatile long mPosition;
+        private volatile TsDataSource.OnDataAvailableListener mOnDataAvailableListener;
+        // Written only to order the copy before the validation. See isUnchanged().
+        private volatile long mReadFence;
+
+        private Reader(long position) {
+            mPosition = position;
+        }
+
+        /** Sets the listener which is notified when the buffer is closed. */
+        void setOnDataAvailableListener(TsDataSource.OnDataAvailableListener listener) {
+            mOnDataAvailableListener = listener;
+        }
+
+        /** Returns the position of the next read. */
+        long getPosition() {
+            return mPosition;
+        }
+
+        /** Moves the cursor to the given position. */
+        void seekTo(long position) {
+            mPosition = position;
+        }
+
+        /** Returns the number of reads which failed since the data was already overwritten. */
+        long getOverrunCount() {
+            return mOverrunCount.get();
+        }
+
+        /**
+         * Reads data from the cursor. Blocks until the whole amount of data is written.
+         *
+         * @param buffer the buffer to read into
+         * @param offset the start position in the buffer
+         * @param amount the number of bytes to read
+         * @return {@code amount} when successful, {@link #READ_ERROR_STREAMING_ENDED} if the buffer
+         *     is closed or {@link #READ_ERROR_BUFFER_OVERWRITTEN} if the data at the cursor was
+         *     already overwritten
+         */
+        int read(byte[] buffer, int offset, int amount) {
+            while (true) {
+                if (!mOpened) {
+                    return READ_ERROR_STREAMING_ENDED;
+                }
+                long sequence = mSequence.get();
+                long position = mPosition;
+                if (isOverwritten(position)) {
+                    mOverrunCount.incrementAndGet();
+                    return READ_ERROR_BUFFER_OVERWRITTEN;
+                }
+                if (mWritePosition < position + amount) {
+                    awaitData(position + amount);
+                    continue;
+                }
+                int posInBuffer = (int) (position % mCapacity);
+                int firstLength = Math.min(amount, mCapacity - posInBuffer);
+                mView.position(posInBuffer);
+                mView.get(buffer, offset, firstLength);
+                if (firstLength < amount) {
+                    mView.position(0);
+                    mView.get(buffer, offset + firstLength, amount - firstLength);
+                }
+                // The writer may have wrapped around while copying. If the sequence is the same
+                // even number, no write has started since the range was checked. Otherwise the
+                // limit, which is read after the sequence, covers every write the copy could see.
+                if (!isUnchanged(sequence) && isOverwritten(position)) {
+                    mOverrunCount.incrementAndGet();
+                    return READ_ERROR_BUFFER_OVERWRITTEN;
+                }
+                mPosition = position + amount;
+                return amount;
+            }
+        }
+
+        /**
+         * Returns {@code true} if the writer hasn't modified the buffer since the sequence was
+         * read. This should be called after the data is copied.
+         */
+        private boolean isUnchanged(long sequence) {
+            // A volatile read isn't reordered with a preceding volatile write, which isn't
+            // reordered with the preceding reads. So the copy completes before the sequence read.
+            mReadFence = sequence;
+            return (sequence & 1) == 0 && mSequence.get() == sequence;
+        }
+    }
+}
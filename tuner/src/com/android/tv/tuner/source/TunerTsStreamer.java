@@ -47,16 +47,12 @@ public class TunerTsStreamer implements TsStreamer {
     private static final int CIRCULAR_BUFFER_SIZE = MIN_READ_UNIT * 20000; // ~ 30MB
     private static final int TS_PACKET_SIZE = 188;
 
-    private static final int READ_TIMEOUT_MS = 5000; // 5 secs.
     private static final int BUFFER_UNDERRUN_SLEEP_MS = 10;
-    private static final int READ_ERROR_STREAMING_ENDED = -1;
-    private static final int READ_ERROR_BUFFER_OVERWRITTEN = -2;
 
-    private final Object mCircularBufferMonitor = new Object();
-    private final byte[] mCircularBuffer = new byte[CIRCULAR_BUFFER_SIZE];
-    private long mBytesFetched;
-    private final AtomicLong mLastReadPosition = new AtomicLong();
-    private boolean mStreaming;
+    // Guards starting and stopping the stream. Reads and writes of the stream don't need it.
+    private final Object mStreamingLock = new Object();
+    private final TsRingBuffer mRingBuffer = new TsRingBuffer(CIRCULAR_BUFFER_SIZE);
+    private volatile boolean mStreaming;
 
     private final Tuner mTunerHal;
     private TunerChannel mChannel;
@@ -69,13 +65,16 @@ public class TunerTsStreamer implements TsStreamer {
 
     public static class TunerDataSource extends TsDataSource {
         private final TunerTsStreamer mTsStreamer;
+        private final TsRingBuffer.Reader mReader;
         private final AtomicLong mLastReadPosition = new AtomicLong(0);
         private long mStartBufferedPosition;
         private Uri mUri;
+        @Nullable private volatile OnDataAvailableListener mOnDataAvailableListener;
 
-        private TunerDataSource(TunerTsStreamer tsStreamer) {
+        private TunerDataSource(TunerTsStreamer tsStreamer, TsRingBuffer.Reader reader) {
             mTsStreamer = tsStreamer;
-            mStartBufferedPosition = tsStreamer.getBufferedPosition();
+            mReader = reader;
+            mStartBufferedPosition = reader.getPosition();
         }
 
         @Override
@@ -93,12 +92,14 @@ public class TunerTsStreamer implements TsStreamer {
             SoftPreconditions.checkState(mLastReadPosition.get() == 0);
             SoftPreconditions.checkArgument(0 <= offset && offset <= getBufferedPosition());
             mStartBufferedPosition += offset;
+            mReader.seekTo(mStartBufferedPosition);
         }
 
         @Override
         public long open(DataSpec dataSpec) {
             mUri = dataSpec.uri;
             mLastReadPosition.set(0);
+            mReader.seekTo(mStartBufferedPosition);
             return C.LENGTH_UNSET;
         }
 
@@ -109,16 +110,17 @@ public class TunerTsStreamer implements TsStreamer {
 
         @Override
         public int read(byte[] buffer, int offset, int readLength) throws IOException {
-            int ret =
-                    mTsStreamer.readAt(
-                            mStartBufferedPosition + mLastReadPosition.get(),
-                            buffer,
-                            offset,
-                            readLength);
+            // The extractor has demuxed the data read so far, so its samples are queued now.
+            OnDataAvailableListener listener = mOnDataAvailableListener;
+            if (listener != null) {
+                listener.onDataAvailable();
+            }
+            int ret = mReader.read(buffer, offset, readLength);
             if (ret > 0) {
                 mLastReadPosition.addAndGet(ret);
-            } else if (ret == READ_ERROR_BUFFER_OVERWRITTEN) {
-                long currentPosition = mStartBufferedPosition + mLastReadPosition.get();
+            } else if (ret == TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN) {
+                Log.w(TAG, "Demux is requesting the data which is already overwritten.");
+                long currentPosition = mReader.getPosition();
                 long endPosition = mTsStreamer.getBufferedPosition();
                 long diff =
                         ((endPosition - currentPosition + TS_PACKET_SIZE - 1) / TS_PACKET_SIZE)
@@ -126,11 +128,28 @@ public class TunerTsStreamer implements TsStreamer {
                 Log.w(TAG, "Demux position jump by overwritten buffer: " + diff);
                 mStartBufferedPosition = currentPosition + diff;
                 mLastReadPosition.set(0);
+                mReader.seekTo(mStartBufferedPosition);
                 return 0;
             }
             return ret;
         }
 
+        @Override
+        public boolean setOnDataAvailableListener(@Nullable OnDataAvailableListener listener) {
+            mOnDataAvailableListener = listener;
+            // Notifies the end of the stream as well.
+            mReader.setOnDataAvailableListener(listener);
+            return true;
+        }
+
+        /**
+         * Returns the number of reads which failed since the data was overwritten before this
+         * source read it.
+         */
+        public long getOverrunCount() {
+            return mReader.getOverrunCount();
+        }
+
         @Override
         public int getSignalStrength() {
             return mTsStreamer.getSignalStrength();
@@ -199,14 +218,13 @@ public class TunerTsStreamer implements TsStreamer {
             }
             mChannel = channel;
             mChannelNumber = channel.getDisplayNumber();
-            synchronized (mCircularBufferMonitor) {
+            synchronized (mStreamingLock) {
                 if (mStreaming) {
                     Log.w(TAG, "Streaming should be stopped before start streaming");
                     return true;
                 }
                 mStreaming = true;
-                mBytesFetched = 0;
-                mLastReadPosition.set(0L);
+                mRingBuffer.open();
             }
             if (mTsStreamWriter != null) {
                 mTsStreamWriter.setChannel(mChannel);
@@ -227,14 +245,13 @@ public class TunerTsStreamer implements TsStreamer {
             mEventDetector.startDetecting(
                     channel.deliverySystemType, channel.frequency, channel.modulation,
                     EventDetector.ALL_PROGRAM_NUMBERS);
-            synchronized (mCircularBufferMonitor) {
+            synchronized (mStreamingLock) {
                 if (mStreaming) {
                     Log.w(TAG, "Streaming should be stopped before start streaming");
                     return true;
                 }
                 mStreaming = true;
-                mBytesFetched = 0;
-                mLastReadPosition.set(0L);
+                mRingBuffer.open();
             }
             mStreamingThread = new StreamingThread();
             mStreamingThread.start();
@@ -251,9 +268,9 @@ public class TunerTsStreamer implements TsStreamer {
     @Override
     public void stopStream() {
         mChannel = null;
-        synchronized (mCircularBufferMonitor) {
+        synchronized (mStreamingLock) {
             mStreaming = false;
-            mCircularBufferMonitor.notifyAll();
+            mRingBuffer.close();
         }
 
         try {
@@ -271,7 +288,19 @@ public class TunerTsStreamer implements TsStreamer {
 
     @Override
     public TsDataSource createDataSource() {
-        return new TunerDataSource(this);
+        return new TunerDataSource(this, mRingBuffer.createReader());
+    }
+
+    /**
+     * Releases the specified {@link TsDataSource} which was created by this streamer. The other
+     * data sources keep reading the stream.
+     *
+     * @param source the data source to release
+     */
+    public void releaseDataSource(TsDataSource source) {
+        if (source instanceof TunerDataSource) {
+            mRingBuffer.releaseReader(((TunerDataSource) source).mReader);
+        }
     }
 
     /**
@@ -308,13 +337,19 @@ public class TunerTsStreamer implements TsStreamer {
      * @return the current buffered position
      */
     public long getBufferedPosition() {
-        synchronized (mCircularBufferMonitor) {
-            return mBytesFetched;
-        }
+        return mRingBuffer.getWritePosition();
     }
 
     public String getStreamerInfo() {
-        return "Channel: " + mChannelNumber + ", Streaming: " + mStreaming;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Channel: ").append(mChannelNumber).append(", Streaming: ").append(mStreaming);
+        sb.append(", Overruns: [");
+        String separator = "";
+        for (TsRingBuffer.Reader reader : mRingBuffer.getReaders()) {
+            sb.append(separator).append(reader.getOverrunCount());
+            separator = ", ";
+        }
+        return sb.append("]").toString();
     }
 
     public void registerListener(EventListener listener) {
@@ -343,13 +378,7 @@ public class TunerTsStreamer implements TsStreamer {
             // Buffers for streaming data from the tuner and the internal buffer.
             byte[] dataBuffer = new byte[READ_BUFFER_SIZE];
 
-            while (true) {
-                synchronized (mCircularBufferMonitor) {
-                    if (!mStreaming) {
-                        break;
-                    }
-                }
-
+            while (mStreaming) {
                 if (mEventDetector != null) {
                     synchronized (mEventListenerActions) {
                         for (Pair listenerAction : mEventListenerActions) {
@@ -383,72 +412,10 @@ public class TunerTsStreamer implements TsStreamer {
                 if (mEventDetector != null) {
                     mEventDetector.feedTSStream(dataBuffer, 0, bytesWritten);
                 }
-                synchronized (mCircularBufferMonitor) {
-                    int posInBuffer = (int) (mBytesFetched % CIRCULAR_BUFFER_SIZE);
-                    int bytesToCopyInFirstPass = bytesWritten;
-                    if (posInBuffer + bytesToCopyInFirstPass > mCircularBuffer.length) {
-                        bytesToCopyInFirstPass = mCircularBuffer.length - posInBuffer;
-                    }
-                    System.arraycopy(
-                            dataBuffer, 0, mCircularBuffer, posInBuffer, bytesToCopyInFirstPass);
-                    if (bytesToCopyInFirstPass < bytesWritten) {
-                        System.arraycopy(
-                                dataBuffer,
-                                bytesToCopyInFirstPass,
-                                mCircularBuffer,
-                                0,
-                                bytesWritten - bytesToCopyInFirstPass);
-                    }
-                    mBytesFetched += bytesWritten;
-                    mCircularBufferMonitor.notifyAll();
-                }
+                mRingBuffer.write(dataBuffer, 0, bytesWritten);
             }
 
             Log.i(TAG, "Streaming stopped");
         }
     }
-
-    /**
-     * Reads data from internal buffer.
-     *
-     * @param pos the position to read from
-     * @param buffer to read
-     * @param offset start position of the read buffer
-     * @param amount number of bytes to read
-     * @return number of read bytes when successful, {@code -1} otherwise
-     * @throws IOException
-     */
-    public int readAt(long pos, byte[] buffer, int offset, int amount) throws IOException {
-        while (true) {
-            synchronized (mCircularBufferMonitor) {
-                if (!mStreaming) {
-                    return READ_ERROR_STREAMING_ENDED;
-                }
-                if (mBytesFetched - CIRCULAR_BUFFER_SIZE > pos) {
-                    Log.w(TAG, "Demux is requesting the data which is already overwritten.");
-                    return READ_ERROR_BUFFER_OVERWRITTEN;
-                }
-                if (mBytesFetched < pos + amount) {
-                    try {
-                        mCircularBufferMonitor.wait(READ_TIMEOUT_MS);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                    // Try again to prevent starvation.
-                    // Give chances to read from other threads.
-                    continue;
-                }
-                int startPos = (int) (pos % CIRCULAR_BUFFER_SIZE);
-                int endPos = (int) ((pos + amount) % CIRCULAR_BUFFER_SIZE);
-                int firstLength = (startPos > endPos ? CIRCULAR_BUFFER_SIZE : endPos) - startPos;
-                System.arraycopy(mCircularBuffer, startPos, buffer, offset, firstLength);
-                if (firstLength < amount) {
-                    System.arraycopy(
-                            mCircularBuffer, 0, buffer, offset + firstLength, amount - firstLength);
-                }
-                mCircularBufferMonitor.notifyAll();
-                return amount;
-            }
-        }
-    }
 }
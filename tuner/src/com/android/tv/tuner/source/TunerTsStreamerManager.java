@@ -106,6 +106,9 @@ public class TunerTsStreamerManager {
             if (streamer == null) {
                 return;
             }
+            // Detaches the cursor of the source so that the other sessions sharing the streamer
+            // are not affected.
+            streamer.releaseDataSource(source);
             EventListener listener = mListeners.remove(sessionId);
             streamer.unregisterListener(listener);
             TunerChannel channel = streamer.getChannel();
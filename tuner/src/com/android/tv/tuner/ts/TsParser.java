@@ -17,6 +17,7 @@
 package com.android.tv.tuner.ts;
 
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import com.android.tv.tuner.data.PsiData.PatItem;
@@ -31,11 +32,7 @@ import com.android.tv.tuner.data.SectionParser.OutputListener;
 import com.android.tv.tuner.data.TunerChannel;
 import com.android.tv.tuner.util.ByteArrayBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeSet;
 
 /** Parses MPEG-2 TS packets. */
 public class TsParser {
@@ -51,24 +48,27 @@ public class TsParser {
     private static final int TS_PACKET_SIZE = 188;
 
     /*
-     * Using a SparseArray removes the need to auto box the int key for mStreamMap
-     * in feedTdPacket which is called 100 times a second. This greatly reduces the
-     * number of objects created and the frequency of garbage collection.
-     * Other maps might be suitable for a SparseArray, but the performance
-     * trade offs must be considered carefully.
-     * mStreamMap is the only one called at such a high rate.
+     * Using SparseArrays removes the need to auto box the int keys. mStreamMap is looked up in
+     * feedTSPacket which is called thousands of times a second, and the other maps are updated
+     * whenever a table is updated. Together with feeding the payload of a TS packet without
+     * copying it, the demux path does not create objects for the packets which carry no new
+     * table, which greatly reduces the frequency of garbage collection.
      */
     private final SparseArray<Stream> mStreamMap = new SparseArray<>();
-    private final Map<Integer, VctItem> mSourceIdToVctItemMap = new HashMap<>();
-    private final Map<Integer, String> mSourceIdToVctItemDescriptionMap = new HashMap<>();
-    private final Map<Integer, VctItem> mProgramNumberToVctItemMap = new HashMap<>();
-    private final Map<Integer, List<PmtItem>> mProgramNumberToPMTMap = new HashMap<>();
-    private final Map<Integer, List<EitItem>> mSourceIdToEitMap = new HashMap<>();
-    private final Map<Integer, SdtItem> mProgramNumberToSdtItemMap = new HashMap<>();
-    private final Map<EventSourceEntry, List<EitItem>> mEitMap = new HashMap<>();
-    private final Map<EventSourceEntry, List<EttItem>> mETTMap = new HashMap<>();
-    private final TreeSet<Integer> mEITPids = new TreeSet<>();
-    private final TreeSet<Integer> mETTPids = new TreeSet<>();
+    private final SparseArray<VctItem> mSourceIdToVctItemMap = new SparseArray<>();
+    private final SparseArray<String> mSourceIdToVctItemDescriptionMap = new SparseArray<>();
+    private final SparseArray<VctItem> mProgramNumberToVctItemMap = new SparseArray<>();
+    private final SparseArray<List<PmtItem>> mProgramNumberToPMTMap = new SparseArray<>();
+    private final SparseArray<List<EitItem>> mSourceIdToEitMap = new SparseArray<>();
+    private final SparseArray<SdtItem> mProgramNumberToSdtItemMap = new SparseArray<>();
+    // Keyed by the event source entry. See getEventSourceKey().
+    private final LongSparseArray<List<EitItem>> mEitMap = new LongSparseArray<>();
+    private final LongSparseArray<List<EttItem>> mETTMap = new LongSparseArray<>();
+    // Used as sorted sets of PIDs.
+    private final SparseBooleanArray mEITPids = new SparseBooleanArray();
+    private final SparseBooleanArray mETTPids = new SparseBooleanArray();
+    // Reused by handleEvents() to merge the events of a source.
+    private final SparseArray<EitItem> mEventIdToEitItemMap = new SparseArray<>();
     private final SparseBooleanArray mProgramNumberHandledStatus = new SparseBooleanArray();
     private final SparseBooleanArray mVctItemHandledStatus = new SparseBooleanArray();
     private final TsOutputListener mListener;
@@ -102,15 +102,21 @@ public class TsParser {
         protected int mContinuityCounter = INVALID_CONTINUITY_COUNTER;
         protected final ByteArrayBuffer mPacket = new ByteArrayBuffer(TS_PACKET_SIZE);
 
-        public void feedData(byte[] data, int continuityCounter, boolean startIndicator) {
+        public void feedData(
+                byte[] data,
+                int offset,
+                int length,
+                int continuityCounter,
+                boolean startIndicator) {
             if ((mContinuityCounter + 1) % NUM_CONTINUITY_COUNTER != continuityCounter) {
                 mPacket.setLength(0);
             }
             mContinuityCounter = continuityCounter;
-            handleData(data, startIndicator);
+            handleData(data, offset, length, startIndicator);
         }
 
-        protected abstract void handleData(byte[] data, boolean startIndicator);
+        protected abstract void handleData(
+                byte[] data, int offset, int length, boolean startIndicator);
 
         protected abstract void resetDataVersions();
     }
@@ -125,11 +131,11 @@ public class TsParser {
         }
 
         @Override
-        protected void handleData(byte[] data, boolean startIndicator) {
+        protected void handleData(byte[] data, int offset, int length, boolean startIndicator) {
             int startPos = 0;
             if (mPacket.length() == 0) {
                 if (startIndicator) {
-                    startPos = (data[0] & 0xff) + 1;
+                    startPos = (data[offset] & 0xff) + 1;
                 } else {
                     // Don't know where the section starts yet. Wait until start indicator is on.
                     return;
@@ -141,11 +147,11 @@ public class TsParser {
             }
 
             // When a broken packet is encountered, parsing will stop and return right away.
-            if (startPos >= data.length) {
+            if (startPos >= length) {
                 mPacket.setLength(0);
                 return;
             }
-            mPacket.append(data, startPos, data.length - startPos);
+            mPacket.append(data, offset + startPos, length - startPos);
             mSectionParser.parseSections(mPacket);
         }
 
@@ -213,7 +219,7 @@ public class TsParser {
                             if (i.getTableType() >= MgtItem.TABLE_TYPE_EIT_RANGE_START
                                     && i.getTableType() <= MgtItem.TABLE_TYPE_EIT_RANGE_END) {
                                 startListening(i.getTableTypePid());
-                                mEITPids.add(i.getTableTypePid());
+                                mEITPids.put(i.getTableTypePid(), true);
                                 if (mListener != null) {
                                     mListener.onEitPidDetected(i.getTableTypePid());
                                 }
@@ -222,7 +228,7 @@ public class TsParser {
                                             && i.getTableType()
                                                     <= MgtItem.TABLE_TYPE_ETT_RANGE_END)) {
                                 startListening(i.getTableTypePid());
-                                mETTPids.add(i.getTableTypePid());
+                                mETTPids.put(i.getTableTypePid(), true);
                                 if (mListener != null) {
                                     mListener.onEttPidDetected(i.getTableTypePid());
                                 }
@@ -278,8 +284,7 @@ public class TsParser {
                     @Override
                     public void onEitParsed(int sourceId, List<EitItem> items) {
                         if (DEBUG) Log.d(TAG, "onEITParsed " + sourceId);
-                        EventSourceEntry entry = new EventSourceEntry(mPid, sourceId);
-                        mEitMap.put(entry, items);
+                        mEitMap.put(getEventSourceKey(mPid, sourceId), items);
                         handleEvents(sourceId);
                     }
 
@@ -309,8 +314,7 @@ public class TsParser {
                         }
 
                         // Event Information description
-                        EventSourceEntry entry = new EventSourceEntry(mPid, sourceId);
-                        mETTMap.put(entry, descriptions);
+                        mETTMap.put(getEventSourceKey(mPid, sourceId), descriptions);
                         handleEvents(sourceId);
                     }
 
@@ -337,31 +341,9 @@ public class TsParser {
                 };
     }
 
-    private static class EventSourceEntry {
-        public final int pid;
-        public final int sourceId;
-
-        public EventSourceEntry(int pid, int sourceId) {
-            this.pid = pid;
-            this.sourceId = sourceId;
-        }
-
-        @Override
-        public int hashCode() {
-            int result = 17;
-            result = 31 * result + pid;
-            result = 31 * result + sourceId;
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof EventSourceEntry) {
-                EventSourceEntry another = (EventSourceEntry) obj;
-                return pid == another.pid && sourceId == another.sourceId;
-            }
-            return false;
-        }
+    /** Returns the key of the events from the source which are carried in the PID. */
+    private static long getEventSourceKey(int pid, int sourceId) {
+        return ((long) pid << 32) | (sourceId & 0xffffffffL);
     }
 
     private void handleVctItem(VctItem channel, List<PmtItem> pmtItems) {
@@ -403,9 +385,10 @@ public class TsParser {
     }
 
     private void handleEvents(int sourceId) {
-        Map<Integer, EitItem> itemSet = new HashMap<>();
-        for (int pid : mEITPids) {
-            List<EitItem> eitItems = mEitMap.get(new EventSourceEntry(pid, sourceId));
+        SparseArray<EitItem> itemSet = mEventIdToEitItemMap;
+        itemSet.clear();
+        for (int i = 0; i < mEITPids.size(); ++i) {
+            List<EitItem> eitItems = mEitMap.get(getEventSourceKey(mEITPids.keyAt(i), sourceId));
             if (eitItems != null) {
                 for (EitItem item : eitItems) {
                     item.setDescription(null);
@@ -413,8 +396,8 @@ public class TsParser {
                 }
             }
         }
-        for (int pid : mETTPids) {
-            List<EttItem> ettItems = mETTMap.get(new EventSourceEntry(pid, sourceId));
+        for (int i = 0; i < mETTPids.size(); ++i) {
+            List<EttItem> ettItems = mETTMap.get(getEventSourceKey(mETTPids.keyAt(i), sourceId));
             if (ettItems != null) {
                 for (EttItem ettItem : ettItems) {
                     if (ettItem.eventId != 0) {
@@ -426,7 +409,11 @@ public class TsParser {
                 }
             }
         }
-        List<EitItem> items = new ArrayList<>(itemSet.values());
+        List<EitItem> items = new ArrayList<>(itemSet.size());
+        for (int i = 0; i < itemSet.size(); ++i) {
+            items.add(itemSet.valueAt(i));
+        }
+        itemSet.clear();
         mSourceIdToEitMap.put(sourceId, items);
         VctItem channel = mSourceIdToVctItemMap.get(sourceId);
         if (channel != null && mProgramNumberHandledStatus.get(channel.getProgramNumber())) {
@@ -493,7 +480,9 @@ public class TsParser {
             return false;
         }
         stream.feedData(
-                Arrays.copyOfRange(tsData, payloadPos, pos + TS_PACKET_SIZE),
+                tsData,
+                payloadPos,
+                pos + TS_PACKET_SIZE - payloadPos,
                 continuityCounter,
                 payloadStartIndicator);
         return true;
@@ -534,8 +523,8 @@ public class TsParser {
 
     /** Reset the versions so that data with old version number can be handled. */
     public void resetDataVersions() {
-        for (int eitPid : mEITPids) {
-            Stream stream = mStreamMap.get(eitPid);
+        for (int i = 0; i < mEITPids.size(); ++i) {
+            Stream stream = mStreamMap.get(mEITPids.keyAt(i));
             if (stream != null) {
                 stream.resetDataVersions();
             }
@@ -16,6 +16,7 @@
 
 package com.android.tv.tuner.tvinput;
 
+import static com.android.tv.tuner.features.TunerFeatures.TRACK_WRITER_LANES;
 import static com.android.tv.tuner.features.TunerFeatures.TVPROVIDER_ALLOWS_COLUMN_CREATION;
 
 import android.content.ContentResolver;
@@ -478,9 +479,11 @@ public class TunerRecordingSessionWorkerExoV2
         mTunerSource.shiftStartPosition(mTunerSource.getBufferedPosition());
         mRecordStartTime = System.currentTimeMillis();
         mDvrStorageManager = new DvrStorageManager(mStorageDir, true);
+        BufferManager bufferManager = new BufferManager(mDvrStorageManager);
+        bufferManager.setTrackWriterLanesEnabled(TRACK_WRITER_LANES.isEnabled(mContext));
         mRecorder =
                 mExoPlayerSampleExtractorFactory.create(
-                        Uri.EMPTY, mTunerSource, new BufferManager(mDvrStorageManager), this, true);
+                        Uri.EMPTY, mTunerSource, bufferManager, this, true);
         mRecorder.setOnCompletionListener(this, mHandler);
         mProgramUri = programUri;
         mSessionState = STATE_RECORDING;
@@ -1277,15 +1277,18 @@ public class TunerSessionWorker
                     TunerSessionOverlay.MSG_UI_SET_STATUS_TEXT,
                     Html.fromHtml(
                             StatusTextUtils.getStatusWarningInHTML(
-                                    (limitInBytes - mLastLimitInBytes) / TS_PACKET_SIZE,
-                                    TunerDebug.getVideoFrameDrop(),
-                                    TunerDebug.getBytesInQueue(),
-                                    TunerDebug.getAudioPositionUs(),
-                                    TunerDebug.getAudioPositionUsRate(),
-                                    TunerDebug.getAudioPtsUs(),
-                                    TunerDebug.getAudioPtsUsRate(),
-                                    TunerDebug.getVideoPtsUs(),
-                                    TunerDebug.getVideoPtsUsRate())));
+                                            (limitInBytes - mLastLimitInBytes) / TS_PACKET_SIZE,
+                                            TunerDebug.getVideoFrameDrop(),
+                                            TunerDebug.getBytesInQueue(),
+                                            TunerDebug.getAudioPositionUs(),
+                                            TunerDebug.getAudioPositionUsRate(),
+                                            TunerDebug.getAudioPtsUs(),
+                                            TunerDebug.getAudioPtsUsRate(),
+                                            TunerDebug.getVideoPtsUs(),
+                                            TunerDebug.getVideoPtsUsRate())
+                                    + "<br/>"
+                                    + StatusTextUtils.getSamplePoolStatusInHTML(
+                                            TunerDebug.getSamplePoolStats())));
         }
         mTunerSessionOverlay.sendUiMessage(TunerSessionOverlay.MSG_UI_HIDE_MESSAGE);
         long currentTime = SystemClock.elapsedRealtime();
@@ -78,6 +78,7 @@ import com.android.tv.tuner.tvinput.datamanager.ChannelDataManager;
 import com.android.tv.tuner.tvinput.debug.TunerDebug;
 import com.android.tv.tuner.util.StatusTextUtils;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.audio.AudioCapabilities;
 import com.google.android.exoplayer2.source.MediaSource;
@@ -176,6 +177,10 @@ public class TunerSessionWorkerExoV2 implements
     private static final int MIN_TRICKPLAY_SEEK_INTERVAL_MS = 20;
     private static final int RELEASE_WAIT_INTERVAL_MS = 50;
     private static final long TRICKPLAY_OFF_DURATION_MS = TimeUnit.DAYS.toMillis(14);
+    // Trickplay disabled by slow storage is enabled again on the next tune after this delay, which
+    // is doubled whenever the storage turns out to be slow again.
+    private static final long TRICKPLAY_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_TRICKPLAY_RETRY_DELAY_MS = TimeUnit.HOURS.toMillis(2);
     private static final long SEEK_MARGIN_MS = TimeUnit.SECONDS.toMillis(2);
     public static final ImmutableList<TvContentRating> NO_CONTENT_RATINGS = ImmutableList.of();
 
@@ -202,6 +207,10 @@ public class TunerSessionWorkerExoV2 implements
     private volatile long mRecordStartTimeMs;
     private volatile long mBufferStartTimeMs;
     private volatile boolean mTrickplayDisabledByStorageIssue;
+    private volatile long mTrickplayRetryTimeMs;
+    private volatile long mTrickplayRetryDelayMs = TRICKPLAY_RETRY_DELAY_MS;
+    // The time when the trickplay buffer became available, or 0 if it's not available.
+    private volatile long mTrickplayStartTimeMs;
     private @TrickplaySetting int mTrickplaySetting;
     private long mTrickplayExpiredMs;
     private String mRecordingId;
@@ -242,6 +251,7 @@ public class TunerSessionWorkerExoV2 implements
     private int mSignalStrength;
     private long mRecordedProgramStartTimeMs;
     private BufferManager mBufferManager;
+    private long mLastTrickplayKeyFramePositionUs = C.TIME_UNSET;
 
     /**
      * Factory for {@link TunerSessionWorkerExoV2}.
@@ -648,6 +658,15 @@ public class TunerSessionWorkerExoV2 implements
     @Override
     public void onDiskTooSlow() {
         mTrickplayDisabledByStorageIssue = true;
+        long now = SystemClock.elapsedRealtime();
+        if (mTrickplayStartTimeMs != 0 && now - mTrickplayStartTimeMs >= TRICKPLAY_RETRY_DELAY_MS) {
+            // Trickplay started successfully and kept up for a while, so the storage is slow only
+            // temporarily. Don't keep the backoff of the previous failures.
+            mTrickplayRetryDelayMs = TRICKPLAY_RETRY_DELAY_MS;
+        }
+        mTrickplayStartTimeMs = 0;
+        mTrickplayRetryTimeMs = now + mTrickplayRetryDelayMs;
+        mTrickplayRetryDelayMs = Math.min(mTrickplayRetryDelayMs * 2, MAX_TRICKPLAY_RETRY_DELAY_MS);
         sendMessage(MSG_RETRY_PLAYBACK, System.identityHashCode(mPlayer));
     }
 
@@ -1190,6 +1209,7 @@ public class TunerSessionWorkerExoV2 implements
         mBufferStartTimeMs = bufferStartTimeMs;
         if (!hasEnoughBackwardBuffer()
                 && (!mPlayer.isPlaying() || mPlaybackParams.getSpeed() < 1.0f)) {
+            setKeyFrameOnlyRead(false);
             mPlayer.setPlayWhenReady(true);
             mPlayer.setAudioTrackAndClosedCaption(true);
             mPlaybackParams.setSpeed(1.0f);
@@ -1198,6 +1218,7 @@ public class TunerSessionWorkerExoV2 implements
     }
 
     private boolean handleMessageBufferStateChanged(boolean available) {
+        mTrickplayStartTimeMs = available ? SystemClock.elapsedRealtime() : 0;
         mSession.notifyTimeShiftStatusChanged(
                 available
                         ? TvInputManager.TIME_SHIFT_STATUS_AVAILABLE
@@ -1217,15 +1238,18 @@ public class TunerSessionWorkerExoV2 implements
                     TunerSessionOverlay.MSG_UI_SET_STATUS_TEXT,
                     Html.fromHtml(
                             StatusTextUtils.getStatusWarningInHTML(
-                                    (limitInBytes - mLastLimitInBytes) / TS_PACKET_SIZE,
-                                    TunerDebug.getVideoFrameDrop(),
-                                    TunerDebug.getBytesInQueue(),
-                                    TunerDebug.getAudioPositionUs(),
-                                    TunerDebug.getAudioPositionUsRate(),
-                                    TunerDebug.getAudioPtsUs(),
-                                    TunerDebug.getAudioPtsUsRate(),
-                                    TunerDebug.getVideoPtsUs(),
-                                    TunerDebug.getVideoPtsUsRate())));
+                                            (limitInBytes - mLastLimitInBytes) / TS_PACKET_SIZE,
+                                            TunerDebug.getVideoFrameDrop(),
+                                            TunerDebug.getBytesInQueue(),
+                                            TunerDebug.getAudioPositionUs(),
+                                            TunerDebug.getAudioPositionUsRate(),
+                                            TunerDebug.getAudioPtsUs(),
+                                            TunerDebug.getAudioPtsUsRate(),
+                                            TunerDebug.getVideoPtsUs(),
+                                            TunerDebug.getVideoPtsUsRate())
+                                    + "<br/>"
+                                    + StatusTextUtils.getSamplePoolStatusInHTML(
+                                            TunerDebug.getSamplePoolStats())));
         }
         mTunerSessionOverlay.sendUiMessage(TunerSessionOverlay.MSG_UI_HIDE_MESSAGE);
         long currentTime = SystemClock.elapsedRealtime();
@@ -1403,6 +1427,11 @@ public class TunerSessionWorkerExoV2 implements
                 }
             }
         }
+        if (mTrickplayRetryTimeMs != 0 && mTrickplayRetryTimeMs <= SystemClock.elapsedRealtime()) {
+            // The storage may have been slow only temporarily, e.g. by other apps.
+            mTrickplayRetryTimeMs = 0;
+            mTrickplayDisabledByStorageIssue = mTrickplayBufferDir == null;
+        }
         mBufferManager = null;
         if (mRecordingId != null) {
             BufferManager.StorageManager storageManager =
@@ -1833,6 +1862,7 @@ public class TunerSessionWorkerExoV2 implements
                 // because of chuck evictions.
                 seekPositionMs = (int) (mBufferStartTimeMs - mRecordStartTimeMs);
             } else {
+                setKeyFrameOnlyRead(false);
                 mPlayer.seekTo(mBufferStartTimeMs - mRecordStartTimeMs);
                 mPlaybackParams.setSpeed(1.0f);
                 mPlayer.setAudioTrackAndClosedCaption(true);
@@ -1843,6 +1873,7 @@ public class TunerSessionWorkerExoV2 implements
             // If RW trickplay requested the position later than current position,
             // continue trickplay.
             if (mPlaybackParams.getSpeed() > 0.0f) {
+                setKeyFrameOnlyRead(false);
                 mPlayer.seekTo(System.currentTimeMillis() - mRecordStartTimeMs);
                 mPlaybackParams.setSpeed(1.0f);
                 mPlayer.setAudioTrackAndClosedCaption(true);
@@ -1852,7 +1883,19 @@ public class TunerSessionWorkerExoV2 implements
 
         long delayForNextSeek = getTrickPlaySeekIntervalMs();
         if (!mPlayer.isBuffering()) {
-            mPlayer.seekTo(seekPositionMs);
+            long keyFramePositionUs =
+                    mBufferManager == null
+                            ? C.TIME_UNSET
+                            : mBufferManager.getKeyFramePositionUs(
+                                    TimeUnit.MILLISECONDS.toMicros(seekPositionMs), false);
+            if (keyFramePositionUs == C.TIME_UNSET) {
+                mPlayer.seekTo(seekPositionMs);
+            } else if (keyFramePositionUs != mLastTrickplayKeyFramePositionUs) {
+                // Shows the key frame only. Since the position is rounded up, the key frame will
+                // be the first sample to be read after the seek.
+                mLastTrickplayKeyFramePositionUs = keyFramePositionUs;
+                mPlayer.seekTo((keyFramePositionUs + 999) / 1000);
+            }
         } else {
             delayForNextSeek = MIN_TRICKPLAY_SEEK_INTERVAL_MS;
         }
@@ -1861,11 +1904,19 @@ public class TunerSessionWorkerExoV2 implements
                 mHandler.obtainMessage(MSG_TRICKPLAY_BY_SEEK, seekPositionMs, 0), delayForNextSeek);
     }
 
+    private void setKeyFrameOnlyRead(boolean keyFrameOnly) {
+        if (mBufferManager != null) {
+            mBufferManager.setKeyFrameOnlyRead(keyFrameOnly);
+        }
+        mLastTrickplayKeyFramePositionUs = C.TIME_UNSET;
+    }
+
     private void doTimeShiftPause() {
         mHandler.removeMessages(MSG_TRICKPLAY_BY_SEEK);
         if (!hasEnoughBackwardBuffer()) {
             return;
         }
+        setKeyFrameOnlyRead(false);
         mPlaybackParams.setSpeed(1.0f);
         mPlayer.setPlayWhenReady(false);
         mPlayer.setAudioTrackAndClosedCaption(true);
@@ -1873,6 +1924,7 @@ public class TunerSessionWorkerExoV2 implements
 
     private void doTimeShiftResume() {
         mHandler.removeMessages(MSG_TRICKPLAY_BY_SEEK);
+        setKeyFrameOnlyRead(false);
         mPlaybackParams.setSpeed(1.0f);
         mPlayer.setPlayWhenReady(true);
         mPlayer.setAudioTrackAndClosedCaption(true);
@@ -1880,6 +1932,7 @@ public class TunerSessionWorkerExoV2 implements
 
     private void doTimeShiftSeekTo(long timeMs) {
         mHandler.removeMessages(MSG_TRICKPLAY_BY_SEEK);
+        setKeyFrameOnlyRead(false);
         mPlayer.seekTo((int) (timeMs - mRecordStartTimeMs));
     }
 
@@ -1896,6 +1949,7 @@ public class TunerSessionWorkerExoV2 implements
             if (!mHandler.hasMessages(MSG_TRICKPLAY_BY_SEEK)) {
                 mPlayer.setAudioTrackAndClosedCaption(false);
                 mPlayer.setPlayWhenReady(false);
+                setKeyFrameOnlyRead(true);
                 // Initiate trickplay
                 mHandler.sendMessage(
                         mHandler.obtainMessage(
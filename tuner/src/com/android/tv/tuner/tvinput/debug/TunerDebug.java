@@ -19,6 +19,10 @@ package com.android.tv.tuner.tvinput.debug;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 /** A class to maintain various debugging information. */
 public class TunerDebug {
     private static final String TAG = "TunerDebug";
@@ -40,6 +44,37 @@ public class TunerDebug {
     private long mAudioPtsUsRate;
     private long mVideoPtsUsRate;
 
+    private long mTimeToFirstSampleMs;
+
+    // Upper bounds of the buckets of the disk write bandwidth histogram in MBps. The last bucket
+    // has no upper bound.
+    private static final float[] WRITE_BANDWIDTH_BUCKET_BOUNDS_MBPS = {1, 2, 3, 6, 10, 20, 50};
+    private final int[] mWriteBandwidthHistogram =
+            new int[WRITE_BANDWIDTH_BUCKET_BOUNDS_MBPS.length + 1];
+    private float mWriteBandwidthMbps = -1.0f;
+
+    // The sample pools which are alive. Guarded by TunerDebug.class.
+    private final Set<SamplePoolStats> mSamplePools =
+            Collections.newSetFromMap(new WeakHashMap<>());
+
+    /** Counters of a sample pool. */
+    public interface SamplePoolStats {
+        /** Returns the number of acquisitions which were served by a pooled sample as it is. */
+        long getHitCount();
+
+        /** Returns the number of acquisitions which needed a newly allocated sample. */
+        long getMissCount();
+
+        /** Returns the number of acquisitions which were served by resizing a smaller sample. */
+        long getResizeCount();
+
+        /** Returns the number of released samples which were not kept by the pool. */
+        long getDiscardCount();
+
+        /** Returns the number of samples which are currently kept by the pool. */
+        int getRetainedCount();
+    }
+
     private TunerDebug() {
         mVideoFrameDrop = 0;
         mLastCheckTimestampMs = SystemClock.elapsedRealtime();
@@ -144,4 +179,117 @@ public class TunerDebug {
         TunerDebug sTunerDebug = getInstance();
         return sTunerDebug.mVideoPtsUsRate;
     }
+
+    public static void setTimeToFirstSampleMs(long timeToFirstSampleMs) {
+        TunerDebug sTunerDebug = getInstance();
+        sTunerDebug.mTimeToFirstSampleMs = timeToFirstSampleMs;
+    }
+
+    public static long getTimeToFirstSampleMs() {
+        TunerDebug sTunerDebug = getInstance();
+        return sTunerDebug.mTimeToFirstSampleMs;
+    }
+
+    /** Adds a sample pool whose counters are summed up by {@link #getSamplePoolStats()}. */
+    public static synchronized void addSamplePool(SamplePoolStats pool) {
+        getInstance().mSamplePools.add(pool);
+    }
+
+    /** Returns the sum of the counters of the sample pools which are alive. */
+    public static synchronized SamplePoolStats getSamplePoolStats() {
+        long hitCount = 0;
+        long missCount = 0;
+        long resizeCount = 0;
+        long discardCount = 0;
+        int retainedCount = 0;
+        for (SamplePoolStats pool : getInstance().mSamplePools) {
+            hitCount += pool.getHitCount();
+            missCount += pool.getMissCount();
+            resizeCount += pool.getResizeCount();
+            discardCount += pool.getDiscardCount();
+            retainedCount += pool.getRetainedCount();
+        }
+        return new SamplePoolStatsSnapshot(
+                hitCount, missCount, resizeCount, discardCount, retainedCount);
+    }
+
+    public static synchronized void addWriteBandwidthSample(float megabytePerSecond) {
+        if (megabytePerSecond < 0) {
+            return;
+        }
+        TunerDebug sTunerDebug = getInstance();
+        int bucket = 0;
+        while (bucket < WRITE_BANDWIDTH_BUCKET_BOUNDS_MBPS.length
+                && megabytePerSecond >= WRITE_BANDWIDTH_BUCKET_BOUNDS_MBPS[bucket]) {
+            ++bucket;
+        }
+        ++sTunerDebug.mWriteBandwidthHistogram[bucket];
+        sTunerDebug.mWriteBandwidthMbps = megabytePerSecond;
+    }
+
+    /** Returns the last measured disk write bandwidth in MBps, or -1 if not measured yet. */
+    public static synchronized float getWriteBandwidthMbps() {
+        TunerDebug sTunerDebug = getInstance();
+        return sTunerDebug.mWriteBandwidthMbps;
+    }
+
+    /**
+     * Returns the histogram of the measured disk write bandwidth. The i-th element is the count of
+     * the measurements below {@code getWriteBandwidthBucketBoundsMbps()[i]} and at or above the
+     * previous bound.
+     */
+    public static synchronized int[] getWriteBandwidthHistogram() {
+        TunerDebug sTunerDebug = getInstance();
+        return sTunerDebug.mWriteBandwidthHistogram.clone();
+    }
+
+    public static float[] getWriteBandwidthBucketBoundsMbps() {
+        return WRITE_BANDWIDTH_BUCKET_BOUNDS_MBPS.clone();
+    }
+
+    private static class SamplePoolStatsSnapshot implements SamplePoolStats {
+        private final long mHitCount;
+        private final long mMissCount;
+        private final long mResizeCount;
+        private final long mDiscardCount;
+        private final int mRetainedCount;
+
+        private SamplePoolStatsSnapshot(
+                long hitCount,
+                long missCount,
+                long resizeCount,
+                long discardCount,
+                int retainedCount) {
+            mHitCount = hitCount;
+            mMissCount = missCount;
+            mResizeCount = resizeCount;
+            mDiscardCount = discardCount;
+            mRetainedCount = retainedCount;
+        }
+
+        @Override
+        public long getHitCount() {
+            return mHitCount;
+        }
+
+        @Override
+        public long getMissCount() {
+            return mMissCount;
+        }
+
+        @Override
+        public long getResizeCount() {
+            return mResizeCount;
+        }
+
+        @Override
+        public long getDiscardCount() {
+            return mDiscardCount;
+        }
+
+        @Override
+        public int getRetainedCount() {
+            return mRetainedCount;
+        }
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.android.tv.tuner.util;
 
+import com.android.tv.tuner.tvinput.debug.TunerDebug;
+
 import java.util.Locale;
 
 /** Utility class for tuner status messages. */
@@ -96,6 +98,20 @@ public class StatusTextUtils {
         return buffer.toString();
     }
 
+    /** Returns the counters of the sample pools in HTML. */
+    public static String getSamplePoolStatusInHTML(TunerDebug.SamplePoolStats stats) {
+        return String.format(
+                Locale.US,
+                "<font color=%s>samplePool hit/miss/resize/discard: %d/%d/%d/%d, retained: %d"
+                        + "</font>\n",
+                COLOR_GRAY,
+                stats.getHitCount(),
+                stats.getMissCount(),
+                stats.getResizeCount(),
+                stats.getDiscardCount(),
+                stats.getRetainedCount());
+    }
+
     /** Returns audio unavailable warning message in HTML. */
     public static String getAudioWarningInHTML(String msg) {
         return String.format("<font color=%s>%s</font>\n", COLOR_YELLOW, msg);
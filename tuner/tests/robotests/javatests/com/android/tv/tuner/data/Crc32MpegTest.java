@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Tests for {@link Crc32Mpeg}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class Crc32MpegTest {
+
+    @Test
+    public void compute_checkValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertThat(Crc32Mpeg.compute(data, 0, data.length)).isEqualTo(0x0376e6e7);
+    }
+
+    @Test
+    public void compute_sameAsByteWise() {
+        Random random = new Random(0);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        for (int i = 0; i < 1000; ++i) {
+            int offset = random.nextInt(64);
+            int length = random.nextInt(data.length - offset);
+            assertThat(Crc32Mpeg.compute(data, offset, length))
+                    .isEqualTo(computeByteWise(data, offset, length));
+        }
+    }
+
+    private static int computeByteWise(byte[] data, int offset, int length) {
+        int crc = 0xffffffff;
+        for (int i = offset; i < offset + length; ++i) {
+            int index = ((crc >> 24) ^ (data[i] & 0xff)) & 0xff;
+            crc = SectionParser.CRC_TABLE[index] ^ (crc << 8);
+        }
+        return crc;
+    }
+}
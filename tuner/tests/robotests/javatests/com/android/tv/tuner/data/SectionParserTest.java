@@ -20,10 +20,18 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
 import com.android.tv.testing.constants.ConfigConstants;
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
 import com.android.tv.tuner.data.PsipData.ContentAdvisoryDescriptor;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.EttItem;
+import com.android.tv.tuner.data.PsipData.MgtItem;
 import com.android.tv.tuner.data.PsipData.RatingRegion;
 import com.android.tv.tuner.data.PsipData.RegionalRating;
+import com.android.tv.tuner.data.PsipData.SdtItem;
 import com.android.tv.tuner.data.PsipData.TsDescriptor;
+import com.android.tv.tuner.data.PsipData.VctItem;
+import com.android.tv.tuner.util.ByteArrayBuffer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -158,6 +166,79 @@ public class SectionParserTest {
                 .isEqualTo("com.android.tv/US_MV/US_MV_R,com.android.tv/US_TV/US_TV_MA");
     }
 
+    @Test
+    public void testParseSections_repeatedSections() {
+        PatCounter counter = new PatCounter();
+        SectionParser parser = new SectionParser(counter);
+        for (int i = 0; i < 3; ++i) {
+            parser.parseSections(createPatSection(0));
+        }
+        assertThat(counter.mPatCount).isEqualTo(1);
+
+        parser.parseSections(createPatSection(1));
+        assertThat(counter.mPatCount).isEqualTo(2);
+
+        parser.resetVersionNumbers();
+        parser.parseSections(createPatSection(1));
+        assertThat(counter.mPatCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testParseSections_badCrc() {
+        PatCounter counter = new PatCounter();
+        SectionParser parser = new SectionParser(counter);
+        ByteArrayBuffer section = createPatSection(0);
+        section.buffer()[section.length() - 1] ^= 0x01;
+        parser.parseSections(section);
+        assertThat(counter.mPatCount).isEqualTo(0);
+    }
+
+    private static ByteArrayBuffer createPatSection(int version) {
+        byte[] data = {
+            0x00, // table_id
+            (byte) 0xb0, 0x0d, // section_syntax_indicator, section_length
+            0x00, 0x01, // transport_stream_id
+            (byte) (0xc1 | version << 1), // version_number, current_next_indicator
+            0x00, 0x00, // section_number, last_section_number
+            0x00, 0x03, (byte) 0xe0, 0x30, // program_number, program_map_PID
+            0x00, 0x00, 0x00, 0x00 // CRC_32
+        };
+        int crc = Crc32Mpeg.compute(data, 0, data.length - 4);
+        for (int i = 0; i < 4; ++i) {
+            data[data.length - 4 + i] = (byte) (crc >>> (24 - i * 8));
+        }
+        ByteArrayBuffer buffer = new ByteArrayBuffer(data.length);
+        buffer.append(data, 0, data.length);
+        return buffer;
+    }
+
+    private static class PatCounter implements SectionParser.OutputListener {
+        private int mPatCount;
+
+        @Override
+        public void onPatParsed(List<PatItem> items) {
+            ++mPatCount;
+        }
+
+        @Override
+        public void onPmtParsed(int programNumber, List<PmtItem> items) {}
+
+        @Override
+        public void onMgtParsed(List<MgtItem> items) {}
+
+        @Override
+        public void onVctParsed(List<VctItem> items, int sectionNumber, int lastSectionNumber) {}
+
+        @Override
+        public void onEitParsed(int sourceId, List<EitItem> items) {}
+
+        @Override
+        public void onEttParsed(int sourceId, List<EttItem> descriptions) {}
+
+        @Override
+        public void onSdtParsed(List<SdtItem> items) {}
+    }
+
     private static RatingRegion createRatingRegionForTest(String values, int region) {
         String[] valueArray = values.split(" ");
         List<RegionalRating> regionalRatings = new ArrayList<>();
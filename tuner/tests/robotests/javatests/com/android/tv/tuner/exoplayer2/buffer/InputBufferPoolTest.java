@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link InputBufferPool}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class InputBufferPoolTest {
+
+    @Test
+    public void acquireSample_sufficientCapacity() {
+        InputBufferPool pool = new InputBufferPool();
+        for (int size : new int[] {0, 1, 188, 1000, 65537, 1024 * 1024 + 1, 20 * 1024 * 1024}) {
+            DecoderInputBuffer sample = pool.acquireSample(size);
+            assertThat(sample.data.capacity()).isAtLeast(size);
+            pool.releaseSample(sample);
+        }
+    }
+
+    @Test
+    public void acquireSample_reusesReleasedSample() {
+        InputBufferPool pool = new InputBufferPool();
+        DecoderInputBuffer sample = pool.acquireSample(10000);
+        pool.releaseSample(sample);
+
+        assertThat(pool.acquireSample(9000)).isSameAs(sample);
+        assertThat(pool.getHitCount()).isEqualTo(1);
+        assertThat(pool.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquireSample_resizesSmallerSample() {
+        InputBufferPool pool = new InputBufferPool();
+        DecoderInputBuffer sample = pool.acquireSample(1000);
+        pool.releaseSample(sample);
+
+        DecoderInputBuffer resized = pool.acquireSample(100000);
+        assertThat(resized).isSameAs(sample);
+        assertThat(resized.data.capacity()).isAtLeast(100000);
+        assertThat(pool.getResizeCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void releaseSample_boundedRetention() {
+        InputBufferPool pool = new InputBufferPool(2);
+        DecoderInputBuffer[] samples = new DecoderInputBuffer[5];
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = pool.acquireSample(4096);
+        }
+        for (DecoderInputBuffer sample : samples) {
+            pool.releaseSample(sample);
+        }
+
+        assertThat(pool.getRetainedCount()).isEqualTo(2);
+        assertThat(pool.getDiscardCount()).isEqualTo(3);
+    }
+}
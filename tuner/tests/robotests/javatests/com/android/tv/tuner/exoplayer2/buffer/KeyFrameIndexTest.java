@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link KeyFrameIndex}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class KeyFrameIndexTest {
+    private final KeyFrameIndex mIndex = new KeyFrameIndex();
+
+    @Before
+    public void setUp() {
+        // Two chunks starting at 0 and 1000000 with a key frame every 400ms.
+        for (int i = 0; i < 1000; ++i) {
+            long positionUs = i * 400_000L;
+            long chunkPositionUs = positionUs < 1_000_000L ? 0 : 1_000_000L;
+            assertThat(mIndex.add(positionUs, chunkPositionUs, i * 100)).isTrue();
+        }
+    }
+
+    @Test
+    public void add_ignoresOutOfOrder() {
+        assertThat(mIndex.add(0, 0, 0)).isFalse();
+        assertThat(mIndex.size()).isEqualTo(1000);
+    }
+
+    @Test
+    public void getKeyFramePositionUs() {
+        assertThat(mIndex.getKeyFramePositionUs(500_000L, false)).isEqualTo(400_000L);
+        assertThat(mIndex.getKeyFramePositionUs(500_000L, true)).isEqualTo(800_000L);
+        assertThat(mIndex.getKeyFramePositionUs(800_000L, false)).isEqualTo(800_000L);
+        assertThat(mIndex.getKeyFramePositionUs(800_000L, true)).isEqualTo(800_000L);
+        assertThat(mIndex.getKeyFramePositionUs(-1, false)).isEqualTo(C.TIME_UNSET);
+        assertThat(mIndex.getKeyFramePositionUs(999 * 400_000L + 1, true))
+                .isEqualTo(C.TIME_UNSET);
+    }
+
+    @Test
+    public void getKeyFrameAtOrBefore() {
+        BufferManager.PositionHolder keyFrame = mIndex.getKeyFrameAtOrBefore(1_300_000L);
+        assertThat(keyFrame.positionUs).isEqualTo(1_200_000L);
+        assertThat(keyFrame.basePositionUs).isEqualTo(1_000_000L);
+        assertThat(keyFrame.offset).isEqualTo(300);
+    }
+
+    @Test
+    public void removeChunksUpTo() {
+        mIndex.removeChunksUpTo(0);
+
+        assertThat(mIndex.size()).isEqualTo(997);
+        assertThat(mIndex.getKeyFramePositionUs(0, true)).isEqualTo(1_200_000L);
+        assertThat(mIndex.getKeyFrameAtOrBefore(800_000L)).isNull();
+    }
+}
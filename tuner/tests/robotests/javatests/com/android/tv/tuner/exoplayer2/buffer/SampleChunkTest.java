@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/** Tests for {@link SampleChunk}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class SampleChunkTest {
+    private static final int SAMPLE_COUNT = 100;
+    // Every tenth sample is larger than the read-ahead window.
+    private static final int LARGE_SAMPLE_SIZE = 400 * 1024;
+    private static final int SMALL_SAMPLE_SIZE = 4 * 1024;
+
+    private final InputBufferPool mInputBufferPool = new InputBufferPool();
+    private final SampleChunk.ChunkCallback mChunkCallback = new SampleChunk.ChunkCallback() {};
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("sample_chunk", ".tmp");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        byte[][] payloads = createPayloads();
+        SampleChunk chunk = new SampleChunk(mInputBufferPool, mFile, 0, 0, mChunkCallback);
+        SampleChunk.IoState writeState = new SampleChunk.IoState();
+        writeState.openWrite(chunk);
+        for (int i = 0; i < SAMPLE_COUNT; ++i) {
+            writeState.write(createSample(i, payloads[i]), null);
+        }
+        writeState.closeWrite();
+
+        assertSamples(chunk, payloads);
+    }
+
+    @Test
+    public void read_legacyFormat() throws IOException {
+        byte[][] payloads = createPayloads();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            for (int i = 0; i < SAMPLE_COUNT; ++i) {
+                file.writeInt(payloads[i].length);
+                file.writeInt(isKeyFrame(i) ? 1 : 0);
+                file.writeLong(getTimeUs(i));
+                file.write(payloads[i]);
+            }
+        }
+        SampleChunk chunk =
+                new SampleChunk.SampleChunkCreator()
+                        .loadSampleChunkFromFile(
+                                mInputBufferPool,
+                                mFile.getParentFile(),
+                                mFile.getName(),
+                                0,
+                                mChunkCallback,
+                                null);
+
+        assertSamples(chunk, payloads);
+    }
+
+    private void assertSamples(SampleChunk chunk, byte[][] payloads) throws IOException {
+        SampleChunk.IoState readState = new SampleChunk.IoState();
+        readState.openRead(chunk, 0);
+        for (int i = 0; i < SAMPLE_COUNT; ++i) {
+            DecoderInputBuffer sample = readState.read();
+            assertThat(sample).isNotNull();
+            assertThat(sample.timeUs).isEqualTo(getTimeUs(i));
+            assertThat(sample.isKeyFrame()).isEqualTo(isKeyFrame(i));
+            sample.data.flip();
+            byte[] payload = new byte[sample.data.remaining()];
+            sample.data.get(payload);
+            assertThat(payload).isEqualTo(payloads[i]);
+            mInputBufferPool.releaseSample(sample);
+        }
+        assertThat(readState.read()).isNull();
+        assertThat(readState.isReadFinished()).isTrue();
+    }
+
+    private static byte[][] createPayloads() {
+        Random random = new Random(0);
+        byte[][] payloads = new byte[SAMPLE_COUNT][];
+        for (int i = 0; i < SAMPLE_COUNT; ++i) {
+            payloads[i] = new byte[isKeyFrame(i) ? LARGE_SAMPLE_SIZE : SMALL_SAMPLE_SIZE + i];
+            random.nextBytes(payloads[i]);
+        }
+        return payloads;
+    }
+
+    private static DecoderInputBuffer createSample(int index, byte[] payload) {
+        DecoderInputBuffer sample =
+                new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(payload.length);
+        sample.data.put(payload);
+        sample.timeUs = getTimeUs(index);
+        sample.setFlags(isKeyFrame(index) ? C.BUFFER_FLAG_KEY_FRAME : 0);
+        return sample;
+    }
+
+    private static boolean isKeyFrame(int index) {
+        return index % 10 == 0;
+    }
+
+    private static long getTimeUs(int index) {
+        return index * 33_000L;
+    }
+}
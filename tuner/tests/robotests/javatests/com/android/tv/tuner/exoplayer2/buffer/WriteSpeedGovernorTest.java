@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer2.buffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link WriteSpeedGovernor}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class WriteSpeedGovernorTest {
+    private static final float FAST_MBPS = 20.0f;
+    private static final float SLOW_MBPS = 1.0f;
+
+    private final WriteSpeedGovernor mGovernor = new WriteSpeedGovernor();
+
+    @Test
+    public void slowStorage_degradesStepByStep() {
+        addWindows(
+                WriteSpeedGovernor.WINDOW_COUNT + WriteSpeedGovernor.DEGRADE_WINDOW_COUNT - 2,
+                SLOW_MBPS);
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_NORMAL);
+        assertThat(mGovernor.pollLevelChange()).isFalse();
+
+        addWindows(1, SLOW_MBPS);
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_REDUCED_BUFFER);
+        assertThat(mGovernor.pollLevelChange()).isTrue();
+        assertThat(mGovernor.pollLevelChange()).isFalse();
+
+        // The measurement starts over at the new level.
+        addWindows(
+                WriteSpeedGovernor.WINDOW_COUNT + WriteSpeedGovernor.DEGRADE_WINDOW_COUNT - 2,
+                SLOW_MBPS);
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_REDUCED_BUFFER);
+        addWindows(1, SLOW_MBPS);
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_MEMORY_ONLY);
+        assertThat(mGovernor.pollLevelChange()).isTrue();
+    }
+
+    @Test
+    public void temporaryStall_keepsLevel() {
+        addWindows(WriteSpeedGovernor.WINDOW_COUNT, FAST_MBPS);
+        addWindows(1, SLOW_MBPS);
+        addWindows(WriteSpeedGovernor.WINDOW_COUNT, FAST_MBPS);
+
+        assertThat(mGovernor.hasEvaluated()).isTrue();
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_NORMAL);
+        assertThat(mGovernor.pollLevelChange()).isFalse();
+    }
+
+    @Test
+    public void fastStorage_recoversFromReducedBuffer() {
+        addWindows(
+                WriteSpeedGovernor.WINDOW_COUNT + WriteSpeedGovernor.DEGRADE_WINDOW_COUNT - 1,
+                SLOW_MBPS);
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_REDUCED_BUFFER);
+        mGovernor.pollLevelChange();
+
+        addWindows(
+                WriteSpeedGovernor.WINDOW_COUNT + WriteSpeedGovernor.RECOVER_WINDOW_COUNT - 2,
+                FAST_MBPS);
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_REDUCED_BUFFER);
+        addWindows(1, FAST_MBPS);
+
+        assertThat(mGovernor.getLevel()).isEqualTo(WriteSpeedGovernor.LEVEL_NORMAL);
+        assertThat(mGovernor.pollLevelChange()).isTrue();
+    }
+
+    @Test
+    public void addWriteStat_ignoresSmallSamples() {
+        for (int i = 0; i < 10000; ++i) {
+            mGovernor.addWriteStat(1024, 1_000_000_000L);
+        }
+
+        assertThat(mGovernor.hasEvaluated()).isFalse();
+        assertThat(mGovernor.getBandwidthMbps()).isEqualTo(-1.0f);
+    }
+
+    private void addWindows(int count, float megabytePerSecond) {
+        long size = WriteSpeedGovernor.WINDOW_SIZE_BYTES;
+        for (int i = 0; i < count; ++i) {
+            mGovernor.addWriteStat(size, (long) (size * 1000 / megabytePerSecond));
+        }
+    }
+}
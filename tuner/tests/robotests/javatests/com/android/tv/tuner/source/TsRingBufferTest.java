@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tv.testing.constants.ConfigConstants;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link TsRingBuffer}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class TsRingBufferTest {
+    private static final int CAPACITY = 1000;
+
+    private final TsRingBuffer mRingBuffer = new TsRingBuffer(CAPACITY);
+
+    @Before
+    public void setUp() {
+        mRingBuffer.open();
+    }
+
+    @Test
+    public void read_wrapsAround() {
+        TsRingBuffer.Reader reader = mRingBuffer.createReader();
+        byte[] buffer = new byte[300];
+        for (int i = 0; i < 10; ++i) {
+            mRingBuffer.write(createData(i * 300, 300), 0, 300);
+
+            assertThat(reader.read(buffer, 0, 300)).isEqualTo(300);
+            assertThat(buffer).isEqualTo(createData(i * 300, 300));
+        }
+        assertThat(reader.getPosition()).isEqualTo(3000);
+        assertThat(reader.getOverrunCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void read_independentReaders() {
+        TsRingBuffer.Reader fastReader = mRingBuffer.createReader();
+        TsRingBuffer.Reader slowReader = mRingBuffer.createReader();
+        byte[] buffer = new byte[400];
+        mRingBuffer.write(createData(0, 400), 0, 400);
+        assertThat(fastReader.read(buffer, 0, 400)).isEqualTo(400);
+        mRingBuffer.write(createData(400, 400), 0, 400);
+        assertThat(fastReader.read(buffer, 0, 400)).isEqualTo(400);
+        mRingBuffer.write(createData(800, 400), 0, 400);
+        assertThat(fastReader.read(buffer, 0, 400)).isEqualTo(400);
+
+        assertThat(slowReader.read(buffer, 0, 400))
+                .isEqualTo(TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN);
+        assertThat(slowReader.getOverrunCount()).isEqualTo(1);
+        assertThat(fastReader.getOverrunCount()).isEqualTo(0);
+
+        slowReader.seekTo(400);
+        assertThat(slowReader.read(buffer, 0, 400)).isEqualTo(400);
+        assertThat(buffer).isEqualTo(createData(400, 400));
+    }
+
+    @Test
+    public void read_afterClose() {
+        TsRingBuffer.Reader reader = mRingBuffer.createReader();
+        mRingBuffer.close();
+
+        assertThat(reader.read(new byte[1], 0, 1))
+                .isEqualTo(TsRingBuffer.READ_ERROR_STREAMING_ENDED);
+    }
+
+    @Test
+    public void close_notifiesDataAvailable() {
+        // A reader without a listener is skipped.
+        mRingBuffer.createReader();
+        TsRingBuffer.Reader reader = mRingBuffer.createReader();
+        int[] notifiedCount = new int[1];
+        reader.setOnDataAvailableListener(() -> ++notifiedCount[0]);
+
+        // The data isn't demuxed yet when it's written, so writes don't notify.
+        mRingBuffer.write(createData(0, 100), 0, 100);
+        assertThat(notifiedCount[0]).isEqualTo(0);
+
+        mRingBuffer.close();
+        assertThat(notifiedCount[0]).isEqualTo(1);
+
+        reader.setOnDataAvailableListener(null);
+        mRingBuffer.open();
+        mRingBuffer.close();
+        assertThat(notifiedCount[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void read_concurrentWriterNeverTears() throws InterruptedException {
+        // Each block is filled with its index, so a copy mixing two writes has different bytes.
+        // The buffer holds only three blocks, and readers go back to the oldest block after an
+        // overrun, so that the writer often overwrites the range being copied.
+        int blockSize = 100;
+        int blockCount = 200000;
+        TsRingBuffer ringBuffer = new TsRingBuffer(blockSize * 3);
+        ringBuffer.open();
+        AtomicLong successCount = new AtomicLong();
+        AtomicLong tornCount = new AtomicLong();
+        Thread[] readerThreads = new Thread[2];
+        for (int i = 0; i < readerThreads.length; ++i) {
+            TsRingBuffer.Reader reader = ringBuffer.createReader();
+            readerThreads[i] =
+                    new Thread(
+                            () ->
+                                    readBlocks(
+                                            ringBuffer, reader, blockSize, successCount, tornCount));
+            readerThreads[i].start();
+        }
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < blockCount; ++i) {
+            Arrays.fill(block, (byte) i);
+            ringBuffer.write(block, 0, blockSize);
+        }
+        ringBuffer.close();
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+
+        assertThat(tornCount.get()).isEqualTo(0);
+        assertThat(successCount.get()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void releaseReader() {
+        TsRingBuffer.Reader reader = mRingBuffer.createReader();
+        mRingBuffer.releaseReader(reader);
+
+        assertThat(mRingBuffer.getReaders()).isEmpty();
+    }
+
+    private static void readBlocks(
+            TsRingBuffer ringBuffer,
+            TsRingBuffer.Reader reader,
+            int blockSize,
+            AtomicLong successCount,
+            AtomicLong tornCount) {
+        byte[] buffer = new byte[blockSize];
+        while (true) {
+            long position = reader.getPosition();
+            int result = reader.read(buffer, 0, blockSize);
+            if (result == TsRingBuffer.READ_ERROR_STREAMING_ENDED) {
+                return;
+            } else if (result == TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN) {
+                long writePosition = ringBuffer.getWritePosition();
+                long oldestBlock = writePosition - writePosition % blockSize - blockSize * 2;
+                reader.seekTo(Math.max(0, oldestBlock));
+                continue;
+            }
+            byte expected = (byte) (position / blockSize);
+            for (byte b : buffer) {
+                if (b != expected) {
+                    tornCount.incrementAndGet();
+                    break;
+                }
+            }
+            successCount.incrementAndGet();
+        }
+    }
+
+    private static byte[] createData(int position, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (position + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.ts;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import com.android.tv.testing.constants.ConfigConstants;
+import com.android.tv.tuner.data.Crc32Mpeg;
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.SdtItem;
+import com.android.tv.tuner.data.PsipData.VctItem;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/** Tests for {@link TsParser}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = ConfigConstants.SDK)
+public class TsParserTest {
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int PMT_PID = 0x30;
+    private static final int VIDEO_PID = 0x31;
+    private static final int PROGRAM_NUMBER = 3;
+    // PAT and PMT are repeated every 10 video packets like a recorded stream.
+    private static final int VIDEO_PACKETS_PER_TABLE = 10;
+    private static final int REPETITION_COUNT = 100;
+    private static final int MEASUREMENT_COUNT = 10;
+
+    private static final byte[] PAT_SECTION = {
+        0x00, // table_id
+        (byte) 0xb0, 0x0d, // section_syntax_indicator, section_length
+        0x00, 0x01, // transport_stream_id
+        (byte) 0xc1, // version_number, current_next_indicator
+        0x00, 0x00, // section_number, last_section_number
+        0x00, PROGRAM_NUMBER, (byte) 0xe0, PMT_PID // program_number, program_map_PID
+    };
+
+    private static final byte[] PMT_SECTION = {
+        0x02, // table_id
+        (byte) 0xb0, 0x12, // section_syntax_indicator, section_length
+        0x00, PROGRAM_NUMBER, // program_number
+        (byte) 0xc1, // version_number, current_next_indicator
+        0x00, 0x00, // section_number, last_section_number
+        (byte) 0xe0, VIDEO_PID, // PCR_PID
+        (byte) 0xf0, 0x00, // program_info_length
+        0x02, (byte) 0xe0, VIDEO_PID, (byte) 0xf0, 0x00 // stream_type, elementary_PID
+    };
+
+    @Test
+    public void feedTSData_parsesTables() {
+        TableCounter counter = new TableCounter();
+        TsParser parser = new TsParser(counter, false);
+        byte[] stream = createStream();
+        parser.feedTSData(stream, 0, stream.length);
+
+        assertThat(counter.mPatCount).isEqualTo(1);
+        assertThat(parser.getMalFormedChannels()).hasSize(1);
+    }
+
+    @Test
+    public void feedTSData_noAllocationsInSteadyState() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationCounter =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(allocationCounter.isThreadAllocatedMemorySupported());
+        allocationCounter.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        byte[] stream = createStream();
+        TsParser parser = new TsParser(new TableCounter(), false);
+        // Warms up the parser, which parses the tables for the first time.
+        parser.feedTSData(stream, 0, stream.length);
+
+        long overhead = Long.MAX_VALUE;
+        long allocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < MEASUREMENT_COUNT; ++i) {
+            // Measures the allocations of the counter itself.
+            long startBytes = allocationCounter.getThreadAllocatedBytes(threadId);
+            overhead =
+                    Math.min(
+                            overhead,
+                            allocationCounter.getThreadAllocatedBytes(threadId) - startBytes);
+            startBytes = allocationCounter.getThreadAllocatedBytes(threadId);
+            parser.feedTSData(stream, 0, stream.length);
+            allocatedBytes =
+                    Math.min(
+                            allocatedBytes,
+                            allocationCounter.getThreadAllocatedBytes(threadId) - startBytes);
+        }
+        assertThat(allocatedBytes - overhead).isEqualTo(0);
+    }
+
+    private static byte[] createStream() {
+        int packetsPerRepetition = VIDEO_PACKETS_PER_TABLE + 2;
+        byte[] stream = new byte[packetsPerRepetition * REPETITION_COUNT * TS_PACKET_SIZE];
+        byte[] pat = withCrc(PAT_SECTION);
+        byte[] pmt = withCrc(PMT_SECTION);
+        int pos = 0;
+        for (int i = 0; i < REPETITION_COUNT; ++i) {
+            writeSectionPacket(stream, pos, TsParser.PAT_PID, i, pat);
+            pos += TS_PACKET_SIZE;
+            writeSectionPacket(stream, pos, PMT_PID, i, pmt);
+            pos += TS_PACKET_SIZE;
+            for (int j = 0; j < VIDEO_PACKETS_PER_TABLE; ++j) {
+                writePacketHeader(
+                        stream, pos, VIDEO_PID, i * VIDEO_PACKETS_PER_TABLE + j, false);
+                pos += TS_PACKET_SIZE;
+            }
+        }
+        return stream;
+    }
+
+    private static void writeSectionPacket(
+            byte[] stream, int pos, int pid, int continuityCounter, byte[] section) {
+        writePacketHeader(stream, pos, pid, continuityCounter, true);
+        Arrays.fill(stream, pos + 4, pos + TS_PACKET_SIZE, (byte) 0xff);
+        stream[pos + 4] = 0x00; // pointer_field
+        System.arraycopy(section, 0, stream, pos + 5, section.length);
+    }
+
+    private static void writePacketHeader(
+            byte[] stream, int pos, int pid, int continuityCounter, boolean startIndicator) {
+        stream[pos] = 0x47;
+        stream[pos + 1] = (byte) ((startIndicator ? 0x40 : 0x00) | (pid >> 8));
+        stream[pos + 2] = (byte) pid;
+        stream[pos + 3] = (byte) (0x10 | (continuityCounter & 0x0f));
+    }
+
+    private static byte[] withCrc(byte[] section) {
+        byte[] data = Arrays.copyOf(section, section.length + 4);
+        int crc = Crc32Mpeg.compute(section, 0, section.length);
+        for (int i = 0; i < 4; ++i) {
+            data[section.length + i] = (byte) (crc >>> (24 - i * 8));
+        }
+        return data;
+    }
+
+    private static class TableCounter implements TsParser.TsOutputListener {
+        private int mPatCount;
+
+        @Override
+        public void onPatDetected(List<PatItem> items) {
+            ++mPatCount;
+        }
+
+        @Override
+        public void onEitPidDetected(int pid) {}
+
+        @Override
+        public void onVctItemParsed(VctItem channel, List<PmtItem> pmtItems) {}
+
+        @Override
+        public void onEitItemParsed(VctItem channel, List<EitItem> items) {}
+
+        @Override
+        public void onEttPidDetected(int pid) {}
+
+        @Override
+        public void onAllVctItemsParsed() {}
+
+        @Override
+        public void onSdtItemParsed(SdtItem channel, List<PmtItem> pmtItems) {}
+    }
+}
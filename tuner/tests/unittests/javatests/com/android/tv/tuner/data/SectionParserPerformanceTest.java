@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.data;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.SdtItem;
+import com.android.tv.tuner.data.PsipData.VctItem;
+import com.android.tv.tuner.ts.TsParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/** Measures the PSIP section parsing with a captured ATSC stream. */
+@LargeTest
+public class SectionParserPerformanceTest extends InstrumentationTestCase {
+    private static final String TAG = "SectionParserPerfTest";
+    private static final String TEST_TS_FILE_PATH = "capture_kqed.ts";
+    private static final int READ_BUFFER_SIZE = 1024 * 512;
+    private static final int WARM_UP_ITERATION_COUNT = 2;
+    private static final int TEST_ITERATION_COUNT = 10;
+    private static final int MAX_SECTION_LENGTH = 4096;
+
+    private byte[] mStream;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStream = readAsset(TEST_TS_FILE_PATH);
+    }
+
+    public void testParseCapturedStream() {
+        for (int i = 0; i < WARM_UP_ITERATION_COUNT; ++i) {
+            parseStream();
+        }
+        long startTimeMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < TEST_ITERATION_COUNT; ++i) {
+            parseStream();
+        }
+        long elapsedTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+        Log.i(
+                TAG,
+                "Parsed "
+                        + mStream.length
+                        + " bytes in "
+                        + (double) elapsedTimeMs / TEST_ITERATION_COUNT
+                        + " ms on average");
+    }
+
+    public void testCrc() {
+        int crc = 0;
+        int byteWiseCrc = 0;
+        for (int i = 0; i < WARM_UP_ITERATION_COUNT; ++i) {
+            computeCrcs(false);
+            computeCrcs(true);
+        }
+        long startTimeMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < TEST_ITERATION_COUNT; ++i) {
+            crc ^= computeCrcs(false);
+        }
+        long sliceByEightTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+        startTimeMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < TEST_ITERATION_COUNT; ++i) {
+            byteWiseCrc ^= computeCrcs(true);
+        }
+        long byteWiseTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+        assertEquals(byteWiseCrc, crc);
+        Log.i(
+                TAG,
+                "CRC slice-by-8: "
+                        + sliceByEightTimeMs
+                        + " ms, byte-wise: "
+                        + byteWiseTimeMs
+                        + " ms");
+    }
+
+    private void parseStream() {
+        TsParser parser = new TsParser(new NullTsOutputListener(), false);
+        parser.feedTSData(mStream, 0, mStream.length);
+    }
+
+    /** Computes the CRCs of the stream split into the largest sections. */
+    private int computeCrcs(boolean byteWise) {
+        int result = 0;
+        for (int pos = 0; pos < mStream.length; pos += MAX_SECTION_LENGTH) {
+            int length = Math.min(MAX_SECTION_LENGTH, mStream.length - pos);
+            result ^=
+                    byteWise
+                            ? computeCrcByteWise(mStream, pos, length)
+                            : Crc32Mpeg.compute(mStream, pos, length);
+        }
+        return result;
+    }
+
+    private static int computeCrcByteWise(byte[] data, int offset, int length) {
+        int crc = 0xffffffff;
+        for (int i = offset; i < offset + length; ++i) {
+            int index = ((crc >> 24) ^ (data[i] & 0xff)) & 0xff;
+            crc = SectionParser.CRC_TABLE[index] ^ (crc << 8);
+        }
+        return crc;
+    }
+
+    private byte[] readAsset(String filename) throws IOException {
+        try (InputStream inputStream =
+                getInstrumentation().getContext().getResources().getAssets().open(filename)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static class NullTsOutputListener implements TsParser.TsOutputListener {
+        @Override
+        public void onPatDetected(List<PatItem> items) {}
+
+        @Override
+        public void onEitPidDetected(int pid) {}
+
+        @Override
+        public void onVctItemParsed(VctItem channel, List<PmtItem> pmtItems) {}
+
+        @Override
+        public void onEitItemParsed(VctItem channel, List<EitItem> items) {}
+
+        @Override
+        public void onEttPidDetected(int pid) {}
+
+        @Override
+        public void onAllVctItemsParsed() {}
+
+        @Override
+        public void onSdtItemParsed(SdtItem channel, List<PmtItem> pmtItems) {}
+    }
+}